@@ -0,0 +1,34 @@
+package com.ilubov.hikvision.config;
+
+import com.ilubov.hikvision.util.BufferPool;
+import com.ilubov.hikvision.util.NativeBufferPool;
+import com.ilubov.hikvision.vo.HkBufferPoolParam;
+import com.ilubov.hikvision.vo.HkCaptureParam;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 图片缓冲池和抓拍缓冲区
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Configuration
+public class HkBufferPoolConfig {
+
+    @Bean
+    public BufferPool bufferPool(HkCameraProperty property) {
+        HkBufferPoolParam param = property.getBufferPool();
+        return new BufferPool(param.getMinSize(), param.getMaxSize(), param.getMaxRetainedBytes(), param.isLeakDetection());
+    }
+
+    /**
+     * 全彩摄像头抓拍缓冲区, 关闭时释放空闲的native内存
+     */
+    @Bean(destroyMethod = "clear")
+    public NativeBufferPool nativeBufferPool(HkCameraProperty property) {
+        HkCaptureParam param = property.getCapture();
+        return new NativeBufferPool(param.getBufferInitialBytes(), param.getBufferMaxBytes(),
+                param.getBufferShrinkAfter(), param.getBufferMaxTotalBytes());
+    }
+}
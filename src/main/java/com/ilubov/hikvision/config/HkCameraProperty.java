@@ -1,6 +1,25 @@
 package com.ilubov.hikvision.config;
 
+import com.ilubov.hikvision.vo.HkAlarmQueueParam;
+import com.ilubov.hikvision.vo.HkAlarmWatchdogParam;
+import com.ilubov.hikvision.vo.HkBufferPoolParam;
 import com.ilubov.hikvision.vo.HkCameraParam;
+import com.ilubov.hikvision.vo.HkCaptureParam;
+import com.ilubov.hikvision.vo.HkClipParam;
+import com.ilubov.hikvision.vo.HkDedupParam;
+import com.ilubov.hikvision.vo.HkDownloadParam;
+import com.ilubov.hikvision.vo.HkEventStoreParam;
+import com.ilubov.hikvision.vo.HkEventStreamParam;
+import com.ilubov.hikvision.vo.HkFlvRelayParam;
+import com.ilubov.hikvision.vo.HkImageWriterParam;
+import com.ilubov.hikvision.vo.HkKeyframeParam;
+import com.ilubov.hikvision.vo.HkLiveViewParam;
+import com.ilubov.hikvision.vo.HkPlateIndexParam;
+import com.ilubov.hikvision.vo.HkRealPlayParam;
+import com.ilubov.hikvision.vo.HkRecordIndexParam;
+import com.ilubov.hikvision.vo.HkSessionParam;
+import com.ilubov.hikvision.vo.HkSnapshotParam;
+import com.ilubov.hikvision.vo.HkWatchlistParam;
 import io.swagger.annotations.ApiModelProperty;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -22,12 +41,75 @@ public class HkCameraProperty {
     @ApiModelProperty("加载文件路径")
     private String sdkPath;
 
+    @ApiModelProperty("SDK加载或初始化失败后的重试间隔(毫秒)")
+    private long sdkRetryMs = 30000;
+
     @ApiModelProperty("保存图片路径")
     private String imgPath;
 
     @ApiModelProperty("车牌摄像头")
     private HkCameraParam plateNumber;
 
+    @ApiModelProperty("车牌摄像头, 多车道")
+    private List<HkCameraParam> plateNumbers;
+
     @ApiModelProperty("全彩摄像头")
     private List<HkCameraParam> camera;
+
+    @ApiModelProperty("报警回调队列")
+    private HkAlarmQueueParam alarmQueue = new HkAlarmQueueParam();
+
+    @ApiModelProperty("图片缓冲池")
+    private HkBufferPoolParam bufferPool = new HkBufferPoolParam();
+
+    @ApiModelProperty("图片写入")
+    private HkImageWriterParam imageWriter = new HkImageWriterParam();
+
+    @ApiModelProperty("全彩摄像头拍照")
+    private HkCaptureParam capture = new HkCaptureParam();
+
+    @ApiModelProperty("设备登录会话")
+    private HkSessionParam session = new HkSessionParam();
+
+    @ApiModelProperty("报警回调健康检查")
+    private HkAlarmWatchdogParam alarmWatchdog = new HkAlarmWatchdogParam();
+
+    @ApiModelProperty("车牌事件推送")
+    private HkEventStreamParam eventStream = new HkEventStreamParam();
+
+    @ApiModelProperty("车牌事件存储")
+    private HkEventStoreParam eventStore = new HkEventStoreParam();
+
+    @ApiModelProperty("车牌检索")
+    private HkPlateIndexParam plateIndex = new HkPlateIndexParam();
+
+    @ApiModelProperty("车牌布控")
+    private HkWatchlistParam watchlist = new HkWatchlistParam();
+
+    @ApiModelProperty("重复过车去重")
+    private HkDedupParam dedup = new HkDedupParam();
+
+    @ApiModelProperty("全彩摄像头定时拍照")
+    private HkSnapshotParam snapshot = new HkSnapshotParam();
+
+    @ApiModelProperty("全彩摄像头MJPEG实时预览")
+    private HkLiveViewParam liveView = new HkLiveViewParam();
+
+    @ApiModelProperty("实时取流")
+    private HkRealPlayParam realPlay = new HkRealPlayParam();
+
+    @ApiModelProperty("从实时码流提取关键帧")
+    private HkKeyframeParam keyframe = new HkKeyframeParam();
+
+    @ApiModelProperty("HTTP-FLV转发")
+    private HkFlvRelayParam flvRelay = new HkFlvRelayParam();
+
+    @ApiModelProperty("事件录像")
+    private HkClipParam clip = new HkClipParam();
+
+    @ApiModelProperty("按时间下载录像")
+    private HkDownloadParam download = new HkDownloadParam();
+
+    @ApiModelProperty("录像索引")
+    private HkRecordIndexParam recordIndex = new HkRecordIndexParam();
 }
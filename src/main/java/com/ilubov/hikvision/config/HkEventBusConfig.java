@@ -0,0 +1,42 @@
+package com.ilubov.hikvision.config;
+
+import com.ilubov.hikvision.service.HkEventBus;
+import com.ilubov.hikvision.vo.HkCaptureResult;
+import com.ilubov.hikvision.vo.HkPlateEvent;
+import com.ilubov.hikvision.vo.HkWatchlistAlert;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 事件推送
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Configuration
+public class HkEventBusConfig {
+
+    /**
+     * 车牌识别事件, 图片落盘后推送
+     */
+    @Bean
+    public HkEventBus<HkPlateEvent> plateEventBus(HkCameraProperty property) {
+        return new HkEventBus<>("plate", property.getEventStream(), Thread.NORM_PRIORITY);
+    }
+
+    /**
+     * 布控告警, 识别出车牌即推送, 推送线程单独一组且优先级最高
+     */
+    @Bean
+    public HkEventBus<HkWatchlistAlert> watchlistAlertBus(HkCameraProperty property) {
+        return new HkEventBus<>("watchlist", property.getWatchlist().getAlertStream(), Thread.MAX_PRIORITY);
+    }
+
+    /**
+     * 全彩摄像头定时拍照结果
+     */
+    @Bean
+    public HkEventBus<HkCaptureResult> snapshotEventBus(HkCameraProperty property) {
+        return new HkEventBus<>("snapshot", property.getSnapshot().getStream(), Thread.NORM_PRIORITY);
+    }
+}
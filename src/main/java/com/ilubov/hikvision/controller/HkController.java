@@ -1,14 +1,74 @@
 package com.ilubov.hikvision.controller;
 
+import com.ilubov.hikvision.service.HkAlarmDispatcher;
 import com.ilubov.hikvision.service.HkCameraService;
+import com.ilubov.hikvision.service.HkClipRecorder;
+import com.ilubov.hikvision.service.HkDeviceRegistry;
+import com.ilubov.hikvision.service.HkDownloadManager;
+import com.ilubov.hikvision.service.HkEventBus;
+import com.ilubov.hikvision.service.HkEventStore;
+import com.ilubov.hikvision.service.HkFlvRelay;
+import com.ilubov.hikvision.service.HkImageWriter;
+import com.ilubov.hikvision.service.HkKeyframes;
+import com.ilubov.hikvision.service.HkLiveView;
+import com.ilubov.hikvision.service.HkPlateDedup;
+import com.ilubov.hikvision.service.HkPlateIndex;
+import com.ilubov.hikvision.service.HkRealPlay;
+import com.ilubov.hikvision.service.HkRecordIndex;
+import com.ilubov.hikvision.service.HkSdkManager;
+import com.ilubov.hikvision.service.HkSessionManager;
+import com.ilubov.hikvision.service.HkSnapshotScheduler;
+import com.ilubov.hikvision.service.HkWatchlist;
+import com.ilubov.hikvision.util.BufferPool;
+import com.ilubov.hikvision.util.NativeBufferPool;
+import com.ilubov.hikvision.util.PsDemuxer;
+import com.ilubov.hikvision.vo.HkAlarmCallbackStats;
+import com.ilubov.hikvision.vo.HkAlarmQueueStats;
+import com.ilubov.hikvision.vo.HkBufferPoolStats;
+import com.ilubov.hikvision.vo.HkCameraParam;
+import com.ilubov.hikvision.vo.HkCaptureResult;
+import com.ilubov.hikvision.vo.HkCaptureStats;
+import com.ilubov.hikvision.vo.HkClipStats;
+import com.ilubov.hikvision.vo.HkDedupStats;
+import com.ilubov.hikvision.vo.HkDeviceInfo;
+import com.ilubov.hikvision.vo.HkDownloadJob;
+import com.ilubov.hikvision.vo.HkEventStreamStats;
+import com.ilubov.hikvision.vo.HkFlvRelayStats;
+import com.ilubov.hikvision.vo.HkImageWriterStats;
+import com.ilubov.hikvision.vo.HkKeyframeStats;
+import com.ilubov.hikvision.vo.HkLiveViewStats;
+import com.ilubov.hikvision.vo.HkNativeBufferStats;
+import com.ilubov.hikvision.vo.HkPlateEvent;
+import com.ilubov.hikvision.vo.HkPlateHit;
+import com.ilubov.hikvision.vo.HkRealPlayStats;
+import com.ilubov.hikvision.vo.HkRecordIndexStats;
+import com.ilubov.hikvision.vo.HkRecordSegment;
+import com.ilubov.hikvision.vo.HkRecordSpan;
+import com.ilubov.hikvision.vo.HkSdkStats;
+import com.ilubov.hikvision.vo.HkSessionInfo;
+import com.ilubov.hikvision.vo.HkSnapshotStats;
+import com.ilubov.hikvision.vo.HkWatchlistAlert;
+import com.ilubov.hikvision.vo.HkWatchlistStats;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 
 @Api(tags = "海康摄像头测试接口")
@@ -17,9 +77,77 @@ import java.util.List;
 @CrossOrigin("*")
 public class HkController {
 
+    private static final String BOUNDARY = "hkjpeg";
+
     @Autowired
     private HkCameraService hkCameraService;
 
+    @Autowired
+    private HkAlarmDispatcher hkAlarmDispatcher;
+
+    @Autowired
+    private BufferPool bufferPool;
+
+    @Autowired
+    private NativeBufferPool nativeBufferPool;
+
+    @Autowired
+    private HkImageWriter hkImageWriter;
+
+    @Autowired
+    private HkSessionManager hkSessionManager;
+
+    @Autowired
+    private HkSdkManager hkSdkManager;
+
+    @Autowired
+    private HkDeviceRegistry hkDeviceRegistry;
+
+    @Autowired
+    private HkEventBus<HkPlateEvent> hkEventBus;
+
+    @Autowired
+    private HkEventBus<HkWatchlistAlert> hkWatchlistAlertBus;
+
+    @Autowired
+    private HkEventStore hkEventStore;
+
+    @Autowired
+    private HkPlateIndex hkPlateIndex;
+
+    @Autowired
+    private HkWatchlist hkWatchlist;
+
+    @Autowired
+    private HkPlateDedup hkPlateDedup;
+
+    @Autowired
+    private HkSnapshotScheduler hkSnapshotScheduler;
+
+    @Autowired
+    private HkEventBus<HkCaptureResult> hkSnapshotEventBus;
+
+    @Autowired
+    private HkLiveView hkLiveView;
+
+    @Autowired
+    private HkRealPlay hkRealPlay;
+
+    @Autowired
+    private HkKeyframes hkKeyframes;
+
+    @Autowired
+    private HkFlvRelay hkFlvRelay;
+
+    @Autowired
+    private HkClipRecorder hkClipRecorder;
+
+    @Autowired
+    private HkDownloadManager hkDownloadManager;
+
+    @Autowired
+    private HkRecordIndex hkRecordIndex;
+
     @ApiOperation("车牌摄像头初始化测试")
     @GetMapping("/init")
     public String init() {
@@ -27,9 +155,416 @@ public class HkController {
         return "init成功";
     }
 
+    @ApiOperation("布防的车牌摄像头")
+    @GetMapping("/devices")
+    public List<HkDeviceInfo> devices() {
+        return hkDeviceRegistry.list();
+    }
+
+    @ApiOperation("车牌识别事件推送(Server-Sent Events)")
+    @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter events() {
+        return hkEventBus.subscribe();
+    }
+
+    @ApiOperation("车牌识别事件推送统计")
+    @GetMapping("/events/stats")
+    public HkEventStreamStats eventStats() {
+        return hkEventBus.stats();
+    }
+
+    @ApiOperation("按时间范围查询车牌识别事件, 时间为毫秒时间戳")
+    @GetMapping("/events/query")
+    public List<HkPlateEvent> queryEvents(@RequestParam long from, @RequestParam long to,
+                                          @RequestParam(defaultValue = "1000") int limit) {
+        return hkEventStore.query(from, to, limit);
+    }
+
+    @ApiOperation("按车牌前缀查询车牌和通行次数, 如 粤B12")
+    @GetMapping("/plates")
+    public List<HkPlateHit> plates(@RequestParam String prefix, @RequestParam(defaultValue = "100") int limit) {
+        return hkPlateIndex.prefix(prefix, limit);
+    }
+
+    @ApiOperation("模糊查询车牌, 编辑距离不超过distance")
+    @GetMapping("/plates/fuzzy")
+    public List<HkPlateHit> fuzzyPlates(@RequestParam String plate, @RequestParam(defaultValue = "1") int distance,
+                                        @RequestParam(defaultValue = "100") int limit) {
+        return hkPlateIndex.fuzzy(plate, distance, limit);
+    }
+
+    @ApiOperation("按车牌前缀查询通行事件, 最新的在前")
+    @GetMapping("/plates/events")
+    public List<HkPlateEvent> plateEvents(@RequestParam String prefix, @RequestParam(defaultValue = "100") int limit) {
+        return hkPlateIndex.events(prefix, limit);
+    }
+
+    @ApiOperation("布控告警推送(Server-Sent Events)")
+    @GetMapping(value = "/watchlist/alerts", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter watchlistAlerts() {
+        return hkWatchlistAlertBus.subscribe();
+    }
+
+    @ApiOperation("布控告警推送统计")
+    @GetMapping("/watchlist/alerts/stats")
+    public HkEventStreamStats watchlistAlertStats() {
+        return hkWatchlistAlertBus.stats();
+    }
+
+    @ApiOperation("布控统计")
+    @GetMapping("/watchlist/stats")
+    public HkWatchlistStats watchlistStats() {
+        return hkWatchlist.stats();
+    }
+
+    @ApiOperation("重新加载布控名单, 返回规则数")
+    @PostMapping("/watchlist/reload")
+    public int reloadWatchlist() {
+        return hkWatchlist.reload();
+    }
+
+    @ApiOperation("重复过车去重统计")
+    @GetMapping("/dedup/stats")
+    public HkDedupStats dedupStats() {
+        return hkPlateDedup.stats();
+    }
+
     @ApiOperation("全彩摄像头拍照")
     @GetMapping("/takePhoto")
     public List<String> takePhoto() {
         return hkCameraService.takePhoto();
     }
+
+    @ApiOperation("单台全彩摄像头拍照, 直接返回JPEG, 不落盘")
+    @GetMapping(value = "/takePhoto/jpeg", produces = MediaType.IMAGE_JPEG_VALUE)
+    public void takePhotoJpeg(@RequestParam String deviceIp, HttpServletResponse response) throws IOException {
+        HkCameraParam camera = hkCameraService.camera(deviceIp);
+        if (camera == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "未配置的摄像头: " + deviceIp);
+            return;
+        }
+        boolean success = hkCameraService.streamPhoto(camera, (ip, jpeg) -> {
+            response.setContentType(MediaType.IMAGE_JPEG_VALUE);
+            response.setContentLength(jpeg.remaining());
+            Channels.newChannel(response.getOutputStream()).write(jpeg);
+        });
+        if (!success && !response.isCommitted()) {
+            response.sendError(HttpServletResponse.SC_BAD_GATEWAY, "拍照失败");
+        }
+    }
+
+    @ApiOperation("所有全彩摄像头拍照, multipart/x-mixed-replace 按拍完的顺序逐张返回JPEG, 不落盘")
+    @GetMapping("/takePhoto/stream")
+    public void takePhotoStream(HttpServletResponse response) throws IOException {
+        response.setContentType("multipart/x-mixed-replace;boundary=" + BOUNDARY);
+        ServletOutputStream out = response.getOutputStream();
+        WritableByteChannel channel = Channels.newChannel(out);
+        hkCameraService.streamPhotos((ip, jpeg) -> this.writePart(out, channel, ip, jpeg));
+        out.print("--" + BOUNDARY + "--\r\n");
+    }
+
+    @ApiOperation("全彩摄像头MJPEG实时预览, 同一台摄像头的所有观看者共用一个抓拍循环")
+    @GetMapping("/live")
+    public void live(@RequestParam String deviceIp, HttpServletResponse response) throws IOException, InterruptedException {
+        HkCameraParam camera = hkCameraService.camera(deviceIp);
+        if (camera == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "未配置的摄像头: " + deviceIp);
+            return;
+        }
+        response.setContentType("multipart/x-mixed-replace;boundary=" + BOUNDARY);
+        ServletOutputStream out = response.getOutputStream();
+        WritableByteChannel channel = Channels.newChannel(out);
+        try {
+            if (!hkLiveView.view(camera, (ip, jpeg) -> this.writePart(out, channel, ip, jpeg))) {
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "观看人数已达上限");
+            }
+        } catch (IOException e) {
+            // 观看者断开连接
+        }
+    }
+
+    @ApiOperation("全彩摄像头MJPEG实时预览统计")
+    @GetMapping("/live/stats")
+    public List<HkLiveViewStats> liveStats() {
+        return hkLiveView.stats();
+    }
+
+    @ApiOperation("全彩摄像头拍照, 返回每台摄像头的结果和用时")
+    @GetMapping("/takePhoto/detail")
+    public List<HkCaptureResult> takePhotoDetail() {
+        return hkCameraService.takePhotoDetail();
+    }
+
+    @ApiOperation("全彩摄像头拍照统计, 含合并和缓存命中的请求数")
+    @GetMapping("/takePhoto/stats")
+    public HkCaptureStats takePhotoStats() {
+        return hkCameraService.captureStats();
+    }
+
+    @ApiOperation("全彩摄像头定时拍照结果推送(Server-Sent Events)")
+    @GetMapping(value = "/snapshots", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter snapshots() {
+        return hkSnapshotEventBus.subscribe();
+    }
+
+    @ApiOperation("全彩摄像头定时拍照统计")
+    @GetMapping("/snapshots/stats")
+    public HkSnapshotStats snapshotStats() {
+        return hkSnapshotScheduler.stats();
+    }
+
+    @ApiOperation("实时取流统计")
+    @GetMapping("/realPlay/stats")
+    public List<HkRealPlayStats> realPlayStats() {
+        return hkRealPlay.stats();
+    }
+
+    @ApiOperation("从实时码流取最新的关键帧(Annex B), 不向设备请求抓拍")
+    @GetMapping("/keyframe")
+    public void keyframe(@RequestParam String deviceIp, HttpServletResponse response) throws IOException, InterruptedException {
+        HkCameraParam camera = hkCameraService.camera(deviceIp);
+        if (camera == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "未配置的摄像头: " + deviceIp);
+            return;
+        }
+        PsDemuxer.Frame keyframe = hkKeyframes.latest(camera);
+        if (keyframe == null) {
+            response.sendError(HttpServletResponse.SC_GATEWAY_TIMEOUT, "还没有关键帧");
+            return;
+        }
+        response.setContentType(keyframe.getCodec() == PsDemuxer.CODEC_H264 ? "video/H264" : "video/H265");
+        response.setContentLength(keyframe.getData().length);
+        response.setHeader("X-Pts", String.valueOf(keyframe.getPts()));
+        response.setDateHeader("X-Keyframe-Time", keyframe.getTime());
+        response.getOutputStream().write(keyframe.getData());
+    }
+
+    @ApiOperation("关键帧提取统计")
+    @GetMapping("/keyframe/stats")
+    public List<HkKeyframeStats> keyframeStats() {
+        return hkKeyframes.stats();
+    }
+
+    @ApiOperation("HTTP-FLV实时视频, 同一台摄像头的所有观看者共用一路取流, 从最近的关键帧开始")
+    @GetMapping("/flv")
+    public void flv(@RequestParam String deviceIp, HttpServletResponse response) throws IOException, InterruptedException {
+        HkCameraParam camera = hkCameraService.camera(deviceIp);
+        if (camera == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "未配置的摄像头: " + deviceIp);
+            return;
+        }
+        response.setContentType("video/x-flv");
+        try {
+            if (!hkFlvRelay.view(camera, response.getOutputStream())) {
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "取流失败或观看人数已达上限");
+            }
+        } catch (IOException e) {
+            // 观看者断开连接
+        }
+    }
+
+    @ApiOperation("HTTP-FLV转发统计")
+    @GetMapping("/flv/stats")
+    public List<HkFlvRelayStats> flvStats() {
+        return hkFlvRelay.stats();
+    }
+
+    @ApiOperation("事件录像统计")
+    @GetMapping("/clip/stats")
+    public List<HkClipStats> clipStats() {
+        return hkClipRecorder.stats();
+    }
+
+    @ApiOperation("按时间下载录像, 分段并行下载后合并; 时间为毫秒时间戳, 精确到秒")
+    @PostMapping("/download")
+    public HkDownloadJob download(@RequestParam String deviceIp, @RequestParam(defaultValue = "1") int channel,
+                                  @RequestParam long from, @RequestParam long to,
+                                  HttpServletResponse response) throws IOException {
+        HkCameraParam camera = hkDownloadManager.camera(deviceIp);
+        if (camera == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "未配置的摄像头: " + deviceIp);
+            return null;
+        }
+        if (to <= from) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "结束时间需晚于开始时间");
+            return null;
+        }
+        return hkDownloadManager.submit(camera, channel, from, to);
+    }
+
+    @ApiOperation("下载任务, 最新的在前")
+    @GetMapping("/download/jobs")
+    public List<HkDownloadJob> downloadJobs() {
+        return hkDownloadManager.jobs();
+    }
+
+    @ApiOperation("下载任务进度")
+    @GetMapping("/download/job")
+    public HkDownloadJob downloadJob(@RequestParam long id, HttpServletResponse response) throws IOException {
+        HkDownloadJob job = hkDownloadManager.job(id);
+        if (job == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "下载任务不存在: " + id);
+        }
+        return job;
+    }
+
+    @ApiOperation("取消下载任务, 已完成的段保留")
+    @PostMapping("/download/cancel")
+    public boolean cancelDownload(@RequestParam long id) {
+        return hkDownloadManager.cancel(id);
+    }
+
+    @ApiOperation("继续失败或取消的下载任务, 只下载没有完成的段")
+    @PostMapping("/download/resume")
+    public boolean resumeDownload(@RequestParam long id) {
+        return hkDownloadManager.resume(id);
+    }
+
+    @ApiOperation("下载已完成任务的录像文件")
+    @GetMapping("/download/file")
+    public void downloadFile(@RequestParam long id, HttpServletResponse response) throws IOException {
+        Path path = hkDownloadManager.file(id);
+        if (path == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "下载任务不存在或未完成: " + id);
+            return;
+        }
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setHeader("Content-Disposition", "attachment; filename=" + path.getFileName());
+        response.setContentLengthLong(Files.size(path));
+        Files.copy(path, response.getOutputStream());
+    }
+
+    @ApiOperation("录像时间轴, 从本地索引查询有录像的时间段; 时间为毫秒时间戳")
+    @GetMapping("/record/timeline")
+    public List<HkRecordSpan> recordTimeline(@RequestParam String deviceIp, @RequestParam(defaultValue = "1") int channel,
+                                             @RequestParam long from, @RequestParam long to,
+                                             HttpServletResponse response) throws IOException {
+        List<HkRecordSpan> list = hkRecordIndex.timeline(deviceIp, channel, from, to);
+        if (list == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "没有录像索引: " + deviceIp + ", 通道: " + channel);
+        }
+        return list;
+    }
+
+    @ApiOperation("录像空档, 已索引范围内没有录像的时间段")
+    @GetMapping("/record/gaps")
+    public List<HkRecordSpan> recordGaps(@RequestParam String deviceIp, @RequestParam(defaultValue = "1") int channel,
+                                         @RequestParam long from, @RequestParam long to,
+                                         HttpServletResponse response) throws IOException {
+        List<HkRecordSpan> list = hkRecordIndex.gaps(deviceIp, channel, from, to);
+        if (list == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "没有录像索引: " + deviceIp + ", 通道: " + channel);
+        }
+        return list;
+    }
+
+    @ApiOperation("录像文件, 与时间段相交的设备录像文件")
+    @GetMapping("/record/files")
+    public List<HkRecordSegment> recordFiles(@RequestParam String deviceIp, @RequestParam(defaultValue = "1") int channel,
+                                             @RequestParam long from, @RequestParam long to,
+                                             HttpServletResponse response) throws IOException {
+        List<HkRecordSegment> list = hkRecordIndex.files(deviceIp, channel, from, to);
+        if (list == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "没有录像索引: " + deviceIp + ", 通道: " + channel);
+        }
+        return list;
+    }
+
+    @ApiOperation("立即刷新一台设备的录像索引")
+    @PostMapping("/record/refresh")
+    public boolean refreshRecordIndex(@RequestParam String deviceIp) {
+        return hkRecordIndex.refresh(deviceIp);
+    }
+
+    @ApiOperation("录像索引统计")
+    @GetMapping("/record/stats")
+    public List<HkRecordIndexStats> recordStats() {
+        return hkRecordIndex.stats();
+    }
+
+    @ApiOperation("报警队列统计")
+    @GetMapping("/alarm/stats")
+    public List<HkAlarmQueueStats> alarmStats() {
+        return hkAlarmDispatcher.stats();
+    }
+
+    @ApiOperation("报警回调统计")
+    @GetMapping("/alarm/callback")
+    public HkAlarmCallbackStats alarmCallback() {
+        return hkCameraService.callbackStats();
+    }
+
+    @ApiOperation("图片缓冲池统计")
+    @GetMapping("/bufferPool/stats")
+    public HkBufferPoolStats bufferPoolStats() {
+        HkBufferPoolStats stats = new HkBufferPoolStats();
+        stats.setHits(bufferPool.getHits());
+        stats.setMisses(bufferPool.getMisses());
+        stats.setInUseBytes(bufferPool.getInUseBytes());
+        stats.setPeakInUseBytes(bufferPool.getPeakInUseBytes());
+        stats.setRetainedBytes(bufferPool.getRetainedBytes());
+        stats.setOutstanding(bufferPool.getOutstanding());
+        stats.setLeaks(bufferPool.getLeaks());
+        return stats;
+    }
+
+    @ApiOperation("抓拍缓冲区统计")
+    @GetMapping("/nativeBuffer/stats")
+    public HkNativeBufferStats nativeBufferStats() {
+        HkNativeBufferStats stats = new HkNativeBufferStats();
+        stats.setAllocatedBytes(nativeBufferPool.getAllocatedBytes());
+        stats.setPeakAllocatedBytes(nativeBufferPool.getPeakAllocatedBytes());
+        stats.setAllocations(nativeBufferPool.getAllocations());
+        stats.setFrees(nativeBufferPool.getFrees());
+        stats.setGrows(nativeBufferPool.getGrows());
+        stats.setShrinks(nativeBufferPool.getShrinks());
+        stats.setRejected(nativeBufferPool.getRejected());
+        return stats;
+    }
+
+    @ApiOperation("图片写入统计")
+    @GetMapping("/imageWriter/stats")
+    public HkImageWriterStats imageWriterStats() {
+        HkImageWriterStats stats = new HkImageWriterStats();
+        stats.setQueueDepth(hkImageWriter.getQueueDepth());
+        stats.setSubmitted(hkImageWriter.getSubmitted());
+        stats.setWritten(hkImageWriter.getWritten());
+        stats.setFailed(hkImageWriter.getFailed());
+        stats.setRejected(hkImageWriter.getRejected());
+        stats.setFsyncs(hkImageWriter.getFsyncs());
+        stats.setDirectoryFsyncs(hkImageWriter.getDirectoryFsyncs());
+        return stats;
+    }
+
+    @ApiOperation("设备登录会话")
+    @GetMapping("/sessions")
+    public List<HkSessionInfo> sessions() {
+        return hkSessionManager.list();
+    }
+
+    @ApiOperation("SDK生命周期统计")
+    @GetMapping("/sdk/stats")
+    public HkSdkStats sdkStats() {
+        HkSdkStats stats = new HkSdkStats();
+        stats.setInitialized(hkSdkManager.isInitialized());
+        stats.setRefCount(hkSdkManager.getRefCount());
+        stats.setInitTime(hkSdkManager.getInitTime());
+        stats.setInitCostMs(hkSdkManager.getInitCostMs());
+        stats.setCleanupCostMs(hkSdkManager.getCleanupCostMs());
+        stats.setFailTime(hkSdkManager.getFailTime());
+        return stats;
+    }
+
+    /**
+     * multipart/x-mixed-replace 的一部分, 一张JPEG
+     */
+    private void writePart(ServletOutputStream out, WritableByteChannel channel, String deviceIp, ByteBuffer jpeg) throws IOException {
+        out.print("--" + BOUNDARY + "\r\n");
+        out.print("Content-Type: " + MediaType.IMAGE_JPEG_VALUE + "\r\n");
+        out.print("Content-Length: " + jpeg.remaining() + "\r\n");
+        out.print("X-Device-Ip: " + deviceIp + "\r\n\r\n");
+        channel.write(jpeg);
+        out.print("\r\n");
+        out.flush();
+    }
 }
@@ -0,0 +1,115 @@
+package com.ilubov.hikvision.sdk;
+
+import com.sun.jna.Pointer;
+
+import java.util.function.Consumer;
+
+/**
+ * NET_ITS_PLATE_RESULT 按偏移直接读取, 不做整个结构体的JNA反射读写
+ * <p>
+ * 偏移量在类加载时由 {@link HCNetSDK.NET_ITS_PLATE_RESULT} 的实际内存布局推导一次:
+ * 逐个修改字段后写入内存, 第一个发生变化的字节即为该字段的偏移
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+public final class HkPlateResultReader {
+
+    /**
+     * 图片信息数组长度
+     */
+    public static final int MAX_PIC_NUM = 6;
+
+    /**
+     * 结构体大小
+     */
+    public static final int SIZE;
+
+    private static final int LICENSE_OFFSET;
+
+    private static final int VEHICLE_TYPE_OFFSET;
+
+    private static final int PIC_NUM_OFFSET;
+
+    private static final int PIC_DATA_LEN_OFFSET;
+
+    private static final int PIC_TYPE_OFFSET;
+
+    private static final int PIC_BUFFER_OFFSET;
+
+    private static final int PIC_STRIDE;
+
+    static {
+        SIZE = new HCNetSDK.NET_ITS_PLATE_RESULT().size();
+        LICENSE_OFFSET = offset(s -> s.struPlateInfo.sLicense[0] = 1);
+        VEHICLE_TYPE_OFFSET = offset(s -> s.byVehicleType = 1);
+        PIC_NUM_OFFSET = offset(s -> s.dwPicNum = -1);
+        PIC_DATA_LEN_OFFSET = offset(s -> s.struPicInfo[0].dwDataLen = -1);
+        PIC_TYPE_OFFSET = offset(s -> s.struPicInfo[0].byType = 1);
+        PIC_BUFFER_OFFSET = offset(s -> s.struPicInfo[0].pBuffer = Pointer.createConstant(-1L));
+        PIC_STRIDE = offset(s -> s.struPicInfo[1].dwDataLen = -1) - PIC_DATA_LEN_OFFSET;
+    }
+
+    private HkPlateResultReader() {
+    }
+
+    /**
+     * 车牌号码原始字节(GBK)
+     */
+    public static byte[] license(Pointer p) {
+        return p.getByteArray(LICENSE_OFFSET, HCNetSDK.MAX_LICENSE_LEN);
+    }
+
+    /**
+     * 车型识别：0- 未知，1- 客车(大型)，2- 货车(大型)，3- 轿车(小型)，4- 非机动车
+     */
+    public static int vehicleType(Pointer p) {
+        return p.getByte(VEHICLE_TYPE_OFFSET) & 0xff;
+    }
+
+    /**
+     * 图片数量
+     */
+    public static int picNum(Pointer p) {
+        return Math.max(0, Math.min(p.getInt(PIC_NUM_OFFSET), MAX_PIC_NUM));
+    }
+
+    /**
+     * 第i张图片的大小
+     */
+    public static int picDataLen(Pointer p, int i) {
+        return p.getInt(PIC_DATA_LEN_OFFSET + (long) i * PIC_STRIDE);
+    }
+
+    /**
+     * 第i张图片的类型: 0- 车牌图, 1- 场景图
+     */
+    public static byte picType(Pointer p, int i) {
+        return p.getByte(PIC_TYPE_OFFSET + (long) i * PIC_STRIDE);
+    }
+
+    /**
+     * 第i张图片的数据指针, 只在回调期间有效
+     */
+    public static Pointer picBuffer(Pointer p, int i) {
+        return p.getPointer(PIC_BUFFER_OFFSET + (long) i * PIC_STRIDE);
+    }
+
+    /**
+     * 修改一个字段并写入内存, 与修改前对比得到字段偏移
+     */
+    private static int offset(Consumer<HCNetSDK.NET_ITS_PLATE_RESULT> setter) {
+        HCNetSDK.NET_ITS_PLATE_RESULT s = new HCNetSDK.NET_ITS_PLATE_RESULT();
+        s.write();
+        byte[] before = s.getPointer().getByteArray(0, SIZE);
+        setter.accept(s);
+        s.write();
+        byte[] after = s.getPointer().getByteArray(0, SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            if (before[i] != after[i]) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("NET_ITS_PLATE_RESULT 字段偏移推导失败");
+    }
+}
@@ -0,0 +1,473 @@
+package com.ilubov.hikvision.service;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.google.common.collect.Lists;
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.util.BufferPool;
+import com.ilubov.hikvision.util.PooledBuffer;
+import com.ilubov.hikvision.util.RingBuffer;
+import com.ilubov.hikvision.vo.HkAlarmEvent;
+import com.ilubov.hikvision.vo.HkAlarmPicture;
+import com.ilubov.hikvision.vo.HkAlarmQueueParam;
+import com.ilubov.hikvision.vo.HkAlarmQueueStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * 海康报警事件分发
+ * <p>
+ * SDK回调线程只负责把原始数据放进每台设备自己的环形队列, 解析和落盘交给处理线程池
+ * <p>
+ * SPILL策略下队列满时, 回调线程只把事件放进溢出交接队列, 由单独的溢出线程按顺序写文件; 溢出目录按设备IP区分,
+ * 重启后启动时即回放上次没有回放完的文件
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class HkAlarmDispatcher {
+
+    @Autowired
+    private HkCameraProperty property;
+
+    @Autowired
+    private BufferPool bufferPool;
+
+    /**
+     * 设备IP -> 队列
+     */
+    private final Map<String, DeviceQueue> queues = new ConcurrentHashMap<>();
+
+    private final AtomicLong processed = new AtomicLong();
+
+    private ExecutorService executor;
+
+    /**
+     * 写溢出文件的线程, 不占用SDK回调线程和处理线程
+     */
+    private ExecutorService spillWriter;
+
+    private volatile Consumer<HkAlarmEvent> handler = event -> {
+    };
+
+    @PostConstruct
+    public void init() {
+        HkAlarmQueueParam param = property.getAlarmQueue();
+        executor = Executors.newFixedThreadPool(param.getWorkerThreads(),
+                ThreadFactoryBuilder.create().setNamePrefix("hk-alarm-").setDaemon(true).build());
+        spillWriter = Executors.newSingleThreadExecutor(
+                ThreadFactoryBuilder.create().setNamePrefix("hk-alarm-spill-").setDaemon(true).build());
+        if (param.getOverflowPolicy() == HkAlarmQueueParam.OverflowPolicy.SPILL) {
+            // 上次没有回放完的溢出文件, 不用等设备再上报
+            File[] dirs = new File(param.getSpillPath()).listFiles(File::isDirectory);
+            if (dirs != null) {
+                for (File dir : dirs) {
+                    DeviceQueue queue = queues.computeIfAbsent(dir.getName(), DeviceQueue::new);
+                    if (queue.spilling.get() > 0) {
+                        queue.schedule();
+                    }
+                }
+            }
+        }
+        log.info("【海康报警队列】初始化完成 策略: {}, 容量: {}, 线程数: {}",
+                param.getOverflowPolicy(), param.getCapacity(), param.getWorkerThreads());
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        spillWriter.shutdown();
+        spillWriter.awaitTermination(5, TimeUnit.SECONDS);
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 设置事件处理
+     */
+    public void setHandler(Consumer<HkAlarmEvent> handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * 事件入队, 在SDK回调线程上调用
+     */
+    public boolean offer(HkAlarmEvent event) {
+        String key = key(event);
+        DeviceQueue queue = queues.get(key);
+        if (queue == null) {
+            queue = queues.computeIfAbsent(key, DeviceQueue::new);
+        }
+        queue.userId = event.getUserId();
+        queue.deviceId = event.getDeviceId();
+        queue.deviceIp = event.getDeviceIp();
+        boolean accepted = queue.offer(event);
+        queue.schedule();
+        return accepted;
+    }
+
+    /**
+     * 已处理事件总数
+     */
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    /**
+     * 队列统计
+     */
+    public List<HkAlarmQueueStats> stats() {
+        List<HkAlarmQueueStats> list = Lists.newArrayList();
+        for (DeviceQueue queue : queues.values()) {
+            HkAlarmQueueStats stats = new HkAlarmQueueStats();
+            stats.setUserId(queue.userId);
+            stats.setDeviceId(queue.deviceId);
+            stats.setDeviceIp(queue.deviceIp);
+            stats.setDepth(queue.ring.size());
+            stats.setOffered(queue.offered.get());
+            stats.setProcessed(queue.processed.get());
+            stats.setDropped(queue.dropped.get());
+            stats.setSpilled(queue.spilled.get());
+            stats.setPendingSpill(queue.spilling.get());
+            list.add(stats);
+        }
+        return list;
+    }
+
+    /**
+     * 队列和溢出目录按设备IP区分, lUserID每次登录都会变
+     */
+    private static String key(HkAlarmEvent event) {
+        String deviceIp = event.getDeviceIp();
+        return deviceIp == null || deviceIp.isEmpty() ? "user-" + event.getUserId() : deviceIp.replace(':', '_');
+    }
+
+    /**
+     * 单台设备的队列, 同一时刻只会有一个处理线程在消费, 保证设备内事件顺序
+     */
+    private class DeviceQueue implements Runnable {
+
+        private volatile int userId = -1;
+
+        private volatile String deviceId;
+
+        private volatile String deviceIp;
+
+        private final RingBuffer<HkAlarmEvent> ring;
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private final AtomicLong offered = new AtomicLong();
+
+        private final AtomicLong processed = new AtomicLong();
+
+        private final AtomicLong dropped = new AtomicLong();
+
+        private final AtomicLong spilled = new AtomicLong();
+
+        /**
+         * 不在环形队列里的事件数: 等待写入的加上已写入还没回放的, 大于0时新事件也走溢出, 保证顺序
+         */
+        private final AtomicInteger spilling = new AtomicInteger();
+
+        /**
+         * 回调线程交给溢出线程的事件
+         */
+        private final RingBuffer<HkAlarmEvent> overflow;
+
+        private final AtomicBoolean writing = new AtomicBoolean();
+
+        /**
+         * 下一个要写的文件序号, 只由溢出线程修改; [readSeq, writeSeq) 为待回放的文件
+         */
+        private volatile long writeSeq;
+
+        /**
+         * 下一个要回放的文件序号, 只由处理线程修改
+         */
+        private long readSeq;
+
+        private final File spillDir;
+
+        private DeviceQueue(String key) {
+            HkAlarmQueueParam param = property.getAlarmQueue();
+            this.ring = new RingBuffer<>(param.getCapacity());
+            this.overflow = new RingBuffer<>(param.getSpillQueueCapacity());
+            this.spillDir = new File(param.getSpillPath(), key);
+            if (param.getOverflowPolicy() == HkAlarmQueueParam.OverflowPolicy.SPILL) {
+                // 上次未回放完的溢出文件, 只在创建时列一次目录
+                File[] files = spillDir.listFiles((dir, name) -> name.endsWith(".bin"));
+                if (files != null && files.length > 0) {
+                    long min = Long.MAX_VALUE;
+                    long max = Long.MIN_VALUE;
+                    for (File file : files) {
+                        String name = file.getName();
+                        long seq = Long.parseLong(name.substring(0, name.length() - 4));
+                        min = Math.min(min, seq);
+                        max = Math.max(max, seq);
+                    }
+                    spilling.set(files.length);
+                    readSeq = min;
+                    writeSeq = max + 1;
+                    log.info("【海康报警队列】设备: {}, 发现未回放的溢出文件: {}", key, files.length);
+                }
+            }
+        }
+
+        private boolean offer(HkAlarmEvent event) {
+            offered.incrementAndGet();
+            HkAlarmQueueParam param = property.getAlarmQueue();
+            switch (param.getOverflowPolicy()) {
+                case BLOCK:
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(param.getBlockTimeoutMs());
+                    while (!ring.offer(event)) {
+                        if (System.nanoTime() - deadline > 0) {
+                            dropped.incrementAndGet();
+                            event.release();
+                            return false;
+                        }
+                        this.schedule();
+                        LockSupport.parkNanos(100_000);
+                    }
+                    return true;
+                case SPILL:
+                    // 已有溢出的事件时继续溢出, 保证回放顺序
+                    if (spilling.get() == 0 && ring.offer(event)) {
+                        return true;
+                    }
+                    // 溢出线程也跟不上时丢弃
+                    if (!overflow.offer(event)) {
+                        dropped.incrementAndGet();
+                        event.release();
+                        return false;
+                    }
+                    spilling.incrementAndGet();
+                    this.scheduleSpill();
+                    return true;
+                case DROP_OLDEST:
+                default:
+                    while (!ring.offer(event)) {
+                        HkAlarmEvent oldest = ring.poll();
+                        if (oldest != null) {
+                            dropped.incrementAndGet();
+                            oldest.release();
+                        }
+                    }
+                    return true;
+            }
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (Exception e) {
+                    scheduled.set(false);
+                    log.error("【海康报警队列】调度失败 userId: {}", userId, e);
+                }
+            }
+        }
+
+        private void scheduleSpill() {
+            if (writing.compareAndSet(false, true)) {
+                try {
+                    spillWriter.execute(this::drainOverflow);
+                } catch (Exception e) {
+                    writing.set(false);
+                    log.error("【海康报警队列】调度溢出失败 userId: {}", userId, e);
+                }
+            }
+        }
+
+        /**
+         * 在溢出线程上按顺序把交接队列里的事件写成文件, 写完通知处理线程回放
+         */
+        private void drainOverflow() {
+            try {
+                HkAlarmEvent event;
+                while ((event = overflow.poll()) != null) {
+                    boolean saved = this.spill(event);
+                    event.release();
+                    if (saved) {
+                        this.spilled.incrementAndGet();
+                        writeSeq++;
+                    } else {
+                        dropped.incrementAndGet();
+                        spilling.decrementAndGet();
+                    }
+                }
+            } finally {
+                writing.set(false);
+            }
+            if (!overflow.isEmpty()) {
+                this.scheduleSpill();
+            }
+            this.schedule();
+        }
+
+        @Override
+        public void run() {
+            int batch = property.getAlarmQueue().getDrainBatch();
+            try {
+                for (int i = 0; i < batch; i++) {
+                    HkAlarmEvent event = ring.poll();
+                    if (event == null && readSeq < writeSeq) {
+                        event = this.unspill();
+                    }
+                    if (event == null) {
+                        break;
+                    }
+                    try {
+                        handler.accept(event);
+                    } catch (Exception e) {
+                        log.error("【海康报警队列】处理事件失败 userId: {}", userId, e);
+                        event.release();
+                    }
+                    processed.incrementAndGet();
+                    HkAlarmDispatcher.this.processed.incrementAndGet();
+                }
+            } finally {
+                scheduled.set(false);
+            }
+            // 还有数据则重新排队, 让其他设备也能拿到线程
+            if (!ring.isEmpty() || readSeq < writeSeq) {
+                this.schedule();
+            }
+        }
+
+        private File spillFile(long seq) {
+            return new File(spillDir, String.format("%020d.bin", seq));
+        }
+
+        /**
+         * 写入序号为 writeSeq 的溢出文件, 失败时删除写了一半的文件, 序号不变
+         */
+        private boolean spill(HkAlarmEvent event) {
+            if (!spillDir.exists() && !spillDir.mkdirs()) {
+                log.error("【海康报警队列】创建溢出目录失败: {}", spillDir);
+                return false;
+            }
+            File file = this.spillFile(writeSeq);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+                out.writeInt(event.getCommand());
+                out.writeInt(event.getUserId());
+                out.writeUTF(event.getDeviceId() == null ? "" : event.getDeviceId());
+                out.writeUTF(event.getDeviceIp() == null ? "" : event.getDeviceIp());
+                out.writeLong(event.getTime());
+                this.writeBytes(out, event.getLicense());
+                out.writeInt(event.getVehicleType());
+                this.writeBytes(out, event.getInfo());
+                out.writeInt(event.getPictures().size());
+                for (HkAlarmPicture picture : event.getPictures()) {
+                    PooledBuffer buffer = picture.getBuffer();
+                    out.writeByte(picture.getType());
+                    out.writeInt(buffer.length());
+                    out.write(buffer.array(), 0, buffer.length());
+                }
+            } catch (IOException e) {
+                log.error("【海康报警队列】写入溢出文件失败: {}", file, e);
+                if (!file.delete()) {
+                    log.warn("【海康报警队列】删除溢出文件失败: {}", file);
+                }
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * 按序号读取最早的溢出文件, 不列目录; 读取失败的跳过
+         */
+        private HkAlarmEvent unspill() {
+            while (readSeq < writeSeq) {
+                File file = this.spillFile(readSeq++);
+                // 启动时发现的文件序号可能不连续
+                if (!file.exists()) {
+                    continue;
+                }
+                HkAlarmEvent event = this.read(file);
+                if (!file.delete()) {
+                    log.warn("【海康报警队列】删除溢出文件失败: {}", file);
+                }
+                spilling.decrementAndGet();
+                if (event != null) {
+                    // 启动时回放的队列, 设备还没有上报过
+                    if (deviceIp == null) {
+                        deviceIp = event.getDeviceIp();
+                        deviceId = event.getDeviceId();
+                    }
+                    return event;
+                }
+                dropped.incrementAndGet();
+            }
+            return null;
+        }
+
+        private HkAlarmEvent read(File file) {
+            HkAlarmEvent event = new HkAlarmEvent();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                event.setCommand(in.readInt());
+                event.setUserId(in.readInt());
+                event.setDeviceId(in.readUTF());
+                event.setDeviceIp(in.readUTF());
+                event.setTime(in.readLong());
+                event.setLicense(this.readBytes(in));
+                event.setVehicleType(in.readInt());
+                event.setInfo(this.readBytes(in));
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    byte type = in.readByte();
+                    PooledBuffer buffer = bufferPool.borrow(in.readInt());
+                    event.getPictures().add(new HkAlarmPicture(type, buffer));
+                    in.readFully(buffer.array(), 0, buffer.length());
+                }
+            } catch (IOException e) {
+                log.error("【海康报警队列】读取溢出文件失败: {}", file, e);
+                event.release();
+                return null;
+            }
+            return event;
+        }
+
+        private void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+            if (bytes == null) {
+                out.writeInt(-1);
+                return;
+            }
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private byte[] readBytes(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return bytes;
+        }
+    }
+}
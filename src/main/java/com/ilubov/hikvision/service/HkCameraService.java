@@ -1,12 +1,24 @@
 package com.ilubov.hikvision.service;
 
+import cn.hutool.core.thread.ThreadFactoryBuilder;
 import cn.hutool.core.util.StrUtil;
 import com.google.common.collect.Lists;
 import com.ilubov.hikvision.config.HkCameraProperty;
 import com.ilubov.hikvision.sdk.HCNetSDK;
-import com.ilubov.hikvision.util.OsSelect;
+import com.ilubov.hikvision.sdk.HkPlateResultReader;
+import com.ilubov.hikvision.util.BufferPool;
+import com.ilubov.hikvision.util.NativeBuffer;
+import com.ilubov.hikvision.util.NativeBufferPool;
+import com.ilubov.hikvision.util.PooledBuffer;
+import com.ilubov.hikvision.vo.HkAlarmCallbackStats;
+import com.ilubov.hikvision.vo.HkAlarmEvent;
+import com.ilubov.hikvision.vo.HkAlarmPicture;
 import com.ilubov.hikvision.vo.HkCameraParam;
-import com.sun.jna.Memory;
+import com.ilubov.hikvision.vo.HkCaptureParam;
+import com.ilubov.hikvision.vo.HkCaptureResult;
+import com.ilubov.hikvision.vo.HkCaptureStats;
+import com.ilubov.hikvision.vo.HkDedupParam;
+import com.ilubov.hikvision.vo.HkPlateEvent;
 import com.sun.jna.Native;
 import com.sun.jna.Pointer;
 import com.sun.jna.ptr.IntByReference;
@@ -15,13 +27,27 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.UnsupportedEncodingException;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 海康车牌摄像头初始化
@@ -36,7 +62,87 @@ public class HkCameraService {
     @Autowired
     private HkCameraProperty property;
 
-    static HCNetSDK hCNetSDK = null;
+    @Autowired
+    private HkAlarmDispatcher alarmDispatcher;
+
+    @Autowired
+    private BufferPool bufferPool;
+
+    @Autowired
+    private NativeBufferPool nativeBufferPool;
+
+    @Autowired
+    private HkImageWriter imageWriter;
+
+    @Autowired
+    private HkSessionManager sessionManager;
+
+    @Autowired
+    private HkSdkManager sdkManager;
+
+    @Autowired
+    private HkDeviceRegistry deviceRegistry;
+
+    @Autowired
+    private HkEventBus<HkPlateEvent> eventBus;
+
+    @Autowired
+    private HkPlateIndex plateIndex;
+
+    @Autowired
+    private HkEventStore eventStore;
+
+    @Autowired
+    private HkWatchlist watchlist;
+
+    @Autowired
+    private HkPlateDedup dedup;
+
+    @Autowired
+    private HkClipRecorder clipRecorder;
+
+    private static final Charset GBK = Charset.forName("GBK");
+
+    private volatile ExecutorService captureExecutor;
+
+    /**
+     * 回调实例保持强引用, 只注册一次, 避免被回收或重复生成native桩
+     */
+    private final HCNetSDK.FMSGCallBack_V31 messageCallBack = this::callback;
+
+    private final HCNetSDK.FExceptionCallBack exceptionCallBack = this::exception;
+
+    private volatile boolean callbackRegistered;
+
+    private ScheduledExecutorService watchdog;
+
+    private final AtomicLong registrations = new AtomicLong();
+
+    private final AtomicLong callbacks = new AtomicLong();
+
+    private final AtomicLong exceptions = new AtomicLong();
+
+    private volatile long lastEventTime = System.currentTimeMillis();
+
+    private volatile long lastExceptionTime;
+
+    /**
+     * 正在抓拍的摄像头, 同一摄像头的并发请求(拍照、直接返回JPEG、实时预览)共用一次抓拍
+     */
+    private final Map<String, Flight> inFlightCaptures = new ConcurrentHashMap<>();
+
+    /**
+     * 每台摄像头最近一次成功抓拍的JPEG
+     */
+    private final Map<String, Frame> lastCaptures = new ConcurrentHashMap<>();
+
+    private final AtomicLong captureRequests = new AtomicLong();
+
+    private final AtomicLong captures = new AtomicLong();
+
+    private final AtomicLong captureCoalesced = new AtomicLong();
+
+    private final AtomicLong captureCacheHits = new AtomicLong();
 
     // rtsp://${username}:${password}@${ip}:554/h265/ch1/main/av_stream
     private static final String RTSP_URL = "rtsp://%s:%s@%s:554/h265/ch1/main/av_stream";
@@ -46,163 +152,110 @@ public class HkCameraService {
      */
     @PostConstruct
     public void init() {
-        HkCameraParam plateNumber = property.getPlateNumber();
-        this.plateNumberInit(plateNumber.getDeviceIp(), plateNumber.getUsername(), plateNumber.getPassword(), plateNumber.getPort());
+        alarmDispatcher.setHandler(this::process);
+        for (HkCameraParam plateNumber : deviceRegistry.plateCameras()) {
+            this.plateNumberInit(plateNumber);
+        }
     }
 
     /**
      * 海康车牌摄像头初始化
      */
     public void plateNumberInit(String deviceIp, String username, String password, Short port) {
-        if (hCNetSDK == null) {
-            if (!this.createSDKInstance()) {
-                log.info("【海康车牌摄像头初始化】加载SDK失败");
-                return;
-            }
-        }
-        // 初始化
-        if (!hCNetSDK.NET_DVR_Init()) {
-            log.info("【海康车牌摄像头初始化】初始化失败");
+        HkCameraParam plateNumber = new HkCameraParam();
+        plateNumber.setDeviceIp(deviceIp);
+        plateNumber.setUsername(username);
+        plateNumber.setPassword(password);
+        plateNumber.setPort(port);
+        this.plateNumberInit(plateNumber);
+    }
+
+    /**
+     * 海康车牌摄像头初始化, 登录布防后注册回调
+     */
+    public void plateNumberInit(HkCameraParam plateNumber) {
+        // 登录并启用布防
+        if (!deviceRegistry.arm(plateNumber)) {
             return;
         }
-        log.info("【海康车牌摄像头初始化】初始化成功");
-        // 设置连接时间与重连时间
-        this.connect();
-        // 设备信息
-        int lUserID = this.login(deviceIp, username, password, port);
-        if (lUserID < 0) {
-            return;
+        // 设置报警回调函数, 只注册一次, 由健康检查在异常时重新注册
+        if (!callbackRegistered) {
+            this.setMessageCallBack(sdkManager.sdk());
         }
-        // 启用布防
-        this.setupAlarm(lUserID);
-        // 设置报警回调函数
-        new Thread(() -> {
-            try {
-                for (; ; ) {
-                    this.setMessageCallBack();
-                    Thread.sleep(2000);
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }).start();
+        this.startWatchdog();
     }
 
     /**
-     * 动态库加载
+     * 设置回调
      */
-    private boolean createSDKInstance() {
-        if (hCNetSDK == null) {
-            synchronized (HCNetSDK.class) {
-                String path;
-                if (OsSelect.isWindows()) {
-                    path = "\\HCNetSDK.dll";
-                } else {
-                    path = "/libhcnetsdk.so";
-                }
-                log.info("【海康初始化】LOAD_PATH: {}", property.getSdkPath() + path);
-                hCNetSDK = (HCNetSDK) Native.loadLibrary(property.getSdkPath() + path, HCNetSDK.class);
-                // linux系统建议调用以下接口加载组件库
-                this.loadLinuxLib();
-            }
-        }
-        return true;
+    private synchronized void setMessageCallBack(HCNetSDK hCNetSDK) {
+        // 设置报警回调函数
+        callbackRegistered = hCNetSDK.NET_DVR_SetDVRMessageCallBack_V31(messageCallBack, null);
+        hCNetSDK.NET_DVR_SetExceptionCallBack_V30(0, 0, exceptionCallBack, null);
+        registrations.incrementAndGet();
+        log.info("【海康车牌摄像头初始化】注册报警回调: {}", callbackRegistered);
     }
 
     /**
-     * linux系统建议调用以下接口加载组件库
+     * 报警回调健康检查
      */
-    private void loadLinuxLib() {
-        if (OsSelect.isWindows()) {
+    private synchronized void startWatchdog() {
+        if (watchdog != null) {
             return;
         }
-        // linux系统建议调用以下接口加载组件库
-        log.info("【海康初始化】linux系统加载组件库");
-        HCNetSDK.BYTE_ARRAY ptrByteArray1 = new HCNetSDK.BYTE_ARRAY(256);
-        HCNetSDK.BYTE_ARRAY ptrByteArray2 = new HCNetSDK.BYTE_ARRAY(256);
-        //这里是库的绝对路径，请根据实际情况修改，注意改路径必须有访问权限
-        String strPathCom = property.getSdkPath();
-        String strPath1 = strPathCom + "/libcrypto.so.1.1";
-        String strPath2 = strPathCom + "/libssl.so.1.1";
-
-        System.arraycopy(strPath1.getBytes(), 0, ptrByteArray1.byValue, 0, strPath1.length());
-        ptrByteArray1.write();
-        hCNetSDK.NET_DVR_SetSDKInitCfg(3, ptrByteArray1.getPointer());
-
-        System.arraycopy(strPath2.getBytes(), 0, ptrByteArray2.byValue, 0, strPath2.length());
-        ptrByteArray2.write();
-        hCNetSDK.NET_DVR_SetSDKInitCfg(4, ptrByteArray2.getPointer());
-
-        HCNetSDK.NET_DVR_LOCAL_SDK_PATH struComPath = new HCNetSDK.NET_DVR_LOCAL_SDK_PATH();
-        System.arraycopy(strPathCom.getBytes(), 0, struComPath.sPath, 0, strPathCom.length());
-        struComPath.write();
-        hCNetSDK.NET_DVR_SetSDKInitCfg(2, struComPath.getPointer());
-    }
-
-    /**
-     * 设置链接事件与重连时间
-     */
-    private void connect() {
-        // 设置连接时间与重连时间
-        hCNetSDK.NET_DVR_SetConnectTime(2000, 1);
-        hCNetSDK.NET_DVR_SetReconnect(10000, true);
-    }
-
-    /**
-     * 注册设备
-     */
-    private int login(String deviceIp, String username, String password, Short port) {
-        // 设备信息, 输出参数
-        HCNetSDK.NET_DVR_DEVICEINFO_V40 m_strDeviceInfo = new HCNetSDK.NET_DVR_DEVICEINFO_V40();
-        HCNetSDK.NET_DVR_USER_LOGIN_INFO m_strLoginInfo = new HCNetSDK.NET_DVR_USER_LOGIN_INFO();
-        // 注册设备-登录参数，包括设备地址、登录用户、密码等
-        m_strLoginInfo.sDeviceAddress = new byte[hCNetSDK.NET_DVR_DEV_ADDRESS_MAX_LEN];
-        System.arraycopy(deviceIp.getBytes(), 0, m_strLoginInfo.sDeviceAddress, 0, deviceIp.length());
-        m_strLoginInfo.sUserName = new byte[hCNetSDK.NET_DVR_LOGIN_USERNAME_MAX_LEN];
-        System.arraycopy(username.getBytes(), 0, m_strLoginInfo.sUserName, 0, username.length());
-        m_strLoginInfo.sPassword = new byte[hCNetSDK.NET_DVR_LOGIN_PASSWD_MAX_LEN];
-        System.arraycopy(password.getBytes(), 0, m_strLoginInfo.sPassword, 0, password.length());
-        m_strLoginInfo.wPort = port;
-        // 是否异步登录：0- 否，1- 是
-        m_strLoginInfo.bUseAsynLogin = false;
-        m_strLoginInfo.write();
-        // 设备信息, 输出参数
-        int lUserID = hCNetSDK.NET_DVR_Login_V40(m_strLoginInfo, m_strDeviceInfo);
-        if (lUserID < 0) {
-            log.info("【海康车牌摄像头初始化】注册登录失败: {}", hCNetSDK.NET_DVR_GetErrorMsg(null));
-            hCNetSDK.NET_DVR_Cleanup();
-            return -1;
-        }
-        return lUserID;
+        int interval = property.getAlarmWatchdog().getCheckIntervalSeconds();
+        watchdog = Executors.newSingleThreadScheduledExecutor(
+                ThreadFactoryBuilder.create().setNamePrefix("hk-alarm-watchdog-").setDaemon(true).build());
+        watchdog.scheduleWithFixedDelay(this::checkCallback, interval, interval, TimeUnit.SECONDS);
     }
 
     /**
-     * 设置回调
+     * 注册失败, 或者超过静默时间没有事件且期间SDK报过异常时, 重新注册回调
      */
-    private void setMessageCallBack() {
-        // 设置报警回调函数
-        hCNetSDK.NET_DVR_SetDVRMessageCallBack_V31(this::callback, null);
+    void checkCallback() {
+        try {
+            HCNetSDK hCNetSDK = sdkManager.sdk();
+            if (hCNetSDK == null) {
+                return;
+            }
+            long silent = TimeUnit.SECONDS.toMillis(property.getAlarmWatchdog().getSilentSeconds());
+            long lastEvent = lastEventTime;
+            boolean stale = System.currentTimeMillis() - lastEvent > silent && lastExceptionTime > lastEvent;
+            if (!callbackRegistered || stale) {
+                log.info("【海康报警回调】重新注册 已注册: {}, 最近事件: {}, 最近异常: {}",
+                        callbackRegistered, lastEvent, lastExceptionTime);
+                this.setMessageCallBack(hCNetSDK);
+                // 重新开始计算静默时间
+                lastEventTime = System.currentTimeMillis();
+            }
+        } catch (Exception e) {
+            log.error("【海康报警回调】健康检查异常", e);
+        }
     }
 
     /**
-     * 启用布防
+     * SDK异常回调, 只记录报警和交互相关的异常
      */
-    private void setupAlarm(int lUserID) {
-        // 启用布防
-        HCNetSDK.NET_DVR_SETUPALARM_PARAM lpSetupParam = new HCNetSDK.NET_DVR_SETUPALARM_PARAM();
-        lpSetupParam.dwSize = 0;
-        // 布防优先级：0- 一等级（高），1- 二等级（中）
-        lpSetupParam.byLevel = 1;
-        // 上传报警信息类型: 0- 老报警信息(NET_DVR_PLATE_RESULT), 1- 新报警信息(NET_ITS_PLATE_RESULT)
-        lpSetupParam.byAlarmInfoType = 1;
-        int lAlarmHandle = hCNetSDK.NET_DVR_SetupAlarmChan_V41(lUserID, lpSetupParam);
-        if (lAlarmHandle < 0) {
-            log.info("【海康车牌摄像头初始化】启用布防失败: {}", hCNetSDK.NET_DVR_GetLastError());
-            hCNetSDK.NET_DVR_Logout(lUserID);
-            hCNetSDK.NET_DVR_Cleanup();
-            return;
+    private void exception(int dwType, int lUserID, int lHandle, Pointer pUser) {
+        log.info("【海康报警回调】SDK异常 类型: 0x{}, lUserID: {}", Integer.toHexString(dwType), lUserID);
+        if (dwType == HCNetSDK.EXCEPTION_ALARM || dwType == HCNetSDK.EXCEPTION_EXCHANGE
+                || dwType == HCNetSDK.EXCEPTION_ALARMRECONNECT) {
+            exceptions.incrementAndGet();
+            lastExceptionTime = System.currentTimeMillis();
         }
-        log.info("【海康车牌摄像头初始化】布防成功,开始监测车辆");
+    }
+
+    /**
+     * 报警回调统计
+     */
+    public HkAlarmCallbackStats callbackStats() {
+        HkAlarmCallbackStats stats = new HkAlarmCallbackStats();
+        stats.setRegistrations(registrations.get());
+        stats.setCallbacks(callbacks.get());
+        stats.setLastEventTime(lastEventTime);
+        stats.setExceptions(exceptions.get());
+        stats.setLastExceptionTime(lastExceptionTime);
+        return stats;
     }
 
     /**
@@ -219,69 +272,209 @@ public class HkCameraService {
     }
 
     /**
-     * 回调
+     * 回调, 只拷贝原始数据后交给报警队列, 不在SDK线程上解析和落盘
      */
     public boolean callback(int lCommand, HCNetSDK.NET_DVR_ALARMER pAlarmer, Pointer pAlarmInfo, int dwBufLen, Pointer pUser) {
-        log.info("【海康车牌摄像头回调】进入回调 开始识别车牌 lCommand: 0x{}", Integer.toHexString(lCommand));
+        callbacks.incrementAndGet();
+        lastEventTime = System.currentTimeMillis();
+        HkAlarmEvent event = new HkAlarmEvent();
+        event.setCommand(lCommand);
+        event.setUserId(pAlarmer.lUserID);
+        // 按lUserID查到布防的设备, 查不到时才解析报警设备信息
+        HkDeviceRegistry.Device device = deviceRegistry.resolve(pAlarmer.lUserID);
+        if (device != null) {
+            device.onEvent();
+            event.setDeviceId(device.getDeviceId());
+            event.setDeviceIp(device.getDeviceIp());
+        } else {
+            event.setDeviceIp(Native.toString(pAlarmer.sDeviceIP));
+            event.setDeviceId(event.getDeviceIp());
+        }
+        event.setTime(System.currentTimeMillis());
         switch (lCommand) {
             case HCNetSDK.COMM_ITS_PLATE_RESULT:
-                log.info("【海康车牌摄像头回调】交通抓拍的终端图片上传");
-                HCNetSDK.NET_ITS_PLATE_RESULT strItsPlateResult = new HCNetSDK.NET_ITS_PLATE_RESULT();
-                strItsPlateResult.write();
-                Pointer pItsPlateInfo = strItsPlateResult.getPointer();
-                pItsPlateInfo.write(0, pAlarmInfo.getByteArray(0, strItsPlateResult.size()), 0, strItsPlateResult.size());
-                strItsPlateResult.read();
-                try {
-                    String license = new String(strItsPlateResult.struPlateInfo.sLicense, "GBK");
-                    // 车型识别：0- 未知，1- 客车(大型)，2- 货车(大型)，3- 轿车(小型)，4- 非机动车
-                    String type = strItsPlateResult.byVehicleType + "".trim();
-                    String plateNumber = license.substring(1).trim();
-                    String byCountry = license.substring(1, 2).trim();
-                    String byColor = license.substring(0, 1).trim();
-                    log.info("【海康车牌摄像头回调】车辆类型: {}", type);
-                    log.info("【海康车牌摄像头回调】车牌号: {}", plateNumber);
-                    log.info("【海康车牌摄像头回调】车牌省份: {}", byCountry);
-                    log.info("【海康车牌摄像头回调】车牌颜色: {}", byColor);
-                    // 报警图片保存，车牌，车辆图片
-                    for (int i = 0; i < strItsPlateResult.dwPicNum; i++) {
-                        HCNetSDK.NET_ITS_PICTURE_INFO pic = strItsPlateResult.struPicInfo[i];
-                        if (pic.dwDataLen > 0) {
-                            // 0.车牌照片 1.场景照片
-                            byte byType = pic.byType;
-                            ByteBuffer buffers = pic.pBuffer.getByteBuffer(0, pic.dwDataLen);
-                            byte[] bytes = new byte[pic.dwDataLen];
-                            buffers.rewind();
-                            buffers.get(bytes);
-                            log.info("【海康车牌摄像头回调】图片类型: {}", byType);
-                            // 写到本地
-                            String imgPath = this.writeFile(bytes, String.valueOf(byType));
-                        }
+                // 按偏移只读取用到的字段, 图片缓冲区只在回调期间有效, 需要拷贝
+                event.setLicense(HkPlateResultReader.license(pAlarmInfo));
+                event.setVehicleType(HkPlateResultReader.vehicleType(pAlarmInfo));
+                int picNum = HkPlateResultReader.picNum(pAlarmInfo);
+                for (int i = 0; i < picNum; i++) {
+                    int dwDataLen = HkPlateResultReader.picDataLen(pAlarmInfo, i);
+                    if (dwDataLen > 0) {
+                        PooledBuffer buffer = bufferPool.borrow(dwDataLen);
+                        HkPlateResultReader.picBuffer(pAlarmInfo, i).read(0, buffer.array(), 0, dwDataLen);
+                        event.getPictures().add(new HkAlarmPicture(HkPlateResultReader.picType(pAlarmInfo, i), buffer));
                     }
-                } catch (UnsupportedEncodingException e) {
-                    e.printStackTrace();
                 }
                 break;
             case HCNetSDK.COMM_VEHICLE_CONTROL_ALARM:
-                log.info("【海康车牌摄像头回调】车辆报警上传");
+                event.setInfo(pAlarmInfo.getByteArray(0, dwBufLen));
+                break;
+            default:
                 break;
         }
+        alarmDispatcher.offer(event);
         return true;
     }
 
     /**
-     * 写到本地
+     * 处理报警事件, 在报警队列的处理线程上执行
      */
-    private String writeFile(byte[] bs, String suffix) {
-        String filename = UUID.randomUUID() + "_" + suffix + ".jpg", path = property.getImgPath() + filename;
-        File file = new File(path);
-        try (FileOutputStream fos = new FileOutputStream(file);
-             BufferedOutputStream bos = new BufferedOutputStream(fos)) {
-            bos.write(bs);
-        } catch (Exception e) {
-            log.error("【海康摄像头写入图片失败】", e);
-            return null;
+    public void process(HkAlarmEvent event) {
+        log.info("【海康车牌摄像头回调】进入回调 开始识别车牌 设备: {}, lCommand: 0x{}", event.getDeviceId(), Integer.toHexString(event.getCommand()));
+        switch (event.getCommand()) {
+            case HCNetSDK.COMM_ITS_PLATE_RESULT:
+                log.info("【海康车牌摄像头回调】交通抓拍的终端图片上传");
+                String license = new String(event.getLicense(), GBK);
+                // 车型识别：0- 未知，1- 客车(大型)，2- 货车(大型)，3- 轿车(小型)，4- 非机动车
+                String type = event.getVehicleType() + "".trim();
+                String plateNumber = license.substring(1).trim();
+                String byCountry = license.substring(1, 2).trim();
+                String byColor = license.substring(0, 1).trim();
+                // 同一设备短时间内重复上报同一车牌, 不再保存图片
+                int repeat = dedup.check(event.getDeviceId(), plateNumber, event.getTime());
+                if (repeat > 0) {
+                    this.duplicate(event, plateNumber, byColor, byCountry, repeat);
+                    break;
+                }
+                log.info("【海康车牌摄像头回调】车辆类型: {}", type);
+                log.info("【海康车牌摄像头回调】车牌号: {}", plateNumber);
+                log.info("【海康车牌摄像头回调】车牌省份: {}", byCountry);
+                log.info("【海康车牌摄像头回调】车牌颜色: {}", byColor);
+                HkPlateEvent plateEvent = new HkPlateEvent();
+                plateEvent.setDeviceId(event.getDeviceId());
+                plateEvent.setDeviceIp(event.getDeviceIp());
+                plateEvent.setTime(event.getTime());
+                plateEvent.setPlateNumber(plateNumber);
+                plateEvent.setColor(byColor);
+                plateEvent.setProvince(byCountry);
+                plateEvent.setVehicleType(event.getVehicleType());
+                // 布控匹配不等图片落盘, 命中立即告警
+                watchlist.check(plateEvent);
+                // 事件前后的录像, 事件后 post-ms 写完
+                CompletableFuture<String> clip = clipRecorder.record(event.getDeviceIp(), event.getDeviceId(), event.getTime(), "plate");
+                // 报警图片保存，车牌，车辆图片
+                List<CompletableFuture<String>> images = Lists.newArrayList();
+                for (HkAlarmPicture picture : event.getPictures()) {
+                    // 0.车牌照片 1.场景照片
+                    byte byType = picture.getType();
+                    log.info("【海康车牌摄像头回调】图片类型: {}", byType);
+                    // 写到本地, 缓冲区交给写入线程归还
+                    images.add(this.writeFile(picture.getBuffer(), String.valueOf(byType)));
+                    picture.setBuffer(null);
+                }
+                // 图片落盘后记录事件并推送给订阅方
+                AtomicBoolean stored = new AtomicBoolean();
+                CompletableFuture<List<String>> published = CompletableFuture.allOf(images.toArray(new CompletableFuture[0]))
+                        .thenApply(v -> {
+                            for (CompletableFuture<String> image : images) {
+                                String imgPath = image.join();
+                                log.info("【海康车牌摄像头回调】图片保存: {}", imgPath);
+                                if (imgPath != null) {
+                                    plateEvent.getImages().add(imgPath);
+                                }
+                            }
+                            stored.set(plateIndex.append(plateEvent));
+                            eventBus.publish(plateEvent);
+                            return plateEvent.getImages();
+                        });
+                // 录像写完后在车牌事件之后补推一条并记到事件存储, 车牌事件不等 post-ms
+                published.thenAcceptBoth(clip, (paths, clipPath) -> {
+                    if (clipPath != null && stored.get()) {
+                        eventStore.linkClip(plateEvent.getId(), clipPath);
+                    }
+                    this.publishClip(plateEvent, clipPath);
+                });
+                // 窗口内的重复上报沿用这次的图片, 在这次推送之后推送
+                dedup.attachImages(event.getDeviceId(), plateNumber, published);
+                break;
+            case HCNetSDK.COMM_VEHICLE_CONTROL_ALARM:
+                log.info("【海康车牌摄像头回调】车辆报警上传");
+                HkPlateEvent alarmEvent = this.vehicleControlAlarm(event);
+                // 报警立即推送, 录像写完后补推
+                eventBus.publish(alarmEvent);
+                clipRecorder.record(event.getDeviceIp(), event.getDeviceId(), event.getTime(), "alarm")
+                        .thenAccept(clipPath -> this.publishClip(alarmEvent, clipPath));
+                break;
         }
-        return path;
+    }
+
+    /**
+     * 录像写完后的补充推送, 原事件已推送出去, 另建一条只带录像路径的事件, 录像失败时不推送
+     */
+    private void publishClip(HkPlateEvent source, String clipPath) {
+        if (clipPath == null) {
+            return;
+        }
+        log.info("【海康车牌摄像头回调】事件录像 类型: {}, 事件ID: {}, 录像: {}", source.getKind(), source.getId(), clipPath);
+        HkPlateEvent update = new HkPlateEvent();
+        update.setKind("clip");
+        update.setId(source.getId());
+        update.setDeviceId(source.getDeviceId());
+        update.setDeviceIp(source.getDeviceIp());
+        update.setTime(source.getTime());
+        update.setPlateNumber(source.getPlateNumber());
+        update.setClip(clipPath);
+        eventBus.publish(update);
+    }
+
+    /**
+     * 车辆报警(黑白名单), 只推送, 不保存到事件存储
+     */
+    private HkPlateEvent vehicleControlAlarm(HkAlarmEvent event) {
+        HkPlateEvent plateEvent = new HkPlateEvent();
+        plateEvent.setKind("alarm");
+        plateEvent.setDeviceId(event.getDeviceId());
+        plateEvent.setDeviceIp(event.getDeviceIp());
+        plateEvent.setTime(event.getTime());
+        byte[] info = event.getInfo();
+        if (info != null) {
+            HCNetSDK.NET_DVR_VEHICLE_CONTROL_ALARM alarm = new HCNetSDK.NET_DVR_VEHICLE_CONTROL_ALARM();
+            alarm.getPointer().write(0, info, 0, Math.min(info.length, alarm.size()));
+            alarm.read();
+            plateEvent.setPlateNumber(new String(alarm.sLicense, GBK).trim());
+        }
+        return plateEvent;
+    }
+
+    /**
+     * 重复上报, 归还图片缓冲区; MERGE策略下只推送给订阅方, 带上首次上报的图片路径
+     */
+    private void duplicate(HkAlarmEvent event, String plateNumber, String color, String province, int repeat) {
+        for (HkAlarmPicture picture : event.getPictures()) {
+            picture.getBuffer().release();
+            picture.setBuffer(null);
+        }
+        dedup.skipImages(event.getPictures().size());
+        if (dedup.policy() == HkDedupParam.Policy.DROP) {
+            log.debug("【海康车牌摄像头回调】重复上报, 丢弃 设备: {}, 车牌: {}, 第{}次", event.getDeviceId(), plateNumber, repeat);
+            return;
+        }
+        HkPlateEvent plateEvent = new HkPlateEvent();
+        plateEvent.setDeviceId(event.getDeviceId());
+        plateEvent.setDeviceIp(event.getDeviceIp());
+        plateEvent.setTime(event.getTime());
+        plateEvent.setPlateNumber(plateNumber);
+        plateEvent.setColor(color);
+        plateEvent.setProvince(province);
+        plateEvent.setVehicleType(event.getVehicleType());
+        plateEvent.setRepeat(repeat);
+        CompletableFuture<List<String>> first = dedup.images(event.getDeviceId(), plateNumber);
+        if (first == null) {
+            eventBus.publish(plateEvent);
+            return;
+        }
+        // 首次上报的图片落盘并推送后再推送
+        first.thenAccept(paths -> {
+            plateEvent.getImages().addAll(paths);
+            eventBus.publish(plateEvent);
+        });
+    }
+
+    /**
+     * 写到本地, 交给图片写入线程, 写完后归还缓冲区
+     */
+    private CompletableFuture<String> writeFile(PooledBuffer buffer, String suffix) {
+        return imageWriter.submit(buffer, suffix).handle((path, e) -> e == null ? path.toString() : null);
     }
 
     /**
@@ -289,74 +482,523 @@ public class HkCameraService {
      */
     public List<String> takePhoto() {
         List<String> imgList = Lists.newArrayList();
+        for (HkCaptureResult result : this.takePhotoDetail()) {
+            if (StrUtil.isNotBlank(result.getImg())) {
+                imgList.add(result.getImg());
+            }
+        }
+        return imgList;
+    }
+
+    /**
+     * 海康全彩摄像头拍照, 返回每台摄像头的结果和用时
+     * <p>
+     * 并行模式下总用时约等于最慢的一台, 超时的摄像头标记失败, 不影响其他摄像头的结果; 拍照线程池满时直接标记拍照繁忙
+     * <p>
+     * 串行模式下每台摄像头开始前检查截止时间, 已超时的不再抓拍; 正在进行的SDK抓拍不能中断
+     */
+    public List<HkCaptureResult> takePhotoDetail() {
+        HkCaptureParam param = property.getCapture();
         List<HkCameraParam> cameraList = property.getCamera();
+        // 所有摄像头共用一个截止时间, 超时的不再等待
+        long deadline = System.currentTimeMillis() + param.getTimeoutMs();
+        List<CompletableFuture<HkCaptureResult>> futures = Lists.newArrayList();
         for (HkCameraParam camera : cameraList) {
-            long start = System.currentTimeMillis();
-            String img = this.takePhoto(camera.getDeviceIp(),
-                    camera.getUsername(), camera.getPassword(), camera.getPort());
-            if (StrUtil.isNotBlank(img)) {
-                imgList.add(img);
+            if (param.isParallel()) {
+                try {
+                    futures.add(CompletableFuture.supplyAsync(() -> this.capture(camera), this.captureExecutor())
+                            .thenCompose(future -> future));
+                } catch (RejectedExecutionException e) {
+                    futures.add(CompletableFuture.completedFuture(this.failure(camera.getDeviceIp(), 0, "拍照繁忙")));
+                }
+            } else if (System.currentTimeMillis() >= deadline) {
+                futures.add(CompletableFuture.completedFuture(this.failure(camera.getDeviceIp(), 0, "拍照超时")));
+            } else {
+                futures.add(this.capture(camera));
             }
-            log.info("【海康全彩摄像头】ip: {}, 拍照用时: {}ms", camera.getDeviceIp(), (System.currentTimeMillis() - start));
         }
-        return imgList;
+        List<HkCaptureResult> resultList = Lists.newArrayList();
+        for (int i = 0; i < futures.size(); i++) {
+            HkCaptureResult result;
+            try {
+                result = futures.get(i).get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                result = this.failure(cameraList.get(i).getDeviceIp(), param.getTimeoutMs(), "拍照超时");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result = this.failure(cameraList.get(i).getDeviceIp(), 0, "拍照被中断");
+            } catch (ExecutionException e) {
+                result = this.failure(cameraList.get(i).getDeviceIp(), 0, String.valueOf(e.getCause()));
+            }
+            log.info("【海康全彩摄像头】ip: {}, 拍照用时: {}ms", result.getDeviceIp(), result.getCostMs());
+            resultList.add(result);
+        }
+        return resultList;
+    }
+
+    /**
+     * 单台摄像头拍照, 落盘后返回图片路径; 同一张JPEG只落盘一次, 缓存期内和合并的请求拿到同一个路径
+     */
+    public CompletableFuture<HkCaptureResult> capture(HkCameraParam camera) {
+        return this.frame(camera, true, null).thenCompose(this::save);
+    }
+
+    /**
+     * 单台摄像头抓拍JPEG, cached为true时缓存期内直接返回内存中上一次的JPEG; 同一摄像头正在抓拍时等待同一次抓拍的结果,
+     * 不再重复抓拍
+     * <p>
+     * direct不为null时, 由本次请求发起的抓拍如果没有合并进来的请求也不需要缓存, 在归还抓拍缓冲区之前把JPEG直接交给它,
+     * 不拷贝到堆内存, 返回的frame没有jpeg
+     */
+    private CompletableFuture<Frame> frame(HkCameraParam camera, boolean cached, DirectSink direct) {
+        HkCaptureParam param = property.getCapture();
+        String deviceIp = camera.getDeviceIp();
+        captureRequests.incrementAndGet();
+        if (cached && param.getCacheMs() > 0) {
+            Frame last = lastCaptures.get(deviceIp);
+            if (last != null && System.currentTimeMillis() - last.time <= param.getCacheMs()) {
+                captureCacheHits.incrementAndGet();
+                return CompletableFuture.completedFuture(last);
+            }
+        }
+        Flight flight = new Flight();
+        if (param.isCoalesce()) {
+            while (true) {
+                Flight existing = inFlightCaptures.putIfAbsent(deviceIp, flight);
+                if (existing == null) {
+                    break;
+                }
+                if (existing.join()) {
+                    captureCoalesced.incrementAndGet();
+                    return existing.future;
+                }
+                // 已经拿到JPEG, 来不及共用, 重新抓拍
+                inFlightCaptures.remove(deviceIp, existing);
+            }
+        }
+        try {
+            flight.future.complete(this.doCapture(camera, flight, direct));
+        } catch (RuntimeException e) {
+            flight.future.completeExceptionally(e);
+        } finally {
+            inFlightCaptures.remove(deviceIp, flight);
+        }
+        return flight.future;
+    }
+
+    /**
+     * 拍照统计
+     */
+    public HkCaptureStats captureStats() {
+        HkCaptureStats stats = new HkCaptureStats();
+        stats.setRequests(captureRequests.get());
+        stats.setCaptures(captures.get());
+        stats.setCoalesced(captureCoalesced.get());
+        stats.setCacheHits(captureCacheHits.get());
+        stats.setInFlight(inFlightCaptures.size());
+        return stats;
+    }
+
+    /**
+     * 单台摄像头抓拍, 在当前线程完成; 有合并进来的请求、需要缓存或需要落盘时从抓拍缓冲区拷贝一次到堆内存,
+     * 否则JPEG只以抓拍缓冲区的视图交给direct
+     */
+    private Frame doCapture(HkCameraParam camera, Flight flight, DirectSink direct) {
+        captures.incrementAndGet();
+        String deviceIp = camera.getDeviceIp();
+        long start = System.currentTimeMillis();
+        Frame frame = this.takePhoto(deviceIp, camera.getUsername(), camera.getPassword(), camera.getPort(),
+                (buffer, length) -> {
+                    // 封口后不再有请求合并进来, 是否拷贝由此确定
+                    boolean shared = flight.seal();
+                    boolean keep = direct == null || shared || property.getCapture().getCacheMs() > 0;
+                    if (keep) {
+                        // 合并进来的请求不等发起请求的sink, 拿到结果后各自发送
+                        return new Frame(deviceIp, start, buffer.getByteArray(0, length), true);
+                    }
+                    direct.accept(deviceIp, buffer.getByteBuffer(0, length).asReadOnlyBuffer());
+                    return new Frame(deviceIp, start, null, true);
+                });
+        if (frame == null) {
+            return new Frame(deviceIp, start, null, false);
+        }
+        if (frame.jpeg != null) {
+            lastCaptures.put(deviceIp, frame);
+        }
+        return frame;
+    }
+
+    /**
+     * 落盘并得到拍照结果, 每张JPEG只落盘一次
+     */
+    private CompletableFuture<HkCaptureResult> save(Frame frame) {
+        if (!frame.success) {
+            return CompletableFuture.completedFuture(
+                    this.failure(frame.deviceIp, System.currentTimeMillis() - frame.start, "拍照失败"));
+        }
+        synchronized (frame) {
+            if (frame.result == null) {
+                String deviceIp = frame.deviceIp;
+                PooledBuffer buffer = bufferPool.wrap(frame.jpeg, 0, frame.jpeg.length);
+                frame.result = this.writeFile(buffer, deviceIp.substring(deviceIp.lastIndexOf(".") + 1)).thenApply(img -> {
+                    long cost = System.currentTimeMillis() - frame.start;
+                    if (StrUtil.isBlank(img)) {
+                        return this.failure(deviceIp, cost, "拍照失败");
+                    }
+                    HkCaptureResult result = new HkCaptureResult();
+                    result.setTime(frame.start);
+                    result.setDeviceIp(deviceIp);
+                    result.setSuccess(true);
+                    result.setImg(img);
+                    result.setCostMs(cost);
+                    return result;
+                });
+            }
+            return frame.result;
+        }
+    }
+
+    private HkCaptureResult failure(String deviceIp, long cost, String error) {
+        HkCaptureResult result = new HkCaptureResult();
+        result.setTime(System.currentTimeMillis() - cost);
+        result.setDeviceIp(deviceIp);
+        result.setCostMs(cost);
+        result.setError(error);
+        return result;
+    }
+
+    /**
+     * 并行拍照线程池, 队列满时拒绝, 不在调用线程上抓拍, 否则调用方的截止时间失效
+     */
+    private ExecutorService captureExecutor() {
+        if (captureExecutor == null) {
+            synchronized (this) {
+                if (captureExecutor == null) {
+                    int parallelism = property.getCapture().getParallelism();
+                    captureExecutor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<>(property.getCapture().getQueueCapacity()),
+                            ThreadFactoryBuilder.create().setNamePrefix("hk-capture-").setDaemon(true).build(),
+                            new ThreadPoolExecutor.AbortPolicy());
+                }
+            }
+        }
+        return captureExecutor;
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (watchdog != null) {
+            watchdog.shutdownNow();
+        }
+        if (captureExecutor != null) {
+            captureExecutor.shutdown();
+        }
     }
 
     /**
      * 海康全彩摄像头拍照
      */
     public String takePhoto(String deviceIp, String username, String password, Short port) {
+        return this.takePhotoAsync(deviceIp, username, password, port).join();
+    }
+
+    /**
+     * 海康全彩摄像头拍照, 抓拍完成即返回, 落盘在图片写入线程完成; 和其他拍照共用同一次抓拍和缓存, 失败时为null
+     */
+    public CompletableFuture<String> takePhotoAsync(String deviceIp, String username, String password, Short port) {
+        HkCameraParam camera = new HkCameraParam();
+        camera.setDeviceIp(deviceIp);
+        camera.setUsername(username);
+        camera.setPassword(password);
+        camera.setPort(port);
+        return this.capture(camera).handle((result, e) -> e == null && result.isSuccess() ? result.getImg() : null);
+    }
+
+    /**
+     * 海康全彩摄像头拍照, JPEG直接交给sink, 不落盘; 和拍照共用同一次抓拍和缓存, 失败返回false
+     * <p>
+     * 由本次请求发起、不需要共用的抓拍直接把抓拍缓冲区的视图交给sink, 不拷贝到堆内存
+     */
+    public boolean streamPhoto(HkCameraParam camera, JpegSink sink) {
+        return this.streamPhoto(camera, true, sink);
+    }
+
+    /**
+     * 同 {@link #streamPhoto(HkCameraParam, JpegSink)}, cached为false时不取缓存, 每次都拿到新抓拍的JPEG(仍和同时进行的抓拍合并)
+     */
+    public boolean streamPhoto(HkCameraParam camera, boolean cached, JpegSink sink) {
+        String deviceIp = camera.getDeviceIp();
+        DirectSink direct = new DirectSink(sink);
+        Frame frame;
+        try {
+            frame = this.frame(camera, cached, direct).join();
+        } catch (CompletionException e) {
+            log.info("【海康全彩摄像头】ip: {}, 拍照失败: {}", deviceIp, String.valueOf(e.getCause()));
+            return false;
+        }
+        if (!frame.success) {
+            return false;
+        }
+        try {
+            if (direct.delivered) {
+                if (direct.error != null) {
+                    throw direct.error;
+                }
+                return true;
+            }
+            // 缓存的和合并得到的JPEG共用, 每次给只读的视图
+            sink.accept(deviceIp, ByteBuffer.wrap(frame.jpeg).asReadOnlyBuffer());
+            return true;
+        } catch (IOException e) {
+            log.info("【海康全彩摄像头】ip: {}, 图片发送失败: {}", deviceIp, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 所有全彩摄像头拍照, 按拍完的顺序交给sink, 同一时刻只有一个线程调用sink; 超时的摄像头不再等待, 返回成功的摄像头数
+     */
+    public int streamPhotos(JpegSink sink) {
+        HkCaptureParam param = property.getCapture();
+        AtomicBoolean closed = new AtomicBoolean();
+        JpegSink serial = (deviceIp, jpeg) -> {
+            synchronized (closed) {
+                if (closed.get()) {
+                    throw new IOException("已超时");
+                }
+                sink.accept(deviceIp, jpeg);
+            }
+        };
+        long deadline = System.currentTimeMillis() + param.getTimeoutMs();
+        List<CompletableFuture<Boolean>> futures = Lists.newArrayList();
+        for (HkCameraParam camera : property.getCamera()) {
+            if (param.isParallel()) {
+                try {
+                    futures.add(CompletableFuture.supplyAsync(() -> this.streamPhoto(camera, serial), this.captureExecutor()));
+                } catch (RejectedExecutionException e) {
+                    log.info("【海康全彩摄像头】ip: {}, 拍照繁忙", camera.getDeviceIp());
+                }
+            } else if (System.currentTimeMillis() < deadline) {
+                futures.add(CompletableFuture.completedFuture(this.streamPhoto(camera, serial)));
+            }
+        }
+        int count = 0;
+        for (CompletableFuture<Boolean> future : futures) {
+            try {
+                if (future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                    count++;
+                }
+            } catch (TimeoutException | ExecutionException e) {
+                log.info("【海康全彩摄像头】拍照失败: {}", String.valueOf(e));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        // 返回后不能再写响应
+        synchronized (closed) {
+            closed.set(true);
+        }
+        return count;
+    }
+
+    /**
+     * 按IP查找配置的全彩摄像头
+     */
+    public HkCameraParam camera(String deviceIp) {
+        if (property.getCamera() == null) {
+            return null;
+        }
+        for (HkCameraParam camera : property.getCamera()) {
+            if (camera.getDeviceIp().equals(deviceIp)) {
+                return camera;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 拍照, 抓拍成功后在归还抓拍缓冲区之前交给reader; 会话失效时重新登录再抓拍一次
+     */
+    private <T> T takePhoto(String deviceIp, String username, String password, Short port, JpegReader<T> reader) {
         // 设备信息
         int lUserID = this.cameraInit(deviceIp, username, password, port);
         if (lUserID < 0) {
             return null;
         }
-        // 写到本地
-        return this.writeFile(this.takePhoto(lUserID), deviceIp.substring(deviceIp.lastIndexOf(".") + 1));
+        T result = this.takePhoto(deviceIp, lUserID, reader);
+        // 会话失效时重新登录再抓拍一次
+        if (result == null && sessionManager.invalidate(deviceIp, sdkManager.sdk().NET_DVR_GetLastError())) {
+            lUserID = sessionManager.acquire(deviceIp, username, password, port);
+            result = lUserID < 0 ? null : this.takePhoto(deviceIp, lUserID, reader);
+        }
+        return result;
     }
 
     /**
      * 海康全彩摄像头初始化
      */
     private int cameraInit(String deviceIp, String username, String password, Short port) {
-        if (hCNetSDK == null) {
-            if (!this.createSDKInstance()) {
-                log.info("【海康全彩摄像头】加载SDK失败");
-                return -1;
-            }
-        }
-        // 初始化
-        if (!hCNetSDK.NET_DVR_Init()) {
+        // SDK只初始化一次
+        if (sdkManager.sdk() == null) {
             log.info("【海康全彩摄像头】初始化失败");
             return -1;
         }
-        log.info("【海康全彩摄像头】初始化成功");
-        // 设备信息
-        return this.login(deviceIp, username, password, port);
+        // 设备信息, 复用已登录的会话
+        return sessionManager.acquire(deviceIp, username, password, port);
     }
 
     /**
-     * 海康全彩摄像头拍照
+     * 海康全彩摄像头拍照, 抓拍缓冲区按设备复用, 缓冲区太小时扩大后重新抓拍
      */
-    private byte[] takePhoto(int lUserID) {
+    private <T> T takePhoto(String deviceIp, int lUserID, JpegReader<T> reader) {
+        HCNetSDK hCNetSDK = sdkManager.sdk();
         // JPEG图像参数
         HCNetSDK.NET_DVR_JPEGPARA lpJpegPara = new HCNetSDK.NET_DVR_JPEGPARA();
         // 设置图片的分辨率
         lpJpegPara.wPicSize = 2;
         // 设置图片质量
         lpJpegPara.wPicQuality = 0;
-        // 通道号、输入缓冲区大小
-        int channel = 1, dwPicSize = 1024 * 1024;
+        // 通道号
+        int channel = 1;
         // 保存JPEG数据的缓冲区
-        Pointer sJpegPicBuffer = new Memory(dwPicSize);
-        // 返回图片数据的大小
-        IntByReference reference = new IntByReference();
-        // 抓拍
-        hCNetSDK.NET_DVR_CaptureJPEGPicture_NEW(lUserID, channel, lpJpegPara, sJpegPicBuffer, dwPicSize, reference);
+        NativeBuffer sJpegPicBuffer = nativeBufferPool.borrow(deviceIp);
+        if (sJpegPicBuffer == null) {
+            return null;
+        }
         // 图片大小
-        int value = reference.getValue();
-        log.info("【海康全彩摄像头】图片大小: {}", value);
-        // 图片byte
-        return sJpegPicBuffer.getByteArray(0, value);
+        int value = 0;
+        try {
+            while (true) {
+                // 返回图片数据的大小
+                IntByReference reference = new IntByReference();
+                // 抓拍
+                if (hCNetSDK.NET_DVR_CaptureJPEGPicture_NEW(lUserID, channel, lpJpegPara, sJpegPicBuffer,
+                        (int) sJpegPicBuffer.getSize(), reference)) {
+                    value = (int) Math.min(reference.getValue(), sJpegPicBuffer.getSize());
+                    break;
+                }
+                int error = hCNetSDK.NET_DVR_GetLastError();
+                if (error != HCNetSDK.NET_DVR_NOENOUGH_BUF) {
+                    log.info("【海康全彩摄像头】抓拍失败: {}", error);
+                    return null;
+                }
+                sJpegPicBuffer = nativeBufferPool.grow(deviceIp, sJpegPicBuffer, reference.getValue());
+                if (sJpegPicBuffer == null) {
+                    return null;
+                }
+            }
+            log.debug("【海康全彩摄像头】图片大小: {}", value);
+            return reader.read(sJpegPicBuffer, value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (sJpegPicBuffer != null) {
+                nativeBufferPool.release(deviceIp, sJpegPicBuffer, value);
+            }
+        }
+    }
+
+    /**
+     * 一次抓拍的结果; 时间为完成时间
+     */
+    private static class Frame {
+
+        private final String deviceIp;
+
+        private final long start;
+
+        /**
+         * 堆内存中的JPEG, 失败或只直接交给了发起请求的sink时为null
+         */
+        private final byte[] jpeg;
+
+        private final boolean success;
+
+        private final long time = System.currentTimeMillis();
+
+        /**
+         * 落盘结果, 第一次需要图片路径时才写文件
+         */
+        private CompletableFuture<HkCaptureResult> result;
+
+        private Frame(String deviceIp, long start, byte[] jpeg, boolean success) {
+            this.deviceIp = deviceIp;
+            this.start = start;
+            this.jpeg = jpeg;
+            this.success = success;
+        }
+    }
+
+    /**
+     * 一次正在进行的抓拍; 拿到JPEG时封口, 封口前合并进来的请求需要堆内存中的JPEG
+     */
+    private static class Flight {
+
+        private final CompletableFuture<Frame> future = new CompletableFuture<>();
+
+        private int waiters;
+
+        private boolean sealed;
+
+        /**
+         * 合并进来, 已封口时返回false
+         */
+        private synchronized boolean join() {
+            if (sealed) {
+                return false;
+            }
+            waiters++;
+            return true;
+        }
+
+        /**
+         * 封口, 返回是否有合并进来的请求
+         */
+        private synchronized boolean seal() {
+            sealed = true;
+            return waiters > 0;
+        }
+    }
+
+    /**
+     * 在抓拍缓冲区归还之前接收JPEG, 发送失败只记录, 不影响抓拍结果
+     */
+    private static class DirectSink {
+
+        private final JpegSink sink;
+
+        private boolean delivered;
+
+        private IOException error;
+
+        private DirectSink(JpegSink sink) {
+            this.sink = sink;
+        }
+
+        private void accept(String deviceIp, ByteBuffer jpeg) {
+            delivered = true;
+            try {
+                sink.accept(deviceIp, jpeg);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * 接收JPEG, 只读, 只在调用期间有效
+     */
+    public interface JpegSink {
+
+        void accept(String deviceIp, ByteBuffer jpeg) throws IOException;
+    }
+
+    /**
+     * 读取抓拍缓冲区中的JPEG
+     */
+    private interface JpegReader<T> {
+
+        T read(NativeBuffer jpeg, int length) throws IOException;
     }
 }
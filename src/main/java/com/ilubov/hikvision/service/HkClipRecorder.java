@@ -0,0 +1,397 @@
+package com.ilubov.hikvision.service;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import cn.hutool.core.util.StrUtil;
+import com.google.common.collect.Lists;
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.sdk.HCNetSDK;
+import com.ilubov.hikvision.util.ByteRing;
+import com.ilubov.hikvision.util.PsDemuxer;
+import com.ilubov.hikvision.vo.HkCameraParam;
+import com.ilubov.hikvision.vo.HkClipParam;
+import com.ilubov.hikvision.vo.HkClipStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 事件录像
+ * <p>
+ * 每台车牌摄像头一个线程一直取流, 原样写进自己的堆外环形缓冲, 同时解复用记下最近的关键帧在缓冲中的偏移和时间;
+ * 缓冲大小固定, 满了覆盖最早的码流
+ * <p>
+ * 车牌识别或车辆报警时, 等到事件后 post-ms 再从事件前 pre-ms 之前最近的关键帧开始, 把缓冲中的码流原样写成PS文件,
+ * 不转码, 不占用报警处理线程; 文件写完后才给出路径, 写入失败时给出null
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class HkClipRecorder {
+
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneId.systemDefault());
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HHmmssSSS").withZone(ZoneId.systemDefault());
+
+    @Autowired
+    private HkCameraProperty property;
+
+    @Autowired
+    private HkRealPlay realPlay;
+
+    @Autowired
+    private HkDeviceRegistry deviceRegistry;
+
+    /**
+     * 车牌摄像头IP -> 录像缓冲
+     */
+    private final Map<String, Recorder> recorders = new ConcurrentHashMap<>();
+
+    /**
+     * 还没写完的录像, 停止时以null结束, 不让等待方一直挂着
+     */
+    private final Set<CompletableFuture<String>> pending = ConcurrentHashMap.newKeySet();
+
+    private ExecutorService executor;
+
+    private ScheduledExecutorService writer;
+
+    @PostConstruct
+    public void init() {
+        HkClipParam param = property.getClip();
+        if (!param.isEnabled()) {
+            return;
+        }
+        executor = Executors.newCachedThreadPool(
+                ThreadFactoryBuilder.create().setNamePrefix("hk-clip-buffer-").setDaemon(true).build());
+        writer = Executors.newScheduledThreadPool(param.getWriterThreads(),
+                ThreadFactoryBuilder.create().setNamePrefix("hk-clip-writer-").setDaemon(true).build());
+        for (HkCameraParam camera : deviceRegistry.plateCameras()) {
+            HkCameraParam source = this.source(camera);
+            if (source == null) {
+                log.info("【海康事件录像】ip: {}, 未配置的取流摄像头: {}", camera.getDeviceIp(), camera.getClipDeviceIp());
+                continue;
+            }
+            Recorder recorder = new Recorder(camera.getDeviceIp(), source, param);
+            recorders.put(camera.getDeviceIp(), recorder);
+            executor.execute(recorder);
+            log.info("【海康事件录像】ip: {}, 取流: {}, 缓冲: {}字节", camera.getDeviceIp(), source.getDeviceIp(),
+                    recorder.ring.getCapacity());
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        for (Recorder recorder : recorders.values()) {
+            recorder.stopped = true;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (writer != null) {
+            writer.shutdownNow();
+        }
+        for (CompletableFuture<String> future : pending) {
+            future.complete(null);
+        }
+    }
+
+    /**
+     * 事件触发录像, 事件后 post-ms 写入文件, 写完后返回录像路径; 没有录像缓冲的设备或写入失败时返回null
+     *
+     * @param deviceIp 车牌摄像头IP
+     * @param deviceId 设备编号, 用于文件名
+     * @param time     事件时间
+     * @param kind     事件类型, 用作文件名后缀; 不用车牌号, 避免文件名里出现中文
+     */
+    public CompletableFuture<String> record(String deviceIp, String deviceId, long time, String kind) {
+        Recorder recorder = deviceIp == null ? null : recorders.get(deviceIp);
+        if (recorder == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        HkClipParam param = property.getClip();
+        Instant instant = Instant.ofEpochMilli(time);
+        String name = StrUtil.blankToDefault(deviceId, deviceIp) + "_" + TIME.format(instant)
+                + (StrUtil.isBlank(kind) ? "" : "_" + kind) + ".ps";
+        Path path = Paths.get(param.getPath(), DATE.format(instant), name);
+        recorder.triggered.incrementAndGet();
+        long delay = Math.max(0, time + param.getPostMs() - System.currentTimeMillis());
+        CompletableFuture<String> future = new CompletableFuture<>();
+        pending.add(future);
+        future.whenComplete((clip, e) -> pending.remove(future));
+        try {
+            writer.schedule(() -> future.complete(recorder.write(path, time - param.getPreMs()) ? path.toString() : null),
+                    delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            recorder.failed.incrementAndGet();
+            future.complete(null);
+        }
+        return future;
+    }
+
+    /**
+     * 录像统计
+     */
+    public List<HkClipStats> stats() {
+        List<HkClipStats> list = Lists.newArrayList();
+        for (Recorder recorder : recorders.values()) {
+            list.add(recorder.stats());
+        }
+        return list;
+    }
+
+    /**
+     * 取流的摄像头, 配置了全彩摄像头时取全彩摄像头的码流
+     */
+    private HkCameraParam source(HkCameraParam camera) {
+        if (StrUtil.isBlank(camera.getClipDeviceIp())) {
+            return camera;
+        }
+        List<HkCameraParam> cameraList = property.getCamera();
+        if (cameraList != null) {
+            for (HkCameraParam candidate : cameraList) {
+                if (camera.getClipDeviceIp().equals(candidate.getDeviceIp())) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 单台车牌摄像头的录像缓冲, 取流线程写入, 写录像线程读取
+     */
+    private class Recorder implements Runnable {
+
+        private final String deviceIp;
+
+        private final HkCameraParam source;
+
+        private final HkClipParam param;
+
+        private final ByteRing ring;
+
+        /**
+         * 最近的关键帧在缓冲中的偏移和收到的时间, 按顺序循环写入
+         */
+        private final long[] keyOffsets;
+
+        private final long[] keyTimes;
+
+        private int keyCount;
+
+        private volatile HkRealPlay.Consumer consumer;
+
+        private volatile boolean stopped;
+
+        private final AtomicLong triggered = new AtomicLong();
+
+        private final AtomicLong written = new AtomicLong();
+
+        private final AtomicLong truncated = new AtomicLong();
+
+        private final AtomicLong failed = new AtomicLong();
+
+        private final AtomicLong writtenBytes = new AtomicLong();
+
+        private Recorder(String deviceIp, HkCameraParam source, HkClipParam param) {
+            this.deviceIp = deviceIp;
+            this.source = source;
+            this.param = param;
+            this.ring = new ByteRing(param.getBufferBytes());
+            this.keyOffsets = new long[Math.max(2, param.getIndexSize())];
+            this.keyTimes = new long[keyOffsets.length];
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!stopped) {
+                    HkRealPlay.Consumer consumer = realPlay.attach(source, param.getChannel(), param.getStreamType());
+                    if (consumer != null) {
+                        this.consumer = consumer;
+                        try {
+                            this.pump(consumer);
+                        } finally {
+                            consumer.close();
+                        }
+                    }
+                    if (!stopped) {
+                        log.info("【海康事件录像】ip: {}, 取流中断, {}ms后重试", deviceIp, param.getRetryMs());
+                        Thread.sleep(param.getRetryMs());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("【海康事件录像】ip: {}, 取流异常", deviceIp, e);
+            } finally {
+                log.info("【海康事件录像】ip: {}, 停止取流", deviceIp);
+            }
+        }
+
+        /**
+         * 码流原样写入缓冲, 重新取流后解复用的偏移从当前缓冲的位置算起
+         */
+        private void pump(HkRealPlay.Consumer consumer) {
+            long base = ring.getWritten();
+            PsDemuxer demuxer = new PsDemuxer(param.getMaxFrameBytes(), 1,
+                    keyframe -> this.keyframe(base + keyframe.getOffset(), keyframe.getTime()));
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            long lost = consumer.getLost();
+            while (!stopped && !consumer.isStopped()) {
+                buffer.clear();
+                int length = consumer.poll(buffer);
+                if (length < 0) {
+                    buffer = ByteBuffer.allocate(Integer.highestOneBit(-length) << 1);
+                } else if (length == 0) {
+                    consumer.await(200, TimeUnit.MILLISECONDS);
+                } else if (consumer.getType() == HCNetSDK.NET_DVR_STREAMDATA) {
+                    buffer.flip();
+                    // 这个包之前丢了包, 拼了一半的关键帧不完整, 不记为录像起点
+                    if (consumer.getLost() != lost) {
+                        lost = consumer.getLost();
+                        demuxer.reset();
+                    }
+                    ring.write(buffer.duplicate());
+                    demuxer.feed(buffer);
+                }
+            }
+        }
+
+        private synchronized void keyframe(long offset, long time) {
+            int slot = keyCount % keyOffsets.length;
+            keyOffsets[slot] = offset;
+            keyTimes[slot] = time;
+            keyCount++;
+        }
+
+        /**
+         * from之前最近的关键帧的偏移, 没有时取缓冲中最早的关键帧并记为不完整; 缓冲中没有关键帧返回-1
+         */
+        private synchronized long start(long from) {
+            long oldest = ring.getOldest();
+            long earliest = -1;
+            long latest = -1;
+            int n = Math.min(keyCount, keyOffsets.length);
+            for (int i = keyCount - n; i < keyCount; i++) {
+                int slot = i % keyOffsets.length;
+                if (keyOffsets[slot] < oldest) {
+                    continue;
+                }
+                if (earliest < 0) {
+                    earliest = keyOffsets[slot];
+                }
+                if (keyTimes[slot] <= from) {
+                    latest = keyOffsets[slot];
+                }
+            }
+            if (latest < 0 && earliest >= 0) {
+                truncated.incrementAndGet();
+                return earliest;
+            }
+            return latest;
+        }
+
+        /**
+         * 在写录像线程上执行, 从关键帧拷贝到当前写入的位置, 返回是否写入成功
+         */
+        private boolean write(Path path, long from) {
+            long offset = this.start(from);
+            if (offset < 0) {
+                failed.incrementAndGet();
+                log.info("【海康事件录像】ip: {}, 缓冲中没有关键帧, 录像失败: {}", deviceIp, path);
+                return false;
+            }
+            long end = ring.getWritten();
+            ByteBuffer chunk = ByteBuffer.allocate(256 * 1024);
+            try {
+                Files.createDirectories(path.getParent());
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    while (offset < end) {
+                        chunk.clear();
+                        chunk.limit((int) Math.min(chunk.capacity(), end - offset));
+                        int length = ring.read(offset, chunk);
+                        if (length < 0) {
+                            throw new IOException("写入期间录像缓冲已被覆盖, 缓冲太小");
+                        }
+                        chunk.flip();
+                        while (chunk.hasRemaining()) {
+                            channel.write(chunk);
+                        }
+                        offset += length;
+                    }
+                }
+                written.incrementAndGet();
+                writtenBytes.addAndGet(Files.size(path));
+                log.info("【海康事件录像】ip: {}, 录像保存: {}, 大小: {}", deviceIp, path, Files.size(path));
+                return true;
+            } catch (IOException e) {
+                failed.incrementAndGet();
+                log.error("【海康事件录像】ip: {}, 录像失败: {}", deviceIp, path, e);
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException ignored) {
+                    // 留给人工清理
+                }
+                return false;
+            }
+        }
+
+        private HkClipStats stats() {
+            HkClipStats stats = new HkClipStats();
+            stats.setDeviceIp(deviceIp);
+            stats.setSourceIp(source.getDeviceIp());
+            HkRealPlay.Consumer consumer = this.consumer;
+            stats.setStreaming(consumer != null && !consumer.isStopped());
+            stats.setLostPackets(consumer == null ? 0 : consumer.getLost());
+            stats.setBufferBytes(ring.getCapacity());
+            stats.setBufferedBytes(ring.getWritten() - ring.getOldest());
+            long oldest = ring.getOldest();
+            synchronized (this) {
+                int n = Math.min(keyCount, keyOffsets.length);
+                for (int i = keyCount - n; i < keyCount; i++) {
+                    int slot = i % keyOffsets.length;
+                    if (keyOffsets[slot] >= oldest) {
+                        if (stats.getKeyframes() == 0) {
+                            stats.setBufferedMs(System.currentTimeMillis() - keyTimes[slot]);
+                        }
+                        stats.setKeyframes(stats.getKeyframes() + 1);
+                    }
+                }
+            }
+            stats.setTriggered(triggered.get());
+            stats.setWritten(written.get());
+            stats.setTruncated(truncated.get());
+            stats.setFailed(failed.get());
+            stats.setWrittenBytes(writtenBytes.get());
+            return stats;
+        }
+    }
+}
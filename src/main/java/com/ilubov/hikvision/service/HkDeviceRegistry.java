@@ -0,0 +1,200 @@
+package com.ilubov.hikvision.service;
+
+import cn.hutool.core.util.StrUtil;
+import com.google.common.collect.Lists;
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.sdk.HCNetSDK;
+import com.ilubov.hikvision.util.IntObjectMap;
+import com.ilubov.hikvision.vo.HkCameraParam;
+import com.ilubov.hikvision.vo.HkDeviceInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 布防设备注册表
+ * <p>
+ * 登录并布防多台车牌摄像头, 回调时按lUserID查到设备, 布防和撤防时复制一份映射表再整体替换, 回调线程读取无锁
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class HkDeviceRegistry {
+
+    @Autowired
+    private HkCameraProperty property;
+
+    @Autowired
+    private HkSdkManager sdkManager;
+
+    @Autowired
+    private HkSessionManager sessionManager;
+
+    /**
+     * 设备编号 -> 设备, 只在加锁时修改
+     */
+    private final Map<String, Device> devices = new LinkedHashMap<>();
+
+    /**
+     * lUserID -> 设备, 回调线程读取
+     */
+    private volatile IntObjectMap<Device> userIds = new IntObjectMap<>();
+
+    /**
+     * 配置的所有车牌摄像头
+     */
+    public List<HkCameraParam> plateCameras() {
+        List<HkCameraParam> list = Lists.newArrayList();
+        if (property.getPlateNumber() != null) {
+            list.add(property.getPlateNumber());
+        }
+        if (property.getPlateNumbers() != null) {
+            list.addAll(property.getPlateNumbers());
+        }
+        return list;
+    }
+
+    /**
+     * 登录并布防, 已布防的设备直接返回成功
+     */
+    public synchronized boolean arm(HkCameraParam camera) {
+        String deviceId = deviceId(camera);
+        if (devices.containsKey(deviceId)) {
+            return true;
+        }
+        HCNetSDK hCNetSDK = sdkManager.sdk();
+        if (hCNetSDK == null) {
+            log.info("【海康车牌摄像头初始化】初始化失败");
+            return false;
+        }
+        // 设备信息, 布防的设备一直在线, 不交给会话管理做空闲注销
+        int lUserID = sessionManager.login(camera.getDeviceIp(), camera.getUsername(), camera.getPassword(), camera.getPort());
+        if (lUserID < 0) {
+            return false;
+        }
+        // 启用布防
+        HCNetSDK.NET_DVR_SETUPALARM_PARAM lpSetupParam = new HCNetSDK.NET_DVR_SETUPALARM_PARAM();
+        lpSetupParam.dwSize = 0;
+        // 布防优先级：0- 一等级（高），1- 二等级（中）
+        lpSetupParam.byLevel = 1;
+        // 上传报警信息类型: 0- 老报警信息(NET_DVR_PLATE_RESULT), 1- 新报警信息(NET_ITS_PLATE_RESULT)
+        lpSetupParam.byAlarmInfoType = 1;
+        int lAlarmHandle = hCNetSDK.NET_DVR_SetupAlarmChan_V41(lUserID, lpSetupParam);
+        if (lAlarmHandle < 0) {
+            log.info("【海康车牌摄像头初始化】设备: {}, 启用布防失败: {}", deviceId, hCNetSDK.NET_DVR_GetLastError());
+            // 只注销这台设备, 不影响SDK和其他设备
+            sessionManager.logout(lUserID);
+            return false;
+        }
+        Device device = new Device(deviceId, camera.getDeviceIp(), lUserID, lAlarmHandle);
+        devices.put(deviceId, device);
+        IntObjectMap<Device> copy = userIds.copy();
+        copy.put(lUserID, device);
+        userIds = copy;
+        log.info("【海康车牌摄像头初始化】设备: {}, 布防成功,开始监测车辆", deviceId);
+        return true;
+    }
+
+    /**
+     * 撤防并注销
+     */
+    public synchronized void disarm(String deviceId) {
+        Device device = devices.remove(deviceId);
+        if (device == null) {
+            return;
+        }
+        IntObjectMap<Device> copy = userIds.copy();
+        copy.remove(device.userId);
+        userIds = copy;
+        HCNetSDK hCNetSDK = sdkManager.sdk();
+        if (hCNetSDK != null) {
+            hCNetSDK.NET_DVR_CloseAlarmChan_V30(device.alarmHandle);
+        }
+        sessionManager.logout(device.userId);
+        log.info("【海康车牌摄像头】设备: {}, 已撤防", deviceId);
+    }
+
+    /**
+     * 按lUserID查找设备, 在SDK回调线程上调用, 未布防的返回null
+     */
+    public Device resolve(int lUserID) {
+        return lUserID < 0 ? null : userIds.get(lUserID);
+    }
+
+    /**
+     * 布防设备信息
+     */
+    public synchronized List<HkDeviceInfo> list() {
+        List<HkDeviceInfo> list = Lists.newArrayList();
+        for (Device device : devices.values()) {
+            HkDeviceInfo info = new HkDeviceInfo();
+            info.setDeviceId(device.deviceId);
+            info.setDeviceIp(device.deviceIp);
+            info.setUserId(device.userId);
+            info.setAlarmHandle(device.alarmHandle);
+            info.setArmTime(device.armTime);
+            info.setEvents(device.events.get());
+            list.add(info);
+        }
+        return list;
+    }
+
+    @PreDestroy
+    public synchronized void destroy() {
+        for (String deviceId : Lists.newArrayList(devices.keySet())) {
+            this.disarm(deviceId);
+        }
+    }
+
+    private static String deviceId(HkCameraParam camera) {
+        return StrUtil.isBlank(camera.getDeviceId()) ? camera.getDeviceIp() : camera.getDeviceId();
+    }
+
+    /**
+     * 已布防设备
+     */
+    public static class Device {
+
+        private final String deviceId;
+
+        private final String deviceIp;
+
+        private final int userId;
+
+        private final int alarmHandle;
+
+        private final long armTime = System.currentTimeMillis();
+
+        private final AtomicLong events = new AtomicLong();
+
+        private Device(String deviceId, String deviceIp, int userId, int alarmHandle) {
+            this.deviceId = deviceId;
+            this.deviceIp = deviceIp;
+            this.userId = userId;
+            this.alarmHandle = alarmHandle;
+        }
+
+        public String getDeviceId() {
+            return deviceId;
+        }
+
+        public String getDeviceIp() {
+            return deviceIp;
+        }
+
+        /**
+         * 记一次回调
+         */
+        public void onEvent() {
+            events.incrementAndGet();
+        }
+    }
+}
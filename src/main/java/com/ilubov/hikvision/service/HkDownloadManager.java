@@ -0,0 +1,738 @@
+package com.ilubov.hikvision.service;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.google.common.collect.Lists;
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.sdk.HCNetSDK;
+import com.ilubov.hikvision.vo.HkCameraParam;
+import com.ilubov.hikvision.vo.HkDownloadChunk;
+import com.ilubov.hikvision.vo.HkDownloadJob;
+import com.ilubov.hikvision.vo.HkDownloadParam;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按时间下载录像
+ * <p>
+ * 一段时间按 chunk-seconds 切成多段, 每台设备最多 sessions-per-device 个线程同时下载, 每个线程单独登录一次,
+ * 依次取本设备队列里的段; 每段用 NET_DVR_GetFileByTime_V40 下载到单独的文件, 定时查询进度,
+ * 失败或没有进度时停止该段, 稍后重新下载该段, 已完成的段不再下载
+ * <p>
+ * 所有段完成后按时间顺序合并成一个文件, 只保留第一段的40字节文件头; 合并只是拼接, 内容仍是海康的PS流,
+ * 和事件录像一样以.ps命名; 重试用完仍失败的任务可以手动继续
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class HkDownloadManager {
+
+    public static final String QUEUED = "QUEUED";
+
+    public static final String RUNNING = "RUNNING";
+
+    public static final String DONE = "DONE";
+
+    public static final String FAILED = "FAILED";
+
+    public static final String CANCELLED = "CANCELLED";
+
+    /**
+     * 海康录像文件头的长度, 以 IMKH 开头
+     */
+    private static final int FILE_HEADER = 40;
+
+    private static final DateTimeFormatter NAME = DateTimeFormatter.ofPattern("yyyyMMddHHmmss").withZone(ZoneId.systemDefault());
+
+    @Autowired
+    private HkCameraProperty property;
+
+    @Autowired
+    private HkSdkManager sdkManager;
+
+    @Autowired
+    private HkSessionManager sessionManager;
+
+    @Autowired
+    private HkDeviceRegistry deviceRegistry;
+
+    /**
+     * 任务ID -> 任务, 按ID排序
+     */
+    private final ConcurrentSkipListMap<Long, Job> jobs = new ConcurrentSkipListMap<>();
+
+    /**
+     * 设备IP -> 待下载的段
+     */
+    private final Map<String, Device> devices = new ConcurrentHashMap<>();
+
+    private final AtomicLong ids = new AtomicLong();
+
+    private ExecutorService executor;
+
+    private ScheduledExecutorService retryScheduler;
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newCachedThreadPool(
+                ThreadFactoryBuilder.create().setNamePrefix("hk-download-").setDaemon(true).build());
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(
+                ThreadFactoryBuilder.create().setNamePrefix("hk-download-retry-").setDaemon(true).build());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        for (Job job : jobs.values()) {
+            job.cancelled = true;
+        }
+        executor.shutdownNow();
+        retryScheduler.shutdownNow();
+    }
+
+    /**
+     * 配置的摄像头, 包括全彩摄像头和车牌摄像头
+     */
+    public HkCameraParam camera(String deviceIp) {
+        List<HkCameraParam> list = Lists.newArrayList(deviceRegistry.plateCameras());
+        if (property.getCamera() != null) {
+            list.addAll(property.getCamera());
+        }
+        for (HkCameraParam camera : list) {
+            if (camera.getDeviceIp().equals(deviceIp)) {
+                return camera;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 新建下载任务, 时间精确到秒
+     */
+    public HkDownloadJob submit(HkCameraParam camera, int channel, long from, long to) throws IOException {
+        HkDownloadParam param = property.getDownload();
+        long start = TimeUnit.SECONDS.toMillis(TimeUnit.MILLISECONDS.toSeconds(from));
+        long end = TimeUnit.SECONDS.toMillis(TimeUnit.MILLISECONDS.toSeconds(to + 999));
+        if (end <= start) {
+            throw new IllegalArgumentException("结束时间需晚于开始时间");
+        }
+        long id = ids.incrementAndGet();
+        Path dir = Paths.get(param.getPath(), String.valueOf(id));
+        Files.createDirectories(dir);
+        Job job = new Job(id, camera, channel, start, end, dir);
+        long chunkMs = TimeUnit.SECONDS.toMillis(Math.max(1, param.getChunkSeconds()));
+        for (long t = start; t < end; t += chunkMs) {
+            job.chunks.add(new Chunk(job, job.chunks.size(), t, Math.min(end, t + chunkMs)));
+        }
+        jobs.put(id, job);
+        this.evict(param.getMaxJobs());
+        log.info("【海康录像下载】ip: {}, 任务: {}, 通道: {}, {} ~ {}, 分{}段", camera.getDeviceIp(), id, channel,
+                NAME.format(Instant.ofEpochMilli(start)), NAME.format(Instant.ofEpochMilli(end)), job.chunks.size());
+        Device device = this.device(camera);
+        for (Chunk chunk : job.chunks) {
+            device.enqueue(chunk);
+        }
+        device.schedule();
+        return job.view();
+    }
+
+    /**
+     * 取消任务, 正在下载的段停止, 已完成的段保留
+     */
+    public boolean cancel(long id) {
+        Job job = jobs.get(id);
+        if (job == null) {
+            return false;
+        }
+        synchronized (job) {
+            if (job.state.equals(DONE)) {
+                return false;
+            }
+            job.cancelled = true;
+            job.state = CANCELLED;
+            job.finishTime = System.currentTimeMillis();
+        }
+        // 排队中的段留在队列里, 下载线程取出时跳过; 继续任务时不会重复排队
+        log.info("【海康录像下载】任务: {}, 已取消", id);
+        return true;
+    }
+
+    /**
+     * 继续失败或取消的任务, 只下载没有完成的段
+     */
+    public boolean resume(long id) {
+        Job job = jobs.get(id);
+        if (job == null) {
+            return false;
+        }
+        List<Chunk> pending = Lists.newArrayList();
+        synchronized (job) {
+            if (!job.state.equals(FAILED) && !job.state.equals(CANCELLED)) {
+                return false;
+            }
+            job.cancelled = false;
+            job.error = null;
+            job.finishTime = 0;
+            job.state = RUNNING;
+            for (Chunk chunk : job.chunks) {
+                if (chunk.state.equals(QUEUED) || chunk.state.equals(FAILED)) {
+                    chunk.state = QUEUED;
+                    chunk.attempts = 0;
+                    pending.add(chunk);
+                }
+            }
+        }
+        log.info("【海康录像下载】任务: {}, 继续下载 {} 段", id, pending.size());
+        Device device = this.device(job.camera);
+        // 还在队列里或等待重试的段不重复排队
+        for (Chunk chunk : pending) {
+            device.enqueue(chunk);
+        }
+        device.schedule();
+        // 剩下的段都在下载中时, 由下载线程完成后合并
+        this.complete(job);
+        return true;
+    }
+
+    public HkDownloadJob job(long id) {
+        Job job = jobs.get(id);
+        return job == null ? null : job.view();
+    }
+
+    /**
+     * 所有任务, 最新的在前
+     */
+    public List<HkDownloadJob> jobs() {
+        List<HkDownloadJob> list = Lists.newArrayList();
+        for (Job job : jobs.descendingMap().values()) {
+            list.add(job.view());
+        }
+        return list;
+    }
+
+    /**
+     * 已完成任务的文件, 未完成返回null
+     */
+    public Path file(long id) {
+        Job job = jobs.get(id);
+        return job == null || !job.state.equals(DONE) ? null : job.output;
+    }
+
+    private Device device(HkCameraParam camera) {
+        return devices.computeIfAbsent(camera.getDeviceIp(), ip -> new Device(camera));
+    }
+
+    /**
+     * 超过保留数时移除最早结束的任务, 同时删除它的分段文件和合并后的文件; 还有段在下载的任务不移除
+     */
+    private void evict(int maxJobs) {
+        Iterator<Job> iterator = jobs.values().iterator();
+        while (jobs.size() > maxJobs && iterator.hasNext()) {
+            Job job = iterator.next();
+            if (job.finishTime > 0 && !job.downloading()) {
+                iterator.remove();
+                this.delete(job);
+            }
+        }
+    }
+
+    /**
+     * 删除任务目录
+     */
+    private void delete(Job job) {
+        try {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(job.dir)) {
+                for (Path file : files) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(job.dir);
+        } catch (IOException e) {
+            log.warn("【海康录像下载】任务: {}, 删除文件失败: {}", job.id, job.dir, e);
+        }
+    }
+
+    /**
+     * 一段结束后检查任务, 全部完成时合并, 有段失败且没有在下载的段时任务失败
+     */
+    private void complete(Job job) {
+        synchronized (job) {
+            if (job.cancelled || !job.state.equals(RUNNING) && !job.state.equals(QUEUED)) {
+                return;
+            }
+            int done = 0;
+            Chunk failed = null;
+            for (Chunk chunk : job.chunks) {
+                if (chunk.state.equals(DONE)) {
+                    done++;
+                } else if (chunk.state.equals(FAILED)) {
+                    failed = failed == null ? chunk : failed;
+                } else {
+                    return;
+                }
+            }
+            if (failed != null) {
+                job.state = FAILED;
+                job.error = "第" + failed.index + "段下载失败: " + failed.error;
+                job.finishTime = System.currentTimeMillis();
+                log.info("【海康录像下载】任务: {}, 下载失败, 完成 {}/{} 段, {}", job.id, done, job.chunks.size(), job.error);
+                return;
+            }
+            try {
+                this.stitch(job);
+                job.state = DONE;
+                log.info("【海康录像下载】任务: {}, 下载完成: {}, 大小: {}", job.id, job.output, job.bytes);
+            } catch (IOException e) {
+                job.state = FAILED;
+                job.error = "合并失败: " + e.getMessage();
+                log.error("【海康录像下载】任务: {}, 合并失败", job.id, e);
+            }
+            job.finishTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 按时间顺序合并, 后面的段去掉文件头, 合并后删除分段文件
+     */
+    private void stitch(Job job) throws IOException {
+        Path output = job.dir.resolve(job.camera.getDeviceIp() + "_" + job.channel + "_"
+                + NAME.format(Instant.ofEpochMilli(job.from)) + "_" + NAME.format(Instant.ofEpochMilli(job.to)) + ".ps");
+        long bytes = 0;
+        try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Chunk chunk : job.chunks) {
+                try (FileChannel in = FileChannel.open(chunk.path, StandardOpenOption.READ)) {
+                    long position = chunk.index > 0 && hasFileHeader(in) ? FILE_HEADER : 0;
+                    long size = in.size();
+                    while (position < size) {
+                        long n = in.transferTo(position, size - position, out);
+                        position += n;
+                        bytes += n;
+                    }
+                }
+            }
+        }
+        for (Chunk chunk : job.chunks) {
+            Files.deleteIfExists(chunk.path);
+        }
+        job.output = output;
+        job.bytes = bytes;
+    }
+
+    private static boolean hasFileHeader(FileChannel in) throws IOException {
+        if (in.size() < FILE_HEADER) {
+            return false;
+        }
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        in.read(magic, 0);
+        return "IMKH".equals(new String(magic.array(), StandardCharsets.US_ASCII));
+    }
+
+    private static HCNetSDK.NET_DVR_TIME time(long millis) {
+        LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        HCNetSDK.NET_DVR_TIME time = new HCNetSDK.NET_DVR_TIME();
+        time.dwYear = t.getYear();
+        time.dwMonth = t.getMonthValue();
+        time.dwDay = t.getDayOfMonth();
+        time.dwHour = t.getHour();
+        time.dwMinute = t.getMinute();
+        time.dwSecond = t.getSecond();
+        return time;
+    }
+
+    /**
+     * 单台设备的下载队列, 最多 sessions-per-device 个下载线程
+     */
+    private class Device {
+
+        private final HkCameraParam camera;
+
+        private final LinkedBlockingDeque<Chunk> queue = new LinkedBlockingDeque<>();
+
+        private final AtomicInteger workers = new AtomicInteger();
+
+        private Device(HkCameraParam camera) {
+            this.camera = camera;
+        }
+
+        /**
+         * 段不在队列里时才加入, 同一段不会被两个下载线程同时下载
+         */
+        private void enqueue(Chunk chunk) {
+            if (chunk.enqueued.compareAndSet(false, true)) {
+                queue.offer(chunk);
+            }
+        }
+
+        /**
+         * 队列不空时补足下载线程
+         */
+        private void schedule() {
+            int max = Math.max(1, property.getDownload().getSessionsPerDevice());
+            while (!queue.isEmpty()) {
+                int n = workers.get();
+                if (n >= max) {
+                    return;
+                }
+                if (workers.compareAndSet(n, n + 1)) {
+                    try {
+                        executor.execute(new Worker(this));
+                    } catch (RejectedExecutionException e) {
+                        workers.decrementAndGet();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 下载线程, 单独登录一次, 依次下载队列里的段, 队列空了注销退出
+     */
+    private class Worker implements Runnable {
+
+        private final Device device;
+
+        private int lUserID = -1;
+
+        private Worker(Device device) {
+            this.device = device;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Chunk chunk;
+                while ((chunk = device.queue.poll()) != null) {
+                    this.download(chunk);
+                }
+            } finally {
+                this.logout();
+                device.workers.decrementAndGet();
+                // 退出期间新加入的段
+                device.schedule();
+            }
+        }
+
+        private void download(Chunk chunk) {
+            Job job = chunk.job;
+            synchronized (job) {
+                // 取消的段放回, 与继续任务互斥
+                if (job.cancelled) {
+                    chunk.enqueued.set(false);
+                    return;
+                }
+                if (job.state.equals(QUEUED)) {
+                    job.state = RUNNING;
+                }
+                chunk.state = RUNNING;
+            }
+            chunk.progress = 0;
+            chunk.attempts++;
+            boolean success;
+            try {
+                success = this.transfer(chunk);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                chunk.error = "下载被中断";
+                success = false;
+            } catch (Exception e) {
+                log.error("【海康录像下载】任务: {}, 第{}段下载异常", job.id, chunk.index, e);
+                chunk.error = String.valueOf(e);
+                success = false;
+            }
+            if (!success) {
+                // 取消的段不算失败, 继续时重新下载; 与继续任务互斥, 避免这一段被漏掉
+                synchronized (job) {
+                    if (job.cancelled) {
+                        chunk.state = QUEUED;
+                        chunk.attempts--;
+                        chunk.enqueued.set(false);
+                        return;
+                    }
+                }
+            }
+            if (success) {
+                chunk.state = DONE;
+                chunk.progress = 100;
+                try {
+                    chunk.bytes = Files.size(chunk.path);
+                } catch (IOException e) {
+                    chunk.bytes = 0;
+                }
+            } else if (chunk.attempts <= property.getDownload().getMaxRetries()) {
+                log.info("【海康录像下载】任务: {}, 第{}段下载失败, 稍后重试: {}", job.id, chunk.index, chunk.error);
+                chunk.state = QUEUED;
+                chunk.enqueued.set(false);
+                job.retries.incrementAndGet();
+                this.retry(chunk);
+                return;
+            } else {
+                chunk.state = FAILED;
+            }
+            chunk.enqueued.set(false);
+            complete(job);
+        }
+
+        private void retry(Chunk chunk) {
+            try {
+                retryScheduler.schedule(() -> {
+                    if (!chunk.job.cancelled && chunk.state.equals(QUEUED)) {
+                        device.enqueue(chunk);
+                        device.schedule();
+                    }
+                }, property.getDownload().getRetryDelayMs(), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // 正在关闭, 不再重试; 这一段算失败, 任务随之结束
+                chunk.state = FAILED;
+                complete(chunk.job);
+            }
+        }
+
+        /**
+         * 下载一段, 定时查询进度直到完成、出错或没有进度
+         */
+        private boolean transfer(Chunk chunk) throws IOException, InterruptedException {
+            HkDownloadParam param = property.getDownload();
+            HCNetSDK hCNetSDK = sdkManager.sdk();
+            if (hCNetSDK == null) {
+                chunk.error = "SDK未初始化";
+                return false;
+            }
+            HkCameraParam camera = device.camera;
+            if (lUserID < 0) {
+                lUserID = sessionManager.login(camera.getDeviceIp(), camera.getUsername(), camera.getPassword(), camera.getPort());
+                if (lUserID < 0) {
+                    chunk.error = "登录失败";
+                    return false;
+                }
+            }
+            Files.deleteIfExists(chunk.path);
+            HCNetSDK.NET_DVR_PLAYCOND cond = new HCNetSDK.NET_DVR_PLAYCOND();
+            cond.dwChannel = chunk.job.channel;
+            cond.struStartTime = time(chunk.from);
+            cond.struStopTime = time(chunk.to);
+            cond.byStreamType = (byte) param.getStreamType();
+            int lFileHandle = hCNetSDK.NET_DVR_GetFileByTime_V40(lUserID, chunk.path.toString(), cond);
+            if (lFileHandle < 0) {
+                this.error(hCNetSDK, chunk, "开始下载失败");
+                return false;
+            }
+            try {
+                if (!hCNetSDK.NET_DVR_PlayBackControl(lFileHandle, HCNetSDK.NET_DVR_PLAYSTART, 0, null)) {
+                    this.error(hCNetSDK, chunk, "开始下载失败");
+                    return false;
+                }
+                int last = -1;
+                long lastChange = System.currentTimeMillis();
+                while (!chunk.job.cancelled) {
+                    int pos = hCNetSDK.NET_DVR_GetDownloadPos(lFileHandle);
+                    if (pos == 100) {
+                        return true;
+                    }
+                    // 200为网络异常, 其他为错误
+                    if (pos < 0 || pos > 100) {
+                        this.error(hCNetSDK, chunk, "下载中断, 进度: " + pos);
+                        return false;
+                    }
+                    long now = System.currentTimeMillis();
+                    if (pos != last) {
+                        last = pos;
+                        lastChange = now;
+                        chunk.progress = pos;
+                    } else if (now - lastChange > param.getStallTimeoutMs()) {
+                        chunk.error = "下载进度长时间没有变化: " + pos;
+                        return false;
+                    }
+                    Thread.sleep(param.getPollMs());
+                }
+                chunk.error = "已取消";
+                return false;
+            } finally {
+                hCNetSDK.NET_DVR_StopGetFile(lFileHandle);
+            }
+        }
+
+        /**
+         * 记录错误码, 会话失效时注销, 下一段重新登录
+         */
+        private void error(HCNetSDK hCNetSDK, Chunk chunk, String message) {
+            int errorCode = hCNetSDK.NET_DVR_GetLastError();
+            chunk.error = message + ", 错误码: " + errorCode;
+            if (HkSessionManager.isSessionError(errorCode)) {
+                this.logout();
+            }
+        }
+
+        private void logout() {
+            if (lUserID >= 0) {
+                sessionManager.logout(lUserID);
+                lUserID = -1;
+            }
+        }
+    }
+
+    /**
+     * 下载任务
+     */
+    private static class Job {
+
+        private final long id;
+
+        private final HkCameraParam camera;
+
+        private final int channel;
+
+        private final long from;
+
+        private final long to;
+
+        private final Path dir;
+
+        private final List<Chunk> chunks = Lists.newArrayList();
+
+        private final long createTime = System.currentTimeMillis();
+
+        private final AtomicInteger retries = new AtomicInteger();
+
+        private volatile String state = QUEUED;
+
+        private volatile boolean cancelled;
+
+        private volatile String error;
+
+        private volatile Path output;
+
+        private volatile long bytes;
+
+        private volatile long finishTime;
+
+        private Job(long id, HkCameraParam camera, int channel, long from, long to, Path dir) {
+            this.id = id;
+            this.camera = camera;
+            this.channel = channel;
+            this.from = from;
+            this.to = to;
+            this.dir = dir;
+        }
+
+        /**
+         * 取消后正在下载的段要等下载线程发现后才停止
+         */
+        private boolean downloading() {
+            for (Chunk chunk : chunks) {
+                if (chunk.state.equals(RUNNING)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private HkDownloadJob view() {
+            HkDownloadJob view = new HkDownloadJob();
+            view.setId(id);
+            view.setDeviceIp(camera.getDeviceIp());
+            view.setChannel(channel);
+            view.setFrom(from);
+            view.setTo(to);
+            view.setState(state);
+            view.setRetries(retries.get());
+            view.setPath(output == null ? null : output.toString());
+            view.setBytes(bytes);
+            view.setError(error);
+            view.setCreateTime(createTime);
+            view.setFinishTime(finishTime);
+            int progress = 0;
+            int done = 0;
+            for (Chunk chunk : chunks) {
+                HkDownloadChunk c = new HkDownloadChunk();
+                c.setIndex(chunk.index);
+                c.setFrom(chunk.from);
+                c.setTo(chunk.to);
+                c.setState(chunk.state);
+                c.setProgress(chunk.progress);
+                c.setAttempts(chunk.attempts);
+                c.setBytes(chunk.bytes);
+                c.setError(chunk.error);
+                view.getChunks().add(c);
+                progress += chunk.progress;
+                if (chunk.state.equals(DONE)) {
+                    done++;
+                }
+            }
+            view.setChunksDone(done);
+            view.setProgress(chunks.isEmpty() ? 0 : progress / chunks.size());
+            return view;
+        }
+    }
+
+    /**
+     * 任务的一段, 下载到单独的文件
+     */
+    private static class Chunk {
+
+        private final Job job;
+
+        private final int index;
+
+        private final long from;
+
+        private final long to;
+
+        private final Path path;
+
+        private volatile String state = QUEUED;
+
+        /**
+         * 在队列里或正被下载线程下载
+         */
+        private final AtomicBoolean enqueued = new AtomicBoolean();
+
+        private volatile int progress;
+
+        private volatile int attempts;
+
+        private volatile long bytes;
+
+        private volatile String error;
+
+        private Chunk(Job job, int index, long from, long to) {
+            this.job = job;
+            this.index = index;
+            this.from = from;
+            this.to = to;
+            this.path = job.dir.resolve(String.format("%04d.part", index));
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package com.ilubov.hikvision.service;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.ilubov.hikvision.util.RingBuffer;
+import com.ilubov.hikvision.vo.HkEventStreamParam;
+import com.ilubov.hikvision.vo.HkEventStreamStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 事件推送
+ * <p>
+ * 发布只把事件放进每个订阅方自己的环形缓冲, 满了丢弃最早的, 由推送线程逐个订阅方发送, 慢的订阅方不会阻塞发布方
+ * <p>
+ * 单次推送超过 send-timeout-ms 的订阅方被移除; SseEmitter.send 阻塞时无法取消, 卡住的推送线程不再计入线程数,
+ * 临时补一个线程给其他订阅方, 卡住的发送返回后再收回
+ * <p>
+ * 车牌事件和布控告警各用一个实例, 推送线程互不占用, 见 {@link com.ilubov.hikvision.config.HkEventBusConfig}
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Slf4j
+public class HkEventBus<E> {
+
+    private final String name;
+
+    private final HkEventStreamParam param;
+
+    private final int threadPriority;
+
+    private final Map<Long, Subscriber> subscribers = new ConcurrentHashMap<>();
+
+    private final AtomicLong ids = new AtomicLong();
+
+    private final AtomicLong published = new AtomicLong();
+
+    private final AtomicLong delivered = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong removed = new AtomicLong();
+
+    private final AtomicLong timedOut = new AtomicLong();
+
+    /**
+     * 卡在超时发送里的推送线程数
+     */
+    private int stuckThreads;
+
+    private ThreadPoolExecutor executor;
+
+    private ScheduledExecutorService watchdog;
+
+    /**
+     * @param name           名称, 同时作为SSE事件名
+     * @param param          推送参数
+     * @param threadPriority 推送线程优先级
+     */
+    public HkEventBus(String name, HkEventStreamParam param, int threadPriority) {
+        this.name = name;
+        this.param = param;
+        this.threadPriority = threadPriority;
+    }
+
+    @PostConstruct
+    public void init() {
+        executor = new ThreadPoolExecutor(param.getSendThreads(), param.getSendThreads(), 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), ThreadFactoryBuilder.create()
+                .setNamePrefix("hk-" + name + "-").setPriority(threadPriority).setDaemon(true).build());
+        watchdog = Executors.newSingleThreadScheduledExecutor(ThreadFactoryBuilder.create()
+                .setNamePrefix("hk-" + name + "-watchdog-").setDaemon(true).build());
+        long interval = Math.max(10, Math.min(1000, param.getSendTimeoutMs() / 4));
+        watchdog.scheduleWithFixedDelay(this::checkSendTimeout, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        watchdog.shutdownNow();
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        for (Subscriber subscriber : subscribers.values()) {
+            subscriber.close();
+        }
+        subscribers.clear();
+    }
+
+    /**
+     * 浏览器订阅, Server-Sent Events
+     */
+    public SseEmitter subscribe() {
+        SseEmitter emitter = new SseEmitter(param.getTimeoutMs());
+        Subscriber subscriber = this.subscribe(event -> {
+            try {
+                emitter.send(SseEmitter.event().name(name).data(event));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        if (subscriber == null) {
+            emitter.completeWithError(new IllegalStateException("订阅数已达上限"));
+            return emitter;
+        }
+        subscriber.closer = emitter::complete;
+        emitter.onCompletion(() -> this.unsubscribe(subscriber.id));
+        emitter.onTimeout(() -> this.unsubscribe(subscriber.id));
+        emitter.onError(e -> this.unsubscribe(subscriber.id));
+        return emitter;
+    }
+
+    /**
+     * 订阅, sink抛出异常时取消订阅, 订阅数已达上限时返回null
+     */
+    public Subscriber subscribe(Consumer<E> sink) {
+        if (subscribers.size() >= param.getMaxSubscribers()) {
+            log.info("【海康事件推送】{} 订阅数已达上限: {}", name, param.getMaxSubscribers());
+            return null;
+        }
+        Subscriber subscriber = new Subscriber(ids.incrementAndGet(), param.getSubscriberBuffer(), sink);
+        subscribers.put(subscriber.id, subscriber);
+        return subscriber;
+    }
+
+    /**
+     * 取消订阅
+     */
+    public void unsubscribe(long id) {
+        if (subscribers.remove(id) != null) {
+            removed.incrementAndGet();
+        }
+    }
+
+    /**
+     * 发布事件, 不阻塞
+     */
+    public void publish(E event) {
+        published.incrementAndGet();
+        for (Subscriber subscriber : subscribers.values()) {
+            subscriber.offer(event);
+            subscriber.schedule();
+        }
+    }
+
+    /**
+     * 推送统计
+     */
+    public HkEventStreamStats stats() {
+        HkEventStreamStats stats = new HkEventStreamStats();
+        stats.setSubscribers(subscribers.size());
+        stats.setPublished(published.get());
+        stats.setDelivered(delivered.get());
+        stats.setDropped(dropped.get());
+        stats.setSubscribed(ids.get());
+        stats.setRemoved(removed.get());
+        stats.setTimedOut(timedOut.get());
+        return stats;
+    }
+
+    /**
+     * 移除发送超时的订阅方, 并为卡住的推送线程补一个线程
+     */
+    private void checkSendTimeout() {
+        long now = System.currentTimeMillis();
+        for (Subscriber subscriber : subscribers.values()) {
+            long start = subscriber.sendStart.get();
+            if (start <= 0 || now - start < param.getSendTimeoutMs() || !subscriber.sendStart.compareAndSet(start, -1)) {
+                continue;
+            }
+            log.info("【海康事件推送】{} 订阅: {}, 推送超时{}ms, 取消订阅", name, subscriber.id, now - start);
+            timedOut.incrementAndGet();
+            this.unsubscribe(subscriber.id);
+            this.resize(1);
+        }
+    }
+
+    /**
+     * 调整卡住的推送线程数, 线程池大小 = send-threads + 卡住的线程数
+     */
+    private synchronized void resize(int delta) {
+        stuckThreads += delta;
+        int size = param.getSendThreads() + stuckThreads;
+        if (delta > 0) {
+            executor.setMaximumPoolSize(size);
+            executor.setCorePoolSize(size);
+        } else {
+            executor.setCorePoolSize(size);
+            executor.setMaximumPoolSize(size);
+        }
+    }
+
+    /**
+     * 订阅方, 同一时刻只有一个推送线程在发送, 保证事件顺序
+     */
+    public class Subscriber implements Runnable {
+
+        private final long id;
+
+        private final RingBuffer<E> ring;
+
+        private final Consumer<E> sink;
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private final AtomicLong dropped = new AtomicLong();
+
+        /**
+         * 当前发送的开始时刻, 0表示没在发送, -1表示已判定超时
+         */
+        private final AtomicLong sendStart = new AtomicLong();
+
+        private volatile Runnable closer;
+
+        private Subscriber(long id, int capacity, Consumer<E> sink) {
+            this.id = id;
+            this.ring = new RingBuffer<>(capacity);
+            this.sink = sink;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * 本订阅方被丢弃的事件数
+         */
+        public long getDropped() {
+            return dropped.get();
+        }
+
+        private void offer(E event) {
+            while (!ring.offer(event)) {
+                if (ring.poll() != null) {
+                    dropped.incrementAndGet();
+                    HkEventBus.this.dropped.incrementAndGet();
+                }
+            }
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int batch = param.getDrainBatch();
+            try {
+                for (int i = 0; i < batch; i++) {
+                    E event = ring.poll();
+                    if (event == null) {
+                        break;
+                    }
+                    if (!this.send(event)) {
+                        return;
+                    }
+                    delivered.incrementAndGet();
+                }
+            } catch (Exception e) {
+                if (sendStart.getAndSet(0) < 0) {
+                    this.release();
+                    return;
+                }
+                log.info("【海康事件推送】{} 订阅: {}, 推送失败, 取消订阅: {}", name, id, e.getMessage());
+                unsubscribe(id);
+                this.close();
+                return;
+            } finally {
+                scheduled.set(false);
+            }
+            // 还有数据则重新排队, 让其他订阅方也能拿到线程
+            if (!ring.isEmpty() && subscribers.containsKey(id)) {
+                this.schedule();
+            }
+        }
+
+        /**
+         * 发送一个事件, 返回false表示发送期间已被判定超时
+         */
+        private boolean send(E event) {
+            long start = System.currentTimeMillis();
+            sendStart.set(start);
+            sink.accept(event);
+            if (!sendStart.compareAndSet(start, 0)) {
+                this.release();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * 超时的发送返回后关闭连接, 收回补的线程
+         */
+        private void release() {
+            sendStart.set(0);
+            this.close();
+            resize(-1);
+        }
+
+        private void close() {
+            Runnable closer = this.closer;
+            if (closer != null) {
+                try {
+                    closer.run();
+                } catch (Exception e) {
+                    log.debug("【海康事件推送】{} 订阅: {}, 关闭失败", name, id, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,600 @@
+package com.ilubov.hikvision.service;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.CountingInputStream;
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.vo.HkEventStoreParam;
+import com.ilubov.hikvision.vo.HkPlateEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 车牌事件存储
+ * <p>
+ * 只追加的段文件, 每个段文件整体内存映射, 写入和读取都直接访问映射内存; 每隔固定字节数记一条稀疏索引(块内最小和最大时间),
+ * 按时间范围查询时只扫描时间有重叠的块
+ * <p>
+ * 记录格式: int 记录长度, long 时间, byte 车型, 设备编号, 设备IP, 车牌号, 车牌颜色, 车牌省份, byte 图片数, 图片路径...
+ * 字符串为 short 长度 + UTF-8 字节; 记录长度最后写入, 崩溃时未写完的记录长度为0, 恢复时从该处截断
+ * <p>
+ * 事件录像在事件之后才写完, 事件ID和录像路径追加到同目录的 clips.log(long 事件ID + writeUTF 路径),
+ * 启动时全部读入内存, 查询时带上; 崩溃时未写完的尾部在启动时截掉
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class HkEventStore {
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private static final String CLIP_FILE = "clips.log";
+
+    /**
+     * 记录长度 + 时间 + 车型 + 5个空字符串 + 图片数
+     */
+    private static final int MIN_RECORD_LENGTH = 4 + 8 + 1 + 5 * 2 + 1;
+
+    @Autowired
+    private HkCameraProperty property;
+
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+
+    private volatile Segment active;
+
+    private File dir;
+
+    private volatile boolean open;
+
+    /**
+     * 事件ID -> 事件录像路径
+     */
+    private final Map<Long, String> clips = new ConcurrentHashMap<>();
+
+    private DataOutputStream clipOut;
+
+    @PostConstruct
+    public void init() {
+        HkEventStoreParam param = property.getEventStore();
+        if (!param.isEnabled()) {
+            return;
+        }
+        dir = new File(param.getPath());
+        if (!dir.exists() && !dir.mkdirs()) {
+            log.error("【海康车牌事件存储】创建目录失败: {}", dir);
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+            if (files != null) {
+                Arrays.sort(files);
+                for (int i = 0; i < files.length; i++) {
+                    String name = files[i].getName();
+                    int seq = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                    segments.add(Segment.open(files[i], seq, param, i == files.length - 1));
+                }
+            }
+            if (segments.isEmpty()) {
+                segments.add(Segment.create(dir, 0, param));
+            }
+        } catch (IOException e) {
+            log.error("【海康车牌事件存储】打开段文件失败, 不记录车牌事件", e);
+            segments.clear();
+            return;
+        }
+        active = segments.get(segments.size() - 1);
+        try {
+            this.openClips();
+        } catch (IOException e) {
+            log.error("【海康车牌事件存储】打开事件录像文件失败, 不记录事件录像", e);
+        }
+        open = true;
+        log.info("【海康车牌事件存储】初始化完成 段文件: {}, 记录数: {}, 用时: {}ms",
+                segments.size(), this.count(), System.currentTimeMillis() - start);
+    }
+
+    @PreDestroy
+    public synchronized void destroy() {
+        open = false;
+        if (active != null) {
+            active.sync();
+        }
+        if (clipOut != null) {
+            try {
+                clipOut.close();
+            } catch (IOException e) {
+                log.warn("【海康车牌事件存储】关闭事件录像文件失败", e);
+            }
+            clipOut = null;
+        }
+    }
+
+    /**
+     * 追加一条事件, 成功后设置事件ID
+     */
+    public synchronized boolean append(HkPlateEvent event) {
+        if (!open) {
+            return false;
+        }
+        byte[] record = encode(event);
+        HkEventStoreParam param = property.getEventStore();
+        if (record.length > param.getSegmentBytes()) {
+            log.error("【海康车牌事件存储】记录过大: {}", record.length);
+            return false;
+        }
+        try {
+            if (!active.hasRoom(record.length)) {
+                // 当前段写满, 落盘索引后开新段
+                active.seal();
+                Segment next = Segment.create(dir, active.seq + 1, param);
+                segments.add(next);
+                active = next;
+            }
+            int offset = active.append(record, event.getTime());
+            event.setId(id(active.seq, offset));
+            return true;
+        } catch (IOException e) {
+            log.error("【海康车牌事件存储】写入失败", e);
+            return false;
+        }
+    }
+
+    /**
+     * 记录事件录像, 事件需已追加; 重复记录时以最后一次为准
+     */
+    public synchronized boolean linkClip(long id, String clip) {
+        if (!open || clipOut == null || clip == null) {
+            return false;
+        }
+        try {
+            clipOut.writeLong(id);
+            clipOut.writeUTF(clip);
+            clipOut.flush();
+        } catch (IOException e) {
+            log.error("【海康车牌事件存储】写入事件录像失败 事件ID: {}", id, e);
+            return false;
+        }
+        clips.put(id, clip);
+        return true;
+    }
+
+    /**
+     * 按时间范围查询 [from, to], 按写入顺序返回
+     */
+    public List<HkPlateEvent> query(long from, long to, int limit) {
+        List<HkPlateEvent> list = Lists.newArrayList();
+        int max = Math.min(limit <= 0 ? Integer.MAX_VALUE : limit, property.getEventStore().getQueryLimit());
+        for (Segment segment : segments) {
+            if (list.size() >= max) {
+                break;
+            }
+            segment.query(from, to, max, list);
+        }
+        for (HkPlateEvent event : list) {
+            this.withClip(event);
+        }
+        return list;
+    }
+
+    /**
+     * 按事件ID读取, 不存在返回null
+     */
+    public HkPlateEvent get(long id) {
+        int seq = (int) (id >>> 32);
+        int offset = (int) id;
+        for (Segment segment : segments) {
+            if (segment.seq == seq) {
+                return offset < segment.size ? this.withClip(segment.read(offset)) : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 按写入顺序遍历所有事件
+     */
+    public void scan(Consumer<HkPlateEvent> consumer) {
+        this.scan(-1, consumer);
+    }
+
+    /**
+     * 按写入顺序遍历事件ID在afterId之后的事件, afterId为负数时遍历所有事件
+     */
+    public void scan(long afterId, Consumer<HkPlateEvent> consumer) {
+        int afterSeq = (int) (afterId >>> 32);
+        for (Segment segment : segments) {
+            if (afterId >= 0 && segment.seq < afterSeq) {
+                continue;
+            }
+            int size = segment.size;
+            int start = 0;
+            if (afterId >= 0 && segment.seq == afterSeq) {
+                start = (int) afterId;
+                if (start >= size) {
+                    continue;
+                }
+                start += segment.buffer.getInt(start);
+            }
+            for (int offset = start; offset < size; ) {
+                HkPlateEvent event = this.withClip(segment.read(offset));
+                consumer.accept(event);
+                offset += segment.buffer.getInt(offset);
+            }
+        }
+    }
+
+    /**
+     * 记录总数
+     */
+    public long count() {
+        long count = 0;
+        for (Segment segment : segments) {
+            count += segment.count;
+        }
+        return count;
+    }
+
+    public int getSegments() {
+        return segments.size();
+    }
+
+    private HkPlateEvent withClip(HkPlateEvent event) {
+        event.setClip(clips.get(event.getId()));
+        return event;
+    }
+
+    /**
+     * 读入已记录的事件录像, 截掉没写完的尾部后打开追加
+     */
+    private void openClips() throws IOException {
+        File file = new File(dir, CLIP_FILE);
+        long valid = 0;
+        if (file.exists()) {
+            CountingInputStream counting = new CountingInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())));
+            try (DataInputStream in = new DataInputStream(counting)) {
+                while (true) {
+                    long id = in.readLong();
+                    String clip = in.readUTF();
+                    clips.put(id, clip);
+                    valid = counting.getCount();
+                }
+            } catch (EOFException | UTFDataFormatException e) {
+                // 读到结尾或没写完的记录
+            }
+            if (valid < file.length()) {
+                log.warn("【海康车牌事件存储】事件录像文件截断 {} -> {}", file.length(), valid);
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(valid);
+                }
+            }
+        }
+        clipOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    static long id(int seq, int offset) {
+        return ((long) seq << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    static byte[] encode(HkPlateEvent event) {
+        byte[][] strings = new byte[5 + event.getImages().size()][];
+        strings[0] = utf8(event.getDeviceId());
+        strings[1] = utf8(event.getDeviceIp());
+        strings[2] = utf8(event.getPlateNumber());
+        strings[3] = utf8(event.getColor());
+        strings[4] = utf8(event.getProvince());
+        for (int i = 0; i < event.getImages().size(); i++) {
+            strings[5 + i] = utf8(event.getImages().get(i));
+        }
+        int length = 4 + 8 + 1 + 1;
+        for (byte[] bytes : strings) {
+            length += 2 + bytes.length;
+        }
+        ByteBuffer bb = ByteBuffer.allocate(length);
+        bb.putInt(length);
+        bb.putLong(event.getTime());
+        bb.put((byte) event.getVehicleType());
+        for (int i = 0; i < 5; i++) {
+            bb.putShort((short) strings[i].length).put(strings[i]);
+        }
+        bb.put((byte) event.getImages().size());
+        for (int i = 5; i < strings.length; i++) {
+            bb.putShort((short) strings[i].length).put(strings[i]);
+        }
+        return bb.array();
+    }
+
+    private static byte[] utf8(String value) {
+        if (value == null) {
+            return new byte[0];
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return bytes.length > Short.MAX_VALUE ? Arrays.copyOf(bytes, Short.MAX_VALUE) : bytes;
+    }
+
+    /**
+     * 段文件, 只有写入线程修改, 查询线程读到的数据不超过已发布的size
+     */
+    private static class Segment {
+
+        private final int seq;
+
+        private final File file;
+
+        private final MappedByteBuffer buffer;
+
+        private final int capacity;
+
+        private final int indexInterval;
+
+        /**
+         * 已写入字节数
+         */
+        private volatile int size;
+
+        private volatile long count;
+
+        /**
+         * 稀疏索引: 块起始偏移, 块内最小时间, 块内最大时间
+         */
+        private volatile int[] blockOffsets = new int[64];
+
+        private volatile long[] blockMinTimes = new long[64];
+
+        private volatile long[] blockMaxTimes = new long[64];
+
+        private volatile int blocks;
+
+        private volatile long minTime = Long.MAX_VALUE;
+
+        private volatile long maxTime = Long.MIN_VALUE;
+
+        private volatile boolean sealed;
+
+        private Segment(int seq, File file, MappedByteBuffer buffer, int capacity, int indexInterval) {
+            this.seq = seq;
+            this.file = file;
+            this.buffer = buffer;
+            this.capacity = capacity;
+            this.indexInterval = indexInterval;
+        }
+
+        private static Segment create(File dir, int seq, HkEventStoreParam param) throws IOException {
+            File file = new File(dir, String.format("%010d%s", seq, SEGMENT_SUFFIX));
+            return new Segment(seq, file, map(file, param.getSegmentBytes()), param.getSegmentBytes(), param.getIndexIntervalBytes());
+        }
+
+        /**
+         * 打开已有段文件, 已封存的读取索引文件, 否则扫描重建
+         */
+        private static Segment open(File file, int seq, HkEventStoreParam param, boolean last) throws IOException {
+            int capacity = (int) Math.max(file.length(), param.getSegmentBytes());
+            Segment segment = new Segment(seq, file, map(file, capacity), capacity, param.getIndexIntervalBytes());
+            File index = segment.indexFile();
+            if (index.exists() && segment.loadIndex(index)) {
+                segment.sealed = true;
+                return segment;
+            }
+            segment.recover();
+            if (!last) {
+                segment.seal();
+            }
+            return segment;
+        }
+
+        private static MappedByteBuffer map(File file, int capacity) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+                // 映射在通道关闭后仍然有效
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            }
+        }
+
+        private File indexFile() {
+            String name = file.getName();
+            return new File(file.getParentFile(), name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+        }
+
+        private boolean hasRoom(int length) {
+            return !sealed && size + length <= capacity;
+        }
+
+        private int append(byte[] record, long time) {
+            int offset = size;
+            // 先写内容, 最后写长度
+            for (int i = 4; i < record.length; i++) {
+                buffer.put(offset + i, record[i]);
+            }
+            buffer.putInt(offset, record.length);
+            this.index(offset, time);
+            count++;
+            size = offset + record.length;
+            return offset;
+        }
+
+        /**
+         * 距上一块起点超过索引间隔时开新块, 否则更新当前块的时间范围
+         */
+        private void index(int offset, long time) {
+            int n = blocks;
+            if (n == 0 || offset - blockOffsets[n - 1] >= indexInterval) {
+                if (n == blockOffsets.length) {
+                    blockOffsets = Arrays.copyOf(blockOffsets, n * 2);
+                    blockMinTimes = Arrays.copyOf(blockMinTimes, n * 2);
+                    blockMaxTimes = Arrays.copyOf(blockMaxTimes, n * 2);
+                }
+                blockOffsets[n] = offset;
+                blockMinTimes[n] = time;
+                blockMaxTimes[n] = time;
+                blocks = n + 1;
+            } else {
+                blockMinTimes[n - 1] = Math.min(blockMinTimes[n - 1], time);
+                blockMaxTimes[n - 1] = Math.max(blockMaxTimes[n - 1], time);
+            }
+            if (time < minTime) {
+                minTime = time;
+            }
+            if (time > maxTime) {
+                maxTime = time;
+            }
+        }
+
+        /**
+         * 扫描重建索引, 遇到长度为0或越界的记录停止
+         */
+        private void recover() {
+            int offset = 0;
+            while (offset + 4 <= capacity) {
+                int length = buffer.getInt(offset);
+                if (length < MIN_RECORD_LENGTH || offset + length > capacity) {
+                    break;
+                }
+                this.index(offset, buffer.getLong(offset + 4));
+                count++;
+                offset += length;
+            }
+            size = offset;
+        }
+
+        /**
+         * 封存, 写索引文件, 之后不再追加
+         */
+        private void seal() {
+            sealed = true;
+            this.sync();
+            File tmp = new File(indexFile().getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+                out.writeInt(size);
+                out.writeLong(count);
+                out.writeInt(blocks);
+                for (int i = 0; i < blocks; i++) {
+                    out.writeInt(blockOffsets[i]);
+                    out.writeLong(blockMinTimes[i]);
+                    out.writeLong(blockMaxTimes[i]);
+                }
+            } catch (IOException e) {
+                log.error("【海康车牌事件存储】写入索引失败: {}", tmp, e);
+                return;
+            }
+            if (!tmp.renameTo(indexFile())) {
+                log.error("【海康车牌事件存储】写入索引失败: {}", indexFile());
+            }
+        }
+
+        private boolean loadIndex(File index) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index.toPath())))) {
+                int size = in.readInt();
+                long count = in.readLong();
+                int n = in.readInt();
+                int[] offsets = new int[Math.max(n, 1)];
+                long[] mins = new long[Math.max(n, 1)];
+                long[] maxs = new long[Math.max(n, 1)];
+                long min = Long.MAX_VALUE;
+                long max = Long.MIN_VALUE;
+                for (int i = 0; i < n; i++) {
+                    offsets[i] = in.readInt();
+                    mins[i] = in.readLong();
+                    maxs[i] = in.readLong();
+                    min = Math.min(min, mins[i]);
+                    max = Math.max(max, maxs[i]);
+                }
+                this.blockOffsets = offsets;
+                this.blockMinTimes = mins;
+                this.blockMaxTimes = maxs;
+                this.blocks = n;
+                this.minTime = min;
+                this.maxTime = max;
+                this.count = count;
+                this.size = size;
+                return true;
+            } catch (IOException e) {
+                log.warn("【海康车牌事件存储】读取索引失败, 扫描重建: {}", index);
+                return false;
+            }
+        }
+
+        private void sync() {
+            buffer.force();
+        }
+
+        private void query(long from, long to, int max, List<HkPlateEvent> list) {
+            // 先读size, 之前写入的数据和索引都可见
+            int size = this.size;
+            int n = blocks;
+            // 时间范围先于size写入, 读到size后看到的时间范围不会比它旧
+            if (n == 0 || from > maxTime || to < minTime) {
+                return;
+            }
+            int[] offsets = blockOffsets;
+            long[] mins = blockMinTimes;
+            long[] maxs = blockMaxTimes;
+            for (int b = 0; b < n && list.size() < max; b++) {
+                if (maxs[b] < from || mins[b] > to) {
+                    continue;
+                }
+                int end = b + 1 < n ? offsets[b + 1] : size;
+                for (int offset = offsets[b]; offset < end && list.size() < max; ) {
+                    int length = buffer.getInt(offset);
+                    long time = buffer.getLong(offset + 4);
+                    if (time >= from && time <= to) {
+                        list.add(this.read(offset));
+                    }
+                    offset += length;
+                }
+            }
+        }
+
+        private HkPlateEvent read(int offset) {
+            ByteBuffer bb = buffer.duplicate();
+            bb.position(offset + 4);
+            HkPlateEvent event = new HkPlateEvent();
+            event.setId(id(seq, offset));
+            event.setTime(bb.getLong());
+            event.setVehicleType(bb.get() & 0xff);
+            event.setDeviceId(readString(bb));
+            event.setDeviceIp(readString(bb));
+            event.setPlateNumber(readString(bb));
+            event.setColor(readString(bb));
+            event.setProvince(readString(bb));
+            int images = bb.get() & 0xff;
+            for (int i = 0; i < images; i++) {
+                event.getImages().add(readString(bb));
+            }
+            return event;
+        }
+
+        private static String readString(ByteBuffer bb) {
+            int length = bb.getShort();
+            byte[] bytes = new byte[length];
+            bb.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package com.ilubov.hikvision.service;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.google.common.collect.Lists;
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.sdk.HCNetSDK;
+import com.ilubov.hikvision.util.FlvMuxer;
+import com.ilubov.hikvision.util.PsDemuxer;
+import com.ilubov.hikvision.vo.HkCameraParam;
+import com.ilubov.hikvision.vo.HkFlvRelayParam;
+import com.ilubov.hikvision.vo.HkFlvRelayStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP-FLV转发
+ * <p>
+ * 每台摄像头只取一路实时码流, 解复用后不转码直接封装成FLV, 所有观看者共用, 不会因为观看人数多而超过设备的连接数上限;
+ * 第一个观看者加入时开始取流, 最后一个离开一段时间后停止
+ * <p>
+ * 每个观看者有自己的有界发送队列, 在自己的请求线程里发送; 队列满了清空并跳到下一个关键帧, 不阻塞取流线程和其他观看者;
+ * 缓存最近一组帧, 新观看者从最近的关键帧开始播放; 取流线程读得太慢丢了包时丢掉拼了一半的帧, 清空缓存的帧, 从下一个关键帧继续
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class HkFlvRelay {
+
+    @Autowired
+    private HkCameraProperty property;
+
+    @Autowired
+    private HkRealPlay realPlay;
+
+    private final Map<String, Relay> relays = new ConcurrentHashMap<>();
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newCachedThreadPool(
+                ThreadFactoryBuilder.create().setNamePrefix("hk-flv-").setDaemon(true).build());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        for (Relay relay : relays.values()) {
+            relay.stopped = true;
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * 观看, FLV写到out, 阻塞到out抛出异常(连接断开)或停止转发; 取流失败或观看人数已达上限时直接返回false
+     */
+    public boolean view(HkCameraParam camera, OutputStream out) throws IOException, InterruptedException {
+        Relay relay;
+        Viewer viewer;
+        do {
+            relay = this.relay(camera);
+            if (relay == null) {
+                log.info("【海康FLV转发】ip: {}, 取流失败", camera.getDeviceIp());
+                return false;
+            }
+            viewer = relay.join();
+            if (viewer == null && !relay.stopped) {
+                log.info("【海康FLV转发】ip: {}, 观看人数已达上限", camera.getDeviceIp());
+                return false;
+            }
+            // 转发刚好停止, 重新开始
+        } while (viewer == null);
+        try {
+            viewer.serve(out);
+        } finally {
+            relay.leave(viewer);
+        }
+        return true;
+    }
+
+    /**
+     * 转发统计
+     */
+    public List<HkFlvRelayStats> stats() {
+        List<HkFlvRelayStats> list = Lists.newArrayList();
+        for (Relay relay : relays.values()) {
+            list.add(relay.stats());
+        }
+        return list;
+    }
+
+    /**
+     * 正在转发的, 没有时开始转发; 开始取流可能阻塞, 不在map的锁里进行, 同时开始的只保留一个
+     */
+    private Relay relay(HkCameraParam camera) {
+        String deviceIp = camera.getDeviceIp();
+        while (true) {
+            Relay current = relays.get(deviceIp);
+            if (current != null && !current.stopped) {
+                return current;
+            }
+            HkFlvRelayParam param = property.getFlvRelay();
+            HkRealPlay.Consumer consumer = realPlay.attach(camera, param.getChannel(), param.getStreamType());
+            if (consumer == null) {
+                return null;
+            }
+            Relay relay = new Relay(deviceIp, consumer, param);
+            if (current == null ? relays.putIfAbsent(deviceIp, relay) == null : relays.replace(deviceIp, current, relay)) {
+                executor.execute(relay);
+                log.info("【海康FLV转发】ip: {}, 开始转发", deviceIp);
+                return relay;
+            }
+            consumer.close();
+        }
+    }
+
+    /**
+     * 单台摄像头的转发, 一个线程读取实时码流并分发给所有观看者
+     */
+    private class Relay implements Runnable {
+
+        private final String deviceIp;
+
+        private final HkRealPlay.Consumer consumer;
+
+        private final HkFlvRelayParam param;
+
+        private final PsDemuxer demuxer;
+
+        private final FlvMuxer muxer = new FlvMuxer();
+
+        private final List<Viewer> viewers = new CopyOnWriteArrayList<>();
+
+        /**
+         * 从最近的关键帧开始的一组帧, 超过上限时清空, 等下一个关键帧
+         */
+        private final List<FlvMuxer.Tag> gop = Lists.newArrayList();
+
+        private boolean gopOverflow;
+
+        /**
+         * 丢包后等下一个关键帧, 只在取流线程上访问
+         */
+        private boolean waitingKey;
+
+        private volatile boolean stopped;
+
+        private volatile long idleSince = System.currentTimeMillis();
+
+        private volatile int codec = PsDemuxer.CODEC_H265;
+
+        private final AtomicLong joined = new AtomicLong();
+
+        private final AtomicLong frames = new AtomicLong();
+
+        private final AtomicLong keyframes = new AtomicLong();
+
+        private final AtomicLong dropped = new AtomicLong();
+
+        private final AtomicLong resets = new AtomicLong();
+
+        private Relay(String deviceIp, HkRealPlay.Consumer consumer, HkFlvRelayParam param) {
+            this.deviceIp = deviceIp;
+            this.consumer = consumer;
+            this.param = param;
+            this.demuxer = new PsDemuxer(param.getMaxFrameBytes(), 1, false, this::frame);
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            long lost = consumer.getLost();
+            try {
+                while (!stopped && !consumer.isStopped()
+                        && (!viewers.isEmpty() || System.currentTimeMillis() - idleSince < param.getIdleStopMs())) {
+                    buffer.clear();
+                    int length = consumer.poll(buffer);
+                    if (length < 0) {
+                        buffer = ByteBuffer.allocate(Integer.highestOneBit(-length) << 1);
+                    } else if (length == 0) {
+                        consumer.await(200, TimeUnit.MILLISECONDS);
+                    } else if (consumer.getType() == HCNetSDK.NET_DVR_STREAMDATA) {
+                        buffer.flip();
+                        if (consumer.getLost() != lost) {
+                            lost = consumer.getLost();
+                            this.lost();
+                        }
+                        demuxer.feed(buffer);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("【海康FLV转发】ip: {}, 转发异常", deviceIp, e);
+            } finally {
+                stopped = true;
+                consumer.close();
+                relays.remove(deviceIp, this);
+                log.info("【海康FLV转发】ip: {}, 停止转发, 帧数: {}", deviceIp, frames.get());
+            }
+        }
+
+        /**
+         * 这个包之前丢了包: 拼了一半的帧不完整, 之后的帧参考的数据也不全, 等下一个关键帧
+         */
+        private void lost() {
+            demuxer.reset();
+            waitingKey = true;
+            synchronized (this) {
+                gop.clear();
+            }
+        }
+
+        private void frame(PsDemuxer.Frame frame) {
+            if (waitingKey) {
+                if (!frame.isKey()) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                waitingKey = false;
+            }
+            codec = frame.getCodec();
+            List<FlvMuxer.Tag> tags = muxer.mux(frame);
+            synchronized (this) {
+                for (FlvMuxer.Tag tag : tags) {
+                    if (tag.isConfig()) {
+                        continue;
+                    }
+                    frames.incrementAndGet();
+                    if (tag.isKey()) {
+                        keyframes.incrementAndGet();
+                        gop.clear();
+                        gopOverflow = false;
+                    } else if (gop.size() >= param.getMaxGopFrames()) {
+                        gop.clear();
+                        gopOverflow = true;
+                    }
+                    if (!gopOverflow) {
+                        gop.add(tag);
+                    }
+                }
+                for (Viewer viewer : viewers) {
+                    for (FlvMuxer.Tag tag : tags) {
+                        viewer.offer(tag);
+                    }
+                }
+            }
+        }
+
+        /**
+         * 加入, 先拿到序列头和最近一组帧; 观看人数已达上限时返回null
+         */
+        private synchronized Viewer join() {
+            if (stopped || viewers.size() >= param.getMaxViewers()) {
+                return null;
+            }
+            List<FlvMuxer.Tag> backlog = Lists.newArrayList();
+            if (muxer.getConfig() != null && !gop.isEmpty()) {
+                backlog.add(muxer.getConfig());
+                backlog.addAll(gop);
+            }
+            Viewer viewer = new Viewer(this, backlog, param.getQueueSize());
+            viewers.add(viewer);
+            joined.incrementAndGet();
+            return viewer;
+        }
+
+        private void leave(Viewer viewer) {
+            viewers.remove(viewer);
+            if (viewers.isEmpty()) {
+                idleSince = System.currentTimeMillis();
+            }
+        }
+
+        private HkFlvRelayStats stats() {
+            HkFlvRelayStats stats = new HkFlvRelayStats();
+            stats.setDeviceIp(deviceIp);
+            stats.setCodec(HkKeyframes.codecName(codec));
+            stats.setViewers(viewers.size());
+            stats.setJoined(joined.get());
+            stats.setFrames(frames.get());
+            stats.setKeyframes(keyframes.get());
+            synchronized (this) {
+                stats.setGopFrames(gop.size());
+            }
+            stats.setDropped(dropped.get());
+            stats.setResets(resets.get());
+            stats.setLostPackets(consumer.getLost());
+            return stats;
+        }
+    }
+
+    /**
+     * 观看者, 取流线程放入队列, 请求线程发送
+     */
+    private static class Viewer {
+
+        private final Relay relay;
+
+        private final List<FlvMuxer.Tag> backlog;
+
+        private final ArrayBlockingQueue<FlvMuxer.Tag> queue;
+
+        /**
+         * 队列满后丢弃到下一个关键帧, 只由取流线程读写
+         */
+        private boolean waitingKey;
+
+        /**
+         * 下一帧前要先发序列头, 只由取流线程读写
+         */
+        private boolean needConfig;
+
+        /**
+         * 发送的第一帧的时间戳, 之后的时间戳从0开始
+         */
+        private long base = -1;
+
+        private Viewer(Relay relay, List<FlvMuxer.Tag> backlog, int queueSize) {
+            this.relay = relay;
+            this.backlog = backlog;
+            this.queue = new ArrayBlockingQueue<>(Math.max(2, queueSize));
+            // 还没有缓存到关键帧, 等第一个关键帧
+            this.waitingKey = backlog.isEmpty();
+            this.needConfig = backlog.isEmpty();
+        }
+
+        private void offer(FlvMuxer.Tag tag) {
+            if (waitingKey) {
+                if (!tag.isKey()) {
+                    relay.dropped.incrementAndGet();
+                    return;
+                }
+                waitingKey = false;
+            }
+            if (needConfig) {
+                needConfig = false;
+                if (!tag.isConfig()) {
+                    queue.offer(relay.muxer.getConfig());
+                }
+            }
+            if (queue.offer(tag)) {
+                return;
+            }
+            // 发送太慢, 清空队列, 从下一个关键帧继续, 序列头可能也被清掉了, 重新发
+            relay.dropped.addAndGet(queue.size());
+            relay.resets.incrementAndGet();
+            queue.clear();
+            needConfig = true;
+            waitingKey = true;
+            this.offer(tag);
+        }
+
+        private void serve(OutputStream out) throws IOException, InterruptedException {
+            out.write(FlvMuxer.header());
+            for (FlvMuxer.Tag tag : backlog) {
+                this.write(out, tag);
+            }
+            out.flush();
+            while (!relay.stopped) {
+                FlvMuxer.Tag tag = queue.poll(1, TimeUnit.SECONDS);
+                if (tag == null) {
+                    continue;
+                }
+                this.write(out, tag);
+                if (queue.isEmpty()) {
+                    out.flush();
+                }
+            }
+        }
+
+        private void write(OutputStream out, FlvMuxer.Tag tag) throws IOException {
+            if (base < 0 && !tag.isConfig()) {
+                base = tag.getTimestamp();
+            }
+            FlvMuxer.write(out, tag, base < 0 ? 0 : Math.max(0, tag.getTimestamp() - base));
+        }
+    }
+}
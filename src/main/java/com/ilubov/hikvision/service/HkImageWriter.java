@@ -0,0 +1,319 @@
+package com.ilubov.hikvision.service;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.google.common.collect.Lists;
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.util.PooledBuffer;
+import com.ilubov.hikvision.vo.HkImageWriterParam;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 图片异步写入
+ * <p>
+ * 调用方只负责提交, 由独立的写入线程通过FileChannel落盘, 按刷盘策略force
+ * <p>
+ * 新建的文件要同时刷文件数据和所在目录才算落盘: ALWAYS每张图片刷一次文件再刷一次目录;
+ * GROUP先写完一批, 再逐个刷文件数据, 最后每个目录只刷一次, 目录项的刷盘由整批共用, 全部刷完才通知调用方;
+ * 文件数据仍是每张一次force, 不存在跨文件的数据刷盘
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class HkImageWriter {
+
+    @Autowired
+    private HkCameraProperty property;
+
+    private BlockingQueue<WriteTask> queue;
+
+    private ExecutorService executor;
+
+    private volatile boolean running;
+
+    private final AtomicLong submitted = new AtomicLong();
+
+    private final AtomicLong written = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong fsyncs = new AtomicLong();
+
+    private final AtomicLong directoryFsyncs = new AtomicLong();
+
+    private final AtomicLong batches = new AtomicLong();
+
+    /**
+     * 部分系统(如Windows)不能打开目录刷盘, 失败一次后不再尝试
+     */
+    private volatile boolean directorySync = true;
+
+    @PostConstruct
+    public void init() {
+        HkImageWriterParam param = property.getImageWriter();
+        queue = new ArrayBlockingQueue<>(param.getQueueCapacity());
+        executor = Executors.newFixedThreadPool(param.getWriterThreads(),
+                ThreadFactoryBuilder.create().setNamePrefix("hk-image-writer-").setDaemon(true).build());
+        running = true;
+        for (int i = 0; i < param.getWriterThreads(); i++) {
+            executor.execute(this::loop);
+        }
+        log.info("【海康图片写入】初始化完成 刷盘策略: {}, 线程数: {}", param.getFsyncPolicy(), param.getWriterThreads());
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        running = false;
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 提交写入, 文件名为 UUID_后缀.jpg, 写完后归还缓冲区
+     */
+    public CompletableFuture<Path> submit(PooledBuffer buffer, String suffix) {
+        Path path = Paths.get(property.getImgPath() + UUID.randomUUID() + "_" + suffix + ".jpg");
+        return this.submit(buffer, path);
+    }
+
+    /**
+     * 提交写入到指定文件, 写完后归还缓冲区
+     */
+    public CompletableFuture<Path> submit(PooledBuffer buffer, Path path) {
+        WriteTask task = new WriteTask(buffer, path);
+        submitted.incrementAndGet();
+        boolean accepted;
+        try {
+            accepted = running && queue.offer(task, property.getImageWriter().getSubmitTimeoutMs(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            accepted = false;
+        }
+        if (!accepted) {
+            rejected.incrementAndGet();
+            buffer.release();
+            task.future.completeExceptionally(new RejectedExecutionException("图片写入队列已满: " + path));
+        }
+        return task.future;
+    }
+
+    /**
+     * 在当前线程直接写入一批, 不经过队列和写入线程, 批的组成由调用方决定; 测试用, 刷盘次数不受线程调度影响
+     */
+    List<CompletableFuture<Path>> writeBatch(List<PooledBuffer> buffers, List<Path> paths) {
+        List<WriteTask> batch = Lists.newArrayListWithCapacity(buffers.size());
+        List<CompletableFuture<Path>> futures = Lists.newArrayListWithCapacity(buffers.size());
+        for (int i = 0; i < buffers.size(); i++) {
+            WriteTask task = new WriteTask(buffers.get(i), paths.get(i));
+            submitted.incrementAndGet();
+            batch.add(task);
+            futures.add(task.future);
+        }
+        this.write(batch, property.getImageWriter().getFsyncPolicy());
+        return futures;
+    }
+
+    private void loop() {
+        HkImageWriterParam param = property.getImageWriter();
+        List<WriteTask> batch = Lists.newArrayListWithCapacity(param.getGroupCommitSize());
+        while (running || !queue.isEmpty()) {
+            try {
+                WriteTask first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                if (param.getFsyncPolicy() == HkImageWriterParam.FsyncPolicy.GROUP) {
+                    queue.drainTo(batch, param.getGroupCommitSize() - batch.size());
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(param.getGroupCommitWaitMs());
+                    while (batch.size() < param.getGroupCommitSize()) {
+                        long wait = deadline - System.nanoTime();
+                        WriteTask next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : null;
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                        queue.drainTo(batch, param.getGroupCommitSize() - batch.size());
+                    }
+                }
+                this.write(batch, param.getFsyncPolicy());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("【海康图片写入】写入线程异常", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 写入一批图片, GROUP策略下全部写完后再逐个刷文件, 每个目录刷一次后统一完成
+     */
+    private void write(List<WriteTask> batch, HkImageWriterParam.FsyncPolicy policy) {
+        batches.incrementAndGet();
+        List<WriteTask> pending = Lists.newArrayListWithCapacity(batch.size());
+        for (WriteTask task : batch) {
+            try {
+                task.channel = FileChannel.open(task.path, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                ByteBuffer bb = ByteBuffer.wrap(task.buffer.array(), 0, task.buffer.length());
+                while (bb.hasRemaining()) {
+                    task.channel.write(bb);
+                }
+                if (policy == HkImageWriterParam.FsyncPolicy.ALWAYS) {
+                    task.channel.force(false);
+                    fsyncs.incrementAndGet();
+                    this.syncDirectory(task.path.getParent());
+                }
+                if (policy != HkImageWriterParam.FsyncPolicy.GROUP) {
+                    this.complete(task, null);
+                } else {
+                    pending.add(task);
+                }
+            } catch (IOException e) {
+                this.complete(task, e);
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<WriteTask> synced = Lists.newArrayListWithCapacity(pending.size());
+        Set<Path> directories = new LinkedHashSet<>();
+        for (WriteTask task : pending) {
+            try {
+                task.channel.force(false);
+                fsyncs.incrementAndGet();
+                synced.add(task);
+                directories.add(task.path.getParent());
+            } catch (IOException e) {
+                this.complete(task, e);
+            }
+        }
+        for (Path directory : directories) {
+            this.syncDirectory(directory);
+        }
+        for (WriteTask task : synced) {
+            this.complete(task, null);
+        }
+    }
+
+    /**
+     * 刷目录, 让新建文件的目录项落盘
+     */
+    private void syncDirectory(Path directory) {
+        if (!directorySync || directory == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+            directoryFsyncs.incrementAndGet();
+        } catch (IOException e) {
+            directorySync = false;
+            log.warn("【海康图片写入】不支持目录刷盘, 只刷文件数据: {}", directory, e);
+        }
+    }
+
+    private void complete(WriteTask task, IOException error) {
+        task.buffer.release();
+        if (task.channel != null) {
+            try {
+                task.channel.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error == null) {
+            written.incrementAndGet();
+            task.future.complete(task.path);
+        } else {
+            failed.incrementAndGet();
+            log.error("【海康摄像头写入图片失败】{}", task.path, error);
+            task.future.completeExceptionally(error);
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getFsyncs() {
+        return fsyncs.get();
+    }
+
+    public long getDirectoryFsyncs() {
+        return directoryFsyncs.get();
+    }
+
+    /**
+     * 写入的批数, 非GROUP策略每批一张
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    boolean isDirectorySync() {
+        return directorySync;
+    }
+
+    private static class WriteTask {
+
+        private final PooledBuffer buffer;
+
+        private final Path path;
+
+        private final CompletableFuture<Path> future = new CompletableFuture<>();
+
+        private FileChannel channel;
+
+        private WriteTask(PooledBuffer buffer, Path path) {
+            this.buffer = buffer;
+            this.path = path;
+        }
+    }
+}
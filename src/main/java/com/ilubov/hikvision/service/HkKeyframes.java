@@ -0,0 +1,233 @@
+package com.ilubov.hikvision.service;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.google.common.collect.Lists;
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.sdk.HCNetSDK;
+import com.ilubov.hikvision.util.PsDemuxer;
+import com.ilubov.hikvision.vo.HkCameraParam;
+import com.ilubov.hikvision.vo.HkKeyframeInfo;
+import com.ilubov.hikvision.vo.HkKeyframeParam;
+import com.ilubov.hikvision.vo.HkKeyframeStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 从实时码流提取关键帧
+ * <p>
+ * 每台摄像头一个线程从实时取流读取PS包, 解复用后只保留最新的关键帧, 拍照时直接给出, 不再向设备请求抓拍;
+ * 第一次请求时开始取流, 一段时间没有请求后停止
+ * <p>
+ * 读得太慢丢了包时丢掉拼了一半的帧, 缺了PES的关键帧不会被当成最新的关键帧; 超过 max-age-ms 的关键帧不再返回, 码流停住时不会一直给出旧图
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class HkKeyframes {
+
+    @Autowired
+    private HkCameraProperty property;
+
+    @Autowired
+    private HkRealPlay realPlay;
+
+    private final Map<String, Extractor> extractors = new ConcurrentHashMap<>();
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newCachedThreadPool(
+                ThreadFactoryBuilder.create().setNamePrefix("hk-keyframe-").setDaemon(true).build());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        for (Extractor extractor : extractors.values()) {
+            extractor.stopped = true;
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * 最新的关键帧, 没有在提取时开始提取; 还没有不超过 max-age-ms 的关键帧时最多等待 wait-ms, 取流失败或超时返回null
+     */
+    public PsDemuxer.Frame latest(HkCameraParam camera) throws InterruptedException {
+        Extractor extractor = this.extractor(camera);
+        if (extractor == null) {
+            return null;
+        }
+        extractor.lastRequestTime = System.currentTimeMillis();
+        HkKeyframeParam param = property.getKeyframe();
+        return extractor.await(param.getWaitMs(), param.getMaxAgeMs());
+    }
+
+    /**
+     * 提取统计
+     */
+    public List<HkKeyframeStats> stats() {
+        List<HkKeyframeStats> list = Lists.newArrayList();
+        for (Extractor extractor : extractors.values()) {
+            list.add(extractor.stats());
+        }
+        return list;
+    }
+
+    /**
+     * 正在提取的, 没有时开始提取; 开始取流可能阻塞, 不在map的锁里进行, 同时开始的只保留一个
+     */
+    private Extractor extractor(HkCameraParam camera) {
+        String deviceIp = camera.getDeviceIp();
+        while (true) {
+            Extractor current = extractors.get(deviceIp);
+            if (current != null && !current.stopped) {
+                return current;
+            }
+            HkKeyframeParam param = property.getKeyframe();
+            HkRealPlay.Consumer consumer = realPlay.attach(camera, param.getChannel(), param.getStreamType());
+            if (consumer == null) {
+                return null;
+            }
+            Extractor extractor = new Extractor(deviceIp, consumer, param);
+            if (current == null ? extractors.putIfAbsent(deviceIp, extractor) == null : extractors.replace(deviceIp, current, extractor)) {
+                executor.execute(extractor);
+                log.info("【海康关键帧提取】ip: {}, 开始提取", deviceIp);
+                return extractor;
+            }
+            consumer.close();
+        }
+    }
+
+    /**
+     * 单台摄像头的提取线程
+     */
+    private class Extractor implements Runnable {
+
+        private final String deviceIp;
+
+        private final HkRealPlay.Consumer consumer;
+
+        private final PsDemuxer demuxer;
+
+        private volatile PsDemuxer.Frame latest;
+
+        private volatile boolean stopped;
+
+        private volatile long lastRequestTime = System.currentTimeMillis();
+
+        private Extractor(String deviceIp, HkRealPlay.Consumer consumer, HkKeyframeParam param) {
+            this.deviceIp = deviceIp;
+            this.consumer = consumer;
+            this.demuxer = new PsDemuxer(param.getMaxFrameBytes(), param.getIndexSize(), this::keyframe);
+        }
+
+        @Override
+        public void run() {
+            long idleStopMs = property.getKeyframe().getIdleStopMs();
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            long lost = consumer.getLost();
+            try {
+                while (!stopped && !consumer.isStopped()
+                        && System.currentTimeMillis() - lastRequestTime < idleStopMs) {
+                    buffer.clear();
+                    int length = consumer.poll(buffer);
+                    if (length < 0) {
+                        buffer = ByteBuffer.allocate(Integer.highestOneBit(-length) << 1);
+                    } else if (length == 0) {
+                        consumer.await(200, TimeUnit.MILLISECONDS);
+                    } else if (consumer.getType() == HCNetSDK.NET_DVR_STREAMDATA) {
+                        buffer.flip();
+                        synchronized (demuxer) {
+                            // 这个包之前丢了包, 拼了一半的帧不完整
+                            if (consumer.getLost() != lost) {
+                                lost = consumer.getLost();
+                                demuxer.reset();
+                            }
+                            demuxer.feed(buffer);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                log.error("【海康关键帧提取】ip: {}, 解析异常", deviceIp, e);
+            } finally {
+                stopped = true;
+                consumer.close();
+                extractors.remove(deviceIp, this);
+                synchronized (this) {
+                    this.notifyAll();
+                }
+                log.info("【海康关键帧提取】ip: {}, 停止提取", deviceIp);
+            }
+        }
+
+        private void keyframe(PsDemuxer.Frame keyframe) {
+            latest = keyframe;
+            synchronized (this) {
+                this.notifyAll();
+            }
+        }
+
+        private synchronized PsDemuxer.Frame await(long waitMs, long maxAgeMs) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + waitMs;
+            long remaining = waitMs;
+            while (!fresh(latest, maxAgeMs) && !stopped && remaining > 0) {
+                this.wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            PsDemuxer.Frame keyframe = latest;
+            return fresh(keyframe, maxAgeMs) ? keyframe : null;
+        }
+
+        private HkKeyframeStats stats() {
+            HkKeyframeStats stats = new HkKeyframeStats();
+            stats.setDeviceIp(deviceIp);
+            stats.setLostPackets(consumer.getLost());
+            List<HkKeyframeInfo> index = Lists.newArrayList();
+            synchronized (demuxer) {
+                stats.setCodec(codecName(demuxer.getCodec()));
+                stats.setBytes(demuxer.getOffset());
+                stats.setFrames(demuxer.getFrames());
+                stats.setKeyframes(demuxer.getKeyframes());
+                stats.setGopFrames(demuxer.getGopFrames());
+                stats.setSkippedBytes(demuxer.getSkippedBytes());
+                stats.setResets(demuxer.getResets());
+                for (PsDemuxer.KeyframeIndex entry : demuxer.index()) {
+                    HkKeyframeInfo info = new HkKeyframeInfo();
+                    info.setOffset(entry.getOffset());
+                    info.setPts(entry.getPts());
+                    info.setTime(entry.getTime());
+                    info.setSize(entry.getSize());
+                    index.add(info);
+                }
+            }
+            stats.setIndex(index);
+            PsDemuxer.Frame keyframe = latest;
+            if (keyframe != null) {
+                stats.setLastKeyframeTime(keyframe.getTime());
+                stats.setLastKeyframeBytes(keyframe.getData().length);
+            }
+            return stats;
+        }
+    }
+
+    private static boolean fresh(PsDemuxer.Frame keyframe, long maxAgeMs) {
+        return keyframe != null && (maxAgeMs <= 0 || System.currentTimeMillis() - keyframe.getTime() <= maxAgeMs);
+    }
+
+    static String codecName(int codec) {
+        return codec == PsDemuxer.CODEC_H264 ? "H264" : "H265";
+    }
+}
@@ -0,0 +1,341 @@
+package com.ilubov.hikvision.service;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.google.common.collect.Lists;
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.vo.HkCameraParam;
+import com.ilubov.hikvision.vo.HkLiveViewParam;
+import com.ilubov.hikvision.vo.HkLiveViewStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 全彩摄像头MJPEG实时预览
+ * <p>
+ * 每台摄像头只有一个抓拍循环, 复用已登录的会话按帧率反复抓拍, 所有观看者共用同一帧, 观看人数不增加设备压力;
+ * 有人观看时才开始抓拍, 最后一个观看者离开一段时间后停止
+ * <p>
+ * 每个观看者在自己的请求线程里发送最新的一帧, 发送慢的观看者跳过中间的帧, 不影响抓拍和其他观看者
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class HkLiveView {
+
+    @Autowired
+    private HkCameraProperty property;
+
+    @Autowired
+    private HkCameraService cameraService;
+
+    private ScheduledExecutorService scheduler;
+
+    private final Map<String, Stream> streams = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newScheduledThreadPool(property.getLiveView().getThreads(),
+                ThreadFactoryBuilder.create().setNamePrefix("hk-live-").setDaemon(true).build());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        scheduler.shutdownNow();
+        for (Stream stream : streams.values()) {
+            stream.stop();
+        }
+        streams.clear();
+    }
+
+    /**
+     * 观看, 每一帧交给sink, 阻塞到sink抛出异常(连接断开)或停止预览; 观看人数已达上限时直接返回false
+     */
+    public boolean view(HkCameraParam camera, HkCameraService.JpegSink sink) throws IOException, InterruptedException {
+        Stream stream = this.join(camera);
+        if (stream == null) {
+            log.info("【海康实时预览】ip: {}, 观看人数已达上限: {}", camera.getDeviceIp(), property.getLiveView().getMaxViewers());
+            return false;
+        }
+        try {
+            stream.serve(sink);
+        } finally {
+            stream.leave();
+        }
+        return true;
+    }
+
+    /**
+     * 预览统计
+     */
+    public List<HkLiveViewStats> stats() {
+        List<HkLiveViewStats> list = Lists.newArrayList();
+        for (Stream stream : streams.values()) {
+            list.add(stream.stats());
+        }
+        return list;
+    }
+
+    /**
+     * 加入摄像头的抓拍循环, 没有时创建
+     */
+    private Stream join(HkCameraParam camera) {
+        int maxViewers = property.getLiveView().getMaxViewers();
+        Stream[] joined = new Stream[1];
+        streams.compute(camera.getDeviceIp(), (deviceIp, stream) -> {
+            if (stream == null || stream.stopped) {
+                stream = new Stream(camera, this.fps(camera));
+                stream.start();
+            }
+            if (stream.viewers.get() < maxViewers) {
+                stream.viewers.incrementAndGet();
+                joined[0] = stream;
+            }
+            return stream;
+        });
+        return joined[0];
+    }
+
+    private double fps(HkCameraParam camera) {
+        HkLiveViewParam param = property.getLiveView();
+        double fps = camera.getLiveViewFps() == null ? param.getFps() : camera.getLiveViewFps();
+        return fps > 0 ? fps : 1;
+    }
+
+    /**
+     * 一帧JPEG, 所有观看者共用
+     */
+    private static class Frame {
+
+        private final long seq;
+
+        private final byte[] data;
+
+        /**
+         * 抓拍完成时间
+         */
+        private final long nanos;
+
+        private Frame(long seq, byte[] data, long nanos) {
+            this.seq = seq;
+            this.data = data;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * 单台摄像头的抓拍循环, 只有一个线程在抓拍, 最新一帧发布后唤醒所有观看者
+     */
+    private class Stream {
+
+        private final HkCameraParam camera;
+
+        private final double fps;
+
+        private final long period;
+
+        private final AtomicInteger viewers = new AtomicInteger();
+
+        private volatile boolean stopped;
+
+        private volatile Frame frame;
+
+        /**
+         * 下一帧预定的抓拍时间
+         */
+        private long due;
+
+        private long idleSince;
+
+        private long windowStart;
+
+        private int windowFrames;
+
+        private volatile double actualFps;
+
+        private volatile long captureNanos;
+
+        private volatile long lagNanos;
+
+        private volatile long maxLagNanos;
+
+        private final AtomicLong frames = new AtomicLong();
+
+        private final AtomicLong failures = new AtomicLong();
+
+        private final AtomicLong missedTicks = new AtomicLong();
+
+        private final AtomicLong skippedFrames = new AtomicLong();
+
+        private final AtomicLong maxDeliveryNanos = new AtomicLong();
+
+        private Stream(HkCameraParam camera, double fps) {
+            this.camera = camera;
+            this.fps = fps;
+            this.period = (long) (TimeUnit.SECONDS.toNanos(1) / fps);
+        }
+
+        private void start() {
+            due = System.nanoTime();
+            windowStart = due;
+            idleSince = due;
+            log.info("【海康实时预览】ip: {}, 开始抓拍, 帧率: {}", camera.getDeviceIp(), fps);
+            this.next(0);
+        }
+
+        private void next(long delay) {
+            try {
+                scheduler.schedule(this::tick, delay, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                this.stop();
+            }
+        }
+
+        /**
+         * 抓拍一帧后按预定时间排下一帧; 抓拍太慢时不补拍, 从当前时间重新计时
+         */
+        private void tick() {
+            if (stopped) {
+                return;
+            }
+            long start = System.nanoTime();
+            if (viewers.get() > 0) {
+                idleSince = start;
+            } else if (start - idleSince >= TimeUnit.MILLISECONDS.toNanos(property.getLiveView().getIdleStopMs())) {
+                streams.computeIfPresent(camera.getDeviceIp(), (deviceIp, stream) -> {
+                    if (stream != this || viewers.get() > 0) {
+                        return stream;
+                    }
+                    this.stop();
+                    return null;
+                });
+                if (stopped) {
+                    log.info("【海康实时预览】ip: {}, 没有观看者, 停止抓拍", camera.getDeviceIp());
+                    return;
+                }
+            }
+            long lag = Math.max(0, start - due);
+            lagNanos = lag;
+            if (lag > maxLagNanos) {
+                maxLagNanos = lag;
+            }
+            boolean success;
+            try {
+                // 不取拍照缓存, 否则缓存期内会把同一张图片当作新的一帧重复推送
+                success = cameraService.streamPhoto(camera, false, (deviceIp, jpeg) -> this.publish(jpeg));
+            } catch (Exception e) {
+                log.info("【海康实时预览】ip: {}, 抓拍异常: {}", camera.getDeviceIp(), String.valueOf(e));
+                success = false;
+            }
+            long end = System.nanoTime();
+            captureNanos = end - start;
+            if (!success) {
+                failures.incrementAndGet();
+            }
+            this.measure(end, success);
+            due += period;
+            if (due < end) {
+                missedTicks.addAndGet((end - due) / period + 1);
+                due = end;
+            }
+            this.next(due - end);
+        }
+
+        private void publish(ByteBuffer jpeg) {
+            byte[] data = new byte[jpeg.remaining()];
+            jpeg.get(data);
+            Frame current = frame;
+            Frame next = new Frame(current == null ? 1 : current.seq + 1, data, System.nanoTime());
+            synchronized (this) {
+                frame = next;
+                this.notifyAll();
+            }
+            frames.incrementAndGet();
+        }
+
+        /**
+         * 最近一秒的实际帧率
+         */
+        private void measure(long now, boolean success) {
+            if (success) {
+                windowFrames++;
+            }
+            long elapsed = now - windowStart;
+            if (elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+                actualFps = windowFrames * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+                windowStart = now;
+                windowFrames = 0;
+            }
+        }
+
+        /**
+         * 给一个观看者发送, 先发当前帧, 之后每有新的一帧发一次
+         */
+        private void serve(HkCameraService.JpegSink sink) throws IOException, InterruptedException {
+            long last = 0;
+            while (true) {
+                Frame current;
+                synchronized (this) {
+                    while (!stopped && (frame == null || frame.seq == last)) {
+                        this.wait();
+                    }
+                    if (stopped) {
+                        return;
+                    }
+                    current = frame;
+                }
+                if (last > 0 && current.seq > last + 1) {
+                    skippedFrames.addAndGet(current.seq - last - 1);
+                }
+                last = current.seq;
+                sink.accept(camera.getDeviceIp(), ByteBuffer.wrap(current.data));
+                long delivery = System.nanoTime() - current.nanos;
+                maxDeliveryNanos.accumulateAndGet(delivery, Math::max);
+            }
+        }
+
+        private void leave() {
+            viewers.decrementAndGet();
+        }
+
+        private void stop() {
+            synchronized (this) {
+                stopped = true;
+                this.notifyAll();
+            }
+        }
+
+        private HkLiveViewStats stats() {
+            HkLiveViewStats stats = new HkLiveViewStats();
+            stats.setDeviceIp(camera.getDeviceIp());
+            stats.setViewers(viewers.get());
+            stats.setTargetFps(fps);
+            stats.setFps(actualFps);
+            stats.setFrames(frames.get());
+            stats.setFailures(failures.get());
+            stats.setCaptureMs(TimeUnit.NANOSECONDS.toMillis(captureNanos));
+            stats.setLagMs(TimeUnit.NANOSECONDS.toMillis(lagNanos));
+            stats.setMaxLagMs(TimeUnit.NANOSECONDS.toMillis(maxLagNanos));
+            stats.setMissedTicks(missedTicks.get());
+            stats.setSkippedFrames(skippedFrames.get());
+            stats.setMaxDeliveryMs(TimeUnit.NANOSECONDS.toMillis(maxDeliveryNanos.get()));
+            return stats;
+        }
+    }
+}
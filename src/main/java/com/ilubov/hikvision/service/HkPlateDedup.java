@@ -0,0 +1,214 @@
+package com.ilubov.hikvision.service;
+
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.vo.HkDedupParam;
+import com.ilubov.hikvision.vo.HkDedupStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 重复过车去重
+ * <p>
+ * 按(设备, 车牌)记录最近一次上报时间, 窗口内再次上报视为重复, 并顺延窗口; 在图片落盘之前判定, 重复的上报不写图片
+ * <p>
+ * 记录放在定长的开放寻址表里, 只存键的64位哈希和几个基本类型字段, 不保存字符串也不产生垃圾;
+ * 每个键只在固定长度的探测范围内查找, 范围内没有空位或过期的槽位时淘汰最久未上报的
+ * <p>
+ * MERGE策略下槽位旁边另记首次上报的图片路径, 重复上报沿用; 键被淘汰或窗口过期后随之清掉
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class HkPlateDedup {
+
+    /**
+     * 探测范围, 查找和淘汰都只看这几个槽位
+     */
+    private static final int PROBES = 8;
+
+    @Autowired
+    private HkCameraProperty property;
+
+    private long[] keys;
+
+    private long[] lastSeen;
+
+    private int[] repeats;
+
+    /**
+     * 首次上报的图片路径, 只在MERGE策略下记录
+     */
+    private Object[] images;
+
+    private int mask;
+
+    private int entries;
+
+    private final AtomicLong lookups = new AtomicLong();
+
+    private final AtomicLong duplicates = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong imagesSkipped = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        int capacity = Integer.highestOneBit(Math.max(PROBES, property.getDedup().getCapacity()) - 1) << 1;
+        keys = new long[capacity];
+        lastSeen = new long[capacity];
+        repeats = new int[capacity];
+        images = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * 记录一次上报, 返回去重窗口内的第几次重复, 0为首次或未启用去重
+     */
+    public int check(String deviceId, String plateNumber, long time) {
+        HkDedupParam param = property.getDedup();
+        if (!param.isEnabled() || plateNumber == null || plateNumber.isEmpty()) {
+            return 0;
+        }
+        lookups.incrementAndGet();
+        long key = key(deviceId, plateNumber);
+        int repeat = this.touch(key, time, param.getWindowMs());
+        if (repeat > 0) {
+            duplicates.incrementAndGet();
+        }
+        return repeat;
+    }
+
+    /**
+     * MERGE策略下记下首次上报的图片路径, 窗口内的重复上报沿用
+     */
+    public synchronized void attachImages(String deviceId, String plateNumber, CompletableFuture<List<String>> paths) {
+        if (this.policy() != HkDedupParam.Policy.MERGE || plateNumber == null || plateNumber.isEmpty()) {
+            return;
+        }
+        int slot = this.find(key(deviceId, plateNumber));
+        if (slot >= 0) {
+            images[slot] = paths;
+        }
+    }
+
+    /**
+     * 首次上报的图片路径, 没有记录时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized CompletableFuture<List<String>> images(String deviceId, String plateNumber) {
+        if (plateNumber == null || plateNumber.isEmpty()) {
+            return null;
+        }
+        int slot = this.find(key(deviceId, plateNumber));
+        return slot < 0 ? null : (CompletableFuture<List<String>>) images[slot];
+    }
+
+    /**
+     * 记一次因为重复没有写入的图片
+     */
+    public void skipImages(int images) {
+        imagesSkipped.addAndGet(images);
+    }
+
+    public HkDedupParam.Policy policy() {
+        return property.getDedup().getPolicy();
+    }
+
+    /**
+     * 去重统计
+     */
+    public HkDedupStats stats() {
+        HkDedupStats stats = new HkDedupStats();
+        long lookups = this.lookups.get();
+        long duplicates = this.duplicates.get();
+        stats.setLookups(lookups);
+        stats.setDuplicates(duplicates);
+        stats.setHitRate(lookups == 0 ? 0 : (double) duplicates / lookups);
+        synchronized (this) {
+            stats.setEntries(entries);
+        }
+        stats.setEvictions(evictions.get());
+        stats.setImagesSkipped(imagesSkipped.get());
+        return stats;
+    }
+
+    private synchronized int touch(long key, long time, long windowMs) {
+        int start = (int) key & mask;
+        int victim = -1;
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (start + i) & mask;
+            if (keys[slot] == key) {
+                boolean live = time - lastSeen[slot] <= windowMs;
+                repeats[slot] = live ? repeats[slot] + 1 : 0;
+                if (!live) {
+                    images[slot] = null;
+                }
+                lastSeen[slot] = Math.max(lastSeen[slot], time);
+                return repeats[slot];
+            }
+            // 槽位只会被覆盖不会被清空, 遇到空位说明后面也不会有这个键
+            if (keys[slot] == 0) {
+                victim = slot;
+                break;
+            }
+            if (victim < 0 || lastSeen[slot] < lastSeen[victim]) {
+                victim = slot;
+            }
+        }
+        if (keys[victim] == 0) {
+            entries++;
+        } else if (time - lastSeen[victim] <= windowMs) {
+            evictions.incrementAndGet();
+        }
+        keys[victim] = key;
+        lastSeen[victim] = time;
+        repeats[victim] = 0;
+        images[victim] = null;
+        return 0;
+    }
+
+    private int find(long key) {
+        int start = (int) key & mask;
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (start + i) & mask;
+            if (keys[slot] == key) {
+                return slot;
+            }
+            if (keys[slot] == 0) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 设备编号和车牌的64位哈希, 0留作空槽位
+     */
+    static long key(String deviceId, String plateNumber) {
+        long h = 0xcbf29ce484222325L;
+        if (deviceId != null) {
+            for (int i = 0; i < deviceId.length(); i++) {
+                h = (h ^ deviceId.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        h = (h ^ 0xFFFF) * 0x100000001b3L;
+        for (int i = 0; i < plateNumber.length(); i++) {
+            h = (h ^ plateNumber.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+}
@@ -0,0 +1,783 @@
+package com.ilubov.hikvision.service;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import cn.hutool.core.util.StrUtil;
+import com.google.common.collect.Lists;
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.vo.HkPlateEvent;
+import com.ilubov.hikvision.vo.HkPlateHit;
+import com.ilubov.hikvision.vo.HkPlateIndexParam;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 车牌检索
+ * <p>
+ * 每个不同的车牌一条记录, 按车牌排序支持前缀查询; 另外按车牌中相邻两个字符建立倒排,
+ * 模糊查询时先用最少见的几个二元组找出候选车牌再计算编辑距离
+ * <p>
+ * 车牌的通行事件ID不放在堆上: 内存中每个车牌只保留最近 postings-block 个, 满了差值编码成一块追加到事件存储目录下的
+ * 倒排文件(内存映射), 块头记下同一车牌的上一块, 查询时从新到旧沿链读取
+ * <p>
+ * 每隔 checkpoint-interval-seconds 把车牌表、每个车牌内存中的事件ID和已索引到的事件ID写成检查点, 启动时加载检查点,
+ * 沿用倒排文件, 只补上检查点之后的事件; 没有检查点或检查点和事件存储对不上时才从事件存储全部重建
+ * <p>
+ * 写入事件存储和加入索引在同一把锁内, 每个车牌的事件ID按加入顺序递增; 查询不加锁
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class HkPlateIndex {
+
+    @Autowired
+    private HkCameraProperty property;
+
+    @Autowired
+    private HkEventStore eventStore;
+
+    private static final String POSTINGS_FILE = "plate-postings.dat";
+
+    private static final String CHECKPOINT_FILE = "plate-index.ckpt";
+
+    private static final int MAGIC = 0x484B5049;
+
+    private static final int VERSION = 1;
+
+    /**
+     * 倒排文件每次映射的大小
+     */
+    private static final int REGION_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * 块头: 上一块偏移, 事件数, 第一个事件ID
+     */
+    private static final int BLOCK_HEADER = 20;
+
+    private final ConcurrentSkipListMap<String, Plate> plates = new ConcurrentSkipListMap<>();
+
+    /**
+     * 二元组 -> 包含它的车牌序号
+     */
+    private final Map<Integer, IntPostings> bigrams = new ConcurrentHashMap<>();
+
+    /**
+     * 车牌序号 -> 车牌
+     */
+    private volatile Plate[] ordinals = new Plate[1024];
+
+    private volatile int plateCount;
+
+    private volatile long events;
+
+    private volatile boolean ready;
+
+    /**
+     * 重建期间实时写入的事件先缓存, 重建完成后补上
+     */
+    private List<HkPlateEvent> pending = Lists.newArrayList();
+
+    /**
+     * 已加入索引的最后一个事件ID
+     */
+    private long lastId = -1;
+
+    /**
+     * 最近一次检查点对应的事件ID
+     */
+    private long checkpointId = -1;
+
+    /**
+     * 倒排文件已映射的区域, 只追加
+     */
+    private volatile MappedByteBuffer[] regions = new MappedByteBuffer[0];
+
+    /**
+     * 倒排文件已写入字节数
+     */
+    private volatile long postingsBytes;
+
+    /**
+     * 倒排文件不可用时事件ID留在内存
+     */
+    private boolean postingsFailed;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        HkPlateIndexParam param = property.getPlateIndex();
+        if (!param.isEnabled()) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                ThreadFactoryBuilder.create().setNamePrefix("hk-plate-index-").setDaemon(true).build());
+        scheduler.execute(this::rebuild);
+        int interval = param.getCheckpointIntervalSeconds();
+        if (interval > 0) {
+            scheduler.scheduleWithFixedDelay(this::checkpoint, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        this.checkpoint();
+    }
+
+    /**
+     * 加载检查点后补上之后的事件, 检查点不可用时从事件存储全部重建
+     */
+    void rebuild() {
+        long start = System.currentTimeMillis();
+        boolean restored = this.load();
+        if (!restored) {
+            this.resetPostings();
+        }
+        long from = lastId;
+        eventStore.scan(from, event -> {
+            synchronized (this) {
+                this.index(event);
+            }
+        });
+        synchronized (this) {
+            for (HkPlateEvent event : pending) {
+                if (event.getId() > lastId) {
+                    this.index(event);
+                }
+            }
+            pending = null;
+            ready = true;
+        }
+        log.info("【海康车牌检索】索引{}完成 车牌数: {}, 事件数: {}, 检查点事件ID: {}, 用时: {}ms", restored ? "恢复" : "重建",
+                plateCount, events, from, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 写入事件存储并加入索引, 两步在同一把锁内, 保证每个车牌的事件ID按加入顺序递增
+     */
+    public synchronized boolean append(HkPlateEvent event) {
+        if (!eventStore.append(event)) {
+            return false;
+        }
+        this.add(event);
+        return true;
+    }
+
+    /**
+     * 新事件加入索引, 事件需已写入事件存储, 且ID比已加入的都大
+     */
+    public synchronized void add(HkPlateEvent event) {
+        if (!property.getPlateIndex().isEnabled()) {
+            return;
+        }
+        if (pending != null) {
+            pending.add(event);
+            return;
+        }
+        this.index(event);
+    }
+
+    /**
+     * 前缀查询, 按车牌排序
+     */
+    public List<HkPlateHit> prefix(String prefix, int limit) {
+        List<HkPlateHit> list = Lists.newArrayList();
+        int max = this.limit(limit);
+        for (Plate plate : this.prefixPlates(prefix)) {
+            if (list.size() >= max) {
+                break;
+            }
+            list.add(plate.hit(0));
+        }
+        return list;
+    }
+
+    /**
+     * 模糊查询, 编辑距离不超过distance的车牌, 按距离排序
+     */
+    public List<HkPlateHit> fuzzy(String plateNumber, int distance, int limit) {
+        int d = Math.max(0, Math.min(distance, property.getPlateIndex().getMaxDistance()));
+        int length = plateNumber.length();
+        int[] grams = distinctBigrams(plateNumber);
+        // 每处编辑最多破坏两个二元组, 符合条件的车牌至少包含 grams.length - 2d 个
+        int required = grams.length - 2 * d;
+        List<HkPlateHit> list = Lists.newArrayList();
+        int count = plateCount;
+        Plate[] ordinals = this.ordinals;
+        if (required <= 0) {
+            // 查询太短, 无法用二元组过滤, 逐个比较
+            for (int i = 0; i < count; i++) {
+                this.match(ordinals[i], plateNumber, d, list);
+            }
+        } else {
+            // 任意 grams.length - required + 1 个二元组中至少有一个出现在候选车牌里, 取最少见的几个
+            IntPostings[] postings = new IntPostings[grams.length];
+            for (int i = 0; i < grams.length; i++) {
+                IntPostings p = bigrams.get(grams[i]);
+                postings[i] = p == null ? IntPostings.EMPTY : p;
+            }
+            Arrays.sort(postings, Comparator.comparingInt(p -> p.size));
+            BitSet seen = new BitSet(count);
+            for (int i = 0; i < grams.length - required + 1; i++) {
+                IntPostings p = postings[i];
+                int size = p.size;
+                int[] values = p.values;
+                for (int j = 0; j < size; j++) {
+                    int ordinal = values[j];
+                    if (ordinal < count && !seen.get(ordinal)) {
+                        seen.set(ordinal);
+                        Plate plate = ordinals[ordinal];
+                        if (Math.abs(plate.plateNumber.length() - length) <= d) {
+                            this.match(plate, plateNumber, d, list);
+                        }
+                    }
+                }
+            }
+        }
+        list.sort(Comparator.comparingInt(HkPlateHit::getDistance).thenComparing(HkPlateHit::getPlateNumber));
+        int max = this.limit(limit);
+        return list.size() > max ? Lists.newArrayList(list.subList(0, max)) : list;
+    }
+
+    /**
+     * 前缀匹配的车牌的通行事件ID, 最新的在前
+     */
+    public long[] eventIds(String prefix, int limit) {
+        int max = this.limit(limit);
+        PriorityQueue<Long> heap = new PriorityQueue<>(max + 1);
+        long[] block = new long[Math.max(1, property.getPlateIndex().getPostingsBlock())];
+        for (Plate plate : this.prefixPlates(prefix)) {
+            Tail tail = plate.tail;
+            // 先读size再读数组, 扩容先发布新数组再更新size, 读到的数组一定装得下size个
+            int size = tail.size;
+            long[] ids = tail.ids;
+            if (!offer(heap, max, ids, size)) {
+                continue;
+            }
+            // 从新到旧读磁盘上的块, 比堆里最旧的还旧就不再往前读
+            long offset = tail.prev;
+            while (offset >= 0) {
+                int count = this.readBlock(offset, block);
+                if (!offer(heap, max, block, count)) {
+                    break;
+                }
+                offset = this.region(offset).getLong(this.position(offset));
+            }
+        }
+        long[] result = new long[heap.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = heap.poll();
+        }
+        return result;
+    }
+
+    /**
+     * 前缀匹配的车牌的通行事件, 最新的在前
+     */
+    public List<HkPlateEvent> events(String prefix, int limit) {
+        List<HkPlateEvent> list = Lists.newArrayList();
+        for (long id : this.eventIds(prefix, limit)) {
+            HkPlateEvent event = eventStore.get(id);
+            if (event != null) {
+                list.add(event);
+            }
+        }
+        return list;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int getPlates() {
+        return plateCount;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    /**
+     * 倒排文件大小
+     */
+    public long getPostingsBytes() {
+        return postingsBytes;
+    }
+
+    private void index(HkPlateEvent event) {
+        lastId = event.getId();
+        String plateNumber = event.getPlateNumber();
+        if (StrUtil.isBlank(plateNumber)) {
+            return;
+        }
+        Plate plate = plates.get(plateNumber);
+        if (plate == null) {
+            plate = this.newPlate(plateNumber);
+        }
+        Tail tail = plate.tail;
+        if (tail.size >= Math.max(1, property.getPlateIndex().getPostingsBlock()) && !postingsFailed) {
+            tail = this.flush(plate, tail);
+        }
+        tail.add(event.getId());
+        plate.lastId = event.getId();
+        plate.size++;
+        events++;
+    }
+
+    private Plate newPlate(String plateNumber) {
+        Plate plate = new Plate(plateNumber, plateCount);
+        if (plate.ordinal == ordinals.length) {
+            ordinals = Arrays.copyOf(ordinals, ordinals.length * 2);
+        }
+        ordinals[plate.ordinal] = plate;
+        for (int gram : distinctBigrams(plateNumber)) {
+            bigrams.computeIfAbsent(gram, g -> new IntPostings()).add(plate.ordinal);
+        }
+        plateCount = plate.ordinal + 1;
+        plates.put(plateNumber, plate);
+        return plate;
+    }
+
+    /**
+     * 写检查点: 加锁拷贝车牌表, 倒排文件落盘后再写文件, 检查点引用的块一定已经在磁盘上
+     */
+    void checkpoint() {
+        if (!ready || postingsFailed) {
+            return;
+        }
+        long id;
+        long count;
+        long bytes;
+        Plate[] snapshot;
+        int[] sizes;
+        long[] lastIds;
+        long[] prevs;
+        long[][] tails;
+        synchronized (this) {
+            if (lastId == checkpointId) {
+                return;
+            }
+            id = lastId;
+            count = events;
+            bytes = postingsBytes;
+            snapshot = Arrays.copyOf(ordinals, plateCount);
+            sizes = new int[snapshot.length];
+            lastIds = new long[snapshot.length];
+            prevs = new long[snapshot.length];
+            tails = new long[snapshot.length][];
+            for (int i = 0; i < snapshot.length; i++) {
+                Plate plate = snapshot[i];
+                Tail tail = plate.tail;
+                sizes[i] = plate.size;
+                lastIds[i] = plate.lastId;
+                prevs[i] = tail.prev;
+                tails[i] = Arrays.copyOf(tail.ids, tail.size);
+            }
+        }
+        for (MappedByteBuffer region : regions) {
+            region.force();
+        }
+        File file = new File(property.getEventStore().getPath(), CHECKPOINT_FILE);
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(id);
+            out.writeLong(count);
+            out.writeLong(bytes);
+            out.writeInt(snapshot.length);
+            for (int i = 0; i < snapshot.length; i++) {
+                out.writeUTF(snapshot[i].plateNumber);
+                out.writeInt(sizes[i]);
+                out.writeLong(lastIds[i]);
+                out.writeLong(prevs[i]);
+                out.writeInt(tails[i].length);
+                for (long tailId : tails[i]) {
+                    out.writeLong(tailId);
+                }
+            }
+        } catch (IOException e) {
+            log.error("【海康车牌检索】写入检查点失败: {}", tmp, e);
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            log.error("【海康车牌检索】写入检查点失败: {}", file);
+            return;
+        }
+        checkpointId = id;
+    }
+
+    /**
+     * 加载检查点, 映射倒排文件; 文件缺失、格式不对或事件存储里没有检查点记下的事件时返回false
+     */
+    private boolean load() {
+        File file = new File(property.getEventStore().getPath(), CHECKPOINT_FILE);
+        if (!file.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn("【海康车牌检索】检查点格式不对, 重建索引: {}", file);
+                return false;
+            }
+            long id = in.readLong();
+            long count = in.readLong();
+            long bytes = in.readLong();
+            if (id >= 0 && eventStore.get(id) == null) {
+                log.warn("【海康车牌检索】事件存储中没有检查点的事件 {}, 重建索引", id);
+                return false;
+            }
+            File postings = new File(property.getEventStore().getPath(), POSTINGS_FILE);
+            if (bytes > 0 && postings.length() < bytes) {
+                log.warn("【海康车牌检索】倒排文件不完整, 重建索引: {}", postings);
+                return false;
+            }
+            int n = in.readInt();
+            Plate[] loaded = new Plate[n];
+            for (int i = 0; i < n; i++) {
+                Plate plate = new Plate(in.readUTF(), i);
+                plate.size = in.readInt();
+                plate.lastId = in.readLong();
+                Tail tail = new Tail(in.readLong());
+                int tailSize = in.readInt();
+                for (int j = 0; j < tailSize; j++) {
+                    tail.add(in.readLong());
+                }
+                plate.tail = tail;
+                loaded[i] = plate;
+            }
+            MappedByteBuffer[] mapped = new MappedByteBuffer[(int) ((bytes + REGION_BYTES - 1) / REGION_BYTES)];
+            for (int i = 0; i < mapped.length; i++) {
+                mapped[i] = this.map(postings, i);
+            }
+            synchronized (this) {
+                for (Plate plate : loaded) {
+                    Plate added = this.newPlate(plate.plateNumber);
+                    added.size = plate.size;
+                    added.lastId = plate.lastId;
+                    added.tail = plate.tail;
+                }
+                regions = mapped;
+                postingsBytes = bytes;
+                events = count;
+                lastId = id;
+                checkpointId = id;
+            }
+            return true;
+        } catch (IOException e) {
+            log.warn("【海康车牌检索】读取检查点失败, 重建索引: {}", file, e);
+            return false;
+        }
+    }
+
+    /**
+     * 全部重建时不沿用上次的倒排文件和检查点
+     */
+    private void resetPostings() {
+        File dir = new File(property.getEventStore().getPath());
+        for (String name : new String[]{POSTINGS_FILE, CHECKPOINT_FILE}) {
+            File file = new File(dir, name);
+            if (file.exists() && !file.delete()) {
+                log.error("【海康车牌检索】删除旧文件失败: {}", file);
+            }
+        }
+    }
+
+    /**
+     * 内存中的事件ID写成一块追加到倒排文件, 写入失败时原样留在内存
+     */
+    private Tail flush(Plate plate, Tail tail) {
+        int count = tail.size;
+        long[] ids = tail.ids;
+        long offset;
+        try {
+            offset = this.reserve(BLOCK_HEADER + (count - 1) * 10);
+        } catch (IOException e) {
+            log.error("【海康车牌检索】倒排文件写入失败, 事件ID留在内存", e);
+            postingsFailed = true;
+            return tail;
+        }
+        MappedByteBuffer region = this.region(offset);
+        int start = this.position(offset);
+        region.putLong(start, tail.prev);
+        region.putInt(start + 8, count);
+        region.putLong(start + 12, ids[0]);
+        int position = start + BLOCK_HEADER;
+        for (int i = 1; i < count; i++) {
+            long delta = ids[i] - ids[i - 1];
+            while ((delta & ~0x7FL) != 0) {
+                region.put(position++, (byte) ((delta & 0x7F) | 0x80));
+                delta >>>= 7;
+            }
+            region.put(position++, (byte) delta);
+        }
+        postingsBytes = offset + position - start;
+        // 块写完后再发布新的尾部, 查询方看到的块一定完整
+        Tail next = new Tail(offset);
+        plate.tail = next;
+        return next;
+    }
+
+    /**
+     * 为一块预留空间, 块不跨区域, 放不下时从下一个区域开始
+     */
+    private long reserve(int maxBytes) throws IOException {
+        long offset = postingsBytes;
+        if (offset % REGION_BYTES + maxBytes > REGION_BYTES) {
+            offset = (offset / REGION_BYTES + 1) * REGION_BYTES;
+        }
+        int index = (int) (offset / REGION_BYTES);
+        MappedByteBuffer[] regions = this.regions;
+        if (index >= regions.length) {
+            File file = new File(property.getEventStore().getPath(), POSTINGS_FILE);
+            File dir = file.getParentFile();
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("创建目录失败: " + dir);
+            }
+            MappedByteBuffer[] grown = Arrays.copyOf(regions, index + 1);
+            grown[index] = this.map(file, index);
+            this.regions = grown;
+        }
+        return offset;
+    }
+
+    private MappedByteBuffer map(File file, int index) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            // 映射在通道关闭后仍然有效
+            return channel.map(FileChannel.MapMode.READ_WRITE, (long) index * REGION_BYTES, REGION_BYTES);
+        }
+    }
+
+    /**
+     * 解码一块的事件ID, 返回事件数
+     */
+    private int readBlock(long offset, long[] ids) {
+        MappedByteBuffer region = this.region(offset);
+        int position = this.position(offset);
+        int count = region.getInt(position + 8);
+        long id = region.getLong(position + 12);
+        ids[0] = id;
+        position += BLOCK_HEADER;
+        for (int i = 1; i < count; i++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = region.get(position++);
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            id += delta;
+            ids[i] = id;
+        }
+        return count;
+    }
+
+    private MappedByteBuffer region(long offset) {
+        return regions[(int) (offset / REGION_BYTES)];
+    }
+
+    private int position(long offset) {
+        return (int) (offset % REGION_BYTES);
+    }
+
+    /**
+     * 按从新到旧放入最多保留max个的小顶堆, 返回false表示剩下的更旧, 不用再看
+     */
+    private static boolean offer(PriorityQueue<Long> heap, int max, long[] ids, int size) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (heap.size() >= max && ids[i] <= heap.peek()) {
+                return false;
+            }
+            heap.add(ids[i]);
+            if (heap.size() > max) {
+                heap.poll();
+            }
+        }
+        return true;
+    }
+
+    private Collection<Plate> prefixPlates(String prefix) {
+        if (StrUtil.isEmpty(prefix)) {
+            return plates.values();
+        }
+        return plates.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values();
+    }
+
+    private void match(Plate plate, String plateNumber, int d, List<HkPlateHit> list) {
+        int distance = distance(plate.plateNumber, plateNumber, d);
+        if (distance <= d) {
+            list.add(plate.hit(distance));
+        }
+    }
+
+    private int limit(int limit) {
+        int max = property.getPlateIndex().getQueryLimit();
+        return limit <= 0 ? max : Math.min(limit, max);
+    }
+
+    /**
+     * 不重复的相邻两字符
+     */
+    static int[] distinctBigrams(String s) {
+        if (s.length() < 2) {
+            return new int[0];
+        }
+        int[] grams = new int[s.length() - 1];
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = (s.charAt(i) << 16) | s.charAt(i + 1);
+        }
+        Arrays.sort(grams);
+        int n = 0;
+        for (int i = 0; i < grams.length; i++) {
+            if (i == 0 || grams[i] != grams[i - 1]) {
+                grams[n++] = grams[i];
+            }
+        }
+        return Arrays.copyOf(grams, n);
+    }
+
+    /**
+     * 编辑距离, 超过max时提前返回max + 1
+     */
+    static int distance(String a, String b, int max) {
+        int n = a.length();
+        int m = b.length();
+        if (Math.abs(n - m) > max) {
+            return max + 1;
+        }
+        int[] prev = new int[m + 1];
+        int[] cur = new int[m + 1];
+        for (int j = 0; j <= m; j++) {
+            prev[j] = j;
+        }
+        for (int i = 1; i <= n; i++) {
+            cur[0] = i;
+            int rowMin = cur[0];
+            char ca = a.charAt(i - 1);
+            for (int j = 1; j <= m; j++) {
+                int cost = ca == b.charAt(j - 1) ? 0 : 1;
+                cur[j] = Math.min(Math.min(cur[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+                rowMin = Math.min(rowMin, cur[j]);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+        }
+        return prev[m];
+    }
+
+    /**
+     * 单个车牌, 事件ID按写入顺序递增
+     */
+    private static class Plate {
+
+        private final String plateNumber;
+
+        private final int ordinal;
+
+        private volatile Tail tail = new Tail(-1);
+
+        private volatile int size;
+
+        private volatile long lastId = -1;
+
+        private Plate(String plateNumber, int ordinal) {
+            this.plateNumber = plateNumber;
+            this.ordinal = ordinal;
+        }
+
+        private HkPlateHit hit(int distance) {
+            HkPlateHit hit = new HkPlateHit();
+            hit.setPlateNumber(plateNumber);
+            hit.setPasses(size);
+            hit.setLastEventId(lastId);
+            hit.setDistance(distance);
+            return hit;
+        }
+    }
+
+    /**
+     * 车牌还没写到倒排文件的最近事件ID
+     */
+    private static class Tail {
+
+        /**
+         * 倒排文件中上一块的偏移, -1表示没有
+         */
+        private final long prev;
+
+        private volatile long[] ids = new long[2];
+
+        private volatile int size;
+
+        private Tail(long prev) {
+            this.prev = prev;
+        }
+
+        private void add(long id) {
+            int n = size;
+            if (n == ids.length) {
+                ids = Arrays.copyOf(ids, n * 2);
+            }
+            ids[n] = id;
+            size = n + 1;
+        }
+    }
+
+    /**
+     * 车牌序号列表
+     */
+    private static class IntPostings {
+
+        private static final IntPostings EMPTY = new IntPostings();
+
+        private volatile int[] values = new int[4];
+
+        private volatile int size;
+
+        private void add(int value) {
+            int n = size;
+            if (n == values.length) {
+                values = Arrays.copyOf(values, n * 2);
+            }
+            values[n] = value;
+            size = n + 1;
+        }
+    }
+}
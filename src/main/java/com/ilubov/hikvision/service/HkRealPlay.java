@@ -0,0 +1,458 @@
+package com.ilubov.hikvision.service;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.google.common.collect.Lists;
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.sdk.HCNetSDK;
+import com.ilubov.hikvision.util.IntObjectMap;
+import com.ilubov.hikvision.util.PacketRing;
+import com.ilubov.hikvision.vo.HkCameraParam;
+import com.ilubov.hikvision.vo.HkRealPlayParam;
+import com.ilubov.hikvision.vo.HkRealPlayStats;
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.ByteByReference;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 实时取流
+ * <p>
+ * 不传窗口句柄调用 NET_DVR_RealPlay_V40, SDK回调线程只把数据拷贝进每路码流自己的堆外环形缓冲, 不加锁不等待;
+ * 消费方各自从环形缓冲读取, 随时加入和离开, 太慢被覆盖时只计数
+ * <p>
+ * 同一路码流只取一次, 第一个消费方加入时开始取流, 最后一个离开一段时间后停止; 取流使用单独登录的会话,
+ * 不会被会话管理的空闲注销断开
+ * <p>
+ * 开始取流是阻塞的SDK调用, 不持有全局锁: 码流先占位, 由第一个消费方在锁外开始取流, 同一路的其他消费方只等这一路;
+ * 停止取流同样只在锁内摘掉码流, 停止取流和注销在锁外调用
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class HkRealPlay {
+
+    @Autowired
+    private HkCameraProperty property;
+
+    @Autowired
+    private HkSdkManager sdkManager;
+
+    @Autowired
+    private HkSessionManager sessionManager;
+
+    /**
+     * 设备IP:通道号:码流类型 -> 码流, 包括正在开始取流的
+     */
+    private final Map<String, Stream> streams = new ConcurrentHashMap<>();
+
+    /**
+     * 预览句柄 -> 码流, 在SDK回调线程上查找, 修改时复制后整体替换
+     */
+    private volatile IntObjectMap<Stream> handles = new IntObjectMap<>();
+
+    /**
+     * 码流序号 -> 正在开始取流、还没有拿到句柄的码流, 序号作为pUser传给SDK; 修改时复制后整体替换
+     */
+    private volatile IntObjectMap<Stream> starting = new IntObjectMap<>();
+
+    private final AtomicInteger ids = new AtomicInteger();
+
+    /**
+     * 回调需要一直持有引用, 避免被回收
+     */
+    private final HCNetSDK.FRealDataCallBack_V30 realDataCallBack = this::realData;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                ThreadFactoryBuilder.create().setNamePrefix("hk-real-play-").setDaemon(true).build());
+        scheduler.scheduleWithFixedDelay(this::reap, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        for (Stream stream : Lists.newArrayList(streams.values())) {
+            this.stop(stream);
+        }
+    }
+
+    /**
+     * 加入一路码流, 没有在取流时开始取流, 失败返回null; 用完需要close
+     */
+    public Consumer attach(HkCameraParam camera, int channel, Integer streamType) {
+        int type = streamType == null ? property.getRealPlay().getStreamType() : streamType;
+        String key = camera.getDeviceIp() + ":" + channel + ":" + type;
+        Stream stream;
+        PacketRing.Reader reader;
+        boolean owner = false;
+        synchronized (this) {
+            stream = streams.get(key);
+            if (stream == null) {
+                stream = new Stream(ids.incrementAndGet(), key, camera.getDeviceIp(), channel, type,
+                        new PacketRing(property.getRealPlay().getRingBytes()));
+                streams.put(key, stream);
+                owner = true;
+            }
+            // 在开始取流前加入, 不漏掉最早的包
+            reader = stream.ring.reader();
+            stream.consumers++;
+        }
+        if (owner) {
+            this.start(stream, camera);
+        }
+        if (!stream.started.join()) {
+            reader.close();
+            return null;
+        }
+        return new Consumer(stream, reader);
+    }
+
+    /**
+     * 取流统计
+     */
+    public synchronized List<HkRealPlayStats> stats() {
+        List<HkRealPlayStats> list = Lists.newArrayList();
+        for (Stream stream : streams.values()) {
+            HkRealPlayStats stats = new HkRealPlayStats();
+            stats.setDeviceIp(stream.deviceIp);
+            stats.setChannel(stream.channel);
+            stats.setStreamType(stream.streamType);
+            stats.setRealHandle(stream.realHandle);
+            stats.setConsumers(stream.consumers);
+            stats.setStartTime(stream.startTime);
+            stats.setPackets(stream.ring.getPackets());
+            stats.setBytes(stream.bytes);
+            byte[] header = stream.header;
+            stats.setHeaderBytes(header == null ? 0 : header.length);
+            stats.setTooLarge(stream.ring.getTooLarge());
+            stats.setOverruns(stream.ring.getOverruns());
+            stats.setLastPacketTime(stream.lastPacketTime);
+            list.add(stats);
+        }
+        return list;
+    }
+
+    /**
+     * 开始取流, 不持有锁; 完成后通知等待这一路的消费方
+     * <p>
+     * 登录或开始取流抛出异常时同样算失败: 占位的码流一定移除, 等待的消费方一定收到结果, 之后的加入重新开始取流
+     */
+    private void start(Stream stream, HkCameraParam camera) {
+        boolean started = false;
+        try {
+            started = this.open(stream, camera);
+        } catch (RuntimeException e) {
+            log.error("【海康实时取流】ip: {}, 通道: {}, 开始取流异常", stream.deviceIp, stream.channel, e);
+        } finally {
+            if (!started) {
+                synchronized (this) {
+                    streams.remove(stream.key, stream);
+                    stream.stopped = true;
+                    IntObjectMap<Stream> copy = starting.copy();
+                    copy.remove(stream.id);
+                    starting = copy;
+                }
+            }
+            stream.started.complete(started);
+        }
+    }
+
+    /**
+     * 登录并开始取流, 返回是否成功; 失败时已注销
+     */
+    private boolean open(Stream stream, HkCameraParam camera) {
+        HCNetSDK hCNetSDK = sdkManager.sdk();
+        int lUserID = -1;
+        int lRealHandle = -1;
+        if (hCNetSDK == null) {
+            log.info("【海康实时取流】初始化失败");
+        } else {
+            lUserID = sessionManager.login(camera.getDeviceIp(), camera.getUsername(), camera.getPassword(), camera.getPort());
+        }
+        if (lUserID >= 0) {
+            HkRealPlayParam param = property.getRealPlay();
+            HCNetSDK.NET_DVR_PREVIEWINFO previewInfo = new HCNetSDK.NET_DVR_PREVIEWINFO();
+            previewInfo.lChannel = stream.channel;
+            previewInfo.dwStreamType = stream.streamType;
+            previewInfo.dwLinkMode = param.getLinkMode();
+            // 不播放, 只取流
+            previewInfo.hPlayWnd = null;
+            // 阻塞取流, 连接失败时能拿到错误码; 调用方不是SDK回调线程
+            previewInfo.bBlocked = 1;
+            // 系统头可能在返回句柄之前就回调过来, 按pUser里的序号找到码流
+            synchronized (this) {
+                IntObjectMap<Stream> copy = starting.copy();
+                copy.put(stream.id, stream);
+                starting = copy;
+            }
+            try {
+                lRealHandle = hCNetSDK.NET_DVR_RealPlay_V40(lUserID, previewInfo, realDataCallBack, stream.user);
+            } catch (RuntimeException e) {
+                sessionManager.logout(lUserID);
+                throw e;
+            }
+            if (lRealHandle < 0) {
+                log.info("【海康实时取流】ip: {}, 通道: {}, 取流失败: {}", stream.deviceIp, stream.channel, hCNetSDK.NET_DVR_GetLastError());
+                sessionManager.logout(lUserID);
+            }
+        }
+        boolean started;
+        synchronized (this) {
+            started = lRealHandle >= 0 && !stream.stopped;
+            if (started) {
+                stream.userId = lUserID;
+                stream.realHandle = lRealHandle;
+                IntObjectMap<Stream> copy = handles.copy();
+                copy.put(lRealHandle, stream);
+                handles = copy;
+                IntObjectMap<Stream> rest = starting.copy();
+                rest.remove(stream.id);
+                starting = rest;
+            }
+        }
+        if (started) {
+            log.info("【海康实时取流】ip: {}, 通道: {}, 码流: {}, 开始取流 lRealHandle: {}",
+                    stream.deviceIp, stream.channel, stream.streamType, lRealHandle);
+        } else if (lRealHandle >= 0) {
+            // 开始取流期间已被停止
+            hCNetSDK.NET_DVR_StopRealPlay(lRealHandle);
+            sessionManager.logout(lUserID);
+        }
+        return started;
+    }
+
+    private void stop(Stream stream) {
+        if (this.remove(stream)) {
+            this.release(stream);
+        }
+    }
+
+    /**
+     * 在锁内摘掉码流, 回调不再找到它; 返回是否需要由调用方在锁外停止取流
+     */
+    private synchronized boolean remove(Stream stream) {
+        if (!streams.remove(stream.key, stream)) {
+            return false;
+        }
+        stream.stopped = true;
+        if (stream.realHandle < 0) {
+            // 还在开始取流, 由开始取流的线程收尾
+            return false;
+        }
+        IntObjectMap<Stream> copy = handles.copy();
+        copy.remove(stream.realHandle);
+        handles = copy;
+        return true;
+    }
+
+    /**
+     * 停止取流并注销, 都是阻塞的SDK调用, 不持有全局锁, 不影响其他码流的加入和离开
+     */
+    private void release(Stream stream) {
+        HCNetSDK hCNetSDK = sdkManager.sdk();
+        if (hCNetSDK != null) {
+            hCNetSDK.NET_DVR_StopRealPlay(stream.realHandle);
+        }
+        sessionManager.logout(stream.userId);
+        log.info("【海康实时取流】ip: {}, 通道: {}, 停止取流, 包数: {}, 字节数: {}",
+                stream.deviceIp, stream.channel, stream.ring.getPackets(), stream.bytes);
+    }
+
+    private synchronized void detach(Consumer consumer) {
+        consumer.reader.close();
+        Stream stream = consumer.stream;
+        if (--stream.consumers == 0) {
+            stream.idleSince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 停止没有消费方的码流
+     */
+    private void reap() {
+        long now = System.currentTimeMillis();
+        List<Stream> idle = Lists.newArrayList();
+        synchronized (this) {
+            for (Stream stream : Lists.newArrayList(streams.values())) {
+                if (stream.consumers == 0 && stream.realHandle >= 0 && now - stream.idleSince >= property.getRealPlay().getIdleStopMs()
+                        && this.remove(stream)) {
+                    idle.add(stream);
+                }
+            }
+        }
+        for (Stream stream : idle) {
+            this.release(stream);
+        }
+    }
+
+    /**
+     * SDK回调, 只拷贝数据, 同一个句柄的回调由SDK串行调用
+     */
+    private void realData(int lRealHandle, int dwDataType, ByteByReference pBuffer, int dwBufSize, Pointer pUser) {
+        Stream stream = handles.get(lRealHandle);
+        if (stream == null && pUser != null) {
+            stream = starting.get(pUser.getInt(0));
+        }
+        if (stream == null || dwBufSize <= 0) {
+            return;
+        }
+        ByteBuffer data = pBuffer.getPointer().getByteBuffer(0, dwBufSize);
+        if (dwDataType == HCNetSDK.NET_DVR_SYSHEAD) {
+            // 系统头只在开始时来一次, 留给后加入的消费方
+            byte[] header = new byte[dwBufSize];
+            data.duplicate().get(header);
+            stream.header = header;
+        }
+        stream.ring.write(dwDataType, data);
+        stream.bytes += dwBufSize;
+        stream.lastPacketTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 一路码流
+     */
+    private static class Stream {
+
+        private final int id;
+
+        private final String key;
+
+        private final String deviceIp;
+
+        private final int channel;
+
+        private final int streamType;
+
+        private final PacketRing ring;
+
+        /**
+         * 传给SDK的pUser, 内容为序号; 取流期间一直持有
+         */
+        private final Memory user = new Memory(4);
+
+        /**
+         * 开始取流的结果, 同一路后加入的消费方等待它
+         */
+        private final CompletableFuture<Boolean> started = new CompletableFuture<>();
+
+        private final long startTime = System.currentTimeMillis();
+
+        private volatile int userId = -1;
+
+        private volatile int realHandle = -1;
+
+        private volatile boolean stopped;
+
+        private int consumers;
+
+        private long idleSince;
+
+        private volatile byte[] header;
+
+        private volatile long bytes;
+
+        private volatile long lastPacketTime;
+
+        private Stream(int id, String key, String deviceIp, int channel, int streamType, PacketRing ring) {
+            this.id = id;
+            this.key = key;
+            this.deviceIp = deviceIp;
+            this.channel = channel;
+            this.streamType = streamType;
+            this.ring = ring;
+            this.user.setInt(0, id);
+        }
+    }
+
+    /**
+     * 消费方, 只能由一个线程使用
+     */
+    public class Consumer implements AutoCloseable {
+
+        private final Stream stream;
+
+        private final PacketRing.Reader reader;
+
+        private boolean closed;
+
+        private Consumer(Stream stream, PacketRing.Reader reader) {
+            this.stream = stream;
+            this.reader = reader;
+        }
+
+        /**
+         * 读取下一个包, 返回包长度; 没有新包时返回0; dst放不下时返回包长度的相反数
+         */
+        public int poll(ByteBuffer dst) {
+            return reader.poll(dst);
+        }
+
+        /**
+         * 等待新包, 超时或有新包时返回
+         */
+        public boolean await(long timeout, TimeUnit unit) {
+            return reader.await(timeout, unit);
+        }
+
+        /**
+         * 上一个包的类型, 见 {@link HCNetSDK#NET_DVR_SYSHEAD}
+         */
+        public int getType() {
+            return reader.getType();
+        }
+
+        /**
+         * 码流的系统头, 还没有收到时为null
+         */
+        public byte[] getHeader() {
+            return stream.header;
+        }
+
+        public String getDeviceIp() {
+            return stream.deviceIp;
+        }
+
+        /**
+         * 太慢被覆盖而丢失的包数
+         */
+        public long getLost() {
+            return reader.getLost();
+        }
+
+        /**
+         * 码流已停止
+         */
+        public boolean isStopped() {
+            return stream.stopped;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                detach(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,578 @@
+package com.ilubov.hikvision.service;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.google.common.collect.Lists;
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.sdk.HCNetSDK;
+import com.ilubov.hikvision.util.IntervalTree;
+import com.ilubov.hikvision.vo.HkCameraParam;
+import com.ilubov.hikvision.vo.HkRecordIndexParam;
+import com.ilubov.hikvision.vo.HkRecordIndexStats;
+import com.ilubov.hikvision.vo.HkRecordSegment;
+import com.ilubov.hikvision.vo.HkRecordSpan;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 录像索引
+ * <p>
+ * 后台定时用 NET_DVR_FindFile_V40 逐个通道查询设备上的录像文件, 按通道建区间树放在内存里, 时间轴和空档查询不再访问设备;
+ * 第一次查询最近 retention-days 天, 之后只查询上次索引到的时间往前 overlap-seconds 到现在, 最新的文件还在录制, 结束时间会变
+ * <p>
+ * 每次刷新后整体替换区间树并写入本地文件, 重启后从文件恢复, 接着增量查询; 早于 retention-days 的录像从索引中删除,
+ * 设备循环覆盖的旧录像不再单独核对; 设备时间与服务器时区一致
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class HkRecordIndex {
+
+    /**
+     * 索引文件开头, HKRI
+     */
+    private static final int MAGIC = 0x484B5249;
+
+    private static final int VERSION = 1;
+
+    /**
+     * 设备还在查找时的等待间隔
+     */
+    private static final long FIND_POLL_MS = 20;
+
+    @Autowired
+    private HkCameraProperty property;
+
+    @Autowired
+    private HkSdkManager sdkManager;
+
+    @Autowired
+    private HkSessionManager sessionManager;
+
+    @Autowired
+    private HkDeviceRegistry deviceRegistry;
+
+    /**
+     * 设备IP:通道号 -> 通道索引
+     */
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        HkRecordIndexParam param = property.getRecordIndex();
+        if (!param.isEnabled()) {
+            return;
+        }
+        this.load();
+        if (channels.isEmpty()) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                ThreadFactoryBuilder.create().setNamePrefix("hk-record-index-").setDaemon(true).build());
+        scheduler.scheduleWithFixedDelay(this::refresh, param.getInitialDelaySeconds(),
+                param.getRefreshIntervalSeconds(), TimeUnit.SECONDS);
+        log.info("【海康录像索引】通道数: {}, 刷新间隔: {}s", channels.size(), param.getRefreshIntervalSeconds());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 为所有摄像头的配置通道建索引, 有本地文件时从文件恢复
+     */
+    void load() {
+        List<HkCameraParam> cameras = Lists.newArrayList(deviceRegistry.plateCameras());
+        if (property.getCamera() != null) {
+            cameras.addAll(property.getCamera());
+        }
+        for (HkCameraParam camera : cameras) {
+            for (Integer channel : property.getRecordIndex().getChannels()) {
+                channels.computeIfAbsent(key(camera.getDeviceIp(), channel), k -> {
+                    Channel index = new Channel(camera, channel);
+                    index.load();
+                    return index;
+                });
+            }
+        }
+    }
+
+    /**
+     * 依次刷新所有通道
+     */
+    void refresh() {
+        this.refresh(channels.values());
+    }
+
+    private void refresh(Iterable<Channel> list) {
+        for (Channel channel : list) {
+            try {
+                channel.refresh();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                channel.failures++;
+                channel.lastError = e.getMessage();
+                log.error("【海康录像索引】ip: {}, 通道: {}, 刷新异常", channel.camera.getDeviceIp(), channel.channel, e);
+            }
+        }
+    }
+
+    /**
+     * 立即刷新一台设备的所有通道, 在后台线程中执行
+     *
+     * @return 没有开启或设备没有索引时返回false
+     */
+    public boolean refresh(String deviceIp) {
+        if (scheduler == null) {
+            return false;
+        }
+        List<Channel> list = new ArrayList<>();
+        for (Channel channel : channels.values()) {
+            if (channel.camera.getDeviceIp().equals(deviceIp)) {
+                list.add(channel);
+            }
+        }
+        if (list.isEmpty()) {
+            return false;
+        }
+        try {
+            scheduler.execute(() -> this.refresh(list));
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 时间轴, [from, to] 内有录像的时间段, 间隔小于 merge-gap-ms 的合并为一段
+     *
+     * @return 通道没有索引时返回null
+     */
+    public List<HkRecordSpan> timeline(String deviceIp, int channel, long from, long to) {
+        Channel index = channels.get(key(deviceIp, channel));
+        if (index == null) {
+            return null;
+        }
+        return index.timeline(from, to);
+    }
+
+    /**
+     * [from, to] 内没有录像的时间段, 只在已索引的范围内计算
+     *
+     * @return 通道没有索引时返回null
+     */
+    public List<HkRecordSpan> gaps(String deviceIp, int channel, long from, long to) {
+        Channel index = channels.get(key(deviceIp, channel));
+        if (index == null) {
+            return null;
+        }
+        long start = Math.max(from, index.coveredFrom);
+        long end = Math.min(to, index.indexedUntil);
+        List<HkRecordSpan> list = new ArrayList<>();
+        if (start >= end) {
+            return list;
+        }
+        long cursor = start;
+        for (HkRecordSpan span : index.timeline(start, end)) {
+            if (span.getFrom() > cursor) {
+                list.add(new HkRecordSpan(cursor, span.getFrom()));
+            }
+            cursor = Math.max(cursor, span.getTo());
+        }
+        if (cursor < end) {
+            list.add(new HkRecordSpan(cursor, end));
+        }
+        return list;
+    }
+
+    /**
+     * 与 [from, to] 相交的录像文件, 按开始时间排序, 最多 query-limit 条
+     *
+     * @return 通道没有索引时返回null
+     */
+    public List<HkRecordSegment> files(String deviceIp, int channel, long from, long to) {
+        Channel index = channels.get(key(deviceIp, channel));
+        if (index == null) {
+            return null;
+        }
+        int limit = property.getRecordIndex().getQueryLimit();
+        List<HkRecordSegment> list = new ArrayList<>();
+        for (Segment segment : index.tree.query(from, to)) {
+            if (list.size() >= limit) {
+                break;
+            }
+            list.add(segment.toVo());
+        }
+        return list;
+    }
+
+    /**
+     * 每个通道的索引统计
+     */
+    public List<HkRecordIndexStats> stats() {
+        List<HkRecordIndexStats> list = new ArrayList<>();
+        for (Channel channel : channels.values()) {
+            list.add(channel.stats());
+        }
+        return list;
+    }
+
+    private static String key(String deviceIp, int channel) {
+        return deviceIp + ":" + channel;
+    }
+
+    private static HCNetSDK.NET_DVR_TIME time(long millis) {
+        LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        HCNetSDK.NET_DVR_TIME time = new HCNetSDK.NET_DVR_TIME();
+        time.dwYear = t.getYear();
+        time.dwMonth = t.getMonthValue();
+        time.dwDay = t.getDayOfMonth();
+        time.dwHour = t.getHour();
+        time.dwMinute = t.getMinute();
+        time.dwSecond = t.getSecond();
+        return time;
+    }
+
+    private static long millis(HCNetSDK.NET_DVR_TIME time) {
+        return LocalDateTime.of(time.dwYear, time.dwMonth, time.dwDay, time.dwHour, time.dwMinute, time.dwSecond)
+                .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 单个通道的索引, 只在刷新线程中修改, 区间树整体替换
+     */
+    private class Channel {
+
+        private final HkCameraParam camera;
+
+        private final int channel;
+
+        private final File file;
+
+        private volatile IntervalTree<Segment> tree = new IntervalTree<>(Collections.emptyList(), s -> s.from, s -> s.to);
+
+        /**
+         * 已索引的时间范围
+         */
+        private volatile long coveredFrom;
+
+        private volatile long indexedUntil;
+
+        private volatile long refreshes;
+
+        private volatile long failures;
+
+        private volatile long lastRefreshTime;
+
+        private volatile long lastRefreshCostMs;
+
+        private volatile int lastFound;
+
+        private volatile String lastError;
+
+        private Channel(HkCameraParam camera, int channel) {
+            this.camera = camera;
+            this.channel = channel;
+            this.file = new File(property.getRecordIndex().getPath(), camera.getDeviceIp() + "_" + channel + ".idx");
+        }
+
+        /**
+         * 查询上次索引到的时间之后的录像, 窗口之前的旧记录保留, 窗口内的以这次查到的为准, 跨过窗口开始的文件按文件名覆盖
+         */
+        private void refresh() throws InterruptedException {
+            HkRecordIndexParam param = property.getRecordIndex();
+            long begin = System.currentTimeMillis();
+            long now = begin / 1000 * 1000;
+            long oldest = now - TimeUnit.DAYS.toMillis(param.getRetentionDays());
+            long from = indexedUntil > 0
+                    ? Math.max(indexedUntil - TimeUnit.SECONDS.toMillis(param.getOverlapSeconds()), oldest) : oldest;
+            HCNetSDK hCNetSDK = sdkManager.sdk();
+            if (hCNetSDK == null) {
+                this.fail("SDK未初始化");
+                return;
+            }
+            int lUserID = sessionManager.acquire(camera.getDeviceIp(), camera.getUsername(), camera.getPassword(), camera.getPort());
+            if (lUserID < 0) {
+                this.fail("登录失败");
+                return;
+            }
+            List<Segment> found = new ArrayList<>();
+            long window = TimeUnit.HOURS.toMillis(Math.max(param.getWindowHours(), 1));
+            for (long start = from; start < now; start += window) {
+                List<Segment> part = this.find(hCNetSDK, lUserID, start, Math.min(start + window, now));
+                if (part == null) {
+                    return;
+                }
+                found.addAll(part);
+            }
+            Map<String, Segment> merged = new LinkedHashMap<>();
+            for (Segment segment : tree.values()) {
+                if (segment.from < from && segment.to > oldest) {
+                    merged.put(segment.key(), segment);
+                }
+            }
+            for (Segment segment : found) {
+                if (segment.to > oldest) {
+                    merged.put(segment.key(), segment);
+                }
+            }
+            tree = new IntervalTree<>(merged.values(), s -> s.from, s -> s.to);
+            coveredFrom = Math.max(coveredFrom, oldest);
+            indexedUntil = now;
+            refreshes++;
+            lastFound = found.size();
+            lastRefreshTime = begin;
+            lastRefreshCostMs = System.currentTimeMillis() - begin;
+            lastError = null;
+            this.save();
+            log.debug("【海康录像索引】ip: {}, 通道: {}, 查到文件: {}, 索引文件: {}, 用时: {}ms",
+                    camera.getDeviceIp(), channel, found.size(), merged.size(), lastRefreshCostMs);
+        }
+
+        /**
+         * 查找 [from, to] 内的录像文件, 失败返回null
+         */
+        private List<Segment> find(HCNetSDK hCNetSDK, int lUserID, long from, long to) throws InterruptedException {
+            HCNetSDK.NET_DVR_FILECOND_V40 cond = new HCNetSDK.NET_DVR_FILECOND_V40();
+            cond.lChannel = channel;
+            cond.dwFileType = 0xff;
+            cond.dwIsLocked = 0xff;
+            cond.struStartTime = time(from);
+            cond.struStopTime = time(to);
+            int lFindHandle = hCNetSDK.NET_DVR_FindFile_V40(lUserID, cond);
+            if (lFindHandle < 0) {
+                this.error(hCNetSDK, "查找录像失败");
+                return null;
+            }
+            try {
+                List<Segment> list = new ArrayList<>();
+                HCNetSDK.NET_DVR_FINDDATA_V40 data = new HCNetSDK.NET_DVR_FINDDATA_V40();
+                long deadline = System.currentTimeMillis() + property.getRecordIndex().getFindTimeoutMs();
+                while (true) {
+                    int result = hCNetSDK.NET_DVR_FindNextFile_V40(lFindHandle, data);
+                    if (result == HCNetSDK.NET_DVR_FILE_SUCCESS) {
+                        Segment segment = Segment.of(data);
+                        if (segment != null) {
+                            list.add(segment);
+                        }
+                        deadline = System.currentTimeMillis() + property.getRecordIndex().getFindTimeoutMs();
+                    } else if (result == HCNetSDK.NET_DVR_ISFINDING) {
+                        if (System.currentTimeMillis() > deadline) {
+                            this.fail("查找录像超时");
+                            return null;
+                        }
+                        Thread.sleep(FIND_POLL_MS);
+                    } else if (result == HCNetSDK.NET_DVR_FILE_NOFIND || result == HCNetSDK.NET_DVR_NOMOREFILE) {
+                        return list;
+                    } else {
+                        this.error(hCNetSDK, "查找录像异常, 返回: " + result);
+                        return null;
+                    }
+                }
+            } finally {
+                hCNetSDK.NET_DVR_FindClose_V30(lFindHandle);
+            }
+        }
+
+        /**
+         * 记录错误码, 会话失效时注销, 下次刷新重新登录
+         */
+        private void error(HCNetSDK hCNetSDK, String message) {
+            int errorCode = hCNetSDK.NET_DVR_GetLastError();
+            sessionManager.invalidate(camera.getDeviceIp(), errorCode);
+            this.fail(message + ", 错误码: " + errorCode);
+        }
+
+        private void fail(String message) {
+            failures++;
+            lastError = message;
+            log.warn("【海康录像索引】ip: {}, 通道: {}, 刷新失败: {}", camera.getDeviceIp(), channel, message);
+        }
+
+        private List<HkRecordSpan> timeline(long from, long to) {
+            long mergeGap = property.getRecordIndex().getMergeGapMs();
+            List<HkRecordSpan> list = new ArrayList<>();
+            HkRecordSpan last = null;
+            for (Segment segment : tree.query(from, to)) {
+                long start = Math.max(segment.from, from);
+                long end = Math.min(segment.to, to);
+                if (last != null && start <= last.getTo() + mergeGap) {
+                    last.setTo(Math.max(last.getTo(), end));
+                } else {
+                    last = new HkRecordSpan(start, end);
+                    list.add(last);
+                }
+            }
+            return list;
+        }
+
+        private void save() {
+            File tmp = new File(file.getPath() + ".tmp");
+            try {
+                Files.createDirectories(file.getParentFile().toPath());
+            } catch (IOException e) {
+                log.error("【海康录像索引】创建目录失败: {}", file.getParent(), e);
+                return;
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+                List<Segment> list = tree.values();
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(coveredFrom);
+                out.writeLong(indexedUntil);
+                out.writeInt(list.size());
+                for (Segment segment : list) {
+                    out.writeUTF(segment.fileName);
+                    out.writeLong(segment.from);
+                    out.writeLong(segment.to);
+                    out.writeLong(segment.fileSize);
+                    out.writeByte(segment.fileType);
+                }
+            } catch (IOException e) {
+                log.error("【海康录像索引】写入索引失败: {}", tmp, e);
+                return;
+            }
+            if (!tmp.renameTo(file)) {
+                log.error("【海康录像索引】写入索引失败: {}", file);
+            }
+        }
+
+        private void load() {
+            if (!file.exists()) {
+                return;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    log.warn("【海康录像索引】索引文件格式不对, 重新查询: {}", file);
+                    return;
+                }
+                long covered = in.readLong();
+                long until = in.readLong();
+                int n = in.readInt();
+                List<Segment> list = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    String fileName = in.readUTF();
+                    long from = in.readLong();
+                    long to = in.readLong();
+                    long fileSize = in.readLong();
+                    int fileType = in.readUnsignedByte();
+                    list.add(new Segment(fileName, from, to, fileSize, fileType));
+                }
+                tree = new IntervalTree<>(list, s -> s.from, s -> s.to);
+                coveredFrom = covered;
+                indexedUntil = until;
+                log.info("【海康录像索引】ip: {}, 通道: {}, 从文件恢复: {}, 索引到: {}", camera.getDeviceIp(), channel, n, until);
+            } catch (IOException e) {
+                log.warn("【海康录像索引】读取索引失败, 重新查询: {}", file);
+            }
+        }
+
+        private HkRecordIndexStats stats() {
+            HkRecordIndexStats stats = new HkRecordIndexStats();
+            stats.setDeviceIp(camera.getDeviceIp());
+            stats.setChannel(channel);
+            stats.setSegments(tree.size());
+            stats.setCoveredFrom(coveredFrom);
+            stats.setIndexedUntil(indexedUntil);
+            stats.setRefreshes(refreshes);
+            stats.setFailures(failures);
+            stats.setLastRefreshTime(lastRefreshTime);
+            stats.setLastRefreshCostMs(lastRefreshCostMs);
+            stats.setLastFound(lastFound);
+            stats.setLastError(lastError);
+            return stats;
+        }
+    }
+
+    /**
+     * 录像文件, 不可变
+     */
+    private static class Segment {
+
+        private final String fileName;
+
+        private final long from;
+
+        private final long to;
+
+        private final long fileSize;
+
+        private final int fileType;
+
+        private Segment(String fileName, long from, long to, long fileSize, int fileType) {
+            this.fileName = fileName;
+            this.from = from;
+            this.to = to;
+            this.fileSize = fileSize;
+            this.fileType = fileType;
+        }
+
+        /**
+         * 时间不合法时返回null
+         */
+        private static Segment of(HCNetSDK.NET_DVR_FINDDATA_V40 data) {
+            try {
+                long from = millis(data.struStartTime);
+                long to = millis(data.struStopTime);
+                if (to <= from) {
+                    return null;
+                }
+                return new Segment(new String(data.sFileName, StandardCharsets.US_ASCII).trim(), from, to,
+                        Integer.toUnsignedLong(data.dwFileSize), data.byFileType & 0xff);
+            } catch (DateTimeException e) {
+                return null;
+            }
+        }
+
+        /**
+         * 文件名在设备上唯一, 同一个文件增量刷新时结束时间和大小会变
+         */
+        private String key() {
+            return fileName.isEmpty() ? String.valueOf(from) : fileName;
+        }
+
+        private HkRecordSegment toVo() {
+            HkRecordSegment vo = new HkRecordSegment();
+            vo.setFileName(fileName);
+            vo.setFrom(from);
+            vo.setTo(to);
+            vo.setFileSize(fileSize);
+            vo.setFileType(fileType);
+            return vo;
+        }
+    }
+}
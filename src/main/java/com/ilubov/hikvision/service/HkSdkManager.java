@@ -0,0 +1,205 @@
+package com.ilubov.hikvision.service;
+
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.sdk.HCNetSDK;
+import com.ilubov.hikvision.util.OsSelect;
+import com.sun.jna.Native;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 海康SDK生命周期
+ * <p>
+ * 动态库只加载一次, NET_DVR_Init只调用一次, 使用方按登录会话计数, NET_DVR_Cleanup只在应用关闭时调用;
+ * 初始化失败后间隔 sdkRetryMs 才重试, 期间直接返回null, 不进锁
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class HkSdkManager {
+
+    @Autowired
+    private HkCameraProperty property;
+
+    private volatile HCNetSDK hCNetSDK;
+
+    private volatile boolean initialized;
+
+    private volatile boolean closed;
+
+    private final AtomicInteger refCount = new AtomicInteger();
+
+    private volatile long initTime;
+
+    private volatile long initCostMs;
+
+    private volatile long cleanupCostMs;
+
+    /**
+     * 上次初始化失败的时间, 0为没有失败
+     */
+    private volatile long failTime;
+
+    /**
+     * 获取已初始化的SDK, 首次调用时加载动态库并初始化, 失败返回null
+     */
+    public HCNetSDK sdk() {
+        if (initialized) {
+            return hCNetSDK;
+        }
+        if (this.backoff()) {
+            return null;
+        }
+        synchronized (this) {
+            if (!initialized && !closed && !this.backoff()) {
+                this.init();
+            }
+            return initialized ? hCNetSDK : null;
+        }
+    }
+
+    /**
+     * 上次初始化失败后还没到重试时间
+     */
+    private boolean backoff() {
+        long fail = failTime;
+        return fail > 0 && System.currentTimeMillis() - fail < property.getSdkRetryMs();
+    }
+
+    /**
+     * 登录成功后计数, 与 {@link #release()} 成对调用
+     */
+    public void acquire() {
+        refCount.incrementAndGet();
+    }
+
+    /**
+     * 注销后计数
+     */
+    public void release() {
+        if (refCount.decrementAndGet() < 0) {
+            refCount.set(0);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void destroy() {
+        closed = true;
+        if (!initialized) {
+            return;
+        }
+        if (refCount.get() > 0) {
+            log.info("【海康SDK】关闭时仍有 {} 个登录未注销", refCount.get());
+        }
+        long start = System.currentTimeMillis();
+        hCNetSDK.NET_DVR_Cleanup();
+        cleanupCostMs = System.currentTimeMillis() - start;
+        initialized = false;
+        log.info("【海康SDK】释放完成 用时: {}ms", cleanupCostMs);
+    }
+
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    public int getRefCount() {
+        return refCount.get();
+    }
+
+    public long getInitTime() {
+        return initTime;
+    }
+
+    public long getInitCostMs() {
+        return initCostMs;
+    }
+
+    public long getCleanupCostMs() {
+        return cleanupCostMs;
+    }
+
+    public long getFailTime() {
+        return failTime;
+    }
+
+    private void init() {
+        long start = System.currentTimeMillis();
+        if (hCNetSDK == null && !this.createSDKInstance()) {
+            failTime = System.currentTimeMillis();
+            log.info("【海康SDK】加载SDK失败, {}ms后重试", property.getSdkRetryMs());
+            return;
+        }
+        // 初始化
+        if (!hCNetSDK.NET_DVR_Init()) {
+            failTime = System.currentTimeMillis();
+            log.info("【海康SDK】初始化失败: {}, {}ms后重试", hCNetSDK.NET_DVR_GetLastError(), property.getSdkRetryMs());
+            return;
+        }
+        // 设置连接时间与重连时间
+        hCNetSDK.NET_DVR_SetConnectTime(2000, 1);
+        hCNetSDK.NET_DVR_SetReconnect(10000, true);
+        initTime = System.currentTimeMillis();
+        initCostMs = initTime - start;
+        failTime = 0;
+        initialized = true;
+        log.info("【海康SDK】初始化成功 用时: {}ms", initCostMs);
+    }
+
+    /**
+     * 动态库加载
+     */
+    private boolean createSDKInstance() {
+        String path;
+        if (OsSelect.isWindows()) {
+            path = "\\HCNetSDK.dll";
+        } else {
+            path = "/libhcnetsdk.so";
+        }
+        log.info("【海康初始化】LOAD_PATH: {}", property.getSdkPath() + path);
+        try {
+            hCNetSDK = (HCNetSDK) Native.loadLibrary(property.getSdkPath() + path, HCNetSDK.class);
+        } catch (UnsatisfiedLinkError e) {
+            log.error("【海康初始化】加载动态库失败: {}", e.getMessage());
+            return false;
+        }
+        // linux系统建议调用以下接口加载组件库
+        this.loadLinuxLib();
+        return true;
+    }
+
+    /**
+     * linux系统建议调用以下接口加载组件库
+     */
+    private void loadLinuxLib() {
+        if (OsSelect.isWindows()) {
+            return;
+        }
+        // linux系统建议调用以下接口加载组件库
+        log.info("【海康初始化】linux系统加载组件库");
+        HCNetSDK.BYTE_ARRAY ptrByteArray1 = new HCNetSDK.BYTE_ARRAY(256);
+        HCNetSDK.BYTE_ARRAY ptrByteArray2 = new HCNetSDK.BYTE_ARRAY(256);
+        //这里是库的绝对路径，请根据实际情况修改，注意改路径必须有访问权限
+        String strPathCom = property.getSdkPath();
+        String strPath1 = strPathCom + "/libcrypto.so.1.1";
+        String strPath2 = strPathCom + "/libssl.so.1.1";
+
+        System.arraycopy(strPath1.getBytes(), 0, ptrByteArray1.byValue, 0, strPath1.length());
+        ptrByteArray1.write();
+        hCNetSDK.NET_DVR_SetSDKInitCfg(3, ptrByteArray1.getPointer());
+
+        System.arraycopy(strPath2.getBytes(), 0, ptrByteArray2.byValue, 0, strPath2.length());
+        ptrByteArray2.write();
+        hCNetSDK.NET_DVR_SetSDKInitCfg(4, ptrByteArray2.getPointer());
+
+        HCNetSDK.NET_DVR_LOCAL_SDK_PATH struComPath = new HCNetSDK.NET_DVR_LOCAL_SDK_PATH();
+        System.arraycopy(strPathCom.getBytes(), 0, struComPath.sPath, 0, strPathCom.length());
+        struComPath.write();
+        hCNetSDK.NET_DVR_SetSDKInitCfg(2, struComPath.getPointer());
+    }
+}
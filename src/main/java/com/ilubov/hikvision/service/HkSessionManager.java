@@ -0,0 +1,252 @@
+package com.ilubov.hikvision.service;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.google.common.collect.Lists;
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.sdk.HCNetSDK;
+import com.ilubov.hikvision.vo.HkSessionInfo;
+import com.ilubov.hikvision.vo.HkSessionParam;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 设备登录会话管理
+ * <p>
+ * 每台设备只保持一个登录的lUserID, 首次使用时登录, 定时保活, 会话失效时注销并在下次使用时重新登录, 长时间不用自动注销
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class HkSessionManager {
+
+    @Autowired
+    private HkCameraProperty property;
+
+    @Autowired
+    private HkSdkManager sdkManager;
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        HkSessionParam param = property.getSession();
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                ThreadFactoryBuilder.create().setNamePrefix("hk-session-").setDaemon(true).build());
+        scheduler.scheduleWithFixedDelay(this::keepalive, param.getKeepaliveSeconds(),
+                param.getKeepaliveSeconds(), TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        for (Session session : sessions.values()) {
+            synchronized (session) {
+                this.logout(session);
+            }
+        }
+        sessions.clear();
+    }
+
+    /**
+     * 获取设备的lUserID, 未登录时登录, 失败返回-1
+     */
+    public int acquire(String deviceIp, String username, String password, Short port) {
+        while (true) {
+            Session session = sessions.computeIfAbsent(deviceIp, Session::new);
+            synchronized (session) {
+                // 拿锁前可能已被保活空闲注销并移出, 在旧会话上登录会泄漏且产生第二个会话, 重新取
+                if (sessions.get(deviceIp) != session) {
+                    continue;
+                }
+                session.username = username;
+                session.password = password;
+                session.port = port;
+                session.lastUsedTime = System.currentTimeMillis();
+                if (session.userId < 0) {
+                    session.userId = this.login(deviceIp, username, password, port);
+                    if (session.userId >= 0) {
+                        session.logins++;
+                        session.loginTime = System.currentTimeMillis();
+                        log.info("【海康设备会话】ip: {}, 登录成功 lUserID: {}", deviceIp, session.userId);
+                    }
+                }
+                return session.userId;
+            }
+        }
+    }
+
+    /**
+     * 根据错误码判断会话是否失效, 失效则注销, 下次acquire时重新登录
+     *
+     * @return 会话是否失效
+     */
+    public boolean invalidate(String deviceIp, int errorCode) {
+        if (!isSessionError(errorCode)) {
+            return false;
+        }
+        Session session = sessions.get(deviceIp);
+        if (session != null) {
+            synchronized (session) {
+                log.info("【海康设备会话】ip: {}, 会话失效 错误码: {}", deviceIp, errorCode);
+                this.logout(session);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 会话信息
+     */
+    public List<HkSessionInfo> list() {
+        List<HkSessionInfo> list = Lists.newArrayList();
+        for (Session session : sessions.values()) {
+            HkSessionInfo info = new HkSessionInfo();
+            info.setDeviceIp(session.deviceIp);
+            info.setUserId(session.userId);
+            info.setLogins(session.logins);
+            info.setLoginTime(session.loginTime);
+            info.setLastUsedTime(session.lastUsedTime);
+            list.add(info);
+        }
+        return list;
+    }
+
+    /**
+     * 表示连接或登录已失效的错误码
+     */
+    static boolean isSessionError(int errorCode) {
+        switch (errorCode) {
+            case HCNetSDK.NET_DVR_NOINIT:
+            case HCNetSDK.NET_DVR_NETWORK_FAIL_CONNECT:
+            case HCNetSDK.NET_DVR_NETWORK_SEND_ERROR:
+            case HCNetSDK.NET_DVR_NETWORK_RECV_ERROR:
+            case HCNetSDK.NET_DVR_NETWORK_RECV_TIMEOUT:
+            case HCNetSDK.NET_DVR_NETWORK_ERRORDATA:
+            case HCNetSDK.NET_DVR_USERNOTEXIST:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 注册设备
+     */
+    int login(String deviceIp, String username, String password, Short port) {
+        HCNetSDK hCNetSDK = sdkManager.sdk();
+        if (hCNetSDK == null) {
+            return -1;
+        }
+        // 设备信息, 输出参数
+        HCNetSDK.NET_DVR_DEVICEINFO_V40 m_strDeviceInfo = new HCNetSDK.NET_DVR_DEVICEINFO_V40();
+        HCNetSDK.NET_DVR_USER_LOGIN_INFO m_strLoginInfo = new HCNetSDK.NET_DVR_USER_LOGIN_INFO();
+        // 注册设备-登录参数，包括设备地址、登录用户、密码等
+        m_strLoginInfo.sDeviceAddress = new byte[hCNetSDK.NET_DVR_DEV_ADDRESS_MAX_LEN];
+        System.arraycopy(deviceIp.getBytes(), 0, m_strLoginInfo.sDeviceAddress, 0, deviceIp.length());
+        m_strLoginInfo.sUserName = new byte[hCNetSDK.NET_DVR_LOGIN_USERNAME_MAX_LEN];
+        System.arraycopy(username.getBytes(), 0, m_strLoginInfo.sUserName, 0, username.length());
+        m_strLoginInfo.sPassword = new byte[hCNetSDK.NET_DVR_LOGIN_PASSWD_MAX_LEN];
+        System.arraycopy(password.getBytes(), 0, m_strLoginInfo.sPassword, 0, password.length());
+        m_strLoginInfo.wPort = port;
+        // 是否异步登录：0- 否，1- 是
+        m_strLoginInfo.bUseAsynLogin = false;
+        m_strLoginInfo.write();
+        // 设备信息, 输出参数
+        int lUserID = hCNetSDK.NET_DVR_Login_V40(m_strLoginInfo, m_strDeviceInfo);
+        if (lUserID < 0) {
+            log.info("【海康设备会话】ip: {}, 注册登录失败: {}", deviceIp, hCNetSDK.NET_DVR_GetLastError());
+            return -1;
+        }
+        sdkManager.acquire();
+        return lUserID;
+    }
+
+    /**
+     * 注销设备
+     */
+    void logout(int lUserID) {
+        HCNetSDK hCNetSDK = sdkManager.sdk();
+        if (hCNetSDK != null) {
+            hCNetSDK.NET_DVR_Logout(lUserID);
+        }
+        sdkManager.release();
+    }
+
+    /**
+     * 保活检测和空闲注销
+     */
+    private void keepalive() {
+        HCNetSDK hCNetSDK = sdkManager.sdk();
+        long idleTimeout = TimeUnit.SECONDS.toMillis(property.getSession().getIdleTimeoutSeconds());
+        Iterator<Session> iterator = sessions.values().iterator();
+        while (iterator.hasNext()) {
+            Session session = iterator.next();
+            try {
+                synchronized (session) {
+                    if (System.currentTimeMillis() - session.lastUsedTime > idleTimeout) {
+                        log.info("【海康设备会话】ip: {}, 空闲超时注销", session.deviceIp);
+                        this.logout(session);
+                        iterator.remove();
+                        continue;
+                    }
+                    if (session.userId >= 0 && hCNetSDK != null
+                            && !hCNetSDK.NET_DVR_RemoteControl(session.userId, HCNetSDK.NET_DVR_CHECK_USER_STATUS, null, 0)) {
+                        int errorCode = hCNetSDK.NET_DVR_GetLastError();
+                        log.info("【海康设备会话】ip: {}, 保活失败 错误码: {}", session.deviceIp, errorCode);
+                        // 设备不在线时直接注销, 下次使用重新登录
+                        this.logout(session);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("【海康设备会话】ip: {}, 保活异常", session.deviceIp, e);
+            }
+        }
+    }
+
+    private void logout(Session session) {
+        if (session.userId >= 0) {
+            this.logout(session.userId);
+            session.userId = -1;
+        }
+    }
+
+    private static class Session {
+
+        private final String deviceIp;
+
+        private String username;
+
+        private String password;
+
+        private Short port;
+
+        private volatile int userId = -1;
+
+        private volatile long logins;
+
+        private volatile long loginTime;
+
+        private volatile long lastUsedTime = System.currentTimeMillis();
+
+        private Session(String deviceIp) {
+            this.deviceIp = deviceIp;
+        }
+    }
+}
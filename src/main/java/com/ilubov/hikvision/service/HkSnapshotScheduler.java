@@ -0,0 +1,163 @@
+package com.ilubov.hikvision.service;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.util.RateLimiter;
+import com.ilubov.hikvision.vo.HkCameraParam;
+import com.ilubov.hikvision.vo.HkCaptureResult;
+import com.ilubov.hikvision.vo.HkSnapshotParam;
+import com.ilubov.hikvision.vo.HkSnapshotStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 全彩摄像头定时拍照
+ * <p>
+ * 每台摄像头按自己的间隔拍照, 首次拍照在一个间隔内随机错开, 避免所有摄像头同时拍照; 所有摄像头共用一个匀速限流,
+ * 超出的拍照按预约的时间推迟执行, 不占用线程; 上一次还没拍完时跳过本次
+ * <p>
+ * 拍照复用已登录的会话, 结果推送给订阅方
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class HkSnapshotScheduler {
+
+    @Autowired
+    private HkCameraProperty property;
+
+    @Autowired
+    private HkCameraService cameraService;
+
+    @Autowired
+    private HkEventBus<HkCaptureResult> snapshotEventBus;
+
+    private ScheduledExecutorService scheduler;
+
+    private RateLimiter rateLimiter;
+
+    private int cameras;
+
+    private final AtomicLong captures = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    private final AtomicLong skipped = new AtomicLong();
+
+    private final AtomicLong throttled = new AtomicLong();
+
+    private final AtomicLong throttledNanos = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        HkSnapshotParam param = property.getSnapshot();
+        List<HkCameraParam> cameraList = property.getCamera();
+        if (!param.isEnabled() || cameraList == null) {
+            return;
+        }
+        rateLimiter = new RateLimiter(param.getMaxPerSecond());
+        scheduler = Executors.newScheduledThreadPool(param.getThreads(),
+                ThreadFactoryBuilder.create().setNamePrefix("hk-snapshot-").setDaemon(true).build());
+        for (HkCameraParam camera : cameraList) {
+            int interval = camera.getSnapshotIntervalSeconds() == null
+                    ? param.getIntervalSeconds() : camera.getSnapshotIntervalSeconds();
+            if (interval <= 0) {
+                continue;
+            }
+            long period = TimeUnit.SECONDS.toMillis(interval);
+            // 随机错开首次拍照的时间
+            long offset = ThreadLocalRandom.current().nextLong(period);
+            scheduler.scheduleAtFixedRate(new Task(camera), offset, period, TimeUnit.MILLISECONDS);
+            cameras++;
+            log.info("【海康全彩摄像头定时拍照】ip: {}, 间隔: {}s, 首次延迟: {}ms", camera.getDeviceIp(), interval, offset);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 定时拍照统计
+     */
+    public HkSnapshotStats stats() {
+        HkSnapshotStats stats = new HkSnapshotStats();
+        stats.setCameras(cameras);
+        stats.setCaptures(captures.get());
+        stats.setFailures(failures.get());
+        stats.setSkipped(skipped.get());
+        stats.setThrottled(throttled.get());
+        stats.setThrottledMs(TimeUnit.NANOSECONDS.toMillis(throttledNanos.get()));
+        return stats;
+    }
+
+    /**
+     * 单台摄像头的定时拍照
+     */
+    private class Task implements Runnable {
+
+        private final HkCameraParam camera;
+
+        private final AtomicBoolean running = new AtomicBoolean();
+
+        private Task(HkCameraParam camera) {
+            this.camera = camera;
+        }
+
+        @Override
+        public void run() {
+            if (!running.compareAndSet(false, true)) {
+                skipped.incrementAndGet();
+                return;
+            }
+            long wait = rateLimiter.reserve();
+            if (wait <= 0) {
+                this.capture();
+                return;
+            }
+            throttled.incrementAndGet();
+            throttledNanos.addAndGet(wait);
+            try {
+                scheduler.schedule(this::capture, wait, TimeUnit.NANOSECONDS);
+            } catch (Exception e) {
+                running.set(false);
+            }
+        }
+
+        private void capture() {
+            try {
+                cameraService.capture(camera).whenComplete((result, e) -> {
+                    running.set(false);
+                    captures.incrementAndGet();
+                    if (result == null || !result.isSuccess()) {
+                        failures.incrementAndGet();
+                    }
+                    if (result != null) {
+                        snapshotEventBus.publish(result);
+                    }
+                });
+            } catch (Exception e) {
+                running.set(false);
+                captures.incrementAndGet();
+                failures.incrementAndGet();
+                log.error("【海康全彩摄像头定时拍照】ip: {}, 拍照异常", camera.getDeviceIp(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,461 @@
+package com.ilubov.hikvision.service;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import cn.hutool.core.util.StrUtil;
+import com.google.common.collect.Lists;
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.vo.HkPlateEvent;
+import com.ilubov.hikvision.vo.HkWatchlistAlert;
+import com.ilubov.hikvision.vo.HkWatchlistParam;
+import com.ilubov.hikvision.vo.HkWatchlistStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 车牌布控
+ * <p>
+ * 名单文件每行一条规则, 支持精确(粤B12345)、前缀(粤B*)和通配符(粤?1234*, ?匹配一个字符, *匹配任意个)三种;
+ * 加载时编译成只读的规则表整体替换, 文件变化后自动重新加载, 匹配不加锁
+ * <p>
+ * 精确和前缀规则放在同一张开放寻址表里, 前面加一层布隆过滤器, 大部分不在名单里的车牌查几个位就返回;
+ * 通配符规则逐条匹配, 适合少量规则
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Slf4j
+@Component
+public class HkWatchlist {
+
+    @Autowired
+    private HkCameraProperty property;
+
+    @Autowired
+    private HkEventBus<HkWatchlistAlert> watchlistAlertBus;
+
+    private volatile Rules rules = Rules.compile(Collections.emptyList(), 10);
+
+    private final AtomicLong lookups = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong reloads = new AtomicLong();
+
+    private volatile long lastReloadTime;
+
+    private long lastModified = -1;
+
+    private long lastLength = -1;
+
+    private ScheduledExecutorService reloader;
+
+    @PostConstruct
+    public void init() {
+        HkWatchlistParam param = property.getWatchlist();
+        if (!param.isEnabled()) {
+            return;
+        }
+        this.reload();
+        int interval = param.getReloadIntervalSeconds();
+        reloader = Executors.newSingleThreadScheduledExecutor(
+                ThreadFactoryBuilder.create().setNamePrefix("hk-watchlist-").setDaemon(true).build());
+        reloader.scheduleWithFixedDelay(this::checkReload, interval, interval, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (reloader != null) {
+            reloader.shutdownNow();
+        }
+    }
+
+    /**
+     * 名单文件的修改时间或大小变化时重新加载
+     */
+    void checkReload() {
+        try {
+            File file = new File(property.getWatchlist().getPath());
+            if (file.lastModified() != lastModified || file.length() != lastLength) {
+                this.reload();
+            }
+        } catch (Exception e) {
+            log.error("【海康车牌布控】检查名单文件异常", e);
+        }
+    }
+
+    /**
+     * 重新加载名单文件, 返回规则数, 文件不存在时清空名单, 读取失败时保留原名单
+     */
+    public synchronized int reload() {
+        File file = new File(property.getWatchlist().getPath());
+        List<String> lines = Collections.emptyList();
+        if (file.isFile()) {
+            try {
+                lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                log.error("【海康车牌布控】读取名单文件失败: {}", file, e);
+                return rules.size();
+            }
+        }
+        lastModified = file.lastModified();
+        lastLength = file.length();
+        return this.apply(lines);
+    }
+
+    /**
+     * 编译规则并替换当前名单
+     */
+    synchronized int apply(List<String> lines) {
+        long start = System.currentTimeMillis();
+        Rules compiled = Rules.compile(lines, property.getWatchlist().getBloomBitsPerRule());
+        rules = compiled;
+        reloads.incrementAndGet();
+        lastReloadTime = System.currentTimeMillis();
+        log.info("【海康车牌布控】加载名单 精确: {}, 前缀: {}, 通配符: {}, 用时: {}ms", compiled.exactCount,
+                compiled.prefixCount, compiled.wildcards.length, lastReloadTime - start);
+        return compiled.size();
+    }
+
+    /**
+     * 匹配车牌, 不区分大小写; 精确规则优先, 其次最长的前缀规则, 最后是通配符规则, 都不命中返回null
+     */
+    public Rule match(String plateNumber) {
+        lookups.incrementAndGet();
+        Rule rule = rules.match(plateNumber);
+        if (rule != null) {
+            hits.incrementAndGet();
+        }
+        return rule;
+    }
+
+    /**
+     * 识别出车牌后立即匹配, 命中时推送布控告警
+     */
+    public HkWatchlistAlert check(HkPlateEvent event) {
+        if (!property.getWatchlist().isEnabled()) {
+            return null;
+        }
+        Rule rule = this.match(event.getPlateNumber());
+        if (rule == null) {
+            return null;
+        }
+        HkWatchlistAlert alert = new HkWatchlistAlert();
+        alert.setRule(rule.pattern);
+        alert.setRuleType(rule.type.name());
+        alert.setTag(rule.tag);
+        alert.setPlateNumber(event.getPlateNumber());
+        alert.setColor(event.getColor());
+        alert.setDeviceId(event.getDeviceId());
+        alert.setDeviceIp(event.getDeviceIp());
+        alert.setTime(event.getTime());
+        log.info("【海康车牌布控】命中 车牌: {}, 规则: {}, 标签: {}, 设备: {}",
+                alert.getPlateNumber(), alert.getRule(), alert.getTag(), alert.getDeviceId());
+        watchlistAlertBus.publish(alert);
+        return alert;
+    }
+
+    /**
+     * 布控统计
+     */
+    public HkWatchlistStats stats() {
+        Rules rules = this.rules;
+        HkWatchlistStats stats = new HkWatchlistStats();
+        stats.setExactRules(rules.exactCount);
+        stats.setPrefixRules(rules.prefixCount);
+        stats.setWildcardRules(rules.wildcards.length);
+        stats.setLookups(lookups.get());
+        stats.setHits(hits.get());
+        stats.setReloads(reloads.get());
+        stats.setLastReloadTime(lastReloadTime);
+        return stats;
+    }
+
+    /**
+     * 规则类型
+     */
+    public enum Type {
+        EXACT, PREFIX, WILDCARD
+    }
+
+    /**
+     * 布控规则
+     */
+    public static class Rule {
+
+        private final String pattern;
+
+        private final Type type;
+
+        private final String tag;
+
+        private Rule(String pattern, Type type, String tag) {
+            this.pattern = pattern;
+            this.type = type;
+            this.tag = tag;
+        }
+
+        public String getPattern() {
+            return pattern;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+    }
+
+    /**
+     * 编译后的名单, 只读
+     */
+    private static class Rules {
+
+        private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+        private static final long FNV_PRIME = 0x100000001b3L;
+
+        /**
+         * 前缀规则和精确规则放在同一张表, 前缀的键额外异或一个常数, 避免 粤B* 和 粤B 互相命中
+         */
+        private static final long PREFIX_SALT = 0x9E3779B97F4A7C15L;
+
+        private final long[] keys;
+
+        private final Rule[] table;
+
+        private final int mask;
+
+        private final long[] bloom;
+
+        private final int bloomMask;
+
+        /**
+         * 第n位表示有长度为n的前缀规则
+         */
+        private final long prefixLengths;
+
+        private final Rule[] wildcards;
+
+        private int exactCount;
+
+        private int prefixCount;
+
+        private Rules(int hashed, int bitsPerRule, long prefixLengths, Rule[] wildcards) {
+            int capacity = Integer.highestOneBit(Math.max(8, hashed * 2 - 1)) << 1;
+            this.keys = new long[capacity];
+            this.table = new Rule[capacity];
+            this.mask = capacity - 1;
+            int bits = Integer.highestOneBit(Math.max(64, hashed * Math.max(1, bitsPerRule) - 1)) << 1;
+            this.bloom = new long[bits >>> 6];
+            this.bloomMask = bits - 1;
+            this.prefixLengths = prefixLengths;
+            this.wildcards = wildcards;
+        }
+
+        private static Rules compile(List<String> lines, int bitsPerRule) {
+            List<Rule> hashed = Lists.newArrayList();
+            List<Rule> wildcards = Lists.newArrayList();
+            long prefixLengths = 0;
+            for (String line : lines) {
+                Rule rule = parse(line);
+                if (rule == null) {
+                    continue;
+                }
+                if (rule.type == Type.WILDCARD) {
+                    wildcards.add(rule);
+                    continue;
+                }
+                if (rule.type == Type.PREFIX) {
+                    prefixLengths |= 1L << rule.pattern.length();
+                }
+                hashed.add(rule);
+            }
+            Rules rules = new Rules(hashed.size(), bitsPerRule, prefixLengths, wildcards.toArray(new Rule[0]));
+            for (Rule rule : hashed) {
+                long h = FNV_OFFSET;
+                for (int i = 0; i < rule.pattern.length(); i++) {
+                    h = (h ^ rule.pattern.charAt(i)) * FNV_PRIME;
+                }
+                if (!rules.put(key(rule.type == Type.PREFIX ? h ^ PREFIX_SALT : h), rule)) {
+                    continue;
+                }
+                if (rule.type == Type.PREFIX) {
+                    rules.prefixCount++;
+                } else {
+                    rules.exactCount++;
+                }
+            }
+            return rules;
+        }
+
+        /**
+         * 解析一行规则: 车牌[,标签], 空行和#开头的注释返回null
+         */
+        private static Rule parse(String line) {
+            String text = line.trim();
+            if (text.isEmpty() || text.startsWith("#")) {
+                return null;
+            }
+            String tag = null;
+            int comma = text.indexOf(',');
+            if (comma >= 0) {
+                tag = StrUtil.trimToNull(text.substring(comma + 1));
+                text = text.substring(0, comma).trim();
+            }
+            if (text.isEmpty()) {
+                return null;
+            }
+            String pattern = text.toUpperCase(Locale.ROOT);
+            int star = pattern.indexOf('*');
+            boolean single = pattern.indexOf('?') >= 0;
+            if (!single && star < 0) {
+                return new Rule(pattern, Type.EXACT, tag);
+            }
+            // 只有末尾一个*且前缀不太长的按前缀规则处理
+            if (!single && star > 0 && star == pattern.length() - 1 && star < Long.SIZE) {
+                return new Rule(pattern.substring(0, star), Type.PREFIX, tag);
+            }
+            return new Rule(pattern, Type.WILDCARD, tag);
+        }
+
+        /**
+         * 加入规则, 重复规则保留第一条, 返回false
+         */
+        private boolean put(long key, Rule rule) {
+            for (int i = (int) key & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == 0) {
+                    keys[i] = key;
+                    table[i] = rule;
+                    break;
+                }
+                if (keys[i] == key && table[i].type == rule.type && table[i].pattern.equals(rule.pattern)) {
+                    return false;
+                }
+            }
+            int h1 = (int) key;
+            int h2 = (int) (key >>> 32);
+            for (int i = 0; i < 3; i++) {
+                int bit = (h1 + i * h2) & bloomMask;
+                bloom[bit >>> 6] |= 1L << bit;
+            }
+            return true;
+        }
+
+        private Rule match(String plate) {
+            if (plate == null) {
+                return null;
+            }
+            // 规则按 Locale.ROOT 转成了大写, 车牌也按同样的方式转换后再比较
+            String plateNumber = plate.toUpperCase(Locale.ROOT);
+            int length = plateNumber.length();
+            Rule prefix = null;
+            long h = FNV_OFFSET;
+            for (int i = 0; i < length; i++) {
+                h = (h ^ plateNumber.charAt(i)) * FNV_PRIME;
+                int n = i + 1;
+                if (n < Long.SIZE && (prefixLengths & (1L << n)) != 0) {
+                    // 越往后前缀越长, 保留最长的
+                    Rule rule = this.find(key(h ^ PREFIX_SALT), plateNumber, n, Type.PREFIX);
+                    if (rule != null) {
+                        prefix = rule;
+                    }
+                }
+            }
+            if (exactCount > 0) {
+                Rule rule = this.find(key(h), plateNumber, length, Type.EXACT);
+                if (rule != null) {
+                    return rule;
+                }
+            }
+            if (prefix != null) {
+                return prefix;
+            }
+            for (Rule rule : wildcards) {
+                if (glob(rule.pattern, plateNumber)) {
+                    return rule;
+                }
+            }
+            return null;
+        }
+
+        private Rule find(long key, String plateNumber, int length, Type type) {
+            int h1 = (int) key;
+            int h2 = (int) (key >>> 32);
+            for (int i = 0; i < 3; i++) {
+                int bit = (h1 + i * h2) & bloomMask;
+                if ((bloom[bit >>> 6] & (1L << bit)) == 0) {
+                    return null;
+                }
+            }
+            for (int i = (int) key & mask; keys[i] != 0; i = (i + 1) & mask) {
+                Rule rule = table[i];
+                if (keys[i] == key && rule.type == type && rule.pattern.length() == length
+                        && plateNumber.regionMatches(0, rule.pattern, 0, length)) {
+                    return rule;
+                }
+            }
+            return null;
+        }
+
+        private int size() {
+            return exactCount + prefixCount + wildcards.length;
+        }
+
+        /**
+         * 打散FNV的结果, 0留作空槽位
+         */
+        private static long key(long h) {
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h == 0 ? 1 : h;
+        }
+
+        /**
+         * 通配符匹配, ?匹配一个字符, *匹配任意个字符
+         */
+        private static boolean glob(String pattern, String s) {
+            int p = 0;
+            int i = 0;
+            int star = -1;
+            int mark = 0;
+            while (i < s.length()) {
+                if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == s.charAt(i))) {
+                    p++;
+                    i++;
+                } else if (p < pattern.length() && pattern.charAt(p) == '*') {
+                    star = p++;
+                    mark = i;
+                } else if (star >= 0) {
+                    p = star + 1;
+                    i = ++mark;
+                } else {
+                    return false;
+                }
+            }
+            while (p < pattern.length() && pattern.charAt(p) == '*') {
+                p++;
+            }
+            return p == pattern.length();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.ilubov.hikvision.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按2的幂分级的字节缓冲池
+ * <p>
+ * 超过最大级别的请求直接分配, 不入池; 池中保留的总字节数有上限, 超出后归还的缓冲区交给GC
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Slf4j
+public class BufferPool {
+
+    private final int minShift;
+
+    private final int maxShift;
+
+    private final long maxRetainedBytes;
+
+    private final boolean leakDetection;
+
+    private final Queue<byte[]>[] classes;
+
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    private final AtomicLong inUseBytes = new AtomicLong();
+
+    private final AtomicLong peakInUseBytes = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong leaks = new AtomicLong();
+
+    private final ReferenceQueue<PooledBuffer> leakQueue = new ReferenceQueue<>();
+
+    private final Map<LeakRef, Boolean> outstanding = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(int minSize, int maxSize, long maxRetainedBytes, boolean leakDetection) {
+        this.minShift = shift(minSize);
+        this.maxShift = Math.max(minShift, shift(maxSize));
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.leakDetection = leakDetection;
+        this.classes = new Queue[maxShift - minShift + 1];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * 借出一个至少 length 字节的缓冲区
+     */
+    public PooledBuffer borrow(int length) {
+        if (leakDetection) {
+            this.reportLeaks();
+        }
+        int shift = Math.max(minShift, shift(length));
+        byte[] array = null;
+        if (shift <= maxShift) {
+            array = classes[shift - minShift].poll();
+        }
+        if (array != null) {
+            hits.incrementAndGet();
+            retainedBytes.addAndGet(-array.length);
+        } else {
+            misses.incrementAndGet();
+            array = new byte[shift <= maxShift ? 1 << shift : length];
+        }
+        long inUse = inUseBytes.addAndGet(array.length);
+        for (long peak = peakInUseBytes.get(); inUse > peak; peak = peakInUseBytes.get()) {
+            if (peakInUseBytes.compareAndSet(peak, inUse)) {
+                break;
+            }
+        }
+        PooledBuffer buffer = new PooledBuffer(this, array, length);
+        if (leakDetection) {
+            outstanding.put(new LeakRef(buffer, array.length, leakQueue), Boolean.TRUE);
+        }
+        return buffer;
+    }
+
+    /**
+     * 借出缓冲区并拷贝数据
+     */
+    public PooledBuffer wrap(byte[] bytes, int offset, int length) {
+        PooledBuffer buffer = this.borrow(length);
+        System.arraycopy(bytes, offset, buffer.array(), 0, length);
+        return buffer;
+    }
+
+    void recycle(PooledBuffer buffer, byte[] array) {
+        inUseBytes.addAndGet(-array.length);
+        if (leakDetection) {
+            outstanding.remove(new LeakRef(buffer));
+        }
+        int shift = shift(array.length);
+        if (array.length != 1 << shift || shift < minShift || shift > maxShift) {
+            return;
+        }
+        if (retainedBytes.addAndGet(array.length) > maxRetainedBytes) {
+            retainedBytes.addAndGet(-array.length);
+            return;
+        }
+        classes[shift - minShift].offer(array);
+    }
+
+    /**
+     * 被GC回收但没有归还的缓冲区
+     */
+    private void reportLeaks() {
+        LeakRef ref;
+        while ((ref = (LeakRef) leakQueue.poll()) != null) {
+            if (outstanding.remove(ref) != null) {
+                leaks.incrementAndGet();
+                inUseBytes.addAndGet(-ref.size);
+                log.warn("【缓冲池】检测到未归还的缓冲区 大小: {}, 借出时长: {}ms",
+                        ref.size, System.currentTimeMillis() - ref.borrowTime);
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getInUseBytes() {
+        return inUseBytes.get();
+    }
+
+    public long getPeakInUseBytes() {
+        return peakInUseBytes.get();
+    }
+
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    public long getLeaks() {
+        if (leakDetection) {
+            this.reportLeaks();
+        }
+        return leaks.get();
+    }
+
+    public int getOutstanding() {
+        return outstanding.size();
+    }
+
+    private static int shift(int size) {
+        return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    /**
+     * 按 PooledBuffer 对象身份比较的弱引用
+     */
+    private static class LeakRef extends WeakReference<PooledBuffer> {
+
+        private final int hash;
+
+        private final int size;
+
+        private final long borrowTime;
+
+        private LeakRef(PooledBuffer buffer, int size, ReferenceQueue<PooledBuffer> queue) {
+            super(buffer, queue);
+            this.hash = System.identityHashCode(buffer);
+            this.size = size;
+            this.borrowTime = System.currentTimeMillis();
+        }
+
+        private LeakRef(PooledBuffer buffer) {
+            super(buffer);
+            this.hash = System.identityHashCode(buffer);
+            this.size = 0;
+            this.borrowTime = 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof LeakRef)) {
+                return false;
+            }
+            Object referent = this.get();
+            return referent != null && referent == ((LeakRef) o).get();
+        }
+    }
+}
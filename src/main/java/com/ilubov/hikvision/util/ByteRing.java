@@ -0,0 +1,127 @@
+package com.ilubov.hikvision.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 堆外字节环形缓冲, 按字节在整个流中的偏移读取, 一个写入方多个读取方
+ * <p>
+ * 偏移只增不减, 对容量取模得到下标; 写入方从不等待读取方, 缓冲区满了直接覆盖最早的数据;
+ * 读取方拷贝完后校验期间有没有被覆盖, 不加锁, 与 {@link PacketRing} 相同
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+public class ByteRing {
+
+    private final ByteBuffer buffer;
+
+    private final int capacity;
+
+    private final int mask;
+
+    /**
+     * 只用于写入时让读取方的乐观读失效
+     */
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * 写入方即将写到的偏移, 小于 claimed - capacity 的数据已被覆盖
+     */
+    private volatile long claimed;
+
+    /**
+     * 已写完的偏移
+     */
+    private volatile long written;
+
+    /**
+     * @param capacity 字节数, 向上取2的幂
+     */
+    public ByteRing(int capacity) {
+        int size = 1 << (32 - Integer.numberOfLeadingZeros(Math.max(capacity, 1024) - 1));
+        this.buffer = ByteBuffer.allocateDirect(size);
+        this.capacity = size;
+        this.mask = size - 1;
+    }
+
+    /**
+     * 写入, 只能由一个线程调用; 超过容量时只保留最后的容量大小的数据, 偏移照常增加
+     */
+    public void write(ByteBuffer src) {
+        int length = src.remaining();
+        long stamp = lock.writeLock();
+        try {
+            long pos = written;
+            long end = pos + length;
+            claimed = end;
+            if (length > capacity) {
+                src.position(src.limit() - capacity);
+                pos = end - capacity;
+            }
+            ByteBuffer view = buffer.duplicate();
+            int index = (int) pos & mask;
+            int first = Math.min(src.remaining(), capacity - index);
+            int limit = src.limit();
+            src.limit(src.position() + first);
+            view.position(index);
+            view.put(src);
+            src.limit(limit);
+            if (src.hasRemaining()) {
+                view.position(0);
+                view.put(src);
+            }
+            written = end;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 从offset开始读到dst, 返回读到的字节数, 没有新数据时返回0; offset已被覆盖返回-1
+     */
+    public int read(long offset, ByteBuffer dst) {
+        long stamp = lock.tryOptimisticRead();
+        if (offset < claimed - capacity) {
+            return -1;
+        }
+        int length = (int) Math.min(dst.remaining(), written - offset);
+        if (length <= 0) {
+            return 0;
+        }
+        int start = dst.position();
+        ByteBuffer view = buffer.duplicate();
+        int index = (int) offset & mask;
+        int first = Math.min(length, capacity - index);
+        view.limit(index + first).position(index);
+        dst.put(view);
+        if (first < length) {
+            view.limit(length - first).position(0);
+            dst.put(view);
+        }
+        // 拷贝期间有写入时, 确认读到的数据还没有被覆盖
+        if (!lock.validate(stamp) && offset < claimed - capacity) {
+            dst.position(start);
+            return -1;
+        }
+        return length;
+    }
+
+    /**
+     * 还没有被覆盖的最早的偏移
+     */
+    public long getOldest() {
+        return Math.max(0, claimed - capacity);
+    }
+
+    /**
+     * 已写完的偏移, 即写入的总字节数
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
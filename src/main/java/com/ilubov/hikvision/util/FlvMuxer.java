@@ -0,0 +1,282 @@
+package com.ilubov.hikvision.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 把解复用出的视频帧封装成FLV视频标签, 不转码
+ * <p>
+ * Annex B起始码换成4字节长度, 参数集(VPS/SPS/PPS)放进序列头标签, 参数集变化时重新生成; H.264的编码ID为7,
+ * H.265用国内播放器通用的扩展编码ID 12, 序列头为 HEVCDecoderConfigurationRecord
+ * <p>
+ * 标签的时间戳不写进数据里, 由发送方按各自的起点写标签头, 多个观看者共用同一份标签数据
+ * <p>
+ * 非线程安全, 一路码流一个实例
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+public class FlvMuxer {
+
+    public static final int CODEC_AVC = 7;
+
+    public static final int CODEC_HEVC = 12;
+
+    private static final int TAG_VIDEO = 9;
+
+    private static final long PTS_MASK = (1L << 33) - 1;
+
+    private long firstPts = -1;
+
+    private byte[] vps;
+
+    private byte[] sps;
+
+    private byte[] pps;
+
+    private Tag config;
+
+    /**
+     * FLV文件头, 只有视频, 后面跟第一个 PreviousTagSize
+     */
+    public static byte[] header() {
+        return new byte[]{'F', 'L', 'V', 1, 0x01, 0, 0, 0, 9, 0, 0, 0, 0};
+    }
+
+    /**
+     * 封装一帧, 参数集变化时先返回新的序列头标签; 还没有收到参数集时返回空
+     */
+    public List<Tag> mux(PsDemuxer.Frame frame) {
+        boolean hevc = frame.getCodec() == PsDemuxer.CODEC_H265;
+        if (firstPts < 0) {
+            firstPts = frame.getPts();
+        }
+        long timestamp = ((frame.getPts() - firstPts) & PTS_MASK) / 90;
+        byte[] data = frame.getData();
+        List<int[]> nals = nals(data);
+        boolean changed = false;
+        ByteArrayOutputStream body = new ByteArrayOutputStream(data.length + 16);
+        body.write(((frame.isKey() ? 1 : 2) << 4) | (hevc ? CODEC_HEVC : CODEC_AVC));
+        // NALU, 合成时间0
+        body.write(1);
+        body.write(0);
+        body.write(0);
+        body.write(0);
+        for (int[] nal : nals) {
+            int start = nal[0];
+            int length = nal[1];
+            int type = hevc ? (data[start] >> 1) & 0x3F : data[start] & 0x1F;
+            byte[] parameterSet = null;
+            if (hevc && type == 32) {
+                changed |= !Arrays.equals(vps, parameterSet = Arrays.copyOfRange(data, start, start + length));
+                vps = parameterSet;
+            } else if (hevc ? type == 33 : type == 7) {
+                changed |= !Arrays.equals(sps, parameterSet = Arrays.copyOfRange(data, start, start + length));
+                sps = parameterSet;
+            } else if (hevc ? type == 34 : type == 8) {
+                changed |= !Arrays.equals(pps, parameterSet = Arrays.copyOfRange(data, start, start + length));
+                pps = parameterSet;
+            }
+            // 参数集放在序列头里, 分隔符不需要
+            if (parameterSet != null || (hevc ? type == 35 : type == 9)) {
+                continue;
+            }
+            body.write(length >>> 24);
+            body.write(length >>> 16);
+            body.write(length >>> 8);
+            body.write(length);
+            body.write(data, start, length);
+        }
+        List<Tag> tags = new ArrayList<>(2);
+        if (changed && sps != null && pps != null && (!hevc || vps != null)) {
+            config = new Tag(timestamp, hevc ? this.hevcConfig() : this.avcConfig(), true, true);
+            tags.add(config);
+        }
+        if (config == null) {
+            return tags;
+        }
+        tags.add(new Tag(timestamp, body.toByteArray(), frame.isKey(), false));
+        return tags;
+    }
+
+    /**
+     * 最新的序列头标签, 还没有时为null
+     */
+    public Tag getConfig() {
+        return config;
+    }
+
+    /**
+     * 写一个视频标签和它后面的 PreviousTagSize
+     */
+    public static void write(OutputStream out, Tag tag, long timestamp) throws IOException {
+        byte[] body = tag.body;
+        byte[] header = new byte[11];
+        header[0] = TAG_VIDEO;
+        header[1] = (byte) (body.length >>> 16);
+        header[2] = (byte) (body.length >>> 8);
+        header[3] = (byte) body.length;
+        header[4] = (byte) (timestamp >>> 16);
+        header[5] = (byte) (timestamp >>> 8);
+        header[6] = (byte) timestamp;
+        header[7] = (byte) (timestamp >>> 24);
+        out.write(header);
+        out.write(body);
+        int size = 11 + body.length;
+        out.write(new byte[]{(byte) (size >>> 24), (byte) (size >>> 16), (byte) (size >>> 8), (byte) size});
+    }
+
+    /**
+     * Annex B中每个NAL的起止, 不含起始码
+     */
+    static List<int[]> nals(byte[] data) {
+        List<int[]> nals = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i + 2 < data.length; i++) {
+            if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1) {
+                if (start >= 0) {
+                    // 4字节起始码前面多一个0
+                    int end = i > start && data[i - 1] == 0 ? i - 1 : i;
+                    nals.add(new int[]{start, end - start});
+                }
+                start = i + 3;
+                i += 2;
+            }
+        }
+        if (start >= 0 && start < data.length) {
+            nals.add(new int[]{start, data.length - start});
+        }
+        return nals;
+    }
+
+    /**
+     * AVCDecoderConfigurationRecord
+     */
+    private byte[] avcConfig() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // 关键帧, AVC, 序列头, 合成时间0
+        out.write((1 << 4) | CODEC_AVC);
+        out.write(0);
+        out.write(0);
+        out.write(0);
+        out.write(0);
+        out.write(1);
+        out.write(sps.length > 1 ? sps[1] : 0);
+        out.write(sps.length > 2 ? sps[2] : 0);
+        out.write(sps.length > 3 ? sps[3] : 0);
+        // 4字节长度
+        out.write(0xFF);
+        out.write(0xE1);
+        writeShortArray(out, sps);
+        out.write(1);
+        writeShortArray(out, pps);
+        return out.toByteArray();
+    }
+
+    /**
+     * HEVCDecoderConfigurationRecord, profile/tier/level取自SPS, 其余取常用值(4:2:0, 8位)
+     */
+    private byte[] hevcConfig() {
+        byte[] rbsp = unescape(sps, 2 + 1 + 12);
+        int subLayers = rbsp.length > 2 ? ((rbsp[2] >> 1) & 0x07) + 1 : 1;
+        boolean nested = rbsp.length > 2 && (rbsp[2] & 0x01) != 0;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write((1 << 4) | CODEC_HEVC);
+        out.write(0);
+        out.write(0);
+        out.write(0);
+        out.write(0);
+        out.write(1);
+        // profile_space/tier/profile_idc, 兼容标志4字节, 约束标志6字节, level_idc
+        for (int i = 3; i < 3 + 12; i++) {
+            out.write(i < rbsp.length ? rbsp[i] : 0);
+        }
+        out.write(0xF0);
+        out.write(0x00);
+        out.write(0xFC);
+        out.write(0xFD);
+        out.write(0xF8);
+        out.write(0xF8);
+        out.write(0);
+        out.write(0);
+        out.write((subLayers << 3) | (nested ? 0x04 : 0) | 0x03);
+        out.write(3);
+        int[] types = {32, 33, 34};
+        byte[][] sets = {vps, sps, pps};
+        for (int i = 0; i < 3; i++) {
+            out.write(0x80 | types[i]);
+            out.write(0);
+            out.write(1);
+            writeShortArray(out, sets[i]);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeShortArray(ByteArrayOutputStream out, byte[] data) {
+        out.write(data.length >>> 8);
+        out.write(data.length);
+        out.write(data, 0, data.length);
+    }
+
+    /**
+     * 去掉防竞争字节 00 00 03, 只取前max个字节
+     */
+    static byte[] unescape(byte[] nal, int max) {
+        byte[] rbsp = new byte[Math.min(nal.length, max)];
+        int n = 0;
+        int zeros = 0;
+        for (int i = 0; i < nal.length && n < rbsp.length; i++) {
+            if (zeros >= 2 && nal[i] == 3) {
+                zeros = 0;
+                continue;
+            }
+            zeros = nal[i] == 0 ? zeros + 1 : 0;
+            rbsp[n++] = nal[i];
+        }
+        return n == rbsp.length ? rbsp : Arrays.copyOf(rbsp, n);
+    }
+
+    /**
+     * 一个视频标签的数据, 时间戳为从流开始的毫秒数
+     */
+    public static class Tag {
+
+        private final long timestamp;
+
+        private final byte[] body;
+
+        private final boolean key;
+
+        private final boolean config;
+
+        private Tag(long timestamp, byte[] body, boolean key, boolean config) {
+            this.timestamp = timestamp;
+            this.body = body;
+            this.key = key;
+            this.config = config;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public boolean isKey() {
+            return key;
+        }
+
+        /**
+         * 是否序列头
+         */
+        public boolean isConfig() {
+            return config;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.ilubov.hikvision.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * int为键的开放寻址哈希表, 线性探测, 不装箱
+ * <p>
+ * 非线程安全, 并发读场景由调用方复制后整体替换发布
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+public class IntObjectMap<V> {
+
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private int[] keys;
+
+    private Object[] values;
+
+    private int size;
+
+    private int mask;
+
+    public IntObjectMap() {
+        this(16);
+    }
+
+    public IntObjectMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        this.keys = new int[capacity];
+        this.values = new Object[capacity];
+        this.mask = capacity - 1;
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * 复制一份
+     */
+    public IntObjectMap<V> copy() {
+        IntObjectMap<V> copy = new IntObjectMap<>(4);
+        copy.keys = keys.clone();
+        copy.values = values.clone();
+        copy.size = size;
+        copy.mask = mask;
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        checkKey(key);
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key) {
+                return (V) values[i];
+            }
+            if (k == EMPTY) {
+                return null;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        checkKey(key);
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+            if (k == EMPTY) {
+                keys[i] = key;
+                values[i] = value;
+                if (++size * 2 > keys.length) {
+                    this.resize();
+                }
+                return null;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        checkKey(key);
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == EMPTY) {
+                return null;
+            }
+            if (k == key) {
+                V old = (V) values[i];
+                keys[i] = EMPTY;
+                values[i] = null;
+                size--;
+                // 后移同一探测链上的元素, 保证查找不断链
+                for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+                    int moveKey = keys[j];
+                    Object moveValue = values[j];
+                    keys[j] = EMPTY;
+                    values[j] = null;
+                    size--;
+                    this.put(moveKey, (V) moveValue);
+                }
+                return old;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<V> list = new ArrayList<>(size);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                list.add((V) values[i]);
+            }
+        }
+        return list;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resize() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[oldKeys.length << 1];
+        values = new Object[oldKeys.length << 1];
+        mask = keys.length - 1;
+        size = 0;
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                this.put(oldKeys[i], (V) oldValues[i]);
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static void checkKey(int key) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("不支持的键: " + key);
+        }
+    }
+}
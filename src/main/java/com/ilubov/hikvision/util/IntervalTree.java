@@ -0,0 +1,113 @@
+package com.ilubov.hikvision.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * 不可变区间树, 区间为 [start, end)
+ * <p>
+ * 区间按开始时间排序存在数组里, 看作隐式平衡二叉树: [lo, hi) 的根为中点, 每个节点记下子树中最大的结束时间;
+ * 区间可以相互重叠, 查询相交区间 O(log n + k), 按开始时间顺序返回
+ * <p>
+ * 修改时整体重建后替换发布, 读取方不加锁, 与 {@link IntObjectMap} 相同
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+public class IntervalTree<T> {
+
+    private final long[] starts;
+
+    private final long[] ends;
+
+    /**
+     * 以该节点为根的子树中最大的结束时间
+     */
+    private final long[] maxEnds;
+
+    private final Object[] values;
+
+    public IntervalTree(Collection<T> items, ToLongFunction<T> start, ToLongFunction<T> end) {
+        List<T> sorted = new ArrayList<>(items);
+        sorted.sort(Comparator.comparingLong(start).thenComparingLong(end));
+        int size = sorted.size();
+        this.starts = new long[size];
+        this.ends = new long[size];
+        this.maxEnds = new long[size];
+        this.values = new Object[size];
+        for (int i = 0; i < size; i++) {
+            T item = sorted.get(i);
+            starts[i] = start.applyAsLong(item);
+            ends[i] = end.applyAsLong(item);
+            values[i] = item;
+        }
+        this.build(0, size);
+    }
+
+    private long build(int lo, int hi) {
+        if (lo >= hi) {
+            return Long.MIN_VALUE;
+        }
+        int mid = (lo + hi) >>> 1;
+        long max = Math.max(ends[mid], Math.max(this.build(lo, mid), this.build(mid + 1, hi)));
+        maxEnds[mid] = max;
+        return max;
+    }
+
+    /**
+     * 与 [from, to) 相交的区间
+     */
+    public List<T> query(long from, long to) {
+        List<T> list = new ArrayList<>();
+        this.query(from, to, list::add);
+        return list;
+    }
+
+    /**
+     * 按开始时间顺序遍历与 [from, to) 相交的区间
+     */
+    public void query(long from, long to, Consumer<T> consumer) {
+        this.query(0, starts.length, from, to, consumer);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void query(int lo, int hi, long from, long to, Consumer<T> consumer) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        // 子树中所有区间都在from之前结束
+        if (maxEnds[mid] <= from) {
+            return;
+        }
+        this.query(lo, mid, from, to, consumer);
+        // 右子树的开始时间都不早于mid
+        if (starts[mid] >= to) {
+            return;
+        }
+        if (ends[mid] > from) {
+            consumer.accept((T) values[mid]);
+        }
+        this.query(mid + 1, hi, from, to, consumer);
+    }
+
+    /**
+     * 所有区间, 按开始时间排序
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> values() {
+        List<T> list = new ArrayList<>(values.length);
+        for (Object value : values) {
+            list.add((T) value);
+        }
+        return list;
+    }
+
+    public int size() {
+        return values.length;
+    }
+}
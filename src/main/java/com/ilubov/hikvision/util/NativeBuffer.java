@@ -0,0 +1,25 @@
+package com.ilubov.hikvision.util;
+
+import com.sun.jna.Memory;
+
+/**
+ * 可以主动释放的native内存
+ * <p>
+ * {@link Memory} 只在被GC回收时释放, 这里复用它的释放逻辑, 释放后不能再访问
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+public class NativeBuffer extends Memory {
+
+    public NativeBuffer(long size) {
+        super(size);
+    }
+
+    /**
+     * 立即释放, 重复调用无影响
+     */
+    public void free() {
+        super.finalize();
+    }
+}
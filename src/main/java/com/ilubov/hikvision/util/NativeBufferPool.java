@@ -0,0 +1,250 @@
+package com.ilubov.hikvision.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按设备复用的抓拍缓冲区(native内存)
+ * <p>
+ * 每台设备有一个当前大小, 从初始大小开始, SDK报缓冲区太小时翻倍, 连续多次图片都不到四分之一时减半;
+ * 空闲缓冲区按设备保留少量, 大小不是当前大小的直接释放; 所有设备已分配的总字节数有上限,
+ * 超出时先释放所有空闲缓冲区, 仍然不够则分配失败
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Slf4j
+public class NativeBufferPool {
+
+    /**
+     * 每台设备最多保留的空闲缓冲区数
+     */
+    private static final int MAX_IDLE = 2;
+
+    private final int initialSize;
+
+    private final int maxSize;
+
+    private final int shrinkAfter;
+
+    private final long maxTotalBytes;
+
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    private final AtomicLong peakAllocatedBytes = new AtomicLong();
+
+    private final AtomicLong allocations = new AtomicLong();
+
+    private final AtomicLong frees = new AtomicLong();
+
+    private final AtomicLong grows = new AtomicLong();
+
+    private final AtomicLong shrinks = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    public NativeBufferPool(int initialSize, int maxSize, int shrinkAfter, long maxTotalBytes) {
+        this.initialSize = Math.max(1, initialSize);
+        this.maxSize = Math.max(this.initialSize, maxSize);
+        this.shrinkAfter = Math.max(1, shrinkAfter);
+        this.maxTotalBytes = maxTotalBytes;
+    }
+
+    /**
+     * 借出设备的抓拍缓冲区, 超过总量上限时返回null
+     */
+    public NativeBuffer borrow(String key) {
+        Slot slot = slots.computeIfAbsent(key, k -> new Slot(initialSize));
+        int size;
+        synchronized (slot) {
+            NativeBuffer buffer = slot.idle.pollFirst();
+            if (buffer != null) {
+                return buffer;
+            }
+            size = slot.size;
+        }
+        return this.allocate(size);
+    }
+
+    /**
+     * 缓冲区太小, 释放旧的并分配更大的, required为SDK返回的所需大小(未知时为0); 已达单个上限或总量上限时返回null
+     */
+    public NativeBuffer grow(String key, NativeBuffer buffer, int required) {
+        long current = buffer.getSize();
+        this.free(buffer);
+        if (current >= maxSize) {
+            log.info("【海康抓拍缓冲区】设备: {}, 图片超过缓冲区上限: {}", key, maxSize);
+            return null;
+        }
+        int size = (int) Math.min(maxSize, Math.max(current * 2, required));
+        Slot slot = slots.computeIfAbsent(key, k -> new Slot(initialSize));
+        synchronized (slot) {
+            if (size > slot.size) {
+                slot.size = size;
+                slot.smallFrames = 0;
+                this.freeIdle(slot);
+            }
+        }
+        grows.incrementAndGet();
+        log.info("【海康抓拍缓冲区】设备: {}, 缓冲区扩大到: {}", key, size);
+        return this.allocate(size);
+    }
+
+    /**
+     * 归还缓冲区, used为本次图片大小, 失败时为0
+     */
+    public void release(String key, NativeBuffer buffer, int used) {
+        Slot slot = slots.get(key);
+        if (slot != null) {
+            synchronized (slot) {
+                if (used > 0 && (long) used * 4 <= slot.size && slot.size > initialSize) {
+                    if (++slot.smallFrames >= shrinkAfter) {
+                        slot.size = Math.max(initialSize, slot.size / 2);
+                        slot.smallFrames = 0;
+                        this.freeIdle(slot);
+                        shrinks.incrementAndGet();
+                    }
+                } else if (used > 0) {
+                    slot.smallFrames = 0;
+                }
+                if (buffer.getSize() == slot.size && slot.idle.size() < MAX_IDLE) {
+                    slot.idle.offerFirst(buffer);
+                    return;
+                }
+            }
+        }
+        this.free(buffer);
+    }
+
+    /**
+     * 释放设备的所有空闲缓冲区, 设备下线时调用
+     */
+    public void free(String key) {
+        Slot slot = slots.remove(key);
+        if (slot != null) {
+            synchronized (slot) {
+                this.freeIdle(slot);
+            }
+        }
+    }
+
+    /**
+     * 释放所有空闲缓冲区
+     */
+    public void clear() {
+        for (Slot slot : slots.values()) {
+            synchronized (slot) {
+                this.freeIdle(slot);
+            }
+        }
+    }
+
+    /**
+     * 设备当前的缓冲区大小
+     */
+    public int size(String key) {
+        Slot slot = slots.get(key);
+        return slot == null ? initialSize : slot.size;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    public long getPeakAllocatedBytes() {
+        return peakAllocatedBytes.get();
+    }
+
+    public long getAllocations() {
+        return allocations.get();
+    }
+
+    public long getFrees() {
+        return frees.get();
+    }
+
+    public long getGrows() {
+        return grows.get();
+    }
+
+    public long getShrinks() {
+        return shrinks.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private NativeBuffer allocate(int size) {
+        if (!this.reserve(size)) {
+            // 先释放所有空闲的再试一次
+            this.clear();
+            if (!this.reserve(size)) {
+                rejected.incrementAndGet();
+                log.info("【海康抓拍缓冲区】已分配: {}, 超过上限: {}", allocatedBytes.get(), maxTotalBytes);
+                return null;
+            }
+        }
+        allocations.incrementAndGet();
+        try {
+            return new NativeBuffer(size);
+        } catch (OutOfMemoryError e) {
+            allocatedBytes.addAndGet(-size);
+            rejected.incrementAndGet();
+            log.error("【海康抓拍缓冲区】分配native内存失败: {}", size, e);
+            return null;
+        }
+    }
+
+    private boolean reserve(int size) {
+        long allocated = allocatedBytes.addAndGet(size);
+        if (allocated > maxTotalBytes) {
+            allocatedBytes.addAndGet(-size);
+            return false;
+        }
+        for (long peak = peakAllocatedBytes.get(); allocated > peak; peak = peakAllocatedBytes.get()) {
+            if (peakAllocatedBytes.compareAndSet(peak, allocated)) {
+                break;
+            }
+        }
+        return true;
+    }
+
+    private void freeIdle(Slot slot) {
+        for (NativeBuffer buffer = slot.idle.pollFirst(); buffer != null; buffer = slot.idle.pollFirst()) {
+            this.free(buffer);
+        }
+    }
+
+    private void free(NativeBuffer buffer) {
+        if (buffer.isValid()) {
+            long size = buffer.getSize();
+            buffer.free();
+            allocatedBytes.addAndGet(-size);
+            frees.incrementAndGet();
+        }
+    }
+
+    /**
+     * 单台设备
+     */
+    private static class Slot {
+
+        private final Deque<NativeBuffer> idle = new ArrayDeque<>();
+
+        private int size;
+
+        private int smallFrames;
+
+        private Slot(int size) {
+            this.size = size;
+        }
+    }
+}
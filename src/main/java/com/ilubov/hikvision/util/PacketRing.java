@@ -0,0 +1,315 @@
+package com.ilubov.hikvision.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 堆外字节环形缓冲, 按包存取, 一个写入方多个读取方
+ * <p>
+ * 每个包前有16字节包头(长度, 类型, 序号), 按16字节对齐, 位置只增不减, 对容量取模得到下标, 包头不会跨越缓冲区末尾,
+ * 数据可以; 写入方从不等待读取方, 缓冲区满了直接覆盖最早的数据, 读取方各自记录位置, 被覆盖时跳到最早的完整包,
+ * 按序号计算丢失的包数
+ * <p>
+ * 读取方拷贝完后校验期间有没有被覆盖, 不加锁; 读取方随时加入和退出, 不影响写入方
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+public class PacketRing {
+
+    private static final int HEADER = 16;
+
+    private final ByteBuffer buffer;
+
+    private final int capacity;
+
+    private final int mask;
+
+    /**
+     * 只用于写入时让读取方的乐观读失效, 读取方不加读锁, 写入方不会等待
+     */
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * 写入方即将写到的位置, 小于 claimed - capacity 的数据已被覆盖
+     */
+    private volatile long claimed;
+
+    /**
+     * 已写完的位置
+     */
+    private volatile long written;
+
+    /**
+     * 最早的完整包的位置
+     */
+    private volatile long oldest;
+
+    private final AtomicLong packets = new AtomicLong();
+
+    private final AtomicLong tooLarge = new AtomicLong();
+
+    private final AtomicLong overruns = new AtomicLong();
+
+    private final CopyOnWriteArrayList<Reader> readers = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param capacity 字节数, 向上取2的幂
+     */
+    public PacketRing(int capacity) {
+        int size = 1 << (32 - Integer.numberOfLeadingZeros(Math.max(capacity, 1024) - 1));
+        this.buffer = ByteBuffer.allocateDirect(size);
+        this.capacity = size;
+        this.mask = size - 1;
+    }
+
+    /**
+     * 写入一个包, 只能由一个线程调用; 超过容量四分之一的包丢弃, 返回false
+     */
+    public boolean write(int type, ByteBuffer src) {
+        int length = src.remaining();
+        if (length + HEADER > capacity / 4) {
+            tooLarge.incrementAndGet();
+            return false;
+        }
+        long stamp = lock.writeLock();
+        try {
+            long pos = written;
+            long end = pos + size(length);
+            // 跳过将被覆盖的包, 先于claimed发布, 读取方看到新的claimed时一定能看到新的oldest
+            long min = end - capacity;
+            long first = oldest;
+            while (first < min) {
+                first += size(buffer.getInt((int) first & mask));
+            }
+            oldest = first;
+            claimed = end;
+            int index = (int) pos & mask;
+            buffer.putInt(index, length);
+            buffer.putInt(index + 4, type);
+            buffer.putLong(index + 8, packets.get());
+            this.put(pos + HEADER, src);
+            packets.incrementAndGet();
+            written = end;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        for (Reader reader : readers) {
+            Thread waiter = reader.waiter;
+            if (waiter != null) {
+                LockSupport.unpark(waiter);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 新的读取方, 从下一个写入的包开始读
+     */
+    public Reader reader() {
+        long stamp;
+        long position;
+        long sequence;
+        do {
+            stamp = lock.tryOptimisticRead();
+            position = written;
+            sequence = packets.get();
+        } while (!lock.validate(stamp));
+        Reader reader = new Reader(position, sequence - 1);
+        readers.add(reader);
+        return reader;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getReaders() {
+        return readers.size();
+    }
+
+    public long getPackets() {
+        return packets.get();
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    public long getTooLarge() {
+        return tooLarge.get();
+    }
+
+    /**
+     * 所有读取方因被覆盖而丢失的包数
+     */
+    public long getOverruns() {
+        return overruns.get();
+    }
+
+    /**
+     * 包头加数据按16字节对齐后的长度
+     */
+    private static long size(int length) {
+        return HEADER + ((length + 15) & ~15L);
+    }
+
+    private void put(long pos, ByteBuffer src) {
+        ByteBuffer view = buffer.duplicate();
+        int index = (int) pos & mask;
+        int first = Math.min(src.remaining(), capacity - index);
+        ByteBuffer part = src.duplicate();
+        part.limit(part.position() + first);
+        view.position(index);
+        view.put(part);
+        if (first < src.remaining()) {
+            part.limit(src.limit());
+            view.position(0);
+            view.put(part);
+        }
+    }
+
+    /**
+     * 读取方, 只能由一个线程使用
+     */
+    public class Reader implements AutoCloseable {
+
+        private final ByteBuffer view = buffer.duplicate();
+
+        private long position;
+
+        private int type;
+
+        /**
+         * 上一个包的序号
+         */
+        private long sequence;
+
+        private long lost;
+
+        private volatile Thread waiter;
+
+        private Reader(long position, long sequence) {
+            this.position = position;
+            this.sequence = sequence;
+        }
+
+        /**
+         * 读取下一个包到dst, 返回包长度; 没有新包时返回0; dst放不下时不读取, 返回包长度的相反数
+         */
+        public int poll(ByteBuffer dst) {
+            while (true) {
+                long stamp = lock.tryOptimisticRead();
+                long end = written;
+                if (position >= end) {
+                    return 0;
+                }
+                if (position < claimed - capacity) {
+                    this.overrun();
+                    continue;
+                }
+                int index = (int) position & mask;
+                int length = view.getInt(index);
+                int packetType = view.getInt(index + 4);
+                long seq = view.getLong(index + 8);
+                if (!this.valid(stamp)) {
+                    this.overrun();
+                    continue;
+                }
+                if (dst.remaining() < length) {
+                    return -length;
+                }
+                int start = dst.position();
+                this.copy(position + HEADER, length, dst);
+                if (!this.valid(stamp)) {
+                    dst.position(start);
+                    this.overrun();
+                    continue;
+                }
+                position += size(length);
+                type = packetType;
+                if (seq > sequence + 1) {
+                    lost += seq - sequence - 1;
+                    overruns.addAndGet(seq - sequence - 1);
+                }
+                sequence = seq;
+                return length;
+            }
+        }
+
+        /**
+         * 等待新包, 超时或有新包时返回
+         */
+        public boolean await(long timeout, TimeUnit unit) {
+            if (position < written) {
+                return true;
+            }
+            waiter = Thread.currentThread();
+            try {
+                if (position < written) {
+                    return true;
+                }
+                LockSupport.parkNanos(this, unit.toNanos(timeout));
+                return position < written;
+            } finally {
+                waiter = null;
+            }
+        }
+
+        /**
+         * 上一个包的类型
+         */
+        public int getType() {
+            return type;
+        }
+
+        /**
+         * 因被覆盖而丢失的包数
+         */
+        public long getLost() {
+            return lost;
+        }
+
+        /**
+         * 落后写入方的字节数
+         */
+        public long getLag() {
+            return written - position;
+        }
+
+        @Override
+        public void close() {
+            readers.remove(this);
+        }
+
+        /**
+         * 拷贝期间有写入时, 确认读到的数据还没有被覆盖
+         */
+        private boolean valid(long stamp) {
+            return lock.validate(stamp) || position >= claimed - capacity;
+        }
+
+        /**
+         * 被覆盖, 跳到最早的完整包, 丢失的包数在读到下一个包时按序号计算
+         */
+        private void overrun() {
+            position = Math.max(oldest, position);
+        }
+
+        private void copy(long pos, int length, ByteBuffer dst) {
+            int index = (int) pos & mask;
+            int first = Math.min(length, capacity - index);
+            view.limit(index + first).position(index);
+            dst.put(view);
+            if (first < length) {
+                view.limit(length - first).position(0);
+                dst.put(view);
+            }
+            view.clear();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.ilubov.hikvision.util;
+
+/**
+ * 从 {@link BufferPool} 借出的缓冲区, 使用完必须调用 {@link #release()} 归还
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+public class PooledBuffer {
+
+    private final BufferPool pool;
+
+    private byte[] array;
+
+    private int length;
+
+    PooledBuffer(BufferPool pool, byte[] array, int length) {
+        this.pool = pool;
+        this.array = array;
+        this.length = length;
+    }
+
+    /**
+     * 底层数组, 长度可能大于有效数据长度
+     */
+    public byte[] array() {
+        if (array == null) {
+            throw new IllegalStateException("缓冲区已归还");
+        }
+        return array;
+    }
+
+    /**
+     * 有效数据长度
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * 拷贝出有效数据
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[length];
+        System.arraycopy(this.array(), 0, bytes, 0, length);
+        return bytes;
+    }
+
+    /**
+     * 归还缓冲区, 重复调用无副作用
+     */
+    public void release() {
+        byte[] bytes;
+        synchronized (this) {
+            bytes = array;
+            array = null;
+        }
+        if (bytes != null) {
+            pool.recycle(this, bytes);
+        }
+    }
+}
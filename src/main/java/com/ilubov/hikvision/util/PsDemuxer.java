@@ -0,0 +1,517 @@
+package com.ilubov.hikvision.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * MPEG-PS解复用, 从实时取流的PS包中取出视频帧
+ * <p>
+ * 输入可以在任意位置切开, 不完整的部分留到下次; 带PTS的视频PES开始新的一帧, 海康一帧拆成多个PES时后面的不带PTS;
+ * 一帧看到第一个图像条带NAL就能判断是不是关键帧, 只要关键帧时不是的后面的数据不再拷贝
+ * <p>
+ * 每帧作为一个完整的Annex B访问单元交给listener, 关键帧(H.265 IRAP 或 H.264 IDR)包含前面的VPS/SPS/PPS;
+ * 同时记下关键帧所在的PS包在整个流中的偏移, 保留最近的若干个
+ * <p>
+ * 输入中间丢了数据时调用 {@link #reset()}, 丢掉拼了一半的帧, 不会把缺了PES的帧当成完整的帧输出
+ * <p>
+ * 非线程安全, 一路码流一个实例
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+public class PsDemuxer {
+
+    public static final int CODEC_H264 = 0x1B;
+
+    public static final int CODEC_H265 = 0x24;
+
+    private static final int PACK_HEADER = 0xBA;
+
+    private static final int PROGRAM_END = 0xB9;
+
+    private static final int STREAM_MAP = 0xBC;
+
+    private static final int KEY_UNKNOWN = 0;
+
+    private static final int KEY_YES = 1;
+
+    private static final int KEY_NO = 2;
+
+    private final int maxFrameBytes;
+
+    private final boolean keyframesOnly;
+
+    private final Consumer<Frame> listener;
+
+    private byte[] input = new byte[64 * 1024];
+
+    private int inputLength;
+
+    /**
+     * input[0] 在整个流中的偏移
+     */
+    private long inputOffset;
+
+    /**
+     * 当前PS包在整个流中的偏移
+     */
+    private long packOffset;
+
+    private int codec = CODEC_H265;
+
+    private int videoStreamId = -1;
+
+    private byte[] frame = new byte[256 * 1024];
+
+    private int frameLength;
+
+    private boolean inFrame;
+
+    private long framePts;
+
+    private long frameOffset;
+
+    private int frameKey;
+
+    private int scanned;
+
+    private boolean frameTooLarge;
+
+    private final long[] indexOffsets;
+
+    private final long[] indexPts;
+
+    private final long[] indexTimes;
+
+    private final int[] indexSizes;
+
+    private long indexCount;
+
+    private long frames;
+
+    private long keyframes;
+
+    private long skippedBytes;
+
+    private long framesSinceKey;
+
+    private long gopFrames;
+
+    private long resets;
+
+    /**
+     * 只输出关键帧
+     *
+     * @param maxFrameBytes 关键帧最大字节数, 超过的丢弃
+     * @param indexSize     保留最近的关键帧位置个数
+     * @param listener      收到完整的关键帧
+     */
+    public PsDemuxer(int maxFrameBytes, int indexSize, Consumer<Frame> listener) {
+        this(maxFrameBytes, indexSize, true, listener);
+    }
+
+    /**
+     * @param maxFrameBytes 一帧最大字节数, 超过的丢弃
+     * @param indexSize     保留最近的关键帧位置个数
+     * @param keyframesOnly 是否只输出关键帧
+     * @param listener      收到完整的一帧
+     */
+    public PsDemuxer(int maxFrameBytes, int indexSize, boolean keyframesOnly, Consumer<Frame> listener) {
+        this.maxFrameBytes = maxFrameBytes;
+        this.keyframesOnly = keyframesOnly;
+        this.listener = listener;
+        int size = Math.max(1, indexSize);
+        this.indexOffsets = new long[size];
+        this.indexPts = new long[size];
+        this.indexTimes = new long[size];
+        this.indexSizes = new int[size];
+    }
+
+    /**
+     * 输入一段PS数据
+     */
+    public void feed(ByteBuffer data) {
+        int length = data.remaining();
+        if (inputLength + length > input.length) {
+            input = Arrays.copyOf(input, Math.max(input.length * 2, inputLength + length));
+        }
+        data.duplicate().get(input, inputLength, length);
+        inputLength += length;
+        int pos = this.parse();
+        // 剩下不完整的部分移到开头
+        System.arraycopy(input, pos, input, 0, inputLength - pos);
+        inputLength -= pos;
+        inputOffset += pos;
+    }
+
+    /**
+     * 输入丢了数据, 丢弃拼了一半的帧和还没解析的输入, 从下一个带PTS的PES重新开始; 丢弃的输入计入已处理的字节数
+     */
+    public void reset() {
+        inFrame = false;
+        frameLength = 0;
+        frameTooLarge = false;
+        inputOffset += inputLength;
+        inputLength = 0;
+        resets++;
+    }
+
+    /**
+     * 流结束, 输出最后一帧
+     */
+    public void flush() {
+        this.finishFrame();
+    }
+
+    /**
+     * 最近的关键帧位置, 最早的在前
+     */
+    public KeyframeIndex[] index() {
+        int size = (int) Math.min(indexCount, indexOffsets.length);
+        KeyframeIndex[] index = new KeyframeIndex[size];
+        for (int i = 0; i < size; i++) {
+            int slot = (int) ((indexCount - size + i) % indexOffsets.length);
+            index[i] = new KeyframeIndex(indexOffsets[slot], indexPts[slot], indexTimes[slot], indexSizes[slot]);
+        }
+        return index;
+    }
+
+    public int getCodec() {
+        return codec;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getKeyframes() {
+        return keyframes;
+    }
+
+    /**
+     * 不是起始码, 查找下一个PS包头时跳过的字节数
+     */
+    public long getSkippedBytes() {
+        return skippedBytes;
+    }
+
+    /**
+     * 最近两个关键帧之间的帧数
+     */
+    public long getGopFrames() {
+        return gopFrames;
+    }
+
+    /**
+     * 因丢数据重新开始的次数
+     */
+    public long getResets() {
+        return resets;
+    }
+
+    /**
+     * 已处理的字节数
+     */
+    public long getOffset() {
+        return inputOffset;
+    }
+
+    private int parse() {
+        int pos = 0;
+        while (inputLength - pos >= 4) {
+            if (input[pos] != 0 || input[pos + 1] != 0 || input[pos + 2] != 1) {
+                pos = this.resync(pos);
+                continue;
+            }
+            int id = input[pos + 3] & 0xFF;
+            if (id == PACK_HEADER) {
+                if (inputLength - pos < 14) {
+                    break;
+                }
+                int length = 14 + (input[pos + 13] & 0x07);
+                if (inputLength - pos < length) {
+                    break;
+                }
+                packOffset = inputOffset + pos;
+                pos += length;
+                continue;
+            }
+            if (id == PROGRAM_END) {
+                pos += 4;
+                continue;
+            }
+            if (id < 0xBA) {
+                // 不是PS层的起始码
+                pos = this.resync(pos + 1);
+                continue;
+            }
+            if (inputLength - pos < 6) {
+                break;
+            }
+            int length = 6 + (((input[pos + 4] & 0xFF) << 8) | (input[pos + 5] & 0xFF));
+            if (inputLength - pos < length) {
+                break;
+            }
+            if (id == STREAM_MAP) {
+                this.streamMap(pos, length);
+            } else if (id >= 0xE0 && id <= 0xEF && (videoStreamId < 0 || id == videoStreamId)) {
+                this.videoPes(pos, length);
+            }
+            pos += length;
+        }
+        return pos;
+    }
+
+    /**
+     * 跳到下一个PS包头
+     */
+    private int resync(int from) {
+        int next = Math.max(from, inputLength - 3);
+        for (int i = from; i + 3 < inputLength; i++) {
+            if (input[i] == 0 && input[i + 1] == 0 && input[i + 2] == 1 && (input[i + 3] & 0xFF) == PACK_HEADER) {
+                next = i;
+                break;
+            }
+        }
+        // 没找到时留下最后3个字节, 起始码可能被切开
+        skippedBytes += next - from;
+        return next;
+    }
+
+    /**
+     * 节目流映射, 取视频流的编码类型
+     */
+    private void streamMap(int pos, int length) {
+        int end = pos + length;
+        int p = pos + 8;
+        if (p + 2 > end) {
+            return;
+        }
+        p += 2 + (((input[p] & 0xFF) << 8) | (input[p + 1] & 0xFF));
+        if (p + 2 > end) {
+            return;
+        }
+        int mapEnd = Math.min(end, p + 2 + (((input[p] & 0xFF) << 8) | (input[p + 1] & 0xFF)));
+        p += 2;
+        while (p + 4 <= mapEnd) {
+            int streamType = input[p] & 0xFF;
+            int streamId = input[p + 1] & 0xFF;
+            if (streamId >= 0xE0 && streamId <= 0xEF && (streamType == CODEC_H264 || streamType == CODEC_H265)) {
+                codec = streamType;
+                videoStreamId = streamId;
+            }
+            p += 4 + (((input[p + 2] & 0xFF) << 8) | (input[p + 3] & 0xFF));
+        }
+    }
+
+    private void videoPes(int pos, int length) {
+        if (length < 9) {
+            return;
+        }
+        int flags = input[pos + 7] & 0xFF;
+        int payload = pos + 9 + (input[pos + 8] & 0xFF);
+        int end = pos + length;
+        if (payload > end) {
+            return;
+        }
+        if ((flags & 0x80) != 0) {
+            // 带PTS, 新的一帧
+            this.finishFrame();
+            inFrame = true;
+            framePts = pts(input, pos + 9);
+            frameOffset = packOffset;
+            frameLength = 0;
+            frameKey = KEY_UNKNOWN;
+            scanned = 0;
+            frameTooLarge = false;
+        }
+        if (!inFrame || (keyframesOnly && frameKey == KEY_NO)) {
+            return;
+        }
+        int size = end - payload;
+        if (frameLength + size > maxFrameBytes) {
+            frameTooLarge = true;
+            return;
+        }
+        if (frameLength + size > frame.length) {
+            frame = Arrays.copyOf(frame, Math.min(maxFrameBytes, Math.max(frame.length * 2, frameLength + size)));
+        }
+        System.arraycopy(input, payload, frame, frameLength, size);
+        frameLength += size;
+        if (frameKey == KEY_UNKNOWN) {
+            this.scanNal();
+        }
+    }
+
+    /**
+     * 从上次扫描的位置继续找NAL, 遇到第一个图像条带就能判断是不是关键帧
+     */
+    private void scanNal() {
+        for (int i = Math.max(0, scanned - 3); i + 3 < frameLength; i++) {
+            if (frame[i] != 0 || frame[i + 1] != 0 || frame[i + 2] != 1) {
+                continue;
+            }
+            int header = frame[i + 3] & 0xFF;
+            if (codec == CODEC_H264) {
+                int type = header & 0x1F;
+                if (type == 5) {
+                    frameKey = KEY_YES;
+                    return;
+                }
+                if (type >= 1 && type <= 4) {
+                    frameKey = KEY_NO;
+                    return;
+                }
+            } else {
+                int type = (header >> 1) & 0x3F;
+                if (type >= 16 && type <= 21) {
+                    frameKey = KEY_YES;
+                    return;
+                }
+                if (type <= 9) {
+                    frameKey = KEY_NO;
+                    return;
+                }
+            }
+            i += 2;
+        }
+        scanned = frameLength;
+    }
+
+    private void finishFrame() {
+        if (!inFrame) {
+            return;
+        }
+        inFrame = false;
+        frames++;
+        framesSinceKey++;
+        boolean key = frameKey == KEY_YES;
+        if ((keyframesOnly && !key) || frameTooLarge) {
+            return;
+        }
+        long time = System.currentTimeMillis();
+        if (key) {
+            keyframes++;
+            gopFrames = framesSinceKey;
+            framesSinceKey = 0;
+            int slot = (int) (indexCount++ % indexOffsets.length);
+            indexOffsets[slot] = frameOffset;
+            indexPts[slot] = framePts;
+            indexTimes[slot] = time;
+            indexSizes[slot] = frameLength;
+        }
+        listener.accept(new Frame(Arrays.copyOf(frame, frameLength), codec, key, framePts, frameOffset, time));
+    }
+
+    /**
+     * 33位PTS, 90kHz
+     */
+    static long pts(byte[] b, int p) {
+        return ((long) (b[p] & 0x0E) << 29)
+                | ((b[p + 1] & 0xFF) << 22)
+                | ((b[p + 2] & 0xFE) << 14)
+                | ((b[p + 3] & 0xFF) << 7)
+                | ((b[p + 4] & 0xFF) >> 1);
+    }
+
+    /**
+     * 完整的一帧访问单元, Annex B格式
+     */
+    public static class Frame {
+
+        private final byte[] data;
+
+        private final int codec;
+
+        private final boolean key;
+
+        private final long pts;
+
+        private final long offset;
+
+        private final long time;
+
+        public Frame(byte[] data, int codec, boolean key, long pts, long offset, long time) {
+            this.data = data;
+            this.codec = codec;
+            this.key = key;
+            this.pts = pts;
+            this.offset = offset;
+            this.time = time;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * {@link #CODEC_H264} 或 {@link #CODEC_H265}
+         */
+        public int getCodec() {
+            return codec;
+        }
+
+        /**
+         * 是否关键帧
+         */
+        public boolean isKey() {
+            return key;
+        }
+
+        public long getPts() {
+            return pts;
+        }
+
+        /**
+         * 所在PS包在整个流中的偏移
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * 收到的时间
+         */
+        public long getTime() {
+            return time;
+        }
+    }
+
+    /**
+     * 关键帧位置
+     */
+    public static class KeyframeIndex {
+
+        private final long offset;
+
+        private final long pts;
+
+        private final long time;
+
+        private final int size;
+
+        private KeyframeIndex(long offset, long pts, long time, int size) {
+            this.offset = offset;
+            this.pts = pts;
+            this.time = time;
+            this.size = size;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getPts() {
+            return pts;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public int getSize() {
+            return size;
+        }
+    }
+}
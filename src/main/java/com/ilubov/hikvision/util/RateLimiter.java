@@ -0,0 +1,43 @@
+package com.ilubov.hikvision.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 匀速限流, 每个许可之间至少间隔 1/rate 秒, 不攒许可, 不会突发
+ * <p>
+ * {@link #reserve()} 只预约不等待, 由调用方按返回的时间延后执行, 不占用线程
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+public class RateLimiter {
+
+    private final long intervalNanos;
+
+    /**
+     * 下一个许可最早可用的时间
+     */
+    private final AtomicLong next = new AtomicLong(System.nanoTime());
+
+    public RateLimiter(double permitsPerSecond) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be > 0: " + permitsPerSecond);
+        }
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+    }
+
+    /**
+     * 预约一个许可, 返回需要等待的纳秒数, 0表示立即可用
+     */
+    public long reserve() {
+        long now = System.nanoTime();
+        while (true) {
+            long current = next.get();
+            long start = Math.max(current, now);
+            if (next.compareAndSet(current, start + intervalNanos)) {
+                return start - now;
+            }
+        }
+    }
+}
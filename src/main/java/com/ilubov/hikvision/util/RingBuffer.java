@@ -0,0 +1,102 @@
+package com.ilubov.hikvision.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 有界无锁环形队列(每个槽位带序号, 多生产者多消费者安全)
+ * <p>
+ * 生产者只做一次CAS和一次写入, 不会在SDK回调线程上加锁或分配对象
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+public class RingBuffer<E> {
+
+    private final int mask;
+
+    private final Object[] buffer;
+
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    private final AtomicLong head = new AtomicLong();
+
+    public RingBuffer(int capacity) {
+        if (capacity < 2) {
+            capacity = 2;
+        }
+        int size = 1 << (32 - Integer.numberOfLeadingZeros(capacity - 1));
+        this.mask = size - 1;
+        this.buffer = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * 入队, 队列满时返回false
+     */
+    public boolean offer(E e) {
+        long pos = tail.get();
+        for (; ; ) {
+            int index = (int) pos & mask;
+            long dif = sequences.get(index) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    buffer[index] = e;
+                    sequences.lazySet(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (dif < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * 出队, 队列空时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long pos = head.get();
+        for (; ; ) {
+            int index = (int) pos & mask;
+            long dif = sequences.get(index) - (pos + 1);
+            if (dif == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E e = (E) buffer[index];
+                    buffer[index] = null;
+                    sequences.lazySet(index, pos + mask + 1);
+                    return e;
+                }
+                pos = head.get();
+            } else if (dif < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    public int size() {
+        long size = tail.get() - head.get();
+        if (size < 0) {
+            return 0;
+        }
+        return (int) Math.min(size, capacity());
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
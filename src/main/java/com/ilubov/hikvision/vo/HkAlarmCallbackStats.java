@@ -0,0 +1,29 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 报警回调统计
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkAlarmCallbackStats {
+
+    @ApiModelProperty("回调注册次数")
+    private long registrations;
+
+    @ApiModelProperty("回调次数")
+    private long callbacks;
+
+    @ApiModelProperty("最近一次回调时间")
+    private long lastEventTime;
+
+    @ApiModelProperty("SDK异常次数")
+    private long exceptions;
+
+    @ApiModelProperty("最近一次SDK异常时间")
+    private long lastExceptionTime;
+}
@@ -0,0 +1,55 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 海康报警事件, SDK回调中拷贝出来的原始数据
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkAlarmEvent {
+
+    @ApiModelProperty("报警类型 lCommand")
+    private int command;
+
+    @ApiModelProperty("NET_DVR_Login_V40返回的用户ID")
+    private int userId;
+
+    @ApiModelProperty("设备编号")
+    private String deviceId;
+
+    @ApiModelProperty("设备IP")
+    private String deviceIp;
+
+    @ApiModelProperty("接收时间")
+    private long time;
+
+    @ApiModelProperty("车牌号码原始字节(GBK)")
+    private byte[] license;
+
+    @ApiModelProperty("车型识别：0- 未知，1- 客车(大型)，2- 货车(大型)，3- 轿车(小型)，4- 非机动车")
+    private int vehicleType;
+
+    @ApiModelProperty("报警信息结构体原始字节")
+    private byte[] info;
+
+    @ApiModelProperty("报警图片")
+    private List<HkAlarmPicture> pictures = new ArrayList<>();
+
+    /**
+     * 归还图片缓冲区, 已交给写入线程的图片缓冲区为null
+     */
+    public void release() {
+        for (HkAlarmPicture picture : pictures) {
+            if (picture.getBuffer() != null) {
+                picture.getBuffer().release();
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.ilubov.hikvision.vo;
+
+import com.ilubov.hikvision.util.PooledBuffer;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 海康报警图片
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HkAlarmPicture {
+
+    @ApiModelProperty("图片类型: 0- 车牌图, 1- 场景图")
+    private byte type;
+
+    @ApiModelProperty("图片数据, 从缓冲池借出, 落盘后归还")
+    private PooledBuffer buffer;
+}
@@ -0,0 +1,53 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 海康报警回调队列相关参数
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkAlarmQueueParam {
+
+    @ApiModelProperty("每台设备的队列容量(向上取2的幂)")
+    private int capacity = 256;
+
+    @ApiModelProperty("处理线程数")
+    private int workerThreads = 2;
+
+    @ApiModelProperty("单次调度最多处理的事件数, 避免单台设备占满线程")
+    private int drainBatch = 32;
+
+    @ApiModelProperty("队列满时的处理策略")
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+
+    @ApiModelProperty("BLOCK策略下的最长等待时间(毫秒), 超时后丢弃")
+    private long blockTimeoutMs = 1000;
+
+    @ApiModelProperty("SPILL策略下的溢出文件目录")
+    private String spillPath = "/home/data/hk/spill/";
+
+    @ApiModelProperty("SPILL策略下交给溢出线程写文件的队列容量(向上取2的幂), 溢出线程也跟不上时丢弃")
+    private int spillQueueCapacity = 4096;
+
+    /**
+     * 队列满时的处理策略
+     */
+    public enum OverflowPolicy {
+        /**
+         * 阻塞SDK回调线程直到有空位
+         */
+        BLOCK,
+        /**
+         * 丢弃最早的事件
+         */
+        DROP_OLDEST,
+        /**
+         * 写入磁盘, 队列空闲后再回放
+         */
+        SPILL
+    }
+}
@@ -0,0 +1,41 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 海康报警队列统计
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkAlarmQueueStats {
+
+    @ApiModelProperty("NET_DVR_Login_V40返回的用户ID")
+    private int userId;
+
+    @ApiModelProperty("设备编号")
+    private String deviceId;
+
+    @ApiModelProperty("设备IP")
+    private String deviceIp;
+
+    @ApiModelProperty("当前队列深度")
+    private int depth;
+
+    @ApiModelProperty("入队总数")
+    private long offered;
+
+    @ApiModelProperty("处理总数")
+    private long processed;
+
+    @ApiModelProperty("丢弃总数")
+    private long dropped;
+
+    @ApiModelProperty("溢出到磁盘总数")
+    private long spilled;
+
+    @ApiModelProperty("待回放的溢出事件数, 包括还在等待写入的")
+    private int pendingSpill;
+}
@@ -0,0 +1,20 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 报警回调健康检查相关参数
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkAlarmWatchdogParam {
+
+    @ApiModelProperty("检查间隔(秒)")
+    private int checkIntervalSeconds = 10;
+
+    @ApiModelProperty("正常情况下最长多久没有事件(秒), 超过且期间SDK报过异常才重新注册回调")
+    private int silentSeconds = 300;
+}
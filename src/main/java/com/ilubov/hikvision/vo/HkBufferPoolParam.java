@@ -0,0 +1,26 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 图片缓冲池相关参数
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkBufferPoolParam {
+
+    @ApiModelProperty("最小缓冲区大小(字节)")
+    private int minSize = 4 * 1024;
+
+    @ApiModelProperty("最大入池缓冲区大小(字节), 更大的图片直接分配")
+    private int maxSize = 2 * 1024 * 1024;
+
+    @ApiModelProperty("池中最多保留的字节数")
+    private long maxRetainedBytes = 16 * 1024 * 1024;
+
+    @ApiModelProperty("是否开启未归还检测")
+    private boolean leakDetection = true;
+}
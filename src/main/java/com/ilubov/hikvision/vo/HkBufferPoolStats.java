@@ -0,0 +1,35 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 图片缓冲池统计
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkBufferPoolStats {
+
+    @ApiModelProperty("命中次数")
+    private long hits;
+
+    @ApiModelProperty("未命中次数")
+    private long misses;
+
+    @ApiModelProperty("当前借出字节数")
+    private long inUseBytes;
+
+    @ApiModelProperty("借出字节数峰值")
+    private long peakInUseBytes;
+
+    @ApiModelProperty("池中保留字节数")
+    private long retainedBytes;
+
+    @ApiModelProperty("当前借出个数")
+    private int outstanding;
+
+    @ApiModelProperty("未归还即被回收的个数")
+    private long leaks;
+}
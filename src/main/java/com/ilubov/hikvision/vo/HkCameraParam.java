@@ -12,6 +12,9 @@ import lombok.Data;
 @Data
 public class HkCameraParam {
 
+    @ApiModelProperty("设备编号, 如车道号, 为空时使用设备IP")
+    private String deviceId;
+
     @ApiModelProperty("已登录设备的IP地址")
     private String deviceIp;
 
@@ -23,4 +26,13 @@ public class HkCameraParam {
 
     @ApiModelProperty("端口号")
     private Short port;
+
+    @ApiModelProperty("定时拍照间隔(秒), 为空时使用默认间隔, 0为不定时拍照")
+    private Integer snapshotIntervalSeconds;
+
+    @ApiModelProperty("实时预览每秒帧数, 为空时使用 live-view.fps")
+    private Double liveViewFps;
+
+    @ApiModelProperty("车牌摄像头事件录像取流的全彩摄像头IP, 为空时取车牌摄像头自己的码流")
+    private String clipDeviceIp;
 }
@@ -0,0 +1,44 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 全彩摄像头拍照相关参数
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkCaptureParam {
+
+    @ApiModelProperty("是否并行拍照")
+    private boolean parallel = true;
+
+    @ApiModelProperty("并行拍照线程数")
+    private int parallelism = 4;
+
+    @ApiModelProperty("并行拍照等待队列容量, 满时直接返回拍照繁忙, 不占用调用线程")
+    private int queueCapacity = 64;
+
+    @ApiModelProperty("单台摄像头超时时间(毫秒), 超时的摄像头在结果中标记失败")
+    private long timeoutMs = 5000;
+
+    @ApiModelProperty("同一摄像头同时有多个拍照请求(含直接返回JPEG和实时预览)时合并成一次抓拍")
+    private boolean coalesce = true;
+
+    @ApiModelProperty("拍照结果缓存时间(毫秒), 期间的请求直接返回内存中的上一张JPEG, 0为不缓存")
+    private long cacheMs = 0;
+
+    @ApiModelProperty("抓拍缓冲区初始大小(字节), 每台设备按图片大小自动调整")
+    private int bufferInitialBytes = 256 * 1024;
+
+    @ApiModelProperty("抓拍缓冲区最大大小(字节)")
+    private int bufferMaxBytes = 8 * 1024 * 1024;
+
+    @ApiModelProperty("连续多少张图片不到缓冲区四分之一时缩小一半")
+    private int bufferShrinkAfter = 16;
+
+    @ApiModelProperty("所有抓拍缓冲区占用native内存的上限(字节)")
+    private long bufferMaxTotalBytes = 64 * 1024 * 1024L;
+}
@@ -0,0 +1,32 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 全彩摄像头拍照结果
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkCaptureResult {
+
+    @ApiModelProperty("拍照时间")
+    private long time;
+
+    @ApiModelProperty("设备IP")
+    private String deviceIp;
+
+    @ApiModelProperty("是否成功")
+    private boolean success;
+
+    @ApiModelProperty("图片路径")
+    private String img;
+
+    @ApiModelProperty("拍照用时(毫秒), 含落盘")
+    private long costMs;
+
+    @ApiModelProperty("失败原因")
+    private String error;
+}
@@ -0,0 +1,29 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 全彩摄像头拍照统计
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkCaptureStats {
+
+    @ApiModelProperty("拍照请求数, 按摄像头计")
+    private long requests;
+
+    @ApiModelProperty("实际抓拍次数")
+    private long captures;
+
+    @ApiModelProperty("合并到进行中抓拍的请求数")
+    private long coalesced;
+
+    @ApiModelProperty("直接返回缓存图片的请求数")
+    private long cacheHits;
+
+    @ApiModelProperty("正在抓拍的摄像头数")
+    private int inFlight;
+}
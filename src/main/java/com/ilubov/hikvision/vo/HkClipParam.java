@@ -0,0 +1,47 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 事件录像相关参数
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkClipParam {
+
+    @ApiModelProperty("是否开启, 开启后每台车牌摄像头一直取流")
+    private boolean enabled = false;
+
+    @ApiModelProperty("录像保存路径, 按日期分目录")
+    private String path = "/home/data/hk/clips/";
+
+    @ApiModelProperty("通道号")
+    private int channel = 1;
+
+    @ApiModelProperty("码流类型, 为空时使用 real-play.stream-type")
+    private Integer streamType;
+
+    @ApiModelProperty("每台摄像头的堆外录像缓冲字节数, 向上取2的幂, 需要放得下 pre-ms + post-ms 的码流")
+    private int bufferBytes = 16 * 1024 * 1024;
+
+    @ApiModelProperty("事件前的录像时长(毫秒), 从这之前最近的关键帧开始")
+    private long preMs = 10000;
+
+    @ApiModelProperty("事件后的录像时长(毫秒), 到时后写入文件")
+    private long postMs = 10000;
+
+    @ApiModelProperty("保留最近的关键帧位置个数, 需要覆盖 pre-ms")
+    private int indexSize = 64;
+
+    @ApiModelProperty("关键帧最大字节数, 超过的不记录位置")
+    private int maxFrameBytes = 4 * 1024 * 1024;
+
+    @ApiModelProperty("写录像线程数")
+    private int writerThreads = 1;
+
+    @ApiModelProperty("取流失败或中断后重试的间隔(毫秒)")
+    private long retryMs = 5000;
+}
@@ -0,0 +1,53 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 事件录像统计, 每台车牌摄像头一条
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkClipStats {
+
+    @ApiModelProperty("车牌摄像头IP")
+    private String deviceIp;
+
+    @ApiModelProperty("取流的摄像头IP")
+    private String sourceIp;
+
+    @ApiModelProperty("是否正在取流")
+    private boolean streaming;
+
+    @ApiModelProperty("录像缓冲字节数")
+    private int bufferBytes;
+
+    @ApiModelProperty("缓冲中的码流字节数")
+    private long bufferedBytes;
+
+    @ApiModelProperty("缓冲中最早的关键帧距今的毫秒数, 即最多能录到事件前多久")
+    private long bufferedMs;
+
+    @ApiModelProperty("缓冲中的关键帧个数")
+    private int keyframes;
+
+    @ApiModelProperty("触发的录像数")
+    private long triggered;
+
+    @ApiModelProperty("写完的录像数")
+    private long written;
+
+    @ApiModelProperty("缓冲不够, 事件前不足 pre-ms 的录像数")
+    private long truncated;
+
+    @ApiModelProperty("失败的录像数, 没有关键帧或写入期间缓冲被覆盖")
+    private long failed;
+
+    @ApiModelProperty("写入的录像字节数")
+    private long writtenBytes;
+
+    @ApiModelProperty("读取实时码流太慢丢失的包数")
+    private long lostPackets;
+}
@@ -0,0 +1,40 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 重复过车去重相关参数
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkDedupParam {
+
+    @ApiModelProperty("是否去重")
+    private boolean enabled = true;
+
+    @ApiModelProperty("去重窗口(毫秒), 同一设备同一车牌距上次上报不超过窗口时视为重复, 重复上报会顺延窗口")
+    private long windowMs = 10000;
+
+    @ApiModelProperty("最多记录的设备和车牌组合数(向上取2的幂), 满了淘汰最久未上报的")
+    private int capacity = 65536;
+
+    @ApiModelProperty("重复上报的处理策略")
+    private Policy policy = Policy.DROP;
+
+    /**
+     * 重复上报的处理策略
+     */
+    public enum Policy {
+        /**
+         * 直接丢弃, 不保存图片也不记录事件
+         */
+        DROP,
+        /**
+         * 不保存图片也不写入事件存储, 只推送给订阅方并标记为第几次重复, 图片路径沿用首次上报的, 首次的图片落盘后推送
+         */
+        MERGE
+    }
+}
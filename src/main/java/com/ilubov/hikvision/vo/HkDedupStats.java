@@ -0,0 +1,32 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 重复过车去重统计
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkDedupStats {
+
+    @ApiModelProperty("检查总次数")
+    private long lookups;
+
+    @ApiModelProperty("判定为重复的次数")
+    private long duplicates;
+
+    @ApiModelProperty("重复率")
+    private double hitRate;
+
+    @ApiModelProperty("当前记录的组合数, 含已过期未淘汰的")
+    private int entries;
+
+    @ApiModelProperty("未过期就被淘汰的次数, 持续增长说明容量不够")
+    private long evictions;
+
+    @ApiModelProperty("少写入的图片数")
+    private long imagesSkipped;
+}
@@ -0,0 +1,32 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 布防设备信息
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkDeviceInfo {
+
+    @ApiModelProperty("设备编号")
+    private String deviceId;
+
+    @ApiModelProperty("设备IP")
+    private String deviceIp;
+
+    @ApiModelProperty("NET_DVR_Login_V40返回的用户ID")
+    private int userId;
+
+    @ApiModelProperty("NET_DVR_SetupAlarmChan_V41返回的布防句柄")
+    private int alarmHandle;
+
+    @ApiModelProperty("布防时间")
+    private long armTime;
+
+    @ApiModelProperty("回调事件数")
+    private long events;
+}
@@ -0,0 +1,38 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 下载任务的一段
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkDownloadChunk {
+
+    @ApiModelProperty("序号, 按时间顺序")
+    private int index;
+
+    @ApiModelProperty("开始时间")
+    private long from;
+
+    @ApiModelProperty("结束时间")
+    private long to;
+
+    @ApiModelProperty("状态: QUEUED, RUNNING, DONE, FAILED")
+    private String state;
+
+    @ApiModelProperty("进度 0-100")
+    private int progress;
+
+    @ApiModelProperty("已下载次数")
+    private int attempts;
+
+    @ApiModelProperty("文件字节数")
+    private long bytes;
+
+    @ApiModelProperty("最近一次失败原因")
+    private String error;
+}
@@ -0,0 +1,62 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按时间下载录像任务
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkDownloadJob {
+
+    @ApiModelProperty("任务ID")
+    private long id;
+
+    @ApiModelProperty("设备IP")
+    private String deviceIp;
+
+    @ApiModelProperty("通道号")
+    private int channel;
+
+    @ApiModelProperty("开始时间")
+    private long from;
+
+    @ApiModelProperty("结束时间")
+    private long to;
+
+    @ApiModelProperty("状态: QUEUED, RUNNING, DONE, FAILED, CANCELLED")
+    private String state;
+
+    @ApiModelProperty("进度 0-100")
+    private int progress;
+
+    @ApiModelProperty("完成的段数")
+    private int chunksDone;
+
+    @ApiModelProperty("重试次数, 所有段合计")
+    private int retries;
+
+    @ApiModelProperty("合并后的文件, 完成后才有")
+    private String path;
+
+    @ApiModelProperty("合并后的文件字节数")
+    private long bytes;
+
+    @ApiModelProperty("失败原因")
+    private String error;
+
+    @ApiModelProperty("创建时间")
+    private long createTime;
+
+    @ApiModelProperty("结束时间, 未结束为0")
+    private long finishTime;
+
+    @ApiModelProperty("每一段的状态")
+    private List<HkDownloadChunk> chunks = new ArrayList<>();
+}
@@ -0,0 +1,41 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 按时间下载录像相关参数
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkDownloadParam {
+
+    @ApiModelProperty("下载保存路径, 每个任务一个目录")
+    private String path = "/home/data/hk/download/";
+
+    @ApiModelProperty("每台设备同时下载的会话数, 每个会话单独登录")
+    private int sessionsPerDevice = 4;
+
+    @ApiModelProperty("按多少秒分段下载")
+    private int chunkSeconds = 300;
+
+    @ApiModelProperty("码流类型, 0-主码流, 1-子码流")
+    private int streamType = 0;
+
+    @ApiModelProperty("查询下载进度的间隔(毫秒)")
+    private long pollMs = 500;
+
+    @ApiModelProperty("下载进度多久没有变化算失败(毫秒)")
+    private long stallTimeoutMs = 60000;
+
+    @ApiModelProperty("每段失败后的重试次数")
+    private int maxRetries = 3;
+
+    @ApiModelProperty("失败后多久重试(毫秒)")
+    private long retryDelayMs = 2000;
+
+    @ApiModelProperty("内存中保留的任务数, 超过时移除最早结束的任务, 文件保留")
+    private int maxJobs = 100;
+}
@@ -0,0 +1,29 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 车牌事件存储相关参数
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkEventStoreParam {
+
+    @ApiModelProperty("是否记录车牌事件")
+    private boolean enabled = true;
+
+    @ApiModelProperty("存储目录")
+    private String path = "/home/data/hk/events/";
+
+    @ApiModelProperty("单个段文件大小(字节)")
+    private int segmentBytes = 64 * 1024 * 1024;
+
+    @ApiModelProperty("稀疏索引间隔(字节), 每隔这么多数据记一条时间索引")
+    private int indexIntervalBytes = 4096;
+
+    @ApiModelProperty("单次查询最多返回条数")
+    private int queryLimit = 10000;
+}
@@ -0,0 +1,32 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 车牌事件推送相关参数
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkEventStreamParam {
+
+    @ApiModelProperty("每个订阅方的缓冲事件数, 满了丢弃最早的")
+    private int subscriberBuffer = 64;
+
+    @ApiModelProperty("最大订阅数")
+    private int maxSubscribers = 1000;
+
+    @ApiModelProperty("推送线程数")
+    private int sendThreads = 4;
+
+    @ApiModelProperty("单次推送超时(毫秒), 超时的订阅方被移除, 卡住的推送线程临时补上")
+    private long sendTimeoutMs = 10000;
+
+    @ApiModelProperty("每次最多连续推送的事件数")
+    private int drainBatch = 16;
+
+    @ApiModelProperty("连接超时(毫秒), 超时后浏览器会自动重连")
+    private long timeoutMs = 30 * 60 * 1000L;
+}
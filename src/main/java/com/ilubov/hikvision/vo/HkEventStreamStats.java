@@ -0,0 +1,35 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 车牌事件推送统计
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkEventStreamStats {
+
+    @ApiModelProperty("当前订阅数")
+    private int subscribers;
+
+    @ApiModelProperty("发布事件总数")
+    private long published;
+
+    @ApiModelProperty("推送成功总数")
+    private long delivered;
+
+    @ApiModelProperty("订阅方处理不过来被丢弃的总数")
+    private long dropped;
+
+    @ApiModelProperty("订阅总数")
+    private long subscribed;
+
+    @ApiModelProperty("连接断开或推送失败移除的订阅总数")
+    private long removed;
+
+    @ApiModelProperty("推送超时移除的订阅总数")
+    private long timedOut;
+}
@@ -0,0 +1,35 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * HTTP-FLV转发相关参数
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkFlvRelayParam {
+
+    @ApiModelProperty("通道号")
+    private int channel = 1;
+
+    @ApiModelProperty("码流类型, 为空时使用 real-play.stream-type")
+    private Integer streamType;
+
+    @ApiModelProperty("每个观看者的发送队列长度(帧), 满了丢到下一个关键帧")
+    private int queueSize = 256;
+
+    @ApiModelProperty("每台摄像头最多观看人数")
+    private int maxViewers = 50;
+
+    @ApiModelProperty("缓存的最近一组帧数上限, 新观看者从最近的关键帧开始")
+    private int maxGopFrames = 300;
+
+    @ApiModelProperty("一帧最大字节数, 超过的丢弃")
+    private int maxFrameBytes = 4 * 1024 * 1024;
+
+    @ApiModelProperty("没有观看者后多久停止转发(毫秒)")
+    private long idleStopMs = 10000;
+}
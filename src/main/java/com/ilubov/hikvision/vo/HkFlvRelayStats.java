@@ -0,0 +1,44 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * HTTP-FLV转发统计, 每台摄像头一条
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkFlvRelayStats {
+
+    @ApiModelProperty("设备IP")
+    private String deviceIp;
+
+    @ApiModelProperty("编码, H264 或 H265")
+    private String codec;
+
+    @ApiModelProperty("当前观看人数")
+    private int viewers;
+
+    @ApiModelProperty("累计观看人数")
+    private long joined;
+
+    @ApiModelProperty("转发的帧数")
+    private long frames;
+
+    @ApiModelProperty("关键帧数")
+    private long keyframes;
+
+    @ApiModelProperty("缓存的最近一组帧数")
+    private int gopFrames;
+
+    @ApiModelProperty("观看者队列满丢弃的帧数, 所有观看者合计")
+    private long dropped;
+
+    @ApiModelProperty("观看者队列满后跳到下一个关键帧的次数")
+    private long resets;
+
+    @ApiModelProperty("读取实时码流太慢丢失的包数")
+    private long lostPackets;
+}
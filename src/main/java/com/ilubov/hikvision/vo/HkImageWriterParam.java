@@ -0,0 +1,50 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 图片写入相关参数
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkImageWriterParam {
+
+    @ApiModelProperty("写入线程数")
+    private int writerThreads = 1;
+
+    @ApiModelProperty("提交队列容量")
+    private int queueCapacity = 256;
+
+    @ApiModelProperty("队列满时提交方最长等待时间(毫秒), 超时后拒绝")
+    private long submitTimeoutMs = 500;
+
+    @ApiModelProperty("刷盘策略")
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.GROUP;
+
+    @ApiModelProperty("GROUP策略下每批最多图片数")
+    private int groupCommitSize = 16;
+
+    @ApiModelProperty("GROUP策略下等待凑批的最长时间(毫秒)")
+    private long groupCommitWaitMs = 2;
+
+    /**
+     * 刷盘策略
+     */
+    public enum FsyncPolicy {
+        /**
+         * 不主动刷盘, 交给操作系统
+         */
+        NONE,
+        /**
+         * 每张图片写完立即刷文件和目录
+         */
+        ALWAYS,
+        /**
+         * 一批图片写完后逐个刷文件, 每个目录只刷一次, 整批刷完才完成
+         */
+        GROUP
+    }
+}
@@ -0,0 +1,35 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 图片写入统计
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkImageWriterStats {
+
+    @ApiModelProperty("当前队列深度")
+    private int queueDepth;
+
+    @ApiModelProperty("提交总数")
+    private long submitted;
+
+    @ApiModelProperty("写入成功总数")
+    private long written;
+
+    @ApiModelProperty("写入失败总数")
+    private long failed;
+
+    @ApiModelProperty("队列满被拒绝总数")
+    private long rejected;
+
+    @ApiModelProperty("文件刷盘次数, 每次force计一次")
+    private long fsyncs;
+
+    @ApiModelProperty("目录刷盘次数, GROUP策略下每批每个目录一次")
+    private long directoryFsyncs;
+}
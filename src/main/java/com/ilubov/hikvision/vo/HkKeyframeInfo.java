@@ -0,0 +1,26 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 关键帧位置
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkKeyframeInfo {
+
+    @ApiModelProperty("所在PS包在码流中的偏移")
+    private long offset;
+
+    @ApiModelProperty("PTS, 90kHz")
+    private long pts;
+
+    @ApiModelProperty("收到的时间")
+    private long time;
+
+    @ApiModelProperty("字节数")
+    private int size;
+}
@@ -0,0 +1,35 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 从实时码流提取关键帧相关参数
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkKeyframeParam {
+
+    @ApiModelProperty("通道号")
+    private int channel = 1;
+
+    @ApiModelProperty("码流类型, 为空时使用 real-play.stream-type")
+    private Integer streamType;
+
+    @ApiModelProperty("关键帧最大字节数, 超过的丢弃")
+    private int maxFrameBytes = 4 * 1024 * 1024;
+
+    @ApiModelProperty("保留最近的关键帧位置个数")
+    private int indexSize = 64;
+
+    @ApiModelProperty("还没有关键帧时最多等待的时间(毫秒)")
+    private long waitMs = 5000;
+
+    @ApiModelProperty("关键帧最长有效时间(毫秒), 超过的不再返回, 0为不限制")
+    private long maxAgeMs = 10000;
+
+    @ApiModelProperty("多久没有请求后停止提取(毫秒)")
+    private long idleStopMs = 60000;
+}
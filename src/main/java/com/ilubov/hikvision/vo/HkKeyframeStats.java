@@ -0,0 +1,52 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 关键帧提取统计, 每台摄像头一条
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkKeyframeStats {
+
+    @ApiModelProperty("设备IP")
+    private String deviceIp;
+
+    @ApiModelProperty("编码, H264 或 H265")
+    private String codec;
+
+    @ApiModelProperty("已处理的PS字节数")
+    private long bytes;
+
+    @ApiModelProperty("视频帧数")
+    private long frames;
+
+    @ApiModelProperty("关键帧数")
+    private long keyframes;
+
+    @ApiModelProperty("最近两个关键帧之间的帧数")
+    private long gopFrames;
+
+    @ApiModelProperty("数据错位跳过的字节数")
+    private long skippedBytes;
+
+    @ApiModelProperty("读取太慢丢失的包数")
+    private long lostPackets;
+
+    @ApiModelProperty("丢包后丢弃不完整的帧重新开始的次数")
+    private long resets;
+
+    @ApiModelProperty("最新关键帧的时间")
+    private long lastKeyframeTime;
+
+    @ApiModelProperty("最新关键帧的字节数")
+    private int lastKeyframeBytes;
+
+    @ApiModelProperty("最近的关键帧位置")
+    private List<HkKeyframeInfo> index;
+}
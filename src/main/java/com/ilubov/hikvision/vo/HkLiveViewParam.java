@@ -0,0 +1,26 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 全彩摄像头MJPEG实时预览相关参数
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkLiveViewParam {
+
+    @ApiModelProperty("默认每秒抓拍帧数, 摄像头可单独配置 live-view-fps")
+    private double fps = 2;
+
+    @ApiModelProperty("每台摄像头最多观看人数")
+    private int maxViewers = 20;
+
+    @ApiModelProperty("没有观看者后多久停止抓拍(毫秒)")
+    private long idleStopMs = 5000;
+
+    @ApiModelProperty("抓拍线程数")
+    private int threads = 4;
+}
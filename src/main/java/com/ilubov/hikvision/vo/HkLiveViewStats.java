@@ -0,0 +1,50 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 全彩摄像头MJPEG实时预览统计, 每台摄像头一条
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkLiveViewStats {
+
+    @ApiModelProperty("设备IP")
+    private String deviceIp;
+
+    @ApiModelProperty("当前观看人数")
+    private int viewers;
+
+    @ApiModelProperty("目标帧率")
+    private double targetFps;
+
+    @ApiModelProperty("最近一秒的实际帧率")
+    private double fps;
+
+    @ApiModelProperty("抓拍成功帧数")
+    private long frames;
+
+    @ApiModelProperty("抓拍失败次数")
+    private long failures;
+
+    @ApiModelProperty("上一帧抓拍用时(毫秒)")
+    private long captureMs;
+
+    @ApiModelProperty("上一帧比预定时间晚开始的时间(毫秒)")
+    private long lagMs;
+
+    @ApiModelProperty("最大延后时间(毫秒)")
+    private long maxLagMs;
+
+    @ApiModelProperty("抓拍太慢跟不上帧率而跳过的帧数")
+    private long missedTicks;
+
+    @ApiModelProperty("观看者发送太慢被跳过的帧数, 所有观看者合计")
+    private long skippedFrames;
+
+    @ApiModelProperty("从抓拍完成到发送给观看者的最大延迟(毫秒)")
+    private long maxDeliveryMs;
+}
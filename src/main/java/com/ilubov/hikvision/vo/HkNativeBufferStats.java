@@ -0,0 +1,35 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 抓拍缓冲区统计
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkNativeBufferStats {
+
+    @ApiModelProperty("已分配的native内存字节数, 含空闲的")
+    private long allocatedBytes;
+
+    @ApiModelProperty("已分配字节数峰值")
+    private long peakAllocatedBytes;
+
+    @ApiModelProperty("分配次数")
+    private long allocations;
+
+    @ApiModelProperty("释放次数")
+    private long frees;
+
+    @ApiModelProperty("缓冲区太小扩大的次数")
+    private long grows;
+
+    @ApiModelProperty("连续小图缩小的次数")
+    private long shrinks;
+
+    @ApiModelProperty("超过总量上限分配失败的次数")
+    private long rejected;
+}
@@ -0,0 +1,53 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 车牌识别事件, 推送给订阅方
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkPlateEvent {
+
+    @ApiModelProperty("事件ID, 高32位为段号, 低32位为段内偏移")
+    private long id;
+
+    @ApiModelProperty("事件类型: plate-车牌识别, alarm-车辆报警(黑白名单), clip-事件录像写完后的补充推送; 车辆报警和录像只推送, 不保存到事件存储")
+    private String kind = "plate";
+
+    @ApiModelProperty("设备编号")
+    private String deviceId;
+
+    @ApiModelProperty("设备IP")
+    private String deviceIp;
+
+    @ApiModelProperty("接收时间")
+    private long time;
+
+    @ApiModelProperty("车牌号")
+    private String plateNumber;
+
+    @ApiModelProperty("车牌颜色")
+    private String color;
+
+    @ApiModelProperty("车牌省份")
+    private String province;
+
+    @ApiModelProperty("车型识别：0- 未知，1- 客车(大型)，2- 货车(大型)，3- 轿车(小型)，4- 非机动车")
+    private int vehicleType;
+
+    @ApiModelProperty("去重窗口内的第几次重复上报, 0为首次; 重复上报只推送, 不保存图片和事件")
+    private int repeat;
+
+    @ApiModelProperty("图片路径")
+    private List<String> images = new ArrayList<>();
+
+    @ApiModelProperty("事件录像路径, clip类型的补充推送按id(车辆报警按设备编号和接收时间)对应原事件; 车牌事件的录像同时记到事件存储, 查询时带上")
+    private String clip;
+}
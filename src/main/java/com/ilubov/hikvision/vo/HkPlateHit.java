@@ -0,0 +1,26 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 车牌检索结果
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkPlateHit {
+
+    @ApiModelProperty("车牌号")
+    private String plateNumber;
+
+    @ApiModelProperty("通行次数")
+    private int passes;
+
+    @ApiModelProperty("最近一次通行的事件ID")
+    private long lastEventId;
+
+    @ApiModelProperty("与查询车牌的编辑距离, 前缀查询为0")
+    private int distance;
+}
@@ -0,0 +1,29 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 车牌检索相关参数
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkPlateIndexParam {
+
+    @ApiModelProperty("是否建立车牌索引, 启动时加载检查点并补上之后的事件, 没有检查点时从事件存储重建")
+    private boolean enabled = true;
+
+    @ApiModelProperty("模糊查询允许的最大编辑距离")
+    private int maxDistance = 2;
+
+    @ApiModelProperty("单次查询最多返回条数")
+    private int queryLimit = 1000;
+
+    @ApiModelProperty("每个车牌在内存中保留的最近事件ID数, 满了压缩成一块写入事件存储目录下的倒排文件")
+    private int postingsBlock = 16;
+
+    @ApiModelProperty("检查点间隔(秒), 0为只在停止时写检查点")
+    private int checkpointIntervalSeconds = 60;
+}
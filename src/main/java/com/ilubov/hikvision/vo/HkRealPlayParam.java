@@ -0,0 +1,26 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 实时取流相关参数
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkRealPlayParam {
+
+    @ApiModelProperty("每路码流的堆外环形缓冲大小(字节), 单个包超过四分之一时丢弃")
+    private int ringBytes = 4 * 1024 * 1024;
+
+    @ApiModelProperty("码流类型, 0-主码流, 1-子码流")
+    private int streamType = 0;
+
+    @ApiModelProperty("连接方式, 0-TCP, 1-UDP")
+    private int linkMode = 0;
+
+    @ApiModelProperty("最后一个消费方离开后多久停止取流(毫秒)")
+    private long idleStopMs = 10000;
+}
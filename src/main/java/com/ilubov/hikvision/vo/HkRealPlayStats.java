@@ -0,0 +1,50 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 实时取流统计, 每路码流一条
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkRealPlayStats {
+
+    @ApiModelProperty("设备IP")
+    private String deviceIp;
+
+    @ApiModelProperty("通道号")
+    private int channel;
+
+    @ApiModelProperty("码流类型")
+    private int streamType;
+
+    @ApiModelProperty("预览句柄")
+    private int realHandle;
+
+    @ApiModelProperty("当前消费方数")
+    private int consumers;
+
+    @ApiModelProperty("开始取流时间")
+    private long startTime;
+
+    @ApiModelProperty("收到的包数")
+    private long packets;
+
+    @ApiModelProperty("收到的字节数")
+    private long bytes;
+
+    @ApiModelProperty("系统头长度, 0为还没有收到")
+    private int headerBytes;
+
+    @ApiModelProperty("超过缓冲区四分之一被丢弃的包数")
+    private long tooLarge;
+
+    @ApiModelProperty("消费方太慢被覆盖而丢失的包数, 所有消费方合计")
+    private long overruns;
+
+    @ApiModelProperty("最后收到数据的时间")
+    private long lastPacketTime;
+}
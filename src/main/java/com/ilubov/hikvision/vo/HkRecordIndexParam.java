@@ -0,0 +1,51 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 录像索引相关参数
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkRecordIndexParam {
+
+    @ApiModelProperty("是否开启, 开启后定时查询所有摄像头的录像文件")
+    private boolean enabled = false;
+
+    @ApiModelProperty("索引保存路径, 每个通道一个文件")
+    private String path = "/home/data/hk/record-index/";
+
+    @ApiModelProperty("查询的通道号")
+    private List<Integer> channels = new ArrayList<>(Collections.singletonList(1));
+
+    @ApiModelProperty("只索引最近多少天的录像, 也是第一次查询的范围")
+    private int retentionDays = 7;
+
+    @ApiModelProperty("刷新间隔(秒)")
+    private int refreshIntervalSeconds = 300;
+
+    @ApiModelProperty("启动后多久开始第一次刷新(秒)")
+    private int initialDelaySeconds = 10;
+
+    @ApiModelProperty("增量刷新时往前多查多久(秒), 最新的文件还在录制, 结束时间会变")
+    private int overlapSeconds = 600;
+
+    @ApiModelProperty("每次查找的时间窗口(小时), 避免单次查找结果太多被设备截断")
+    private int windowHours = 24;
+
+    @ApiModelProperty("单次查找等待设备返回的超时(毫秒)")
+    private long findTimeoutMs = 15000;
+
+    @ApiModelProperty("相邻录像之间小于此间隔(毫秒)时视为连续")
+    private long mergeGapMs = 2000;
+
+    @ApiModelProperty("录像文件查询最多返回条数")
+    private int queryLimit = 10000;
+}
@@ -0,0 +1,47 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 录像索引统计, 每个通道一条
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkRecordIndexStats {
+
+    @ApiModelProperty("设备IP")
+    private String deviceIp;
+
+    @ApiModelProperty("通道号")
+    private int channel;
+
+    @ApiModelProperty("索引的录像文件数")
+    private int segments;
+
+    @ApiModelProperty("已索引的时间范围开始")
+    private long coveredFrom;
+
+    @ApiModelProperty("已索引到的时间, 之后的录像还没有查询")
+    private long indexedUntil;
+
+    @ApiModelProperty("刷新次数")
+    private long refreshes;
+
+    @ApiModelProperty("刷新失败次数")
+    private long failures;
+
+    @ApiModelProperty("最近一次刷新的时间")
+    private long lastRefreshTime;
+
+    @ApiModelProperty("最近一次刷新的用时(毫秒)")
+    private long lastRefreshCostMs;
+
+    @ApiModelProperty("最近一次刷新查到的文件数")
+    private int lastFound;
+
+    @ApiModelProperty("最近一次失败原因")
+    private String lastError;
+}
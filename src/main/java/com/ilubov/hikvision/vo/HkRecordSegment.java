@@ -0,0 +1,29 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 设备上的一个录像文件
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkRecordSegment {
+
+    @ApiModelProperty("文件名")
+    private String fileName;
+
+    @ApiModelProperty("开始时间")
+    private long from;
+
+    @ApiModelProperty("结束时间")
+    private long to;
+
+    @ApiModelProperty("文件大小")
+    private long fileSize;
+
+    @ApiModelProperty("文件类型: 0-定时录像, 1-移动侦测, 2-报警触发, 3-报警|移动侦测, 4-报警&移动侦测, 5-命令触发, 6-手动录像, 14-智能交通事件")
+    private int fileType;
+}
@@ -0,0 +1,24 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 一段时间, 有录像的连续时间段或没有录像的空档
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HkRecordSpan {
+
+    @ApiModelProperty("开始时间")
+    private long from;
+
+    @ApiModelProperty("结束时间")
+    private long to;
+}
@@ -0,0 +1,32 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * SDK生命周期统计
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkSdkStats {
+
+    @ApiModelProperty("是否已初始化")
+    private boolean initialized;
+
+    @ApiModelProperty("当前登录引用数")
+    private int refCount;
+
+    @ApiModelProperty("初始化完成时间")
+    private long initTime;
+
+    @ApiModelProperty("初始化用时(毫秒)")
+    private long initCostMs;
+
+    @ApiModelProperty("释放用时(毫秒)")
+    private long cleanupCostMs;
+
+    @ApiModelProperty("上次初始化失败时间, 0为没有失败")
+    private long failTime;
+}
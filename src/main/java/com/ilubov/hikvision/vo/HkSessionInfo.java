@@ -0,0 +1,29 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 设备登录会话信息
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkSessionInfo {
+
+    @ApiModelProperty("设备IP")
+    private String deviceIp;
+
+    @ApiModelProperty("NET_DVR_Login_V40返回的用户ID, 未登录为-1")
+    private int userId;
+
+    @ApiModelProperty("登录次数")
+    private long logins;
+
+    @ApiModelProperty("最近登录时间")
+    private long loginTime;
+
+    @ApiModelProperty("最近使用时间")
+    private long lastUsedTime;
+}
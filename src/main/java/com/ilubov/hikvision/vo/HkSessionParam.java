@@ -0,0 +1,20 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 设备登录会话相关参数
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkSessionParam {
+
+    @ApiModelProperty("保活检测间隔(秒)")
+    private int keepaliveSeconds = 30;
+
+    @ApiModelProperty("空闲多久后注销(秒)")
+    private int idleTimeoutSeconds = 600;
+}
@@ -0,0 +1,29 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 全彩摄像头定时拍照相关参数
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkSnapshotParam {
+
+    @ApiModelProperty("是否启用定时拍照")
+    private boolean enabled = false;
+
+    @ApiModelProperty("默认拍照间隔(秒), 摄像头可单独配置 snapshot-interval-seconds")
+    private int intervalSeconds = 60;
+
+    @ApiModelProperty("所有摄像头每秒最多拍照次数")
+    private double maxPerSecond = 2;
+
+    @ApiModelProperty("拍照线程数")
+    private int threads = 2;
+
+    @ApiModelProperty("拍照结果推送")
+    private HkEventStreamParam stream = new HkEventStreamParam();
+}
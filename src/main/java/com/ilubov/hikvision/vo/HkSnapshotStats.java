@@ -0,0 +1,32 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 全彩摄像头定时拍照统计
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkSnapshotStats {
+
+    @ApiModelProperty("定时拍照的摄像头数")
+    private int cameras;
+
+    @ApiModelProperty("拍照次数")
+    private long captures;
+
+    @ApiModelProperty("失败次数")
+    private long failures;
+
+    @ApiModelProperty("上一次还没拍完跳过的次数")
+    private long skipped;
+
+    @ApiModelProperty("因限流推迟的次数")
+    private long throttled;
+
+    @ApiModelProperty("因限流推迟的总时间(毫秒)")
+    private long throttledMs;
+}
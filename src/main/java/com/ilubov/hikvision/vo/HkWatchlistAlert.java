@@ -0,0 +1,38 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 布控告警, 车牌命中布控名单
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkWatchlistAlert {
+
+    @ApiModelProperty("命中的规则")
+    private String rule;
+
+    @ApiModelProperty("规则类型: EXACT / PREFIX / WILDCARD")
+    private String ruleType;
+
+    @ApiModelProperty("规则标签")
+    private String tag;
+
+    @ApiModelProperty("车牌号")
+    private String plateNumber;
+
+    @ApiModelProperty("车牌颜色")
+    private String color;
+
+    @ApiModelProperty("设备编号")
+    private String deviceId;
+
+    @ApiModelProperty("设备IP")
+    private String deviceIp;
+
+    @ApiModelProperty("接收时间")
+    private long time;
+}
@@ -0,0 +1,29 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 车牌布控相关参数
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkWatchlistParam {
+
+    @ApiModelProperty("是否启用车牌布控")
+    private boolean enabled = true;
+
+    @ApiModelProperty("布控名单文件, 每行一条规则: 车牌[,标签], 支持 粤B12345 / 粤B* / 粤?1234*")
+    private String path = "/home/data/hk/watchlist.txt";
+
+    @ApiModelProperty("检查名单文件变化的间隔(秒), 变化后自动重新加载")
+    private int reloadIntervalSeconds = 5;
+
+    @ApiModelProperty("布隆过滤器每条规则占用的位数, 越大误判越少")
+    private int bloomBitsPerRule = 10;
+
+    @ApiModelProperty("布控告警推送")
+    private HkEventStreamParam alertStream = new HkEventStreamParam();
+}
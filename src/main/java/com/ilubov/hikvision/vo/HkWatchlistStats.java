@@ -0,0 +1,35 @@
+package com.ilubov.hikvision.vo;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 车牌布控统计
+ *
+ * @author ilubov
+ * @date 2026/10/18
+ */
+@Data
+public class HkWatchlistStats {
+
+    @ApiModelProperty("精确匹配规则数")
+    private int exactRules;
+
+    @ApiModelProperty("前缀规则数")
+    private int prefixRules;
+
+    @ApiModelProperty("通配符规则数")
+    private int wildcardRules;
+
+    @ApiModelProperty("匹配总次数")
+    private long lookups;
+
+    @ApiModelProperty("命中总次数")
+    private long hits;
+
+    @ApiModelProperty("加载次数")
+    private long reloads;
+
+    @ApiModelProperty("最近加载时间")
+    private long lastReloadTime;
+}
@@ -0,0 +1,62 @@
+package com.ilubov.hikvision.sdk;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HkPlateResultReaderTest {
+
+    @Test
+    void offsetsMatchJnaLayout() throws Exception {
+        HCNetSDK.NET_ITS_PLATE_RESULT source = new HCNetSDK.NET_ITS_PLATE_RESULT();
+        source.write();
+        byte[] license = "蓝粤B12345".getBytes("GBK");
+        System.arraycopy(license, 0, source.struPlateInfo.sLicense, 0, license.length);
+        source.byVehicleType = 3;
+        source.byDriveChan = 9;
+        source.dwPicNum = HkPlateResultReader.MAX_PIC_NUM;
+        Memory[] buffers = new Memory[HkPlateResultReader.MAX_PIC_NUM];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new Memory(16);
+            source.struPicInfo[i].dwDataLen = 1000 + i;
+            source.struPicInfo[i].byType = (byte) (i % 2);
+            source.struPicInfo[i].dwRedLightTime = 77;
+            source.struPicInfo[i].pBuffer = buffers[i];
+        }
+        source.write();
+        assertEquals(source.size(), HkPlateResultReader.SIZE);
+
+        // 和SDK回调一样, 从一块独立内存中读取
+        Memory p = new Memory(HkPlateResultReader.SIZE);
+        p.write(0, source.getPointer().getByteArray(0, HkPlateResultReader.SIZE), 0, HkPlateResultReader.SIZE);
+        HCNetSDK.NET_ITS_PLATE_RESULT marshalled = new HCNetSDK.NET_ITS_PLATE_RESULT();
+        marshalled.getPointer().write(0, p.getByteArray(0, HkPlateResultReader.SIZE), 0, HkPlateResultReader.SIZE);
+        marshalled.read();
+
+        assertArrayEquals(marshalled.struPlateInfo.sLicense, HkPlateResultReader.license(p));
+        assertEquals(marshalled.byVehicleType, HkPlateResultReader.vehicleType(p));
+        assertEquals(marshalled.dwPicNum, HkPlateResultReader.picNum(p));
+        for (int i = 0; i < HkPlateResultReader.MAX_PIC_NUM; i++) {
+            HCNetSDK.NET_ITS_PICTURE_INFO pic = marshalled.struPicInfo[i];
+            assertEquals(pic.dwDataLen, HkPlateResultReader.picDataLen(p, i));
+            assertEquals(pic.byType, HkPlateResultReader.picType(p, i));
+            Pointer buffer = HkPlateResultReader.picBuffer(p, i);
+            assertEquals(pic.pBuffer, buffer);
+            assertEquals(buffers[i], buffer);
+        }
+    }
+
+    @Test
+    void picNumIsClamped() {
+        Memory p = new Memory(HkPlateResultReader.SIZE);
+        p.setMemory(0, HkPlateResultReader.SIZE, (byte) 0);
+        HCNetSDK.NET_ITS_PLATE_RESULT source = new HCNetSDK.NET_ITS_PLATE_RESULT();
+        source.dwPicNum = 100;
+        source.write();
+        p.write(0, source.getPointer().getByteArray(0, HkPlateResultReader.SIZE), 0, HkPlateResultReader.SIZE);
+        assertEquals(HkPlateResultReader.MAX_PIC_NUM, HkPlateResultReader.picNum(p));
+    }
+}
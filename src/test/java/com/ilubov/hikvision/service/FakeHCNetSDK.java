@@ -0,0 +1,316 @@
+package com.ilubov.hikvision.service;
+
+import com.ilubov.hikvision.sdk.HCNetSDK;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.ByteByReference;
+import com.sun.jna.ptr.IntByReference;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 模拟SDK: 按设备IP分配lUserID, 抓拍时按设备注入延迟并返回固定的或指定大小的JPEG数据;
+ * 按时间下载时写入40字节文件头加 "开始时间~结束时间" 的文件, 经过 downloadMs 后进度到100;
+ * 查找录像时先返回一次正在查找, 再逐个返回与查找时间相交的 recordings
+ */
+class FakeHCNetSDK {
+
+    static final byte[] JPEG = {(byte) 0xFF, (byte) 0xD8, 1, 2, 3, (byte) 0xFF, (byte) 0xD9};
+
+    final HCNetSDK sdk = mock(HCNetSDK.class);
+
+    final Map<String, Integer> userIds = new ConcurrentHashMap<>();
+
+    final Map<Integer, Long> delays = new ConcurrentHashMap<>();
+
+    final AtomicInteger logins = new AtomicInteger();
+
+    final AtomicInteger captures = new AtomicInteger();
+
+    final Map<Integer, Integer> failures = new ConcurrentHashMap<>();
+
+    final Map<Integer, byte[]> frames = new ConcurrentHashMap<>();
+
+    final Map<Integer, HCNetSDK.FRealDataCallBack_V30> realPlays = new ConcurrentHashMap<>();
+
+    final AtomicInteger realHandles = new AtomicInteger();
+
+    /**
+     * 预览句柄 -> 开始取流时传入的pUser
+     */
+    final Map<Integer, Pointer> realUsers = new ConcurrentHashMap<>();
+
+    /**
+     * 通道号 -> 开始取流阻塞的毫秒数
+     */
+    final Map<Integer, Long> realPlayDelays = new ConcurrentHashMap<>();
+
+    /**
+     * 不为null时在返回句柄之前先回调系统头
+     */
+    volatile byte[] realPlayHeader;
+
+    /**
+     * 停止取流阻塞的毫秒数
+     */
+    volatile long stopRealPlayMs;
+
+    final AtomicInteger stopRealPlays = new AtomicInteger();
+
+    /**
+     * 下载句柄 -> [开始时间, 开始下载的时刻]
+     */
+    final Map<Integer, Object[]> downloads = new ConcurrentHashMap<>();
+
+    final AtomicInteger fileHandles = new AtomicInteger();
+
+    final AtomicInteger activeDownloads = new AtomicInteger();
+
+    final AtomicInteger maxActiveDownloads = new AtomicInteger();
+
+    /**
+     * 开始时间 -> 下载次数
+     */
+    final Map<String, Integer> downloadCalls = new ConcurrentHashMap<>();
+
+    /**
+     * 这些开始时间的段下载时返回网络异常
+     */
+    final Set<String> failDownloads = ConcurrentHashMap.newKeySet();
+
+    volatile long downloadMs = 50;
+
+    /**
+     * 设备上的录像文件 [开始时间, 结束时间, 文件类型], 毫秒
+     */
+    final List<long[]> recordings = new CopyOnWriteArrayList<>();
+
+    /**
+     * 每次查找的 [通道, 开始时间, 结束时间]
+     */
+    final List<long[]> finds = new CopyOnWriteArrayList<>();
+
+    private final Map<Integer, Iterator<long[]>> findResults = new ConcurrentHashMap<>();
+
+    private final AtomicInteger findHandles = new AtomicInteger();
+
+    private final ThreadLocal<Integer> lastError = ThreadLocal.withInitial(() -> 0);
+
+    FakeHCNetSDK() {
+        when(sdk.NET_DVR_Init()).thenReturn(true);
+        when(sdk.NET_DVR_Cleanup()).thenReturn(true);
+        when(sdk.NET_DVR_Logout(anyInt())).thenReturn(true);
+        when(sdk.NET_DVR_SetDVRMessageCallBack_V31(any(), any())).thenReturn(true);
+        when(sdk.NET_DVR_RemoteControl(anyInt(), anyInt(), any(), anyInt())).thenReturn(true);
+        when(sdk.NET_DVR_GetLastError()).thenAnswer(invocation -> lastError.get());
+        when(sdk.NET_DVR_Login_V40(any(), any())).thenAnswer(invocation -> {
+            HCNetSDK.NET_DVR_USER_LOGIN_INFO info = invocation.getArgument(0);
+            logins.incrementAndGet();
+            return this.userId(Native.toString(info.sDeviceAddress));
+        });
+        doAnswer(invocation -> {
+            int lUserID = invocation.getArgument(0);
+            Pointer buffer = invocation.getArgument(3);
+            IntByReference size = invocation.getArgument(5);
+            captures.incrementAndGet();
+            Integer error = failures.remove(lUserID);
+            if (error != null) {
+                lastError.set(error);
+                return false;
+            }
+            Thread.sleep(delays.getOrDefault(lUserID, 0L));
+            byte[] frame = frames.getOrDefault(lUserID, JPEG);
+            int dwPicSize = invocation.getArgument(4);
+            if (frame.length > dwPicSize) {
+                lastError.set(HCNetSDK.NET_DVR_NOENOUGH_BUF);
+                return false;
+            }
+            buffer.write(0, frame, 0, frame.length);
+            size.setValue(frame.length);
+            return true;
+        }).when(sdk).NET_DVR_CaptureJPEGPicture_NEW(anyInt(), anyInt(), any(), any(), anyInt(), any());
+        when(sdk.NET_DVR_RealPlay_V40(anyInt(), any(), any(), any())).thenAnswer(invocation -> {
+            HCNetSDK.NET_DVR_PREVIEWINFO previewInfo = invocation.getArgument(1);
+            Thread.sleep(realPlayDelays.getOrDefault(previewInfo.lChannel, 0L));
+            int lRealHandle = realHandles.getAndIncrement();
+            realPlays.put(lRealHandle, invocation.getArgument(2));
+            Pointer pUser = invocation.getArgument(3);
+            if (pUser != null) {
+                realUsers.put(lRealHandle, pUser);
+            }
+            byte[] header = realPlayHeader;
+            if (header != null) {
+                this.realData(lRealHandle, HCNetSDK.NET_DVR_SYSHEAD, header);
+            }
+            return lRealHandle;
+        });
+        when(sdk.NET_DVR_StopRealPlay(anyInt())).thenAnswer(invocation -> {
+            stopRealPlays.incrementAndGet();
+            Thread.sleep(stopRealPlayMs);
+            return realPlays.remove((int) invocation.getArgument(0)) != null;
+        });
+        when(sdk.NET_DVR_GetFileByTime_V40(anyInt(), any(), any())).thenAnswer(invocation -> {
+            HCNetSDK.NET_DVR_PLAYCOND cond = invocation.getArgument(2);
+            String start = time(cond.struStartTime);
+            Files.write(Paths.get((String) invocation.getArgument(1)), recording(start + "~" + time(cond.struStopTime)));
+            downloadCalls.merge(start, 1, Integer::sum);
+            int lFileHandle = fileHandles.getAndIncrement();
+            downloads.put(lFileHandle, new Object[]{start, System.currentTimeMillis()});
+            maxActiveDownloads.accumulateAndGet(activeDownloads.incrementAndGet(), Math::max);
+            return lFileHandle;
+        });
+        when(sdk.NET_DVR_PlayBackControl(anyInt(), anyInt(), anyInt(), any())).thenReturn(true);
+        when(sdk.NET_DVR_GetDownloadPos(anyInt())).thenAnswer(invocation -> {
+            Object[] download = downloads.get((int) invocation.getArgument(0));
+            if (failDownloads.contains((String) download[0])) {
+                lastError.set(HCNetSDK.NET_DVR_NETWORK_RECV_TIMEOUT);
+                return 200;
+            }
+            long elapsed = System.currentTimeMillis() - (long) download[1];
+            return elapsed >= downloadMs ? 100 : (int) (elapsed * 99 / downloadMs);
+        });
+        when(sdk.NET_DVR_StopGetFile(anyInt())).thenAnswer(invocation -> {
+            if (downloads.remove((int) invocation.getArgument(0)) != null) {
+                activeDownloads.decrementAndGet();
+            }
+            return true;
+        });
+        when(sdk.NET_DVR_FindFile_V40(anyInt(), any())).thenAnswer(invocation -> {
+            HCNetSDK.NET_DVR_FILECOND_V40 cond = invocation.getArgument(1);
+            long from = millis(cond.struStartTime);
+            long to = millis(cond.struStopTime);
+            finds.add(new long[]{cond.lChannel, from, to});
+            List<long[]> list = new ArrayList<>();
+            for (long[] recording : recordings) {
+                if (recording[1] > from && recording[0] < to) {
+                    list.add(recording);
+                }
+            }
+            int lFindHandle = findHandles.getAndIncrement();
+            findResults.put(lFindHandle, list.iterator());
+            return lFindHandle;
+        });
+        Set<Integer> searched = ConcurrentHashMap.newKeySet();
+        when(sdk.NET_DVR_FindNextFile_V40(anyInt(), any())).thenAnswer(invocation -> {
+            int lFindHandle = invocation.getArgument(0);
+            if (searched.add(lFindHandle)) {
+                return HCNetSDK.NET_DVR_ISFINDING;
+            }
+            Iterator<long[]> iterator = findResults.get(lFindHandle);
+            if (!iterator.hasNext()) {
+                return HCNetSDK.NET_DVR_NOMOREFILE;
+            }
+            long[] recording = iterator.next();
+            HCNetSDK.NET_DVR_FINDDATA_V40 data = invocation.getArgument(1);
+            byte[] name = ("ch01_" + recording[0]).getBytes(StandardCharsets.US_ASCII);
+            Arrays.fill(data.sFileName, (byte) 0);
+            System.arraycopy(name, 0, data.sFileName, 0, name.length);
+            data.struStartTime = netTime(recording[0]);
+            data.struStopTime = netTime(recording[1]);
+            data.dwFileSize = (int) ((recording[1] - recording[0]) / 1000 * 1024);
+            data.byFileType = (byte) recording[2];
+            return HCNetSDK.NET_DVR_FILE_SUCCESS;
+        });
+        when(sdk.NET_DVR_FindClose_V30(anyInt())).thenAnswer(invocation -> findResults.remove((int) invocation.getArgument(0)) != null);
+    }
+
+    /**
+     * 海康录像文件: IMKH开头的40字节文件头加数据
+     */
+    static byte[] recording(String body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] header = new byte[40];
+        System.arraycopy("IMKH".getBytes(StandardCharsets.US_ASCII), 0, header, 0, 4);
+        try {
+            out.write(header);
+            out.write((body + "\n").getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    static String time(HCNetSDK.NET_DVR_TIME time) {
+        return String.format("%04d%02d%02d%02d%02d%02d", time.dwYear, time.dwMonth, time.dwDay,
+                time.dwHour, time.dwMinute, time.dwSecond);
+    }
+
+    static HCNetSDK.NET_DVR_TIME netTime(long millis) {
+        LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        HCNetSDK.NET_DVR_TIME time = new HCNetSDK.NET_DVR_TIME();
+        time.dwYear = t.getYear();
+        time.dwMonth = t.getMonthValue();
+        time.dwDay = t.getDayOfMonth();
+        time.dwHour = t.getHour();
+        time.dwMinute = t.getMinute();
+        time.dwSecond = t.getSecond();
+        return time;
+    }
+
+    static long millis(HCNetSDK.NET_DVR_TIME time) {
+        return LocalDateTime.of(time.dwYear, time.dwMonth, time.dwDay, time.dwHour, time.dwMinute, time.dwSecond)
+                .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 模拟实时取流回调
+     */
+    void realData(int lRealHandle, int dwDataType, byte[] data) {
+        Memory memory = new Memory(data.length);
+        memory.write(0, data, 0, data.length);
+        ByteByReference pBuffer = new ByteByReference();
+        pBuffer.setPointer(memory);
+        realPlays.get(lRealHandle).invoke(lRealHandle, dwDataType, pBuffer, data.length, realUsers.get(lRealHandle));
+    }
+
+    int userId(String deviceIp) {
+        return userIds.computeIfAbsent(deviceIp, ip -> userIds.size());
+    }
+
+    void delay(String deviceIp, long millis) {
+        delays.put(this.userId(deviceIp), millis);
+    }
+
+    /**
+     * 之后抓拍返回指定大小的图片, 缓冲区不够时返回 NET_DVR_NOENOUGH_BUF
+     */
+    void frameSize(String deviceIp, int length) {
+        byte[] frame = new byte[length];
+        frame[0] = (byte) 0xFF;
+        frame[1] = (byte) 0xD8;
+        frame[length - 2] = (byte) 0xFF;
+        frame[length - 1] = (byte) 0xD9;
+        frames.put(this.userId(deviceIp), frame);
+    }
+
+    /**
+     * 下一次抓拍失败并返回指定错误码
+     */
+    void failOnce(String deviceIp, int errorCode) {
+        failures.put(this.userId(deviceIp), errorCode);
+    }
+}
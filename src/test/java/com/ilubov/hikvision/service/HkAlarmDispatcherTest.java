@@ -0,0 +1,349 @@
+package com.ilubov.hikvision.service;
+
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.sdk.HCNetSDK;
+import com.ilubov.hikvision.util.BufferPool;
+import com.ilubov.hikvision.vo.HkAlarmEvent;
+import com.ilubov.hikvision.vo.HkAlarmQueueParam;
+import com.ilubov.hikvision.vo.HkAlarmQueueStats;
+import com.ilubov.hikvision.vo.HkPlateEvent;
+import com.ilubov.hikvision.vo.HkWatchlistAlert;
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HkAlarmDispatcherTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final BufferPool bufferPool = new BufferPool(16, 1024, 1024 * 1024, true);
+
+    private HkAlarmDispatcher dispatcher;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (dispatcher != null) {
+            dispatcher.destroy();
+        }
+    }
+
+    @Test
+    void callbackHandsOffToWorker() throws Exception {
+        HkCameraProperty property = this.property(HkAlarmQueueParam.OverflowPolicy.DROP_OLDEST, 16);
+        dispatcher = this.dispatcher(property);
+        HkCameraService service = new HkCameraService();
+        ReflectionTestUtils.setField(service, "property", property);
+        ReflectionTestUtils.setField(service, "alarmDispatcher", dispatcher);
+        ReflectionTestUtils.setField(service, "bufferPool", bufferPool);
+        ReflectionTestUtils.setField(service, "deviceRegistry", new HkDeviceRegistry());
+        HkEventBus<HkPlateEvent> eventBus = new HkEventBus<>("plate", property.getEventStream(), Thread.NORM_PRIORITY);
+        eventBus.init();
+        ReflectionTestUtils.setField(service, "eventBus", eventBus);
+        HkEventBus<HkWatchlistAlert> alertBus = new HkEventBus<>("watchlist", property.getWatchlist().getAlertStream(), Thread.MAX_PRIORITY);
+        alertBus.init();
+        List<HkWatchlistAlert> alerts = new CopyOnWriteArrayList<>();
+        alertBus.subscribe(alerts::add);
+        HkWatchlist watchlist = new HkWatchlist();
+        ReflectionTestUtils.setField(watchlist, "property", property);
+        ReflectionTestUtils.setField(watchlist, "watchlistAlertBus", alertBus);
+        watchlist.apply(Collections.singletonList("粤B*,测试"));
+        ReflectionTestUtils.setField(service, "watchlist", watchlist);
+        HkPlateDedup dedup = new HkPlateDedup();
+        ReflectionTestUtils.setField(dedup, "property", property);
+        dedup.init();
+        ReflectionTestUtils.setField(service, "dedup", dedup);
+        HkClipRecorder clipRecorder = new HkClipRecorder();
+        ReflectionTestUtils.setField(clipRecorder, "property", property);
+        clipRecorder.init();
+        ReflectionTestUtils.setField(service, "clipRecorder", clipRecorder);
+        property.getEventStore().setPath(tempDir.resolve("events").toString());
+        HkEventStore eventStore = new HkEventStore();
+        ReflectionTestUtils.setField(eventStore, "property", property);
+        eventStore.init();
+        HkPlateIndex plateIndex = new HkPlateIndex();
+        ReflectionTestUtils.setField(plateIndex, "property", property);
+        ReflectionTestUtils.setField(plateIndex, "eventStore", eventStore);
+        plateIndex.rebuild();
+        ReflectionTestUtils.setField(service, "plateIndex", plateIndex);
+        ReflectionTestUtils.setField(service, "eventStore", eventStore);
+        List<HkPlateEvent> plateEvents = new CopyOnWriteArrayList<>();
+        eventBus.subscribe(plateEvents::add);
+        HkImageWriter imageWriter = new HkImageWriter();
+        ReflectionTestUtils.setField(imageWriter, "property", property);
+        imageWriter.init();
+        ReflectionTestUtils.setField(service, "imageWriter", imageWriter);
+        dispatcher.setHandler(service::process);
+
+        byte[] plate = {1, 2, 3};
+        byte[] scene = {4, 5, 6, 7};
+        PlateResult result = plateResult("蓝粤B12345", plate, scene);
+        assertTrue(service.callback(HCNetSDK.COMM_ITS_PLATE_RESULT, alarmer(7, "192.168.1.198"),
+                result.pointer, result.size, null));
+        // 同一车牌马上又报一次, 不再写图片
+        assertTrue(service.callback(HCNetSDK.COMM_ITS_PLATE_RESULT, alarmer(7, "192.168.1.198"),
+                result.pointer, result.size, null));
+
+        this.awaitProcessed(2);
+        imageWriter.destroy();
+        File[] files = tempDir.toFile().listFiles((dir, name) -> name.endsWith(".jpg"));
+        assertEquals(2, files.length);
+        Arrays.sort(files, (a, b) -> Long.compare(a.length(), b.length()));
+        assertArrayEquals(plate, Files.readAllBytes(files[0].toPath()));
+        assertArrayEquals(scene, Files.readAllBytes(files[1].toPath()));
+        assertEquals(0, bufferPool.getOutstanding());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((plateEvents.isEmpty() || alerts.isEmpty()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        eventBus.destroy();
+        alertBus.destroy();
+        assertEquals(1, plateEvents.size());
+        assertEquals(1, dedup.stats().getDuplicates());
+        assertEquals(2, dedup.stats().getImagesSkipped());
+        assertEquals(1, alerts.size());
+        assertEquals("粤B12345", alerts.get(0).getPlateNumber());
+        assertEquals("测试", alerts.get(0).getTag());
+        assertEquals("粤B12345", plateEvents.get(0).getPlateNumber());
+        assertEquals("192.168.1.198", plateEvents.get(0).getDeviceId());
+        assertEquals(2, plateEvents.get(0).getImages().size());
+        assertEquals(plateEvents.get(0), eventStore.get(plateEvents.get(0).getId()));
+        assertEquals(plateEvents.get(0), plateIndex.events("粤B", 10).get(0));
+        eventStore.destroy();
+    }
+
+    @Test
+    void dropOldestCountsDrops() throws Exception {
+        dispatcher = this.dispatcher(this.property(HkAlarmQueueParam.OverflowPolicy.DROP_OLDEST, 4));
+        CountDownLatch latch = new CountDownLatch(1);
+        dispatcher.setHandler(event -> this.await(latch));
+
+        for (int i = 0; i < 20; i++) {
+            dispatcher.offer(event(7, i));
+        }
+        HkAlarmQueueStats stats = dispatcher.stats().get(0);
+        assertEquals(20, stats.getOffered());
+        assertTrue(stats.getDepth() <= 4);
+        assertTrue(stats.getDropped() >= 15);
+        latch.countDown();
+    }
+
+    @Test
+    void spillReplaysInOrder() throws Exception {
+        dispatcher = this.dispatcher(this.property(HkAlarmQueueParam.OverflowPolicy.SPILL, 4));
+        CountDownLatch latch = new CountDownLatch(1);
+        List<Long> seen = new CopyOnWriteArrayList<>();
+        dispatcher.setHandler(event -> {
+            this.await(latch);
+            seen.add(event.getTime());
+        });
+
+        for (int i = 0; i < 20; i++) {
+            dispatcher.offer(event(7, i));
+        }
+        HkAlarmQueueStats stats = dispatcher.stats().get(0);
+        assertTrue(stats.getPendingSpill() > 0);
+        assertEquals(0, stats.getDropped());
+        latch.countDown();
+
+        this.awaitProcessed(20);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, seen.get(i).longValue());
+        }
+        assertEquals(0, dispatcher.stats().get(0).getPendingSpill());
+    }
+
+    /**
+     * 溢出文件按设备IP存放, 重启后启动时即按顺序回放, 不用等设备再上报
+     */
+    @Test
+    void spillFilesReplayAfterRestart() throws Exception {
+        dispatcher = this.dispatcher(this.property(HkAlarmQueueParam.OverflowPolicy.SPILL, 4));
+        CountDownLatch latch = new CountDownLatch(1);
+        dispatcher.setHandler(event -> this.await(latch));
+        for (int i = 0; i < 20; i++) {
+            HkAlarmEvent event = event(7, i);
+            event.setDeviceIp("192.168.1.198");
+            dispatcher.offer(event);
+        }
+        File dir = tempDir.resolve("spill").resolve("192.168.1.198").toFile();
+        long spilled = dispatcher.stats().get(0).getPendingSpill();
+        assertTrue(spilled > 0);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dispatcher.stats().get(0).getSpilled() < spilled && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // 复制一份模拟重启前留下的文件, 原来的分发器照常回放自己的
+        Path restartDir = tempDir.resolve("restart").resolve("192.168.1.198");
+        Files.createDirectories(restartDir);
+        for (File file : dir.listFiles()) {
+            Files.copy(file.toPath(), restartDir.resolve(file.getName()));
+        }
+        latch.countDown();
+
+        HkCameraProperty property = this.property(HkAlarmQueueParam.OverflowPolicy.SPILL, 4);
+        property.getAlarmQueue().setSpillPath(tempDir.resolve("restart").toString());
+        HkAlarmDispatcher restarted = new HkAlarmDispatcher();
+        ReflectionTestUtils.setField(restarted, "property", property);
+        ReflectionTestUtils.setField(restarted, "bufferPool", bufferPool);
+        List<HkAlarmEvent> seen = new CopyOnWriteArrayList<>();
+        restarted.setHandler(seen::add);
+        restarted.init();
+        try {
+            deadline = System.currentTimeMillis() + 5000;
+            while (seen.size() < spilled && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(spilled, seen.size());
+            for (int i = 0; i < spilled; i++) {
+                assertEquals(20 - spilled + i, seen.get(i).getTime());
+                assertEquals("192.168.1.198", seen.get(i).getDeviceIp());
+            }
+            HkAlarmQueueStats stats = restarted.stats().get(0);
+            assertEquals("192.168.1.198", stats.getDeviceIp());
+            assertEquals(0, stats.getPendingSpill());
+            assertEquals(0, restartDir.toFile().listFiles().length);
+        } finally {
+            restarted.destroy();
+        }
+        this.awaitProcessed(20);
+    }
+
+    @Test
+    void devicesDoNotShareQueues() throws Exception {
+        dispatcher = this.dispatcher(this.property(HkAlarmQueueParam.OverflowPolicy.DROP_OLDEST, 4));
+        AtomicInteger fast = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+        dispatcher.setHandler(event -> {
+            if (event.getUserId() == 1) {
+                this.await(latch);
+            } else {
+                fast.incrementAndGet();
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            dispatcher.offer(event(1, i));
+        }
+        for (int i = 0; i < 3; i++) {
+            dispatcher.offer(event(2, i));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (fast.get() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, fast.get());
+        latch.countDown();
+    }
+
+    private HkCameraProperty property(HkAlarmQueueParam.OverflowPolicy policy, int capacity) {
+        HkCameraProperty property = new HkCameraProperty();
+        property.setImgPath(tempDir.toString() + File.separator);
+        HkAlarmQueueParam param = property.getAlarmQueue();
+        param.setOverflowPolicy(policy);
+        param.setCapacity(capacity);
+        param.setWorkerThreads(2);
+        param.setSpillPath(tempDir.resolve("spill").toString());
+        return property;
+    }
+
+    private HkAlarmDispatcher dispatcher(HkCameraProperty property) {
+        HkAlarmDispatcher dispatcher = new HkAlarmDispatcher();
+        ReflectionTestUtils.setField(dispatcher, "property", property);
+        ReflectionTestUtils.setField(dispatcher, "bufferPool", bufferPool);
+        dispatcher.init();
+        return dispatcher;
+    }
+
+    private void awaitProcessed(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dispatcher.getProcessed() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, dispatcher.getProcessed());
+    }
+
+    private void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static HkAlarmEvent event(int userId, long time) {
+        HkAlarmEvent event = new HkAlarmEvent();
+        event.setCommand(HCNetSDK.COMM_VEHICLE_CONTROL_ALARM);
+        event.setUserId(userId);
+        event.setTime(time);
+        event.setInfo(new byte[]{(byte) time});
+        return event;
+    }
+
+    static HCNetSDK.NET_DVR_ALARMER alarmer(int userId, String deviceIp) {
+        HCNetSDK.NET_DVR_ALARMER alarmer = new HCNetSDK.NET_DVR_ALARMER();
+        alarmer.lUserID = userId;
+        byte[] ip = deviceIp.getBytes();
+        System.arraycopy(ip, 0, alarmer.sDeviceIP, 0, ip.length);
+        return alarmer;
+    }
+
+    /**
+     * 模拟SDK回调传入的NET_ITS_PLATE_RESULT, 图片指向独立的native内存
+     */
+    static PlateResult plateResult(String license, byte[]... pictures) throws Exception {
+        HCNetSDK.NET_ITS_PLATE_RESULT result = new HCNetSDK.NET_ITS_PLATE_RESULT();
+        result.write();
+        byte[] bytes = license.getBytes("GBK");
+        System.arraycopy(bytes, 0, result.struPlateInfo.sLicense, 0, bytes.length);
+        result.byVehicleType = 3;
+        result.dwPicNum = pictures.length;
+        Memory[] buffers = new Memory[pictures.length];
+        for (int i = 0; i < pictures.length; i++) {
+            buffers[i] = new Memory(pictures[i].length);
+            buffers[i].write(0, pictures[i], 0, pictures[i].length);
+            result.struPicInfo[i].byType = (byte) i;
+            result.struPicInfo[i].dwDataLen = pictures[i].length;
+            result.struPicInfo[i].pBuffer = buffers[i];
+        }
+        result.write();
+        return new PlateResult(result, buffers);
+    }
+
+    static class PlateResult {
+
+        final HCNetSDK.NET_ITS_PLATE_RESULT result;
+
+        final Pointer pointer;
+
+        final int size;
+
+        // 保持引用, 避免图片内存被回收
+        final Memory[] buffers;
+
+        PlateResult(HCNetSDK.NET_ITS_PLATE_RESULT result, Memory[] buffers) {
+            this.result = result;
+            this.pointer = result.getPointer();
+            this.size = result.size();
+            this.buffers = buffers;
+        }
+    }
+}
@@ -0,0 +1,527 @@
+package com.ilubov.hikvision.service;
+
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.sdk.HCNetSDK;
+import com.ilubov.hikvision.util.BufferPool;
+import com.ilubov.hikvision.util.NativeBuffer;
+import com.ilubov.hikvision.util.NativeBufferPool;
+import com.ilubov.hikvision.vo.HkCameraParam;
+import com.ilubov.hikvision.vo.HkCaptureResult;
+import com.ilubov.hikvision.vo.HkCaptureStats;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class HkCameraServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final FakeHCNetSDK fake = new FakeHCNetSDK();
+
+    private HkCameraProperty property;
+
+    private HkImageWriter imageWriter;
+
+    private HkSdkManager sdkManager;
+
+    private HkSessionManager sessionManager;
+
+    private HkDeviceRegistry deviceRegistry;
+
+    private HkCameraService service;
+
+    private NativeBufferPool nativeBufferPool;
+
+    @BeforeEach
+    void setUp() {
+        property = new HkCameraProperty();
+        property.setImgPath(tempDir.toString() + File.separator);
+        List<HkCameraParam> cameras = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            HkCameraParam camera = new HkCameraParam();
+            camera.setDeviceIp("192.168.1.19" + i);
+            camera.setUsername("admin");
+            camera.setPassword("password");
+            camera.setPort((short) 8000);
+            cameras.add(camera);
+        }
+        property.setCamera(cameras);
+        imageWriter = new HkImageWriter();
+        ReflectionTestUtils.setField(imageWriter, "property", property);
+        imageWriter.init();
+        sdkManager = new HkSdkManager();
+        ReflectionTestUtils.setField(sdkManager, "property", property);
+        ReflectionTestUtils.setField(sdkManager, "hCNetSDK", fake.sdk);
+        sessionManager = new HkSessionManager();
+        ReflectionTestUtils.setField(sessionManager, "property", property);
+        ReflectionTestUtils.setField(sessionManager, "sdkManager", sdkManager);
+        sessionManager.init();
+        deviceRegistry = new HkDeviceRegistry();
+        ReflectionTestUtils.setField(deviceRegistry, "property", property);
+        ReflectionTestUtils.setField(deviceRegistry, "sdkManager", sdkManager);
+        ReflectionTestUtils.setField(deviceRegistry, "sessionManager", sessionManager);
+        service = new HkCameraService();
+        ReflectionTestUtils.setField(service, "deviceRegistry", deviceRegistry);
+        ReflectionTestUtils.setField(service, "sessionManager", sessionManager);
+        ReflectionTestUtils.setField(service, "sdkManager", sdkManager);
+        ReflectionTestUtils.setField(service, "property", property);
+        ReflectionTestUtils.setField(service, "bufferPool", new BufferPool(16, 1024, 1024 * 1024, true));
+        nativeBufferPool = new NativeBufferPool(64, 4096, 3, 16 * 1024);
+        ReflectionTestUtils.setField(service, "nativeBufferPool", nativeBufferPool);
+        ReflectionTestUtils.setField(service, "imageWriter", imageWriter);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        service.destroy();
+        deviceRegistry.destroy();
+        sessionManager.destroy();
+        sdkManager.destroy();
+        imageWriter.destroy();
+    }
+
+    @Test
+    void parallelCaptureTakesSlowestCamera() throws Exception {
+        fake.delay("192.168.1.191", 300);
+        fake.delay("192.168.1.192", 600);
+        fake.delay("192.168.1.193", 900);
+
+        long start = System.currentTimeMillis();
+        List<HkCaptureResult> results = service.takePhotoDetail();
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(3, results.size());
+        assertTrue(elapsed >= 900, "elapsed: " + elapsed);
+        assertTrue(elapsed < 1500, "elapsed: " + elapsed);
+        for (HkCaptureResult result : results) {
+            assertTrue(result.isSuccess());
+            assertArrayEquals(FakeHCNetSDK.JPEG, Files.readAllBytes(Paths.get(result.getImg())));
+        }
+        assertTrue(results.get(2).getCostMs() >= 900);
+        assertTrue(results.get(0).getCostMs() < 900);
+    }
+
+    @Test
+    void sequentialCaptureTakesSum() {
+        property.getCapture().setParallel(false);
+        fake.delay("192.168.1.191", 200);
+        fake.delay("192.168.1.192", 200);
+        fake.delay("192.168.1.193", 200);
+
+        long start = System.currentTimeMillis();
+        List<HkCaptureResult> results = service.takePhotoDetail();
+        assertTrue(System.currentTimeMillis() - start >= 600);
+        assertEquals(3, results.stream().filter(HkCaptureResult::isSuccess).count());
+    }
+
+    /**
+     * 串行模式下超过截止时间后剩下的摄像头不再抓拍
+     */
+    @Test
+    void sequentialCaptureStopsAtDeadline() {
+        property.getCapture().setParallel(false);
+        property.getCapture().setTimeoutMs(300);
+        fake.delay("192.168.1.191", 600);
+
+        long start = System.currentTimeMillis();
+        List<HkCaptureResult> results = service.takePhotoDetail();
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(1, fake.captures.get());
+        assertFalse(results.get(1).isSuccess());
+        assertEquals("拍照超时", results.get(1).getError());
+        assertEquals("拍照超时", results.get(2).getError());
+    }
+
+    /**
+     * 拍照线程池排满时直接返回繁忙, 不在调用线程上抓拍
+     */
+    @Test
+    void fullCapturePoolFailsFastInsteadOfRunningOnCaller() {
+        property.getCapture().setParallelism(1);
+        property.getCapture().setQueueCapacity(1);
+        property.getCapture().setTimeoutMs(500);
+        fake.delay("192.168.1.191", 2000);
+
+        long start = System.currentTimeMillis();
+        List<HkCaptureResult> results = service.takePhotoDetail();
+        assertTrue(System.currentTimeMillis() - start < 1500);
+        assertEquals("拍照超时", results.get(0).getError());
+        assertEquals("拍照超时", results.get(1).getError());
+        assertEquals("拍照繁忙", results.get(2).getError());
+    }
+
+    @Test
+    void slowCameraTimesOutWithPartialResults() {
+        property.getCapture().setTimeoutMs(500);
+        fake.delay("192.168.1.192", 2000);
+
+        long start = System.currentTimeMillis();
+        List<HkCaptureResult> results = service.takePhotoDetail();
+        assertTrue(System.currentTimeMillis() - start < 1500);
+
+        assertTrue(results.get(0).isSuccess());
+        assertFalse(results.get(1).isSuccess());
+        assertEquals("拍照超时", results.get(1).getError());
+        assertTrue(results.get(2).isSuccess());
+    }
+
+    @Test
+    void repeatedCapturesReuseSession() {
+        for (int i = 0; i < 5; i++) {
+            assertEquals(3, service.takePhotoDetail().stream().filter(HkCaptureResult::isSuccess).count());
+        }
+        assertEquals(3, fake.logins.get());
+        assertEquals(15, fake.captures.get());
+        assertEquals(3, sessionManager.list().size());
+    }
+
+    /**
+     * 20个客户端同时拍照, 每台摄像头只抓拍一次
+     */
+    @Test
+    void concurrentRequestsShareOneCapture() throws Exception {
+        fake.delay("192.168.1.191", 300);
+        fake.delay("192.168.1.192", 300);
+        fake.delay("192.168.1.193", 300);
+        int clients = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        List<Future<List<HkCaptureResult>>> futures = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            futures.add(executor.submit(service::takePhotoDetail));
+        }
+        for (Future<List<HkCaptureResult>> future : futures) {
+            assertEquals(3, future.get().stream().filter(HkCaptureResult::isSuccess).count());
+        }
+        executor.shutdown();
+        assertEquals(3, fake.captures.get());
+        HkCaptureStats stats = service.captureStats();
+        assertEquals(3L * clients, stats.getRequests());
+        assertEquals(3, stats.getCaptures());
+        assertEquals(3L * clients - 3, stats.getCoalesced());
+        assertEquals(0, stats.getInFlight());
+    }
+
+    @Test
+    void freshCaptureServedFromCache() throws Exception {
+        property.getCapture().setCacheMs(300);
+        List<HkCaptureResult> first = service.takePhotoDetail();
+        List<HkCaptureResult> second = service.takePhotoDetail();
+        assertEquals(3, fake.captures.get());
+        assertEquals(first.get(0).getImg(), second.get(0).getImg());
+        assertEquals(3, service.captureStats().getCacheHits());
+
+        Thread.sleep(400);
+        service.takePhotoDetail();
+        assertEquals(6, fake.captures.get());
+    }
+
+    @Test
+    void streamPhotoWithoutDiskWrite() {
+        Map<String, byte[]> images = new ConcurrentHashMap<>();
+        HkCameraService.JpegSink sink = (deviceIp, jpeg) -> {
+            byte[] bytes = new byte[jpeg.remaining()];
+            jpeg.get(bytes);
+            images.put(deviceIp, bytes);
+        };
+        assertTrue(service.streamPhoto(service.camera("192.168.1.191"), sink));
+        assertArrayEquals(FakeHCNetSDK.JPEG, images.get("192.168.1.191"));
+
+        fake.frameSize("192.168.1.193", 1000);
+        assertEquals(3, service.streamPhotos(sink));
+        assertEquals(3, images.size());
+        assertEquals(1000, images.get("192.168.1.193").length);
+        // 不落盘, 缓冲区都已归还
+        assertEquals(0, tempDir.toFile().listFiles((dir, name) -> name.endsWith(".jpg")).length);
+        assertEquals(0, ((BufferPool) ReflectionTestUtils.getField(service, "bufferPool")).getOutstanding());
+    }
+
+    /**
+     * 不缓存且没有合并进来的请求时, sink直接拿到抓拍缓冲区的视图, 不拷贝到堆内存; 需要缓存时给堆内存中的JPEG
+     */
+    @Test
+    void streamPhotoReadsNativeBufferWhenNotShared() {
+        HkCameraParam camera = service.camera("192.168.1.191");
+        List<Boolean> direct = new ArrayList<>();
+        List<byte[]> images = new ArrayList<>();
+        HkCameraService.JpegSink sink = (deviceIp, jpeg) -> {
+            direct.add(jpeg.isDirect());
+            byte[] bytes = new byte[jpeg.remaining()];
+            jpeg.get(bytes);
+            images.add(bytes);
+        };
+        assertTrue(service.streamPhoto(camera, sink));
+        assertTrue(direct.get(0));
+        assertArrayEquals(FakeHCNetSDK.JPEG, images.get(0));
+
+        property.getCapture().setCacheMs(10_000);
+        assertTrue(service.streamPhoto(camera, sink));
+        assertFalse(direct.get(1));
+        assertArrayEquals(FakeHCNetSDK.JPEG, images.get(1));
+        assertEquals(2, fake.captures.get());
+    }
+
+    /**
+     * 实时预览不取缓存, 每次都重新抓拍; 新抓拍的JPEG仍放进缓存给其他请求用
+     */
+    @Test
+    void streamPhotoCanBypassCache() {
+        property.getCapture().setCacheMs(10_000);
+        HkCameraParam camera = service.camera("192.168.1.191");
+        HkCameraService.JpegSink sink = (deviceIp, jpeg) -> {
+        };
+        assertTrue(service.streamPhoto(camera, false, sink));
+        assertTrue(service.streamPhoto(camera, false, sink));
+        assertEquals(2, fake.captures.get());
+        assertTrue(service.streamPhoto(camera, sink));
+        assertEquals(2, fake.captures.get());
+        assertEquals(1, service.captureStats().getCacheHits());
+    }
+
+    /**
+     * 直接返回JPEG和拍照同时请求同一台摄像头只抓拍一次, 只落盘一次; 缓存期内的JPEG从内存返回
+     */
+    @Test
+    void streamAndCaptureShareOneCapture() throws Exception {
+        property.getCapture().setCacheMs(10_000);
+        fake.delay("192.168.1.191", 300);
+        HkCameraParam camera = service.camera("192.168.1.191");
+        ExecutorService executor = Executors.newFixedThreadPool(10);
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            boolean stream = i % 2 == 0;
+            futures.add(executor.submit(() -> stream
+                    ? service.streamPhoto(camera, (deviceIp, jpeg) -> {
+                    })
+                    : service.capture(camera).get().isSuccess()));
+        }
+        for (Future<Boolean> future : futures) {
+            assertTrue(future.get());
+        }
+        executor.shutdown();
+        assertEquals(1, fake.captures.get());
+        assertEquals(1, tempDir.toFile().listFiles((dir, name) -> name.endsWith(".jpg")).length);
+
+        List<byte[]> images = new ArrayList<>();
+        assertTrue(service.streamPhoto(camera, (deviceIp, jpeg) -> {
+            byte[] bytes = new byte[jpeg.remaining()];
+            jpeg.get(bytes);
+            images.add(bytes);
+        }));
+        assertArrayEquals(FakeHCNetSDK.JPEG, images.get(0));
+        assertEquals(1, fake.captures.get());
+        assertEquals(0, ((BufferPool) ReflectionTestUtils.getField(service, "bufferPool")).getOutstanding());
+    }
+
+    /**
+     * 按IP拍照也经过缓存和合并, 和批量拍照拿到同一张图片
+     */
+    @Test
+    void takePhotoByIpSharesCache() {
+        property.getCapture().setCacheMs(10_000);
+        List<HkCaptureResult> results = service.takePhotoDetail();
+        assertEquals(3, fake.captures.get());
+        assertEquals(results.get(0).getImg(), service.takePhoto("192.168.1.191", "admin", "password", (short) 8000));
+        assertEquals(results.get(1).getImg(), service.takePhotoAsync("192.168.1.192", "admin", "password", (short) 8000).join());
+        assertEquals(3, fake.captures.get());
+    }
+
+    /**
+     * 不合并时抓拍抛出的异常也从future返回, 直接返回JPEG时记为失败
+     */
+    @Test
+    void captureExceptionWithoutCoalesceFailsFuture() {
+        property.getCapture().setCoalesce(false);
+        HkCameraParam camera = new HkCameraParam();
+        camera.setDeviceIp("192.168.1.194");
+        camera.setUsername("admin");
+        camera.setPassword("password");
+        assertFalse(service.streamPhoto(camera, (deviceIp, jpeg) -> {
+        }));
+        assertNull(service.takePhotoAsync("192.168.1.194", "admin", "password", null).join());
+    }
+
+    @Test
+    void streamPhotosSkipsSlowCamera() {
+        property.getCapture().setTimeoutMs(500);
+        fake.delay("192.168.1.192", 1500);
+        List<String> devices = new CopyOnWriteArrayList<>();
+        assertEquals(2, service.streamPhotos((deviceIp, jpeg) -> devices.add(deviceIp)));
+        assertEquals(2, devices.size());
+        assertFalse(devices.contains("192.168.1.192"));
+    }
+
+    @Test
+    void sessionErrorReloginsAndRetries() {
+        service.takePhotoDetail();
+        fake.failOnce("192.168.1.192", HCNetSDK.NET_DVR_NETWORK_RECV_TIMEOUT);
+
+        List<HkCaptureResult> results = service.takePhotoDetail();
+        assertTrue(results.get(1).isSuccess());
+        assertEquals(4, fake.logins.get());
+    }
+
+    @Test
+    void otherErrorKeepsSession() {
+        service.takePhotoDetail();
+        fake.failOnce("192.168.1.192", HCNetSDK.NET_DVR_PARAMETER_ERROR);
+
+        List<HkCaptureResult> results = service.takePhotoDetail();
+        assertFalse(results.get(1).isSuccess());
+        assertEquals(3, fake.logins.get());
+    }
+
+    /**
+     * 初始化失败后不到重试间隔不再调用 NET_DVR_Init, 到了之后重试
+     */
+    @Test
+    void sdkInitFailureBacksOff() {
+        HkSdkManager manager = new HkSdkManager();
+        ReflectionTestUtils.setField(manager, "property", property);
+        ReflectionTestUtils.setField(manager, "hCNetSDK", fake.sdk);
+        doReturn(false).when(fake.sdk).NET_DVR_Init();
+        assertNull(manager.sdk());
+        assertNull(manager.sdk());
+        verify(fake.sdk, times(1)).NET_DVR_Init();
+        assertTrue(manager.getFailTime() > 0);
+
+        ReflectionTestUtils.setField(manager, "failTime", System.currentTimeMillis() - property.getSdkRetryMs());
+        doReturn(true).when(fake.sdk).NET_DVR_Init();
+        assertNotNull(manager.sdk());
+        verify(fake.sdk, times(2)).NET_DVR_Init();
+        assertEquals(0, manager.getFailTime());
+        manager.destroy();
+    }
+
+    @Test
+    void sdkInitializedOnceAndCleanedUpOnShutdown() {
+        for (int i = 0; i < 3; i++) {
+            service.takePhotoDetail();
+        }
+        // 登录失败不再释放SDK
+        doReturn(-1).when(fake.sdk).NET_DVR_Login_V40(any(), any());
+        service.takePhoto("192.168.1.199", "admin", "password", (short) 8000);
+
+        verify(fake.sdk, times(1)).NET_DVR_Init();
+        verify(fake.sdk, never()).NET_DVR_Cleanup();
+        assertEquals(3, sdkManager.getRefCount());
+
+        sessionManager.destroy();
+        sdkManager.destroy();
+        assertEquals(0, sdkManager.getRefCount());
+        verify(fake.sdk, times(1)).NET_DVR_Cleanup();
+    }
+
+    @Test
+    void alarmCallbackRegisteredOnceAndReRegisteredAfterFailure() throws Exception {
+        ReflectionTestUtils.setField(service, "alarmDispatcher", new HkAlarmDispatcher());
+        for (int i = 0; i < 3; i++) {
+            service.plateNumberInit("192.168.1.198", "admin", "password", (short) 8000);
+        }
+        ArgumentCaptor<HCNetSDK.FMSGCallBack_V31> callback = ArgumentCaptor.forClass(HCNetSDK.FMSGCallBack_V31.class);
+        verify(fake.sdk, times(1)).NET_DVR_SetDVRMessageCallBack_V31(callback.capture(), any());
+        // 没有异常时静默不会触发重新注册
+        property.getAlarmWatchdog().setSilentSeconds(0);
+        Thread.sleep(5);
+        service.checkCallback();
+        assertEquals(1, service.callbackStats().getRegistrations());
+
+        ArgumentCaptor<HCNetSDK.FExceptionCallBack> exception = ArgumentCaptor.forClass(HCNetSDK.FExceptionCallBack.class);
+        verify(fake.sdk).NET_DVR_SetExceptionCallBack_V30(anyInt(), anyInt(), exception.capture(), any());
+        Thread.sleep(5);
+        exception.getValue().invoke(HCNetSDK.EXCEPTION_ALARM, 0, 0, null);
+        Thread.sleep(5);
+        service.checkCallback();
+
+        ArgumentCaptor<HCNetSDK.FMSGCallBack_V31> again = ArgumentCaptor.forClass(HCNetSDK.FMSGCallBack_V31.class);
+        verify(fake.sdk, times(2)).NET_DVR_SetDVRMessageCallBack_V31(again.capture(), any());
+        // 始终是同一个回调实例
+        assertSame(callback.getValue(), again.getAllValues().get(1));
+        assertEquals(2, service.callbackStats().getRegistrations());
+    }
+
+    @Test
+    void captureBufferGrowsOnNoEnoughBufAndShrinksOnSmallFrames() throws Exception {
+        String deviceIp = "192.168.1.199";
+        fake.frameSize(deviceIp, 1000);
+        String img = service.takePhoto(deviceIp, "admin", "password", (short) 8000);
+        assertEquals(1000, Files.size(Paths.get(img)));
+        // 64 -> 128 -> 256 -> 512 -> 1024
+        assertEquals(1024, nativeBufferPool.size(deviceIp));
+        assertEquals(4, nativeBufferPool.getGrows());
+        assertEquals(5, fake.captures.get());
+
+        // 之后直接用扩大后的缓冲区
+        service.takePhoto(deviceIp, "admin", "password", (short) 8000);
+        assertEquals(6, fake.captures.get());
+        assertEquals(1024, nativeBufferPool.getAllocatedBytes());
+
+        // 连续3张小图后缩小一半
+        fake.frameSize(deviceIp, 100);
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(service.takePhoto(deviceIp, "admin", "password", (short) 8000));
+        }
+        assertEquals(512, nativeBufferPool.size(deviceIp));
+        assertEquals(1, nativeBufferPool.getShrinks());
+        // 大的缓冲区归还时释放, 下次抓拍按新的大小分配
+        assertEquals(0, nativeBufferPool.getAllocatedBytes());
+        service.takePhoto(deviceIp, "admin", "password", (short) 8000);
+        assertEquals(512, nativeBufferPool.getAllocatedBytes());
+
+        nativeBufferPool.clear();
+        assertEquals(0, nativeBufferPool.getAllocatedBytes());
+    }
+
+    @Test
+    void captureBufferLimits() {
+        String deviceIp = "192.168.1.199";
+        // 超过单个缓冲区上限, 抓拍失败并释放缓冲区
+        fake.frameSize(deviceIp, 5000);
+        assertNull(service.takePhoto(deviceIp, "admin", "password", (short) 8000));
+        assertEquals(0, nativeBufferPool.getAllocatedBytes());
+
+        // 总量上限
+        List<NativeBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < 256; i++) {
+            buffers.add(nativeBufferPool.borrow("192.168.2." + i));
+        }
+        assertNull(nativeBufferPool.borrow("192.168.3.1"));
+        assertEquals(1, nativeBufferPool.getRejected());
+        for (int i = 0; i < buffers.size(); i++) {
+            nativeBufferPool.release("192.168.2." + i, buffers.get(i), 0);
+        }
+        // 空闲的缓冲区会先被释放
+        assertNotNull(nativeBufferPool.borrow("192.168.3.1"));
+        assertEquals(64, nativeBufferPool.getAllocatedBytes());
+    }
+}
@@ -0,0 +1,185 @@
+package com.ilubov.hikvision.service;
+
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.sdk.HCNetSDK;
+import com.ilubov.hikvision.util.PsDemuxer;
+import com.ilubov.hikvision.vo.HkCameraParam;
+import com.ilubov.hikvision.vo.HkClipStats;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HkClipRecorderTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final FakeHCNetSDK fake = new FakeHCNetSDK();
+
+    private HkCameraProperty property;
+
+    private HkSdkManager sdkManager;
+
+    private HkRealPlay realPlay;
+
+    private HkClipRecorder recorder;
+
+    private int fed;
+
+    @BeforeEach
+    void setUp() {
+        property = new HkCameraProperty();
+        property.getClip().setEnabled(true);
+        property.getClip().setPath(tempDir.toString());
+        HkCameraParam plate = new HkCameraParam();
+        plate.setDeviceIp("192.168.1.198");
+        plate.setUsername("admin");
+        plate.setPassword("password");
+        plate.setPort((short) 8000);
+        property.setPlateNumber(plate);
+        sdkManager = new HkSdkManager();
+        ReflectionTestUtils.setField(sdkManager, "property", property);
+        ReflectionTestUtils.setField(sdkManager, "hCNetSDK", fake.sdk);
+        HkSessionManager sessionManager = new HkSessionManager();
+        ReflectionTestUtils.setField(sessionManager, "property", property);
+        ReflectionTestUtils.setField(sessionManager, "sdkManager", sdkManager);
+        realPlay = new HkRealPlay();
+        ReflectionTestUtils.setField(realPlay, "property", property);
+        ReflectionTestUtils.setField(realPlay, "sdkManager", sdkManager);
+        ReflectionTestUtils.setField(realPlay, "sessionManager", sessionManager);
+        realPlay.init();
+        HkDeviceRegistry deviceRegistry = new HkDeviceRegistry();
+        ReflectionTestUtils.setField(deviceRegistry, "property", property);
+        recorder = new HkClipRecorder();
+        ReflectionTestUtils.setField(recorder, "property", property);
+        ReflectionTestUtils.setField(recorder, "realPlay", realPlay);
+        ReflectionTestUtils.setField(recorder, "deviceRegistry", deviceRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        recorder.destroy();
+        realPlay.destroy();
+        sdkManager.destroy();
+    }
+
+    /**
+     * 从事件前 pre-ms 之前最近的关键帧开始, 到事件后 post-ms 为止, 码流原样写入
+     */
+    @Test
+    void writesWindowAroundEventFromKeyframe() throws Exception {
+        property.getClip().setPreMs(50);
+        property.getClip().setPostMs(300);
+        recorder.init();
+        this.await(() -> !fake.realPlays.isEmpty());
+        PsSample sample = new PsSample(PsDemuxer.CODEC_H264);
+        this.feed(sample.generate(1, 10, 5000));
+        Thread.sleep(100);
+        this.feed(sample.generate(1, 10, 5000));
+        Thread.sleep(100);
+        long time = System.currentTimeMillis();
+        CompletableFuture<String> future = recorder.record("192.168.1.198", "lane-1", time, "plate");
+        assertNull(recorder.record("192.168.1.199", "lane-2", time, "plate").get());
+        // 写完前不给出路径
+        assertFalse(future.isDone());
+        this.feed(sample.generate(1, 10, 5000));
+
+        String clip = future.get(3, TimeUnit.SECONDS);
+        assertNotNull(clip);
+        assertTrue(clip.endsWith("_plate.ps"), clip);
+        assertEquals(1, this.stats().getWritten());
+        // 第二组的关键帧到事件后收到的所有码流
+        byte[] all = sample.out.toByteArray();
+        byte[] expected = Arrays.copyOfRange(all, sample.keyframeOffsets.get(1).intValue(), all.length);
+        assertArrayEquals(expected, Files.readAllBytes(Paths.get(clip)));
+        HkClipStats stats = this.stats();
+        assertEquals(1, stats.getTriggered());
+        assertEquals(0, stats.getTruncated());
+        assertEquals(expected.length, stats.getWrittenBytes());
+        assertEquals(3, stats.getKeyframes());
+    }
+
+    /**
+     * 缓冲放不下 pre-ms 时从缓冲中最早的关键帧开始
+     */
+    @Test
+    void truncatesToOldestBufferedKeyframe() throws Exception {
+        property.getClip().setBufferBytes(64 * 1024);
+        property.getClip().setPreMs(10000);
+        property.getClip().setPostMs(0);
+        recorder.init();
+        this.await(() -> !fake.realPlays.isEmpty());
+        PsSample sample = new PsSample(PsDemuxer.CODEC_H264);
+        this.feed(sample.generate(10, 10, 5000));
+        byte[] all = sample.out.toByteArray();
+        this.await(() -> this.stats().getBufferedBytes() == 64 * 1024);
+        Thread.sleep(100);
+
+        String clip = recorder.record("192.168.1.198", null, System.currentTimeMillis(), null).get(3, TimeUnit.SECONDS);
+        assertEquals(1, this.stats().getWritten());
+        assertEquals(1, this.stats().getTruncated());
+        byte[] data = Files.readAllBytes(Paths.get(clip));
+        assertTrue(data.length <= 64 * 1024, "size: " + data.length);
+        long offset = all.length - data.length;
+        assertTrue(sample.keyframeOffsets.contains(offset), "offset: " + offset);
+        assertArrayEquals(Arrays.copyOfRange(all, (int) offset, all.length), data);
+    }
+
+    /**
+     * 缓冲中没有关键帧时录像失败, 给出null, 不留下文件
+     */
+    @Test
+    void completesWithNullWithoutKeyframe() throws Exception {
+        property.getClip().setPostMs(0);
+        recorder.init();
+        this.await(() -> !fake.realPlays.isEmpty());
+
+        assertNull(recorder.record("192.168.1.198", "lane-1", System.currentTimeMillis(), "plate").get(3, TimeUnit.SECONDS));
+        assertEquals(1, this.stats().getFailed());
+        assertEquals(0, this.stats().getWritten());
+        try (Stream<Path> files = Files.walk(tempDir)) {
+            assertFalse(files.anyMatch(Files::isRegularFile));
+        }
+    }
+
+    private HkClipStats stats() {
+        return recorder.stats().get(0);
+    }
+
+    /**
+     * 送入样本中新生成的部分
+     */
+    private void feed(PsSample sample) {
+        byte[] all = sample.out.toByteArray();
+        for (byte[] chunk : PsSample.chunks(Arrays.copyOfRange(all, fed, all.length), fed)) {
+            fake.realData(0, HCNetSDK.NET_DVR_STREAMDATA, chunk);
+        }
+        fed = all.length;
+    }
+
+    private void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 3000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean(), String.valueOf(recorder.stats()));
+    }
+}
@@ -0,0 +1,173 @@
+package com.ilubov.hikvision.service;
+
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.sdk.HCNetSDK;
+import com.ilubov.hikvision.util.BufferPool;
+import com.ilubov.hikvision.util.NativeBufferPool;
+import com.ilubov.hikvision.vo.HkCameraParam;
+import com.ilubov.hikvision.vo.HkDeviceInfo;
+import com.sun.jna.Memory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.ilubov.hikvision.service.HkAlarmDispatcherTest.alarmer;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class HkDeviceRegistryTest {
+
+    private final FakeHCNetSDK fake = new FakeHCNetSDK();
+
+    private HkCameraProperty property;
+
+    private HkSdkManager sdkManager;
+
+    private HkSessionManager sessionManager;
+
+    private HkDeviceRegistry registry;
+
+    private HkAlarmDispatcher dispatcher;
+
+    private HkCameraService service;
+
+    @BeforeEach
+    void setUp() {
+        property = new HkCameraProperty();
+        List<HkCameraParam> lanes = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            HkCameraParam camera = new HkCameraParam();
+            camera.setDeviceId("lane-" + i);
+            camera.setDeviceIp("192.168.2.1" + i);
+            camera.setUsername("admin");
+            camera.setPassword("password");
+            camera.setPort((short) 8000);
+            lanes.add(camera);
+        }
+        property.setPlateNumbers(lanes);
+        sdkManager = new HkSdkManager();
+        ReflectionTestUtils.setField(sdkManager, "property", property);
+        ReflectionTestUtils.setField(sdkManager, "hCNetSDK", fake.sdk);
+        sessionManager = new HkSessionManager();
+        ReflectionTestUtils.setField(sessionManager, "property", property);
+        ReflectionTestUtils.setField(sessionManager, "sdkManager", sdkManager);
+        registry = new HkDeviceRegistry();
+        ReflectionTestUtils.setField(registry, "property", property);
+        ReflectionTestUtils.setField(registry, "sdkManager", sdkManager);
+        ReflectionTestUtils.setField(registry, "sessionManager", sessionManager);
+        BufferPool bufferPool = new BufferPool(16, 1024, 1024 * 1024, true);
+        dispatcher = new HkAlarmDispatcher();
+        ReflectionTestUtils.setField(dispatcher, "property", property);
+        ReflectionTestUtils.setField(dispatcher, "bufferPool", bufferPool);
+        dispatcher.init();
+        service = new HkCameraService();
+        ReflectionTestUtils.setField(service, "property", property);
+        ReflectionTestUtils.setField(service, "alarmDispatcher", dispatcher);
+        ReflectionTestUtils.setField(service, "bufferPool", bufferPool);
+        ReflectionTestUtils.setField(service, "nativeBufferPool", new NativeBufferPool(64, 4096, 3, 16 * 1024));
+        ReflectionTestUtils.setField(service, "sdkManager", sdkManager);
+        ReflectionTestUtils.setField(service, "deviceRegistry", registry);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        service.destroy();
+        dispatcher.destroy();
+        registry.destroy();
+        sdkManager.destroy();
+    }
+
+    @Test
+    void armsAllLanesAndResolvesByUserId() {
+        service.init();
+
+        List<HkDeviceInfo> devices = registry.list();
+        assertEquals(3, devices.size());
+        verify(fake.sdk, times(3)).NET_DVR_SetupAlarmChan_V41(anyInt(), any());
+        for (int i = 1; i <= 3; i++) {
+            int userId = fake.userId("192.168.2.1" + i);
+            assertEquals("lane-" + i, registry.resolve(userId).getDeviceId());
+        }
+        assertNull(registry.resolve(99));
+        // 重复初始化不会重复布防
+        service.init();
+        verify(fake.sdk, times(3)).NET_DVR_SetupAlarmChan_V41(anyInt(), any());
+    }
+
+    @Test
+    void failedLaneDoesNotAffectOthers() {
+        doReturn(-1).when(fake.sdk).NET_DVR_SetupAlarmChan_V41(eq(fake.userId("192.168.2.12")), any());
+        service.init();
+
+        assertEquals(2, registry.list().size());
+        assertEquals(2, sdkManager.getRefCount());
+        verify(fake.sdk).NET_DVR_Logout(fake.userId("192.168.2.12"));
+
+        registry.disarm("lane-1");
+        assertNull(registry.resolve(fake.userId("192.168.2.11")));
+        assertEquals("lane-3", registry.resolve(fake.userId("192.168.2.13")).getDeviceId());
+    }
+
+    @Test
+    void busyLaneDoesNotStarveOthers() throws Exception {
+        service.init();
+        CountDownLatch latch = new CountDownLatch(1);
+        Map<String, AtomicInteger> handled = new ConcurrentHashMap<>();
+        dispatcher.setHandler(event -> {
+            if ("lane-1".equals(event.getDeviceId())) {
+                this.await(latch);
+            }
+            handled.computeIfAbsent(event.getDeviceId(), id -> new AtomicInteger()).incrementAndGet();
+        });
+        for (int n = 0; n < 10; n++) {
+            for (int i = 1; i <= 3; i++) {
+                int userId = fake.userId("192.168.2.1" + i);
+                // 报警设备信息里的IP故意填错, 设备以lUserID为准
+                service.callback(HCNetSDK.COMM_VEHICLE_CONTROL_ALARM, alarmer(userId, "0.0.0.0"),
+                        new Memory(4), 4, null);
+            }
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (this.count(handled, "lane-2") + this.count(handled, "lane-3") < 20
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(10, this.count(handled, "lane-2"));
+        assertEquals(10, this.count(handled, "lane-3"));
+        assertEquals(0, this.count(handled, "lane-1"));
+        latch.countDown();
+        for (HkDeviceInfo device : registry.list()) {
+            assertEquals(10, device.getEvents());
+        }
+        assertTrue(dispatcher.stats().stream().allMatch(stats -> stats.getDeviceId().startsWith("lane-")));
+    }
+
+    private int count(Map<String, AtomicInteger> handled, String deviceId) {
+        AtomicInteger count = handled.get(deviceId);
+        return count == null ? 0 : count.get();
+    }
+
+    private void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.ilubov.hikvision.service;
+
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.vo.HkCameraParam;
+import com.ilubov.hikvision.vo.HkDownloadChunk;
+import com.ilubov.hikvision.vo.HkDownloadJob;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HkDownloadManagerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final FakeHCNetSDK fake = new FakeHCNetSDK();
+
+    private final long from = LocalDateTime.of(2026, 10, 18, 8, 0, 0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+    private HkCameraProperty property;
+
+    private HkSdkManager sdkManager;
+
+    private HkDownloadManager manager;
+
+    private HkCameraParam camera;
+
+    @BeforeEach
+    void setUp() {
+        property = new HkCameraProperty();
+        property.getDownload().setPath(tempDir.toString());
+        property.getDownload().setChunkSeconds(60);
+        property.getDownload().setPollMs(5);
+        property.getDownload().setRetryDelayMs(10);
+        camera = new HkCameraParam();
+        camera.setDeviceIp("192.168.1.191");
+        camera.setUsername("admin");
+        camera.setPassword("password");
+        camera.setPort((short) 8000);
+        property.setCamera(Collections.singletonList(camera));
+        sdkManager = new HkSdkManager();
+        ReflectionTestUtils.setField(sdkManager, "property", property);
+        ReflectionTestUtils.setField(sdkManager, "hCNetSDK", fake.sdk);
+        HkSessionManager sessionManager = new HkSessionManager();
+        ReflectionTestUtils.setField(sessionManager, "property", property);
+        ReflectionTestUtils.setField(sessionManager, "sdkManager", sdkManager);
+        HkDeviceRegistry deviceRegistry = new HkDeviceRegistry();
+        ReflectionTestUtils.setField(deviceRegistry, "property", property);
+        manager = new HkDownloadManager();
+        ReflectionTestUtils.setField(manager, "property", property);
+        ReflectionTestUtils.setField(manager, "sdkManager", sdkManager);
+        ReflectionTestUtils.setField(manager, "sessionManager", sessionManager);
+        ReflectionTestUtils.setField(manager, "deviceRegistry", deviceRegistry);
+        manager.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.destroy();
+        sdkManager.destroy();
+    }
+
+    /**
+     * 5分半切成6段, 最多3个会话同时下载, 按时间顺序合并, 只保留第一段的文件头
+     */
+    @Test
+    void downloadsChunksConcurrentlyAndStitchesInOrder() throws Exception {
+        property.getDownload().setSessionsPerDevice(3);
+        HkDownloadJob job = manager.submit(manager.camera("192.168.1.191"), 1, from, from + 330_000);
+        assertEquals(6, job.getChunks().size());
+        assertEquals(from + 300_000, job.getChunks().get(5).getFrom());
+        assertEquals(from + 330_000, job.getChunks().get(5).getTo());
+
+        this.await(() -> manager.job(job.getId()).getState().equals(HkDownloadManager.DONE));
+        assertEquals(3, fake.maxActiveDownloads.get());
+        assertEquals(0, fake.activeDownloads.get());
+        HkDownloadJob done = manager.job(job.getId());
+        assertEquals(100, done.getProgress());
+        assertEquals(6, done.getChunksDone());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(FakeHCNetSDK.recording("20261018080000~20261018080100"));
+        for (String range : new String[]{"20261018080100~20261018080200", "20261018080200~20261018080300",
+                "20261018080300~20261018080400", "20261018080400~20261018080500", "20261018080500~20261018080530"}) {
+            expected.write((range + "\n").getBytes(StandardCharsets.US_ASCII));
+        }
+        Path path = manager.file(job.getId());
+        assertEquals(Paths.get(done.getPath()), path);
+        assertTrue(path.getFileName().toString().endsWith("_20261018080000_20261018080530.ps"), path.toString());
+        assertArrayEquals(expected.toByteArray(), Files.readAllBytes(path));
+        assertEquals(expected.size(), done.getBytes());
+        // 分段文件已删除
+        assertEquals(1, Files.list(path.getParent()).count());
+    }
+
+    /**
+     * 失败的段重试用完后任务失败, 继续时只下载没有完成的段
+     */
+    @Test
+    void failedChunkRetriesThenResumes() throws Exception {
+        property.getDownload().setMaxRetries(2);
+        fake.failDownloads.add("20261018080100");
+        HkDownloadJob job = manager.submit(camera, 1, from, from + 180_000);
+
+        this.await(() -> manager.job(job.getId()).getState().equals(HkDownloadManager.FAILED));
+        HkDownloadJob failed = manager.job(job.getId());
+        assertEquals(2, failed.getChunksDone());
+        assertEquals(2, failed.getRetries());
+        HkDownloadChunk chunk = failed.getChunks().get(1);
+        assertEquals(HkDownloadManager.FAILED, chunk.getState());
+        assertEquals(3, chunk.getAttempts());
+        assertTrue(chunk.getError().contains("200"), chunk.getError());
+        assertEquals(3, fake.downloadCalls.get("20261018080100"));
+
+        fake.failDownloads.clear();
+        assertTrue(manager.resume(job.getId()));
+        assertFalse(manager.resume(job.getId()));
+        this.await(() -> manager.job(job.getId()).getState().equals(HkDownloadManager.DONE));
+        assertEquals(1, fake.downloadCalls.get("20261018080000"));
+        assertEquals(4, fake.downloadCalls.get("20261018080100"));
+        assertEquals(1, fake.downloadCalls.get("20261018080200"));
+        assertNotNull(manager.file(job.getId()));
+    }
+
+    /**
+     * 取消后正在下载的段停止, 继续时补齐
+     */
+    @Test
+    void cancelStopsRunningChunksAndResumeCompletes() throws Exception {
+        property.getDownload().setSessionsPerDevice(1);
+        fake.downloadMs = 200;
+        HkDownloadJob job = manager.submit(camera, 1, from, from + 180_000);
+        this.await(() -> fake.activeDownloads.get() == 1);
+        assertTrue(manager.cancel(job.getId()));
+        this.await(() -> fake.activeDownloads.get() == 0);
+        assertEquals(HkDownloadManager.CANCELLED, manager.job(job.getId()).getState());
+        assertEquals(1, fake.fileHandles.get());
+
+        fake.downloadMs = 10;
+        assertTrue(manager.resume(job.getId()));
+        this.await(() -> manager.job(job.getId()).getState().equals(HkDownloadManager.DONE));
+        assertEquals(0, manager.job(job.getId()).getRetries());
+        assertEquals(3, manager.job(job.getId()).getChunksDone());
+    }
+
+    /**
+     * 等待重试的段在取消后继续, 重试到期时已经重新排队, 只下载一次
+     */
+    @Test
+    void resumeDuringRetryDelayQueuesChunkOnce() throws Exception {
+        property.getDownload().setSessionsPerDevice(1);
+        property.getDownload().setRetryDelayMs(200);
+        fake.failDownloads.add("20261018080000");
+        HkDownloadJob job = manager.submit(camera, 1, from, from + 60_000);
+        this.await(() -> manager.job(job.getId()).getRetries() == 1);
+        assertTrue(manager.cancel(job.getId()));
+
+        // 另一个任务占住下载线程, 继续的段排在后面, 重试在它被取出前到期
+        fake.downloadMs = 150;
+        HkDownloadJob other = manager.submit(camera, 1, from + 600_000, from + 780_000);
+        fake.failDownloads.clear();
+        assertTrue(manager.resume(job.getId()));
+        this.await(() -> manager.job(job.getId()).getState().equals(HkDownloadManager.DONE)
+                && manager.job(other.getId()).getState().equals(HkDownloadManager.DONE));
+        Thread.sleep(300);
+        assertEquals(2, fake.downloadCalls.get("20261018080000"));
+        assertEquals(1, manager.job(job.getId()).getChunksDone());
+    }
+
+    /**
+     * 超过保留数时移除最早结束的任务, 它的目录和合并后的文件一起删除
+     */
+    @Test
+    void evictedJobFilesAreDeleted() throws Exception {
+        property.getDownload().setMaxJobs(1);
+        HkDownloadJob first = manager.submit(camera, 1, from, from + 60_000);
+        this.await(() -> manager.job(first.getId()).getState().equals(HkDownloadManager.DONE));
+        Path dir = manager.file(first.getId()).getParent();
+        assertTrue(Files.exists(dir));
+
+        HkDownloadJob second = manager.submit(camera, 1, from + 600_000, from + 660_000);
+        assertNull(manager.job(first.getId()));
+        assertFalse(Files.exists(dir));
+        this.await(() -> manager.job(second.getId()).getState().equals(HkDownloadManager.DONE));
+        assertNotNull(manager.file(second.getId()));
+    }
+
+    /**
+     * 关闭后不能再安排重试, 失败的段直接算失败, 任务结束而不是一直在下载中
+     */
+    @Test
+    void rejectedRetryFailsJob() throws Exception {
+        property.getDownload().setMaxRetries(2);
+        ((ScheduledExecutorService) ReflectionTestUtils.getField(manager, "retryScheduler")).shutdownNow();
+        fake.failDownloads.add("20261018080000");
+        HkDownloadJob job = manager.submit(camera, 1, from, from + 60_000);
+
+        this.await(() -> manager.job(job.getId()).getState().equals(HkDownloadManager.FAILED));
+        HkDownloadJob failed = manager.job(job.getId());
+        assertEquals(HkDownloadManager.FAILED, failed.getChunks().get(0).getState());
+        assertEquals(1, failed.getChunks().get(0).getAttempts());
+        assertTrue(failed.getFinishTime() > 0);
+    }
+
+    private void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean(), String.valueOf(manager.jobs()));
+    }
+}
@@ -0,0 +1,201 @@
+package com.ilubov.hikvision.service;
+
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.vo.HkEventStreamStats;
+import com.ilubov.hikvision.vo.HkPlateEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HkEventBusTest {
+
+    private HkCameraProperty property;
+
+    private HkEventBus<HkPlateEvent> eventBus;
+
+    @BeforeEach
+    void setUp() {
+        property = new HkCameraProperty();
+        eventBus = new HkEventBus<>("plate", property.getEventStream(), Thread.NORM_PRIORITY);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        eventBus.destroy();
+    }
+
+    /**
+     * 300个本地订阅方, 其中一个卡住不动, 发布方不受影响, 其他订阅方按顺序收到全部事件
+     */
+    @Test
+    void stuckSubscriberDoesNotBlockPublisherOrOthers() throws Exception {
+        int subscribers = 300;
+        int events = 500;
+        property.getEventStream().setSubscriberBuffer(events);
+        eventBus.init();
+
+        CountDownLatch stuck = new CountDownLatch(1);
+        HkEventBus<HkPlateEvent>.Subscriber slow = eventBus.subscribe(event -> this.await(stuck));
+        List<AtomicLong> received = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(subscribers - 1);
+        for (int i = 1; i < subscribers; i++) {
+            AtomicLong last = new AtomicLong(-1);
+            received.add(last);
+            eventBus.subscribe(event -> {
+                // 同一订阅方内事件有序
+                assertEquals(last.get() + 1, event.getTime());
+                last.set(event.getTime());
+                if (event.getTime() == events - 1) {
+                    done.countDown();
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            eventBus.publish(event(i));
+        }
+        long publishMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(publishMs < 2000, "publish: " + publishMs + "ms");
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (AtomicLong last : received) {
+            assertEquals(events - 1, last.get());
+        }
+        // 推送计数在sink返回后才增加
+        long deadline = System.currentTimeMillis() + 5000;
+        while (eventBus.stats().getDelivered() < (long) (subscribers - 1) * events && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        HkEventStreamStats stats = eventBus.stats();
+        assertEquals(subscribers, stats.getSubscribers());
+        assertEquals(events, stats.getPublished());
+        assertTrue(stats.getDelivered() >= (long) (subscribers - 1) * events);
+        assertEquals(0, slow.getDropped());
+        stuck.countDown();
+    }
+
+    /**
+     * 卡住的订阅方比推送线程多, 超时后被移除并补上线程, 其他订阅方照常收到; 卡住的发送返回后线程收回
+     */
+    @Test
+    void stuckSendsTimeOutWithoutStarvingOthers() throws Exception {
+        int stuckSubscribers = 6;
+        int events = 20;
+        property.getEventStream().setSendThreads(2);
+        property.getEventStream().setSendTimeoutMs(200);
+        property.getEventStream().setSubscriberBuffer(events);
+        eventBus.init();
+
+        CountDownLatch stuck = new CountDownLatch(1);
+        for (int i = 0; i < stuckSubscribers; i++) {
+            eventBus.subscribe(event -> this.await(stuck));
+        }
+        CountDownLatch done = new CountDownLatch(events);
+        eventBus.subscribe(event -> done.countDown());
+        for (int i = 0; i < events; i++) {
+            eventBus.publish(event(i));
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (eventBus.stats().getTimedOut() < stuckSubscribers && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        HkEventStreamStats stats = eventBus.stats();
+        assertEquals(stuckSubscribers, stats.getTimedOut());
+        assertEquals(stuckSubscribers, stats.getRemoved());
+        assertEquals(1, stats.getSubscribers());
+
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) ReflectionTestUtils.getField(eventBus, "executor");
+        assertEquals(2 + stuckSubscribers, executor.getCorePoolSize());
+        stuck.countDown();
+        deadline = System.currentTimeMillis() + 5000;
+        while (executor.getCorePoolSize() > 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, executor.getCorePoolSize());
+    }
+
+    @Test
+    void slowSubscriberDropsOldest() throws Exception {
+        property.getEventStream().setSubscriberBuffer(8);
+        eventBus.init();
+        CountDownLatch stuck = new CountDownLatch(1);
+        List<Long> seen = new ArrayList<>();
+        CountDownLatch first = new CountDownLatch(1);
+        HkEventBus<HkPlateEvent>.Subscriber subscriber = eventBus.subscribe(event -> {
+            first.countDown();
+            this.await(stuck);
+            synchronized (seen) {
+                seen.add(event.getTime());
+            }
+        });
+        eventBus.publish(event(0));
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 100; i++) {
+            eventBus.publish(event(i));
+        }
+        assertEquals(92, subscriber.getDropped());
+        stuck.countDown();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (seen.size() < 9 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // 第一个正在推送的事件之后只保留最新的8个
+        assertEquals(0L, seen.get(0).longValue());
+        assertEquals(93L, seen.get(1).longValue());
+        assertEquals(100L, seen.get(8).longValue());
+    }
+
+    @Test
+    void failingSubscriberIsRemoved() throws Exception {
+        property.getEventStream().setMaxSubscribers(2);
+        eventBus.init();
+        assertNotNull(eventBus.subscribe(event -> {
+            throw new IllegalStateException("closed");
+        }));
+        assertNotNull(eventBus.subscribe(event -> {
+        }));
+        assertNull(eventBus.subscribe(event -> {
+        }));
+
+        eventBus.publish(event(0));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (eventBus.stats().getSubscribers() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, eventBus.stats().getSubscribers());
+        assertEquals(1, eventBus.stats().getRemoved());
+    }
+
+    private void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static HkPlateEvent event(long time) {
+        HkPlateEvent event = new HkPlateEvent();
+        event.setDeviceId("lane-1");
+        event.setTime(time);
+        event.setPlateNumber("粤B12345");
+        return event;
+    }
+}
@@ -0,0 +1,181 @@
+package com.ilubov.hikvision.service;
+
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.vo.HkPlateEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Slf4j
+class HkEventStoreTest {
+
+    private static final long BASE = 1_700_000_000_000L;
+
+    @TempDir
+    Path tempDir;
+
+    private HkEventStore store;
+
+    @AfterEach
+    void tearDown() {
+        if (store != null) {
+            store.destroy();
+        }
+    }
+
+    @Test
+    void appendAndQueryByTimeRange() {
+        store = this.store(64 * 1024, 512);
+        for (int i = 0; i < 2000; i++) {
+            assertTrue(store.append(event(i)));
+        }
+        assertTrue(store.getSegments() > 1);
+        assertEquals(2000, store.count());
+
+        List<HkPlateEvent> list = store.query(BASE + 100, BASE + 199, 0);
+        assertEquals(100, list.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(event(100 + i).getPlateNumber(), list.get(i).getPlateNumber());
+            assertEquals(BASE + 100 + i, list.get(i).getTime());
+        }
+        HkPlateEvent first = list.get(0);
+        assertEquals(first, store.get(first.getId()));
+        assertEquals(2, first.getImages().size());
+        assertEquals(10, store.query(BASE, BASE + 5000, 10).size());
+        assertEquals(0, store.query(BASE + 5000, BASE + 6000, 0).size());
+    }
+
+    @Test
+    void recoversAfterRestart() {
+        store = this.store(64 * 1024, 512);
+        for (int i = 0; i < 1500; i++) {
+            store.append(event(i));
+        }
+        store.destroy();
+
+        // 已封存的段读索引文件, 最后一段扫描恢复
+        store = this.store(64 * 1024, 512);
+        assertEquals(1500, store.count());
+        store.append(event(1500));
+        List<HkPlateEvent> list = store.query(BASE + 1490, BASE + 1500, 0);
+        assertEquals(11, list.size());
+        assertEquals(BASE + 1500, list.get(10).getTime());
+    }
+
+    /**
+     * 事件录像记到旁边的文件, 重启后查询和按ID读取都带上; 没写完的尾部截掉后继续追加
+     */
+    @Test
+    void clipLinksSurviveRestart() throws Exception {
+        store = this.store(64 * 1024, 512);
+        for (int i = 0; i < 10; i++) {
+            store.append(event(i));
+        }
+        List<HkPlateEvent> list = store.query(BASE, BASE + 9, 0);
+        assertTrue(store.linkClip(list.get(3).getId(), "/clips/3.ps"));
+        assertTrue(store.linkClip(list.get(7).getId(), "/clips/7.ps"));
+        assertEquals("/clips/3.ps", store.get(list.get(3).getId()).getClip());
+        store.destroy();
+
+        // 模拟崩溃时写了一半的记录
+        Path clips = tempDir.resolve("clips.log");
+        Files.write(clips, new byte[]{0, 0, 0}, StandardOpenOption.APPEND);
+        store = this.store(64 * 1024, 512);
+        list = store.query(BASE, BASE + 9, 0);
+        assertEquals("/clips/3.ps", list.get(3).getClip());
+        assertEquals("/clips/7.ps", list.get(7).getClip());
+        assertNull(list.get(4).getClip());
+        assertTrue(store.linkClip(list.get(4).getId(), "/clips/4.ps"));
+        store.destroy();
+
+        store = this.store(64 * 1024, 512);
+        assertEquals("/clips/4.ps", store.get(list.get(4).getId()).getClip());
+        assertEquals("/clips/7.ps", store.get(list.get(7).getId()).getClip());
+    }
+
+    /**
+     * 跨多个段和索引块的时间范围查询, 边界上的记录不多不少
+     */
+    @Test
+    void rangeQueryAcrossSegments() {
+        store = this.store(1024 * 1024, 4096);
+        int total = 100_000;
+        for (int i = 0; i < total; i++) {
+            store.append(event(i));
+        }
+        assertEquals(total, store.count());
+        assertTrue(store.getSegments() > 1);
+
+        List<HkPlateEvent> list = store.query(BASE + 50_000, BASE + 50_999, 0);
+        assertEquals(1000, list.size());
+        assertEquals(BASE + 50_000, list.get(0).getTime());
+        assertEquals(BASE + 50_999, list.get(999).getTime());
+        assertEquals(String.format("B%05d", 50_000), list.get(0).getPlateNumber());
+        assertEquals(1, store.query(BASE + total - 1, BASE + total + 100, 0).size());
+        assertEquals(0, store.query(BASE + total, BASE + total + 100, 0).size());
+        assertEquals(10, store.query(BASE, BASE + total, 10).size());
+    }
+
+    /**
+     * 百万级记录, 按时间范围查询只扫描重叠的索引块; 只在 -Dhk.benchmark=true 时运行
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "hk.benchmark", matches = "true")
+    void benchmarkRangeQueryOnMillionRecords() {
+        store = this.store(16 * 1024 * 1024, 4096);
+        int total = 1_000_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            store.append(event(i));
+        }
+        long appendMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(total, store.count());
+
+        // 预热
+        store.query(BASE + 10, BASE + 20, 0);
+        start = System.nanoTime();
+        List<HkPlateEvent> list = store.query(BASE + 500_000, BASE + 500_999, 0);
+        long queryMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(1000, list.size());
+        assertEquals(BASE + 500_000, list.get(0).getTime());
+        log.info("【事件存储压测】记录数: {}, 写入: {}ms, 查询1000条: {}ms", total, appendMs, queryMs);
+    }
+
+    private HkEventStore store(int segmentBytes, int indexInterval) {
+        HkCameraProperty property = new HkCameraProperty();
+        property.getEventStore().setPath(tempDir.toString());
+        property.getEventStore().setSegmentBytes(segmentBytes);
+        property.getEventStore().setIndexIntervalBytes(indexInterval);
+        HkEventStore store = new HkEventStore();
+        ReflectionTestUtils.setField(store, "property", property);
+        store.init();
+        return store;
+    }
+
+    private static HkPlateEvent event(int i) {
+        HkPlateEvent event = new HkPlateEvent();
+        event.setTime(BASE + i);
+        event.setDeviceId("lane-" + (i % 4));
+        event.setDeviceIp("192.168.2.1" + (i % 4));
+        event.setPlateNumber(String.format("B%05d", i % 100000));
+        event.setColor("蓝");
+        event.setProvince("粤");
+        event.setVehicleType(3);
+        event.getImages().add("/home/data/img/" + i + "_0.jpg");
+        event.getImages().add("/home/data/img/" + i + "_1.jpg");
+        return event;
+    }
+}
@@ -0,0 +1,311 @@
+package com.ilubov.hikvision.service;
+
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.sdk.HCNetSDK;
+import com.ilubov.hikvision.util.FlvMuxer;
+import com.ilubov.hikvision.util.PsDemuxer;
+import com.ilubov.hikvision.vo.HkCameraParam;
+import com.ilubov.hikvision.vo.HkFlvRelayStats;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class HkFlvRelayTest {
+
+    private final FakeHCNetSDK fake = new FakeHCNetSDK();
+
+    private HkCameraProperty property;
+
+    private HkSdkManager sdkManager;
+
+    private HkRealPlay realPlay;
+
+    private HkFlvRelay relay;
+
+    private HkCameraParam camera;
+
+    @BeforeEach
+    void setUp() {
+        property = new HkCameraProperty();
+        property.getRealPlay().setRingBytes(4 * 1024 * 1024);
+        sdkManager = new HkSdkManager();
+        ReflectionTestUtils.setField(sdkManager, "property", property);
+        ReflectionTestUtils.setField(sdkManager, "hCNetSDK", fake.sdk);
+        HkSessionManager sessionManager = new HkSessionManager();
+        ReflectionTestUtils.setField(sessionManager, "property", property);
+        ReflectionTestUtils.setField(sessionManager, "sdkManager", sdkManager);
+        realPlay = new HkRealPlay();
+        ReflectionTestUtils.setField(realPlay, "property", property);
+        ReflectionTestUtils.setField(realPlay, "sdkManager", sdkManager);
+        ReflectionTestUtils.setField(realPlay, "sessionManager", sessionManager);
+        realPlay.init();
+        relay = new HkFlvRelay();
+        ReflectionTestUtils.setField(relay, "property", property);
+        ReflectionTestUtils.setField(relay, "realPlay", realPlay);
+        relay.init();
+        camera = new HkCameraParam();
+        camera.setDeviceIp("192.168.1.191");
+        camera.setUsername("admin");
+        camera.setPassword("password");
+        camera.setPort((short) 8000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        relay.destroy();
+        realPlay.destroy();
+        sdkManager.destroy();
+    }
+
+    /**
+     * H.264: 序列头来自SPS/PPS, 帧数据换成4字节长度, 参数集不再出现在帧里
+     */
+    @Test
+    void muxesAvcWithoutTranscoding() {
+        PsSample sample = new PsSample(PsDemuxer.CODEC_H264).generate(1, 3, 5000);
+        List<FlvMuxer.Tag> tags = this.mux(sample);
+        assertEquals(4, tags.size());
+        FlvMuxer.Tag config = tags.get(0);
+        assertTrue(config.isConfig());
+        byte[] body = config.getBody();
+        assertEquals(0x17, body[0]);
+        assertEquals(0, body[1]);
+        // configurationVersion, profile取自SPS
+        assertEquals(1, body[5]);
+        assertEquals(sample.keyframes.get(0)[5], body[6]);
+        FlvMuxer.Tag key = tags.get(1);
+        assertTrue(key.isKey());
+        assertEquals(0x17, key.getBody()[0]);
+        assertEquals(1, key.getBody()[1]);
+        // 只剩IDR一个NAL: 4字节长度 + 头 + 5000字节
+        assertEquals(5 + 4 + 1 + 5000, key.getBody().length);
+        assertEquals(5001, ByteBuffer.wrap(key.getBody(), 5, 4).getInt());
+        assertEquals(0x27, tags.get(2).getBody()[0]);
+        assertEquals(0, tags.get(1).getTimestamp());
+        assertEquals(40, tags.get(2).getTimestamp());
+    }
+
+    @Test
+    void muxesHevcConfigRecord() {
+        List<FlvMuxer.Tag> tags = this.mux(new PsSample(PsDemuxer.CODEC_H265).generate(2, 2, 3000));
+        // 参数集没有变化, 只有一个序列头
+        assertEquals(5, tags.size());
+        byte[] body = tags.get(0).getBody();
+        assertEquals(0x1C, body[0]);
+        // 3组参数集: VPS, SPS, PPS
+        assertEquals(3, body[5 + 22]);
+        assertEquals((byte) (0x80 | 32), body[5 + 23]);
+        assertEquals(0x1C, tags.get(1).getBody()[0]);
+        assertEquals(0x2C, tags.get(2).getBody()[0]);
+    }
+
+    /**
+     * 两个观看者共用一路取流; 后加入的从最近的关键帧开始, 时间戳从0开始
+     */
+    @Test
+    void viewersShareOneStreamAndLateViewerStartsAtKeyframe() throws Exception {
+        Output first = new Output();
+        Thread firstViewer = this.viewer(first);
+        this.await(() -> !fake.realPlays.isEmpty());
+        PsSample sample = new PsSample(PsDemuxer.CODEC_H265);
+        sample.generate(1, 10, 20000);
+        for (int i = 0; i < 4; i++) {
+            sample.frame(i == 0, 2000);
+        }
+        this.feed(sample);
+        this.await(() -> this.stats().getFrames() == 13);
+
+        Output second = new Output();
+        Thread secondViewer = this.viewer(second);
+        this.await(() -> this.stats().getViewers() == 2);
+        PsSample more = new PsSample(PsDemuxer.CODEC_H265);
+        ReflectionTestUtils.setField(more, "pts", 90000 + 14 * 3600L);
+        for (int i = 0; i < 3; i++) {
+            more.frame(false, 2000);
+        }
+        this.feed(more);
+        this.await(() -> first.tags().size() == 1 + 16 && second.tags().size() == 1 + 6);
+
+        List<byte[]> firstTags = first.tags();
+        List<byte[]> secondTags = second.tags();
+        // 序列头 + 第一组10帧 + 第二组4帧 + 2帧, 最后一帧要等下一帧开始才完整
+        assertEquals(0x1C, firstTags.get(0)[11]);
+        assertEquals(0, firstTags.get(0)[12]);
+        assertEquals(0x1C, firstTags.get(1)[11]);
+        // 后加入的: 序列头 + 第二组的关键帧开始的3帧 + 后面的3帧
+        assertEquals(0, secondTags.get(0)[12]);
+        assertEquals(0x1C, secondTags.get(1)[11]);
+        assertEquals(0, timestamp(secondTags.get(1)));
+        assertEquals(40, timestamp(secondTags.get(2)));
+        assertArrayEquals(Arrays.copyOfRange(firstTags.get(11), 11, firstTags.get(11).length),
+                Arrays.copyOfRange(secondTags.get(1), 11, secondTags.get(1).length));
+        verify(fake.sdk, times(1)).NET_DVR_RealPlay_V40(anyInt(), any(), any(), any());
+
+        HkFlvRelayStats stats = this.stats();
+        assertEquals("H265", stats.getCodec());
+        assertEquals(2, stats.getViewers());
+        assertEquals(16, stats.getFrames());
+        assertEquals(2, stats.getKeyframes());
+        assertEquals(6, stats.getGopFrames());
+        assertEquals(0, stats.getDropped());
+
+        first.closed = true;
+        second.closed = true;
+        this.feed(new PsSample(PsDemuxer.CODEC_H265).generate(1, 1, 100));
+        firstViewer.join(2000);
+        secondViewer.join(2000);
+        this.await(() -> this.stats().getViewers() == 0);
+    }
+
+    /**
+     * 慢观看者队列满后跳到下一个关键帧, 不影响其他观看者
+     */
+    @Test
+    void slowViewerSkipsToNextKeyframe() throws Exception {
+        property.getFlvRelay().setQueueSize(16);
+        Output fast = new Output();
+        Output slow = new Output();
+        slow.blocked = new CountDownLatch(1);
+        this.viewer(fast);
+        this.viewer(slow);
+        this.await(() -> !fake.realPlays.isEmpty() && this.stats().getViewers() == 2);
+        PsSample sample = new PsSample(PsDemuxer.CODEC_H264).generate(3, 20, 5000);
+        for (byte[] chunk : PsSample.chunks(sample.out.toByteArray(), 3)) {
+            fake.realData(0, HCNetSDK.NET_DVR_STREAMDATA, chunk);
+            Thread.sleep(1);
+        }
+        this.await(() -> this.stats().getFrames() == 59);
+        this.await(() -> fast.tags().size() == 1 + 59);
+        HkFlvRelayStats stats = this.stats();
+        assertTrue(stats.getResets() >= 1, "resets: " + stats.getResets());
+        assertTrue(stats.getDropped() > 16, "dropped: " + stats.getDropped());
+
+        slow.blocked.countDown();
+        // 再来一组, 慢观看者从新的关键帧恢复
+        this.feed(new PsSample(PsDemuxer.CODEC_H264).generate(1, 5, 5000));
+        this.await(() -> slow.tags().size() > 2);
+        // 恢复后收到的都从关键帧开始
+        List<byte[]> tags = slow.tags();
+        assertEquals(0x17, tags.get(1)[11]);
+    }
+
+    private HkFlvRelayStats stats() {
+        List<HkFlvRelayStats> stats = relay.stats();
+        return stats.isEmpty() ? new HkFlvRelayStats() : stats.get(0);
+    }
+
+    private List<FlvMuxer.Tag> mux(PsSample sample) {
+        FlvMuxer muxer = new FlvMuxer();
+        List<FlvMuxer.Tag> tags = new ArrayList<>();
+        PsDemuxer demuxer = new PsDemuxer(1024 * 1024, 4, false, frame -> tags.addAll(muxer.mux(frame)));
+        demuxer.feed(ByteBuffer.wrap(sample.out.toByteArray()));
+        demuxer.flush();
+        return tags;
+    }
+
+    private Thread viewer(Output out) {
+        Thread thread = new Thread(() -> {
+            try {
+                relay.view(camera, out);
+            } catch (Exception e) {
+                // 断开
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private void feed(PsSample sample) {
+        for (byte[] chunk : PsSample.chunks(sample.out.toByteArray(), 3)) {
+            fake.realData(0, HCNetSDK.NET_DVR_STREAMDATA, chunk);
+        }
+    }
+
+    private void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 3000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean(), String.valueOf(relay.stats()));
+    }
+
+    private static long timestamp(byte[] tag) {
+        return ((tag[7] & 0xFF) << 24) | ((tag[4] & 0xFF) << 16) | ((tag[5] & 0xFF) << 8) | (tag[6] & 0xFF);
+    }
+
+    /**
+     * 收集FLV输出, closed后写入抛出异常模拟断开, blocked时写入阻塞模拟慢观看者
+     */
+    private static class Output extends OutputStream {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        private volatile boolean closed;
+
+        private volatile CountDownLatch blocked;
+
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("closed");
+            }
+            CountDownLatch latch = blocked;
+            if (latch != null) {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            synchronized (out) {
+                out.write(b, off, len);
+            }
+        }
+
+        /**
+         * 跳过FLV头, 每个标签含11字节标签头, 不含 PreviousTagSize
+         */
+        List<byte[]> tags() {
+            byte[] data;
+            synchronized (out) {
+                data = out.toByteArray();
+            }
+            List<byte[]> tags = new ArrayList<>();
+            int p = 13;
+            while (p + 11 <= data.length) {
+                int size = ((data[p + 1] & 0xFF) << 16) | ((data[p + 2] & 0xFF) << 8) | (data[p + 3] & 0xFF);
+                if (p + 11 + size + 4 > data.length) {
+                    break;
+                }
+                tags.add(Arrays.copyOfRange(data, p, p + 11 + size));
+                p += 11 + size + 4;
+            }
+            return tags;
+        }
+    }
+}
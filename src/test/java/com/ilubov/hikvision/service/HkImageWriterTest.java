@@ -0,0 +1,190 @@
+package com.ilubov.hikvision.service;
+
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.util.BufferPool;
+import com.ilubov.hikvision.util.PooledBuffer;
+import com.ilubov.hikvision.vo.HkImageWriterParam;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 图片写入; 压测只在 -Dhk.benchmark=true 时运行, 优先写到tmpfs(/dev/shm), 输出吞吐和p99延迟
+ */
+@Slf4j
+class HkImageWriterTest {
+
+    private static final int IMAGES = 2000;
+
+    private static final int IMAGE_SIZE = 64 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * 同一批16张: GROUP每张图片刷一次文件, 目录只刷一次; ALWAYS每张图片都刷文件和目录
+     * <p>
+     * 直接按批写入, 不经过写入线程凑批, 刷盘次数是确定的; 不支持目录刷盘的系统(如Windows)跳过
+     */
+    @Test
+    void groupSharesDirectorySyncAcrossBatch() throws Exception {
+        assumeTrue(this.directorySyncSupported(tempDir), "不支持目录刷盘");
+        HkImageWriter always = this.writeBatch(HkImageWriterParam.FsyncPolicy.ALWAYS, Files.createDirectories(tempDir.resolve("always")), 16);
+        HkImageWriter group = this.writeBatch(HkImageWriterParam.FsyncPolicy.GROUP, Files.createDirectories(tempDir.resolve("group")), 16);
+        assertEquals(16, always.getFsyncs());
+        assertEquals(16, always.getDirectoryFsyncs());
+        assertEquals(16, group.getFsyncs());
+        assertEquals(1, group.getBatches());
+        assertEquals(1, group.getDirectoryFsyncs());
+        assertTrue(group.isDirectorySync());
+    }
+
+    /**
+     * 经过队列时凑批的结果取决于线程调度, 只校验和调度无关的关系: 每张图片刷一次文件, 每批刷一次目录, 每批不超过 groupCommitSize 张
+     */
+    @Test
+    void groupSyncsDirectoryOncePerBatch() throws Exception {
+        assumeTrue(this.directorySyncSupported(tempDir), "不支持目录刷盘");
+        HkImageWriter group = this.write(HkImageWriterParam.FsyncPolicy.GROUP, Files.createDirectories(tempDir.resolve("group")), 64);
+        assertEquals(64, group.getFsyncs());
+        assertEquals(group.getBatches(), group.getDirectoryFsyncs());
+        assertTrue(group.getBatches() >= 64 / new HkImageWriterParam().getGroupCommitSize(), String.valueOf(group.getBatches()));
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "hk.benchmark", matches = "true")
+    void benchmarkGroupCommit() throws Exception {
+        this.benchmark(HkImageWriterParam.FsyncPolicy.GROUP);
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "hk.benchmark", matches = "true")
+    void benchmarkNoFsync() throws Exception {
+        this.benchmark(HkImageWriterParam.FsyncPolicy.NONE);
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "hk.benchmark", matches = "true")
+    void benchmarkFsyncEveryImage() throws Exception {
+        this.benchmark(HkImageWriterParam.FsyncPolicy.ALWAYS);
+    }
+
+    private void benchmark(HkImageWriterParam.FsyncPolicy policy) throws Exception {
+        Path dir = this.dir(policy);
+        long start = System.nanoTime();
+        long[] latencies = new long[IMAGES];
+        HkImageWriter writer = this.write(policy, dir, IMAGES, new HkImageWriterParam().getGroupCommitWaitMs(), latencies);
+        long elapsed = System.nanoTime() - start;
+        Arrays.sort(latencies);
+        log.info("【图片写入压测】{} dir: {}, {}张 {}张/s, p50: {}ms, p99: {}ms, fsync: {}, 目录fsync: {}",
+                policy, dir, IMAGES, String.format("%.0f", IMAGES / (elapsed / 1e9)),
+                String.format("%.2f", latencies[IMAGES / 2] / 1e6), String.format("%.2f", latencies[IMAGES * 99 / 100] / 1e6),
+                writer.getFsyncs(), writer.getDirectoryFsyncs());
+        for (File file : dir.toFile().listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(dir);
+    }
+
+    /**
+     * 凑批等待放宽到20ms, 让一次提交的图片稳定凑成整批
+     */
+    private HkImageWriter write(HkImageWriterParam.FsyncPolicy policy, Path dir, int images) throws Exception {
+        return this.write(policy, dir, images, 20, new long[images]);
+    }
+
+    /**
+     * 一次提交全部图片, 等全部写完后关闭写入线程
+     */
+    private HkImageWriter write(HkImageWriterParam.FsyncPolicy policy, Path dir, int images, long groupCommitWaitMs,
+                                long[] latencies) throws Exception {
+        HkCameraProperty property = new HkCameraProperty();
+        property.setImgPath(dir.toString() + File.separator);
+        HkImageWriterParam param = property.getImageWriter();
+        param.setFsyncPolicy(policy);
+        param.setQueueCapacity(images);
+        param.setGroupCommitWaitMs(groupCommitWaitMs);
+        HkImageWriter writer = new HkImageWriter();
+        ReflectionTestUtils.setField(writer, "property", property);
+        writer.init();
+        BufferPool pool = new BufferPool(4096, IMAGE_SIZE, 64L * IMAGE_SIZE, false);
+
+        CompletableFuture<?>[] futures = new CompletableFuture[images];
+        byte[] image = new byte[IMAGE_SIZE];
+        for (int i = 0; i < images; i++) {
+            int index = i;
+            long submit = System.nanoTime();
+            PooledBuffer buffer = pool.wrap(image, 0, image.length);
+            futures[i] = writer.submit(buffer, String.valueOf(i))
+                    .thenRun(() -> latencies[index] = System.nanoTime() - submit);
+        }
+        CompletableFuture.allOf(futures).get(60, TimeUnit.SECONDS);
+        writer.destroy();
+        assertEquals(images, writer.getWritten());
+        assertEquals(images, dir.toFile().list().length);
+        assertEquals(0, pool.getOutstanding() + pool.getInUseBytes());
+        return writer;
+    }
+
+    /**
+     * 在当前线程把全部图片作为一批写入
+     */
+    private HkImageWriter writeBatch(HkImageWriterParam.FsyncPolicy policy, Path dir, int images) throws Exception {
+        HkCameraProperty property = new HkCameraProperty();
+        property.setImgPath(dir.toString() + File.separator);
+        property.getImageWriter().setFsyncPolicy(policy);
+        HkImageWriter writer = new HkImageWriter();
+        ReflectionTestUtils.setField(writer, "property", property);
+        BufferPool pool = new BufferPool(4096, IMAGE_SIZE, 64L * IMAGE_SIZE, false);
+
+        byte[] image = new byte[IMAGE_SIZE];
+        List<PooledBuffer> buffers = new ArrayList<>();
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < images; i++) {
+            buffers.add(pool.wrap(image, 0, image.length));
+            paths.add(dir.resolve(i + ".jpg"));
+        }
+        List<CompletableFuture<Path>> futures = writer.writeBatch(buffers, paths);
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+        assertEquals(images, writer.getWritten());
+        assertEquals(images, dir.toFile().list().length);
+        assertEquals(0, pool.getOutstanding() + pool.getInUseBytes());
+        return writer;
+    }
+
+    private boolean directorySyncSupported(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private Path dir(HkImageWriterParam.FsyncPolicy policy) throws Exception {
+        Path shm = Paths.get("/dev/shm");
+        if (Files.isDirectory(shm) && Files.isWritable(shm)) {
+            return Files.createTempDirectory(shm, "hk-writer-" + policy);
+        }
+        return Files.createDirectories(tempDir.resolve(policy.name()));
+    }
+}
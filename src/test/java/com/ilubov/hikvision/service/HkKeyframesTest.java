@@ -0,0 +1,267 @@
+package com.ilubov.hikvision.service;
+
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.sdk.HCNetSDK;
+import com.ilubov.hikvision.util.PsDemuxer;
+import com.ilubov.hikvision.vo.HkCameraParam;
+import com.ilubov.hikvision.vo.HkKeyframeStats;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class HkKeyframesTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * 生成的H.265样本任意切开后输入, 找到每个关键帧和它的位置, 前面的错位数据被跳过
+     */
+    @Test
+    void demuxesKeyframesFromGeneratedH265Sample() throws Exception {
+        PsSample sample = new PsSample(PsDemuxer.CODEC_H265).generate(3, 10, 30000);
+        Path file = sample.save(tempDir, "sample_h265.ps");
+        byte[] garbage = {1, 2, 3, 0, 0, 1, (byte) 0xE0, 9, 9};
+        byte[] generated = Files.readAllBytes(file);
+        byte[] data = new byte[garbage.length + generated.length];
+        System.arraycopy(garbage, 0, data, 0, garbage.length);
+        System.arraycopy(generated, 0, data, garbage.length, generated.length);
+
+        List<PsDemuxer.Frame> keyframes = new ArrayList<>();
+        PsDemuxer demuxer = new PsDemuxer(1024 * 1024, 2, keyframes::add);
+        for (byte[] chunk : PsSample.chunks(data, 7)) {
+            demuxer.feed(ByteBuffer.wrap(chunk));
+        }
+        demuxer.flush();
+
+        assertEquals(PsDemuxer.CODEC_H265, demuxer.getCodec());
+        assertEquals(30, demuxer.getFrames());
+        assertEquals(3, demuxer.getKeyframes());
+        assertEquals(10, demuxer.getGopFrames());
+        assertEquals(garbage.length, demuxer.getSkippedBytes());
+        assertEquals(3, keyframes.size());
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(sample.keyframes.get(i), keyframes.get(i).getData());
+            assertEquals(garbage.length + sample.keyframeOffsets.get(i), keyframes.get(i).getOffset());
+            assertEquals(90000 + i * 10 * 3600, keyframes.get(i).getPts());
+        }
+        // 只保留最近的2个位置
+        PsDemuxer.KeyframeIndex[] index = demuxer.index();
+        assertEquals(2, index.length);
+        assertEquals(keyframes.get(1).getOffset(), index[0].getOffset());
+        assertEquals(keyframes.get(2).getOffset(), index[1].getOffset());
+        assertEquals(sample.keyframes.get(2).length, index[1].getSize());
+    }
+
+    @Test
+    void demuxesKeyframesFromGeneratedH264Sample() throws Exception {
+        PsSample sample = new PsSample(PsDemuxer.CODEC_H264).generate(2, 5, 20000);
+        // 最后一个关键帧超过上限被丢弃
+        sample.frame(true, 40000);
+        sample.frame(false, 100);
+        byte[] data = Files.readAllBytes(sample.save(tempDir, "sample_h264.ps"));
+        List<PsDemuxer.Frame> keyframes = new ArrayList<>();
+        PsDemuxer demuxer = new PsDemuxer(sample.keyframes.get(0).length, 4, keyframes::add);
+        // 一次输入整个文件
+        demuxer.feed(ByteBuffer.wrap(data));
+
+        assertEquals(PsDemuxer.CODEC_H264, demuxer.getCodec());
+        assertEquals(11, demuxer.getFrames());
+        assertEquals(2, demuxer.getKeyframes());
+        assertEquals(2, keyframes.size());
+        assertArrayEquals(sample.keyframes.get(1), keyframes.get(1).getData());
+    }
+
+    /**
+     * 设备录下的真实码流 (src/test/resources/ps/*.ps, 截取开头几个GOP), 任意切开后输入,
+     * 每个关键帧都以起始码开头并带参数集, 和一次输入整个文件的结果一致; 没有样本时跳过
+     */
+    @Test
+    void demuxesRecordedDeviceCaptures() throws Exception {
+        List<Path> captures = new ArrayList<>();
+        URL dir = getClass().getResource("/ps");
+        if (dir != null) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(dir.toURI()), "*.ps")) {
+                stream.forEach(captures::add);
+            }
+        }
+        Assumptions.assumeTrue(!captures.isEmpty(), "src/test/resources/ps 下没有设备录制的样本");
+        for (Path capture : captures) {
+            byte[] data = Files.readAllBytes(capture);
+            List<PsDemuxer.Frame> keyframes = new ArrayList<>();
+            PsDemuxer demuxer = new PsDemuxer(4 * 1024 * 1024, 8, keyframes::add);
+            for (byte[] chunk : PsSample.chunks(data, 13)) {
+                demuxer.feed(ByteBuffer.wrap(chunk));
+            }
+            demuxer.flush();
+
+            String name = capture.getFileName().toString();
+            int codec = demuxer.getCodec();
+            assertTrue(codec == PsDemuxer.CODEC_H264 || codec == PsDemuxer.CODEC_H265, name);
+            assertTrue(demuxer.getKeyframes() > 0, name);
+            assertTrue(demuxer.getFrames() > demuxer.getKeyframes(), name);
+            assertEquals(demuxer.getKeyframes(), keyframes.size(), name);
+            long offset = -1;
+            for (PsDemuxer.Frame keyframe : keyframes) {
+                assertTrue(keyframe.getOffset() > offset, name);
+                offset = keyframe.getOffset();
+                assertTrue(startsWithStartCode(keyframe.getData()), name);
+                assertTrue(hasParameterSet(keyframe.getData(), codec), name);
+            }
+
+            List<PsDemuxer.Frame> whole = new ArrayList<>();
+            PsDemuxer once = new PsDemuxer(4 * 1024 * 1024, 8, whole::add);
+            once.feed(ByteBuffer.wrap(data));
+            once.flush();
+            assertEquals(keyframes.size(), whole.size(), name);
+            for (int i = 0; i < whole.size(); i++) {
+                assertArrayEquals(keyframes.get(i).getData(), whole.get(i).getData(), name);
+                assertEquals(keyframes.get(i).getOffset(), whole.get(i).getOffset(), name);
+            }
+        }
+    }
+
+    /**
+     * 关键帧中间丢了数据, 重新开始后不输出这个不完整的关键帧, 下一个关键帧照常输出
+     */
+    @Test
+    void resetDropsKeyframeWithLostPackets() {
+        PsSample sample = new PsSample(PsDemuxer.CODEC_H265).generate(3, 5, 30000);
+        byte[] data = sample.out.toByteArray();
+        int gapStart = (int) (long) sample.keyframeOffsets.get(1) + 10000;
+        int gapEnd = gapStart + 9000;
+
+        List<PsDemuxer.Frame> keyframes = new ArrayList<>();
+        PsDemuxer demuxer = new PsDemuxer(1024 * 1024, 4, keyframes::add);
+        demuxer.feed(ByteBuffer.wrap(data, 0, gapStart));
+        demuxer.reset();
+        demuxer.feed(ByteBuffer.wrap(data, gapEnd, data.length - gapEnd));
+        demuxer.flush();
+
+        assertEquals(1, demuxer.getResets());
+        assertEquals(2, keyframes.size());
+        assertArrayEquals(sample.keyframes.get(0), keyframes.get(0).getData());
+        assertArrayEquals(sample.keyframes.get(2), keyframes.get(1).getData());
+        // 丢掉的输入也计入偏移, 和整个流中的位置对得上
+        assertEquals(sample.keyframeOffsets.get(2) - (gapEnd - gapStart), keyframes.get(1).getOffset());
+    }
+
+    /**
+     * 实时取流回调样本数据, 拿到最新的关键帧, 不调用抓拍
+     */
+    @Test
+    void latestKeyframeFromRealPlayWithoutCapture() throws Exception {
+        FakeHCNetSDK fake = new FakeHCNetSDK();
+        HkCameraProperty property = new HkCameraProperty();
+        property.getRealPlay().setRingBytes(1024 * 1024);
+        HkSdkManager sdkManager = new HkSdkManager();
+        ReflectionTestUtils.setField(sdkManager, "property", property);
+        ReflectionTestUtils.setField(sdkManager, "hCNetSDK", fake.sdk);
+        HkSessionManager sessionManager = new HkSessionManager();
+        ReflectionTestUtils.setField(sessionManager, "property", property);
+        ReflectionTestUtils.setField(sessionManager, "sdkManager", sdkManager);
+        HkRealPlay realPlay = new HkRealPlay();
+        ReflectionTestUtils.setField(realPlay, "property", property);
+        ReflectionTestUtils.setField(realPlay, "sdkManager", sdkManager);
+        ReflectionTestUtils.setField(realPlay, "sessionManager", sessionManager);
+        realPlay.init();
+        HkKeyframes keyframes = new HkKeyframes();
+        ReflectionTestUtils.setField(keyframes, "property", property);
+        ReflectionTestUtils.setField(keyframes, "realPlay", realPlay);
+        keyframes.init();
+        HkCameraParam camera = new HkCameraParam();
+        camera.setDeviceIp("192.168.1.191");
+        camera.setUsername("admin");
+        camera.setPassword("password");
+        camera.setPort((short) 8000);
+        try {
+            CompletableFuture<PsDemuxer.Frame> first = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return keyframes.latest(camera);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            long deadline = System.currentTimeMillis() + 2000;
+            while (fake.realPlays.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            PsSample sample = new PsSample(PsDemuxer.CODEC_H265).generate(2, 10, 50000);
+            byte[] data = Files.readAllBytes(sample.save(tempDir, "sample_h265.ps"));
+            fake.realData(0, HCNetSDK.NET_DVR_SYSHEAD, new byte[40]);
+            for (byte[] chunk : PsSample.chunks(data, 11)) {
+                fake.realData(0, HCNetSDK.NET_DVR_STREAMDATA, chunk);
+            }
+            PsDemuxer.Frame keyframe = first.get(3, TimeUnit.SECONDS);
+            assertNotNull(keyframe);
+
+            deadline = System.currentTimeMillis() + 2000;
+            while (keyframes.stats().get(0).getKeyframes() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            keyframe = keyframes.latest(camera);
+            assertArrayEquals(sample.keyframes.get(1), keyframe.getData());
+            HkKeyframeStats stats = keyframes.stats().get(0);
+            assertEquals("H265", stats.getCodec());
+            assertEquals(2, stats.getKeyframes());
+            assertEquals(0, stats.getLostPackets());
+            assertEquals(2, stats.getIndex().size());
+            // 码流停住后超过有效时间的关键帧不再返回
+            property.getKeyframe().setMaxAgeMs(50);
+            property.getKeyframe().setWaitMs(100);
+            Thread.sleep(100);
+            assertNull(keyframes.latest(camera));
+            verify(fake.sdk, times(1)).NET_DVR_RealPlay_V40(anyInt(), any(), any(), any());
+            verify(fake.sdk, never()).NET_DVR_CaptureJPEGPicture_NEW(anyInt(), anyInt(), any(), any(), anyInt(), any());
+        } finally {
+            keyframes.destroy();
+            realPlay.destroy();
+            sdkManager.destroy();
+        }
+    }
+
+    private static boolean startsWithStartCode(byte[] data) {
+        return data.length > 4 && data[0] == 0 && data[1] == 0
+                && (data[2] == 1 || (data[2] == 0 && data[3] == 1));
+    }
+
+    /**
+     * H.264 找SPS(7), H.265 找VPS(32)
+     */
+    private static boolean hasParameterSet(byte[] data, int codec) {
+        for (int i = 0; i + 3 < data.length; i++) {
+            if (data[i] != 0 || data[i + 1] != 0 || data[i + 2] != 1) {
+                continue;
+            }
+            int header = data[i + 3] & 0xFF;
+            int type = codec == PsDemuxer.CODEC_H264 ? header & 0x1F : (header >> 1) & 0x3F;
+            if (type == (codec == PsDemuxer.CODEC_H264 ? 7 : 32)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
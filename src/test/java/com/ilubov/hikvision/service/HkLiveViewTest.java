@@ -0,0 +1,149 @@
+package com.ilubov.hikvision.service;
+
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.vo.HkCameraParam;
+import com.ilubov.hikvision.vo.HkLiveViewStats;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class HkLiveViewTest {
+
+    private HkCameraProperty property;
+
+    private HkLiveView liveView;
+
+    private HkCameraParam camera;
+
+    private final AtomicInteger captures = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        property = new HkCameraProperty();
+        property.getLiveView().setFps(20);
+        property.getLiveView().setIdleStopMs(0);
+        camera = new HkCameraParam();
+        camera.setDeviceIp("192.168.1.191");
+        HkCameraService cameraService = mock(HkCameraService.class);
+        // 每次抓拍的内容是抓拍序号; 实时预览不取拍照缓存
+        when(cameraService.streamPhoto(any(), eq(false), any())).thenAnswer(invocation -> {
+            HkCameraParam camera = invocation.getArgument(0);
+            HkCameraService.JpegSink sink = invocation.getArgument(2);
+            ByteBuffer jpeg = ByteBuffer.allocate(4).putInt(0, captures.incrementAndGet());
+            sink.accept(camera.getDeviceIp(), jpeg);
+            return true;
+        });
+        liveView = new HkLiveView();
+        ReflectionTestUtils.setField(liveView, "property", property);
+        ReflectionTestUtils.setField(liveView, "cameraService", cameraService);
+        liveView.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        liveView.destroy();
+    }
+
+    /**
+     * 3个观看者共用一个抓拍循环, 收到的是同一批帧, 抓拍次数不随观看人数增加
+     */
+    @Test
+    void viewersShareOneCapture() throws Exception {
+        int viewers = 3;
+        int framesPerViewer = 10;
+        List<List<Integer>> received = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(viewers);
+        for (int i = 0; i < viewers; i++) {
+            List<Integer> frames = new CopyOnWriteArrayList<>();
+            received.add(frames);
+            new Thread(() -> {
+                try {
+                    liveView.view(camera, (deviceIp, jpeg) -> {
+                        frames.add(jpeg.getInt(0));
+                        if (frames.size() == framesPerViewer) {
+                            throw new IOException("断开");
+                        }
+                    });
+                } catch (Exception e) {
+                    // 断开
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        int max = 0;
+        for (List<Integer> frames : received) {
+            assertEquals(framesPerViewer, frames.size());
+            max = Math.max(max, frames.get(framesPerViewer - 1));
+        }
+        // 30次发送只抓拍了约10次
+        assertTrue(captures.get() <= max + 2, "captures: " + captures.get());
+        List<HkLiveViewStats> stats = liveView.stats();
+        assertEquals(1, stats.size());
+        assertEquals(0, stats.get(0).getViewers());
+        assertEquals(20, stats.get(0).getTargetFps());
+
+        // 没有观看者后停止抓拍
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!liveView.stats().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(liveView.stats().isEmpty());
+        int stopped = captures.get();
+        Thread.sleep(200);
+        assertEquals(stopped, captures.get());
+    }
+
+    @Test
+    void frameRateAndViewerLimit() throws Exception {
+        property.getLiveView().setMaxViewers(1);
+        camera.setLiveViewFps(10.0);
+        long start = System.nanoTime();
+        CountDownLatch first = new CountDownLatch(1);
+        Thread viewer = new Thread(() -> {
+            try {
+                liveView.view(camera, (deviceIp, jpeg) -> first.countDown());
+            } catch (Exception e) {
+                // 停止预览
+            }
+        });
+        viewer.start();
+        assertTrue(first.await(2, TimeUnit.SECONDS));
+        // 第二个观看者超出上限
+        assertFalse(liveView.view(camera, (deviceIp, jpeg) -> {
+        }));
+
+        Thread.sleep(1500);
+        HkLiveViewStats stats = liveView.stats().get(0);
+        int taken = captures.get();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(1, stats.getViewers());
+        assertEquals(10, stats.getTargetFps());
+        // 只检查负载下也成立的上下限: 抓拍间隔不小于100ms, 慢了不补拍, 不会超过目标帧率
+        assertTrue(taken > 0);
+        assertTrue(taken <= elapsedMs / 100 + 1, "captures: " + taken + ", elapsed: " + elapsedMs + "ms");
+        assertTrue(stats.getFps() <= 10 + 1, "fps: " + stats.getFps());
+
+        liveView.destroy();
+        viewer.join(1000);
+        assertFalse(viewer.isAlive());
+    }
+}
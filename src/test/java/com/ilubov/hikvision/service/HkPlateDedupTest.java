@@ -0,0 +1,94 @@
+package com.ilubov.hikvision.service;
+
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.vo.HkDedupParam;
+import com.ilubov.hikvision.vo.HkDedupStats;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HkPlateDedupTest {
+
+    @Test
+    void slidingWindowPerDeviceAndPlate() {
+        HkPlateDedup dedup = this.dedup(1000, 1024);
+        assertEquals(0, dedup.check("lane-1", "粤B12345", 0));
+        assertEquals(1, dedup.check("lane-1", "粤B12345", 800));
+        // 重复上报顺延窗口
+        assertEquals(2, dedup.check("lane-1", "粤B12345", 1700));
+        assertEquals(0, dedup.check("lane-1", "粤B12345", 2701));
+        // 其他设备或其他车牌互不影响
+        assertEquals(0, dedup.check("lane-2", "粤B12345", 2702));
+        assertEquals(0, dedup.check("lane-1", "粤B12346", 2703));
+
+        HkDedupStats stats = dedup.stats();
+        assertEquals(6, stats.getLookups());
+        assertEquals(2, stats.getDuplicates());
+        assertEquals(2.0 / 6, stats.getHitRate(), 1e-9);
+        assertEquals(3, stats.getEntries());
+    }
+
+    @Test
+    void boundedCapacityEvictsOldest() {
+        HkPlateDedup dedup = this.dedup(60_000, 1024);
+        for (int i = 0; i < 10_000; i++) {
+            dedup.check("lane-1", "粤B" + (10000 + i), i);
+        }
+        HkDedupStats stats = dedup.stats();
+        assertEquals(1024, stats.getEntries());
+        assertTrue(stats.getEvictions() >= 10_000 - 1024);
+        // 最近上报的仍能去重
+        assertEquals(1, dedup.check("lane-1", "粤B19999", 10_000));
+    }
+
+    /**
+     * MERGE策略下重复上报沿用首次的图片, 窗口过期或键被淘汰后不再沿用
+     */
+    @Test
+    void mergeKeepsFirstImagesWithinWindow() {
+        HkPlateDedup dedup = this.dedup(1000, 8);
+        ((HkCameraProperty) ReflectionTestUtils.getField(dedup, "property")).getDedup().setPolicy(HkDedupParam.Policy.MERGE);
+        CompletableFuture<List<String>> first = CompletableFuture.completedFuture(Arrays.asList("a_0.jpg", "a_1.jpg"));
+        assertEquals(0, dedup.check("lane-1", "粤B12345", 0));
+        dedup.attachImages("lane-1", "粤B12345", first);
+        assertEquals(1, dedup.check("lane-1", "粤B12345", 500));
+        assertSame(first, dedup.images("lane-1", "粤B12345"));
+        assertNull(dedup.images("lane-2", "粤B12345"));
+
+        // 窗口过期后是新的首次上报
+        assertEquals(0, dedup.check("lane-1", "粤B12345", 2000));
+        assertNull(dedup.images("lane-1", "粤B12345"));
+        dedup.attachImages("lane-1", "粤B12345", first);
+        for (int i = 0; i < 100; i++) {
+            dedup.check("lane-1", "粤B" + (20000 + i), 2001 + i);
+        }
+        assertNull(dedup.images("lane-1", "粤B12345"));
+    }
+
+    @Test
+    void disabled() {
+        HkPlateDedup dedup = this.dedup(1000, 1024);
+        ((HkCameraProperty) ReflectionTestUtils.getField(dedup, "property")).getDedup().setEnabled(false);
+        assertEquals(0, dedup.check("lane-1", "粤B12345", 0));
+        assertEquals(0, dedup.check("lane-1", "粤B12345", 1));
+        assertEquals(0, dedup.stats().getLookups());
+    }
+
+    private HkPlateDedup dedup(long windowMs, int capacity) {
+        HkCameraProperty property = new HkCameraProperty();
+        property.getDedup().setWindowMs(windowMs);
+        property.getDedup().setCapacity(capacity);
+        HkPlateDedup dedup = new HkPlateDedup();
+        ReflectionTestUtils.setField(dedup, "property", property);
+        dedup.init();
+        return dedup;
+    }
+}
@@ -0,0 +1,241 @@
+package com.ilubov.hikvision.service;
+
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.vo.HkPlateEvent;
+import com.ilubov.hikvision.vo.HkPlateHit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HkPlateIndexTest {
+
+    private static final String PROVINCES = "粤京沪浙苏川湘鄂";
+
+    private static final String CHARS = "0123456789ABCDEFGHJKLMNPQRSTUVWXYZ";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void prefixAndFuzzyLookup() {
+        HkPlateIndex index = this.index(null);
+        long id = 0;
+        for (String plate : new String[]{"粤B12345", "粤B12346", "粤B12345", "粤B1234", "粤A12345", "京B12345", "粤B99999"}) {
+            index.add(event(id++, plate));
+        }
+
+        List<HkPlateHit> prefix = index.prefix("粤B12", 0);
+        assertEquals(3, prefix.size());
+        assertEquals("粤B1234", prefix.get(0).getPlateNumber());
+        assertEquals("粤B12345", prefix.get(1).getPlateNumber());
+        assertEquals(2, prefix.get(1).getPasses());
+        assertEquals(2, prefix.get(1).getLastEventId());
+
+        List<HkPlateHit> fuzzy = index.fuzzy("粤B12345", 1, 0);
+        assertEquals(5, fuzzy.size());
+        assertEquals("粤B12345", fuzzy.get(0).getPlateNumber());
+        assertEquals(0, fuzzy.get(0).getDistance());
+        for (HkPlateHit hit : fuzzy.subList(1, fuzzy.size())) {
+            assertEquals(1, hit.getDistance());
+        }
+        // 短查询无法用二元组过滤, 逐个比较
+        List<HkPlateHit> shortQuery = index.fuzzy("粤B123", 2, 0);
+        assertEquals(3, shortQuery.size());
+        assertEquals("粤B1234", shortQuery.get(0).getPlateNumber());
+
+        assertArrayEquals(new long[]{3, 2, 1, 0}, index.eventIds("粤B12", 0));
+        assertArrayEquals(new long[]{3, 2}, index.eventIds("粤B12", 2));
+    }
+
+    @Test
+    void rebuildsFromStoreAndKeepsLiveEvents() {
+        HkCameraProperty property = new HkCameraProperty();
+        property.getEventStore().setPath(tempDir.toString());
+        HkEventStore store = new HkEventStore();
+        ReflectionTestUtils.setField(store, "property", property);
+        store.init();
+        for (int i = 0; i < 100; i++) {
+            HkPlateEvent event = event(0, "粤B" + (10000 + i));
+            store.append(event);
+        }
+        HkPlateIndex index = this.index(store);
+        // 重建前写入的实时事件先缓存
+        HkPlateEvent live = event(0, "粤B10000");
+        store.append(live);
+        index.add(live);
+        assertTrue(!index.isReady());
+        index.rebuild();
+        assertTrue(index.isReady());
+        assertEquals(100, index.getPlates());
+        assertEquals(101, index.getEvents());
+        List<HkPlateEvent> events = index.events("粤B10000", 0);
+        assertEquals(2, events.size());
+        assertEquals(live.getId(), events.get(0).getId());
+        store.destroy();
+    }
+
+    @Test
+    void restartReplaysOnlyEventsAfterCheckpoint() {
+        HkCameraProperty property = new HkCameraProperty();
+        property.getEventStore().setPath(tempDir.toString());
+        property.getPlateIndex().setPostingsBlock(2);
+        AtomicInteger scanned = new AtomicInteger();
+        HkEventStore store = new HkEventStore() {
+            @Override
+            public void scan(long afterId, Consumer<HkPlateEvent> consumer) {
+                super.scan(afterId, event -> {
+                    scanned.incrementAndGet();
+                    consumer.accept(event);
+                });
+            }
+        };
+        ReflectionTestUtils.setField(store, "property", property);
+        store.init();
+        HkPlateIndex index = this.index(store, property);
+        index.rebuild();
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            HkPlateEvent event = event(0, "粤B" + (10000 + i % 10));
+            assertTrue(index.append(event));
+            ids.add(event.getId());
+        }
+        index.checkpoint();
+        for (int i = 0; i < 5; i++) {
+            HkPlateEvent event = event(0, "粤B10000");
+            index.append(event);
+            ids.add(event.getId());
+        }
+
+        scanned.set(0);
+        HkPlateIndex restarted = this.index(store, property);
+        restarted.rebuild();
+        assertEquals(5, scanned.get());
+        assertEquals(10, restarted.getPlates());
+        assertEquals(105, restarted.getEvents());
+        assertArrayEquals(index.eventIds("粤B", 0), restarted.eventIds("粤B", 0));
+        assertEquals(ids.get(ids.size() - 1).longValue(), restarted.eventIds("粤B10000", 1)[0]);
+        assertEquals(15, restarted.prefix("粤B10000", 0).get(0).getPasses());
+        store.destroy();
+    }
+
+    /**
+     * 20万个车牌, 200万次通行, 前缀和模糊查询都在毫秒级
+     */
+    @Test
+    void lookupLatency() {
+        HkPlateIndex index = this.index(null);
+        Random random = new Random(1);
+        String[] plates = new String[200_000];
+        for (int i = 0; i < plates.length; i++) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(PROVINCES.charAt(random.nextInt(PROVINCES.length())));
+            sb.append((char) ('A' + random.nextInt(8)));
+            for (int j = 0; j < 5; j++) {
+                sb.append(CHARS.charAt(random.nextInt(CHARS.length())));
+            }
+            plates[i] = sb.toString();
+        }
+        for (long id = 0; id < 2_000_000; id++) {
+            index.add(event(id, plates[random.nextInt(plates.length)]));
+        }
+
+        String target = plates[12345];
+        String typo = target.substring(0, 4) + (target.charAt(4) == '0' ? '1' : '0') + target.substring(5);
+        for (int i = 0; i < 20; i++) {
+            index.prefix(target.substring(0, 4), 100);
+            index.fuzzy(typo, 1, 100);
+            index.eventIds(target.substring(0, 5), 100);
+        }
+        long start = System.nanoTime();
+        int rounds = 100;
+        for (int i = 0; i < rounds; i++) {
+            index.prefix(target.substring(0, 4), 100);
+            List<HkPlateHit> fuzzy = index.fuzzy(typo, 1, 100);
+            assertTrue(fuzzy.stream().anyMatch(hit -> hit.getPlateNumber().equals(target)));
+            index.eventIds(target.substring(0, 5), 100);
+        }
+        long avgMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) / rounds;
+        assertTrue(avgMicros < 10_000, "avg: " + avgMicros + "us");
+    }
+
+    /**
+     * 1000万次通行: 事件ID压缩写入倒排文件, 堆上只剩车牌字典和每个车牌最近的几个ID; 按车牌查询仍能从新到旧取到任意多条
+     */
+    @Test
+    void postingsStayOffHeap() {
+        int events = 10_000_000;
+        String[] plates = new String[1000];
+        for (int i = 0; i < plates.length; i++) {
+            plates[i] = "粤B" + (10000 + i);
+        }
+        long before = usedHeap();
+        HkPlateIndex index = this.index(null);
+        Random random = new Random(1);
+        List<Long> tracked = new ArrayList<>();
+        for (long id = 0; id < events; id++) {
+            String plate = plates[random.nextInt(plates.length)];
+            if (plate.equals(plates[7])) {
+                tracked.add(id);
+            }
+            index.add(event(id, plate));
+        }
+        long heap = usedHeap() - before;
+        // 放在堆上至少要 8字节 * 1000万 = 80MB
+        assertTrue(heap < 16 * 1024 * 1024, "heap: " + heap);
+        assertTrue(index.getPostingsBytes() < (long) events * 5, "postings: " + index.getPostingsBytes());
+        assertEquals(events, index.getEvents());
+
+        long[] ids = index.eventIds(plates[7], 0);
+        assertEquals(1000, ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(tracked.get(tracked.size() - 1 - i).longValue(), ids[i]);
+        }
+        HkPlateHit hit = index.prefix(plates[7], 1).get(0);
+        assertEquals(tracked.size(), hit.getPasses());
+        assertEquals(tracked.get(tracked.size() - 1).longValue(), hit.getLastEventId());
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private HkPlateIndex index(HkEventStore store) {
+        HkCameraProperty property = new HkCameraProperty();
+        property.getEventStore().setPath(tempDir.toString());
+        return this.index(store, property);
+    }
+
+    private HkPlateIndex index(HkEventStore store, HkCameraProperty property) {
+        HkPlateIndex index = new HkPlateIndex();
+        ReflectionTestUtils.setField(index, "property", property);
+        ReflectionTestUtils.setField(index, "eventStore", store);
+        if (store == null) {
+            ReflectionTestUtils.setField(index, "pending", null);
+        }
+        return index;
+    }
+
+    private static HkPlateEvent event(long id, String plate) {
+        HkPlateEvent event = new HkPlateEvent();
+        event.setId(id);
+        event.setTime(id);
+        event.setPlateNumber(plate);
+        return event;
+    }
+}
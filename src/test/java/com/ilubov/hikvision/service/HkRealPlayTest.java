@@ -0,0 +1,290 @@
+package com.ilubov.hikvision.service;
+
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.sdk.HCNetSDK;
+import com.ilubov.hikvision.util.PacketRing;
+import com.ilubov.hikvision.vo.HkCameraParam;
+import com.ilubov.hikvision.vo.HkRealPlayStats;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class HkRealPlayTest {
+
+    private final FakeHCNetSDK fake = new FakeHCNetSDK();
+
+    private HkCameraProperty property;
+
+    private HkSdkManager sdkManager;
+
+    private HkRealPlay realPlay;
+
+    private HkCameraParam camera;
+
+    @BeforeEach
+    void setUp() {
+        property = new HkCameraProperty();
+        property.getRealPlay().setRingBytes(64 * 1024);
+        property.getRealPlay().setIdleStopMs(0);
+        camera = new HkCameraParam();
+        camera.setDeviceIp("192.168.1.191");
+        camera.setUsername("admin");
+        camera.setPassword("password");
+        camera.setPort((short) 8000);
+        sdkManager = new HkSdkManager();
+        ReflectionTestUtils.setField(sdkManager, "property", property);
+        ReflectionTestUtils.setField(sdkManager, "hCNetSDK", fake.sdk);
+        HkSessionManager sessionManager = new HkSessionManager();
+        ReflectionTestUtils.setField(sessionManager, "property", property);
+        ReflectionTestUtils.setField(sessionManager, "sdkManager", sdkManager);
+        realPlay = new HkRealPlay();
+        ReflectionTestUtils.setField(realPlay, "property", property);
+        ReflectionTestUtils.setField(realPlay, "sdkManager", sdkManager);
+        ReflectionTestUtils.setField(realPlay, "sessionManager", sessionManager);
+        realPlay.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        realPlay.destroy();
+        sdkManager.destroy();
+    }
+
+    /**
+     * 两个消费方共用一次取流, 各自按顺序读到所有包; 都离开后停止取流并注销
+     */
+    @Test
+    void consumersShareOneRealPlay() throws Exception {
+        HkRealPlay.Consumer first = realPlay.attach(camera, 1, null);
+        HkRealPlay.Consumer second = realPlay.attach(camera, 1, null);
+        assertNotNull(first);
+        assertNotNull(second);
+        verify(fake.sdk, times(1)).NET_DVR_RealPlay_V40(anyInt(), any(), any(), any());
+
+        byte[] header = {'I', 'M', 'K', 'H', 1, 2};
+        fake.realData(0, HCNetSDK.NET_DVR_SYSHEAD, header);
+        for (int i = 0; i < 100; i++) {
+            fake.realData(0, HCNetSDK.NET_DVR_STREAMDATA, this.packet(i, 100 + i));
+        }
+        assertArrayEquals(header, first.getHeader());
+
+        for (HkRealPlay.Consumer consumer : new HkRealPlay.Consumer[]{first, second}) {
+            ByteBuffer dst = ByteBuffer.allocate(1024);
+            assertEquals(header.length, consumer.poll(dst));
+            assertEquals(HCNetSDK.NET_DVR_SYSHEAD, consumer.getType());
+            for (int i = 0; i < 100; i++) {
+                dst.clear();
+                assertEquals(100 + i, consumer.poll(dst));
+                assertEquals(HCNetSDK.NET_DVR_STREAMDATA, consumer.getType());
+                assertEquals(i, dst.getInt(0));
+                assertEquals((byte) i, dst.get(99 + i));
+            }
+            dst.clear();
+            assertEquals(0, consumer.poll(dst));
+            assertEquals(0, consumer.getLost());
+        }
+        HkRealPlayStats stats = realPlay.stats().get(0);
+        assertEquals(2, stats.getConsumers());
+        assertEquals(101, stats.getPackets());
+        assertEquals(header.length, stats.getHeaderBytes());
+
+        first.close();
+        second.close();
+        long deadline = System.currentTimeMillis() + 3000;
+        while (!realPlay.stats().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(realPlay.stats().isEmpty());
+        assertTrue(first.isStopped());
+        verify(fake.sdk).NET_DVR_StopRealPlay(0);
+        verify(fake.sdk).NET_DVR_Logout(fake.userId("192.168.1.191"));
+    }
+
+    /**
+     * 开始取流阻塞时不影响其他码流和统计, 同一路后加入的消费方等它开始并共用; 返回句柄之前回调的系统头不丢
+     */
+    @Test
+    void slowStartBlocksOnlyItsOwnStream() throws Exception {
+        fake.realPlayDelays.put(1, 800L);
+        byte[] header = {'I', 'M', 'K', 'H', 1, 2};
+        fake.realPlayHeader = header;
+        CompletableFuture<HkRealPlay.Consumer> first = CompletableFuture.supplyAsync(() -> realPlay.attach(camera, 1, null));
+        Thread.sleep(100);
+        CompletableFuture<HkRealPlay.Consumer> second = CompletableFuture.supplyAsync(() -> realPlay.attach(camera, 1, null));
+
+        long start = System.nanoTime();
+        HkRealPlay.Consumer other = realPlay.attach(camera, 2, null);
+        assertEquals(2, realPlay.stats().size());
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertNotNull(other);
+        assertTrue(elapsedMs < 400, "attach: " + elapsedMs + "ms");
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+
+        for (HkRealPlay.Consumer consumer : new HkRealPlay.Consumer[]{first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS)}) {
+            assertNotNull(consumer);
+            ByteBuffer dst = ByteBuffer.allocate(1024);
+            assertEquals(header.length, consumer.poll(dst));
+            assertEquals(HCNetSDK.NET_DVR_SYSHEAD, consumer.getType());
+            assertFalse(consumer.isStopped());
+            consumer.close();
+        }
+        verify(fake.sdk, times(2)).NET_DVR_RealPlay_V40(anyInt(), any(), any(), any());
+        other.close();
+        long deadline = System.currentTimeMillis() + 3000;
+        while (!realPlay.stats().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(other.isStopped());
+    }
+
+    /**
+     * 开始取流抛出异常(没有配置端口时登录空指针)时加入返回null, 占位的码流被移除, 之后的加入不会一直等待
+     */
+    @Test
+    void startFailureDoesNotBlockLaterAttach() throws Exception {
+        camera.setPort(null);
+        CompletableFuture<HkRealPlay.Consumer> first = CompletableFuture.supplyAsync(() -> realPlay.attach(camera, 1, null));
+        assertNull(first.get(5, TimeUnit.SECONDS));
+        assertTrue(realPlay.stats().isEmpty());
+
+        camera.setPort((short) 8000);
+        HkRealPlay.Consumer consumer = CompletableFuture.supplyAsync(() -> realPlay.attach(camera, 1, null)).get(5, TimeUnit.SECONDS);
+        assertNotNull(consumer);
+        consumer.close();
+    }
+
+    /**
+     * 停止取流阻塞时不持有全局锁, 其他码流照常加入, 统计照常返回
+     */
+    @Test
+    void slowStopBlocksOnlyItsOwnStream() throws Exception {
+        fake.stopRealPlayMs = 800;
+        realPlay.attach(camera, 1, null).close();
+        long deadline = System.currentTimeMillis() + 3000;
+        while (fake.stopRealPlays.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, fake.stopRealPlays.get());
+
+        long start = System.nanoTime();
+        HkRealPlay.Consumer other = realPlay.attach(camera, 2, null);
+        List<HkRealPlayStats> stats = realPlay.stats();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertNotNull(other);
+        assertEquals(1, stats.size());
+        assertEquals(2, stats.get(0).getChannel());
+        assertTrue(elapsedMs < 400, "attach: " + elapsedMs + "ms");
+        fake.stopRealPlayMs = 0;
+        other.close();
+    }
+
+    /**
+     * 慢消费方被覆盖时跳到最早的完整包并计数, 写入方不等待; 太大的包丢弃
+     */
+    @Test
+    void slowConsumerOverrunIsCounted() {
+        HkRealPlay.Consumer consumer = realPlay.attach(camera, 1, null);
+        // 64KB缓冲, 每包1KB, 写200个
+        for (int i = 0; i < 200; i++) {
+            fake.realData(0, HCNetSDK.NET_DVR_STREAMDATA, this.packet(i, 1024));
+        }
+        fake.realData(0, HCNetSDK.NET_DVR_STREAMDATA, new byte[20 * 1024]);
+        ByteBuffer dst = ByteBuffer.allocate(2048);
+        int last = -1;
+        int read = 0;
+        while (consumer.poll(dst) > 0) {
+            int seq = dst.getInt(0);
+            assertTrue(seq > last);
+            last = seq;
+            read++;
+            dst.clear();
+        }
+        assertEquals(199, last);
+        assertEquals(200, read + consumer.getLost());
+        assertTrue(consumer.getLost() > 100, "lost: " + consumer.getLost());
+        HkRealPlayStats stats = realPlay.stats().get(0);
+        assertEquals(consumer.getLost(), stats.getOverruns());
+        assertEquals(1, stats.getTooLarge());
+        // 放不下时不读取
+        fake.realData(0, HCNetSDK.NET_DVR_STREAMDATA, this.packet(200, 1024));
+        assertEquals(-1024, consumer.poll(ByteBuffer.allocate(16)));
+        assertEquals(1024, consumer.poll(dst));
+        consumer.close();
+    }
+
+    /**
+     * 写入方和读取方并发, 包可以跨越缓冲区末尾, 读到的每个包都是完整的
+     */
+    @Test
+    void concurrentWriterAndReaderSeeWholePackets() throws Exception {
+        PacketRing ring = new PacketRing(16 * 1024);
+        PacketRing.Reader reader = ring.reader();
+        int total = 20000;
+        AtomicReference<String> error = new AtomicReference<>();
+        AtomicLong received = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread consumer = new Thread(() -> {
+            ByteBuffer dst = ByteBuffer.allocate(4096);
+            while (received.get() + reader.getLost() < total) {
+                dst.clear();
+                int length = reader.poll(dst);
+                if (length == 0) {
+                    reader.await(10, TimeUnit.MILLISECONDS);
+                    continue;
+                }
+                int seq = dst.getInt(0);
+                for (int i = 4; i < length; i++) {
+                    if (dst.get(i) != (byte) seq) {
+                        error.set("packet " + seq + " corrupted at " + i);
+                        return;
+                    }
+                }
+                received.incrementAndGet();
+            }
+            done.countDown();
+        });
+        consumer.start();
+        for (int i = 0; i < total; i++) {
+            ring.write(HCNetSDK.NET_DVR_STREAMDATA, ByteBuffer.wrap(this.packet(i, 100 + i % 900)));
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS), String.valueOf(error.get()));
+        assertNull(error.get());
+        assertEquals(total, received.get() + reader.getLost());
+        assertEquals(reader.getLost(), ring.getOverruns());
+        reader.close();
+        assertEquals(0, ring.getReaders());
+    }
+
+    /**
+     * 前4字节为序号, 其余字节为序号的低8位
+     */
+    private byte[] packet(int seq, int length) {
+        byte[] data = new byte[length];
+        for (int i = 4; i < length; i++) {
+            data[i] = (byte) seq;
+        }
+        ByteBuffer.wrap(data).putInt(0, seq);
+        return data;
+    }
+}
@@ -0,0 +1,151 @@
+package com.ilubov.hikvision.service;
+
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.vo.HkCameraParam;
+import com.ilubov.hikvision.vo.HkRecordIndexStats;
+import com.ilubov.hikvision.vo.HkRecordSegment;
+import com.ilubov.hikvision.vo.HkRecordSpan;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HkRecordIndexTest {
+
+    private static final long MINUTE = 60_000;
+
+    @TempDir
+    Path tempDir;
+
+    private final FakeHCNetSDK fake = new FakeHCNetSDK();
+
+    private final long now = System.currentTimeMillis() / 1000 * 1000;
+
+    private final long base = now - 180 * MINUTE;
+
+    private HkCameraProperty property;
+
+    private HkSdkManager sdkManager;
+
+    private HkSessionManager sessionManager;
+
+    private HkRecordIndex index;
+
+    @BeforeEach
+    void setUp() {
+        property = new HkCameraProperty();
+        property.getRecordIndex().setPath(tempDir.toString());
+        property.getRecordIndex().setRetentionDays(1);
+        HkCameraParam camera = new HkCameraParam();
+        camera.setDeviceIp("192.168.1.191");
+        camera.setUsername("admin");
+        camera.setPassword("password");
+        camera.setPort((short) 8000);
+        property.setCamera(Collections.singletonList(camera));
+        sdkManager = new HkSdkManager();
+        ReflectionTestUtils.setField(sdkManager, "property", property);
+        ReflectionTestUtils.setField(sdkManager, "hCNetSDK", fake.sdk);
+        sessionManager = new HkSessionManager();
+        ReflectionTestUtils.setField(sessionManager, "property", property);
+        ReflectionTestUtils.setField(sessionManager, "sdkManager", sdkManager);
+        index = this.newIndex();
+    }
+
+    @AfterEach
+    void tearDown() {
+        sdkManager.destroy();
+    }
+
+    /**
+     * 重叠和间隔小于 merge-gap-ms 的录像合并成一段, 空档只在已索引的范围内
+     */
+    @Test
+    void answersTimelineAndGapsFromIndex() {
+        fake.recordings.add(new long[]{base, base + 30 * MINUTE, 0});
+        fake.recordings.add(new long[]{base + 30 * MINUTE, base + 60 * MINUTE, 0});
+        fake.recordings.add(new long[]{base + 10 * MINUTE, base + 15 * MINUTE, 1});
+        fake.recordings.add(new long[]{base + 70 * MINUTE, base + 80 * MINUTE, 0});
+        fake.recordings.add(new long[]{base + 80 * MINUTE + 1000, base + 90 * MINUTE, 0});
+        fake.recordings.add(new long[]{now - 2 * 1440 * MINUTE, now - 2 * 1440 * MINUTE + 10 * MINUTE, 0});
+        index.refresh();
+        long until = index.stats().get(0).getIndexedUntil();
+        assertTrue(until >= now, String.valueOf(until));
+        assertEquals(1, fake.finds.size());
+        assertEquals(until - 1440 * MINUTE, fake.finds.get(0)[1]);
+        assertEquals(until, fake.finds.get(0)[2]);
+
+        assertEquals(Arrays.asList(new HkRecordSpan(base, base + 60 * MINUTE), new HkRecordSpan(base + 70 * MINUTE, base + 90 * MINUTE)),
+                index.timeline("192.168.1.191", 1, base, base + 120 * MINUTE));
+        assertEquals(Collections.singletonList(new HkRecordSpan(base + 20 * MINUTE, base + 40 * MINUTE)),
+                index.timeline("192.168.1.191", 1, base + 20 * MINUTE, base + 40 * MINUTE));
+        assertEquals(Arrays.asList(new HkRecordSpan(base - 60 * MINUTE, base), new HkRecordSpan(base + 60 * MINUTE, base + 70 * MINUTE),
+                        new HkRecordSpan(base + 90 * MINUTE, base + 120 * MINUTE)),
+                index.gaps("192.168.1.191", 1, base - 60 * MINUTE, base + 120 * MINUTE));
+        // 还没有索引的时间不算空档
+        List<HkRecordSpan> gaps = index.gaps("192.168.1.191", 1, base + 100 * MINUTE, now + 60 * MINUTE);
+        assertEquals(Collections.singletonList(new HkRecordSpan(base + 100 * MINUTE, until)), gaps);
+        assertNull(index.gaps("192.168.1.192", 1, base, now));
+
+        List<HkRecordSegment> files = index.files("192.168.1.191", 1, base, base + 20 * MINUTE);
+        assertEquals(2, files.size());
+        assertEquals("ch01_" + base, files.get(0).getFileName());
+        assertEquals(base + 10 * MINUTE, files.get(1).getFrom());
+        assertEquals(1, files.get(1).getFileType());
+        HkRecordIndexStats stats = index.stats().get(0);
+        assertEquals(5, stats.getSegments());
+        assertEquals(1, stats.getRefreshes());
+        assertEquals(0, stats.getFailures());
+    }
+
+    /**
+     * 增量刷新只查最新的时间段, 还在录制的文件按文件名更新; 重启后从本地文件恢复
+     */
+    @Test
+    void refreshesNewestSpanAndReloadsFromDisk() {
+        long current = now - 20 * MINUTE;
+        fake.recordings.add(new long[]{base, base + 30 * MINUTE, 0});
+        long[] growing = {current, current + 10 * MINUTE, 0};
+        fake.recordings.add(growing);
+        index.refresh();
+        long until = index.stats().get(0).getIndexedUntil();
+
+        growing[1] = current + 15 * MINUTE;
+        fake.recordings.add(new long[]{current + 16 * MINUTE, current + 18 * MINUTE, 6});
+        index.refresh();
+        assertEquals(2, fake.finds.size());
+        assertEquals(until - 10 * MINUTE, fake.finds.get(1)[1]);
+        List<HkRecordSpan> expected = Arrays.asList(new HkRecordSpan(base, base + 30 * MINUTE),
+                new HkRecordSpan(current, current + 15 * MINUTE), new HkRecordSpan(current + 16 * MINUTE, current + 18 * MINUTE));
+        assertEquals(expected, index.timeline("192.168.1.191", 1, base - 60 * MINUTE, now));
+        assertEquals(3, index.stats().get(0).getSegments());
+        assertEquals(2, index.stats().get(0).getLastFound());
+
+        HkRecordIndex reloaded = this.newIndex();
+        assertEquals(expected, reloaded.timeline("192.168.1.191", 1, base - 60 * MINUTE, now));
+        assertEquals(index.stats().get(0).getIndexedUntil(), reloaded.stats().get(0).getIndexedUntil());
+        assertEquals(index.stats().get(0).getCoveredFrom(), reloaded.stats().get(0).getCoveredFrom());
+        assertEquals(2, fake.finds.size());
+    }
+
+    private HkRecordIndex newIndex() {
+        HkDeviceRegistry deviceRegistry = new HkDeviceRegistry();
+        ReflectionTestUtils.setField(deviceRegistry, "property", property);
+        HkRecordIndex recordIndex = new HkRecordIndex();
+        ReflectionTestUtils.setField(recordIndex, "property", property);
+        ReflectionTestUtils.setField(recordIndex, "sdkManager", sdkManager);
+        ReflectionTestUtils.setField(recordIndex, "sessionManager", sessionManager);
+        ReflectionTestUtils.setField(recordIndex, "deviceRegistry", deviceRegistry);
+        recordIndex.load();
+        return recordIndex;
+    }
+}
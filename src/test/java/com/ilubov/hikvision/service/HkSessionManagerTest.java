@@ -0,0 +1,82 @@
+package com.ilubov.hikvision.service;
+
+import com.ilubov.hikvision.config.HkCameraProperty;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HkSessionManagerTest {
+
+    private static final String IP = "192.168.1.191";
+
+    private final FakeHCNetSDK fake = new FakeHCNetSDK();
+
+    private HkSdkManager sdkManager;
+
+    private HkSessionManager sessionManager;
+
+    @BeforeEach
+    void setUp() {
+        HkCameraProperty property = new HkCameraProperty();
+        property.getSession().setIdleTimeoutSeconds(0);
+        sdkManager = new HkSdkManager();
+        ReflectionTestUtils.setField(sdkManager, "property", property);
+        ReflectionTestUtils.setField(sdkManager, "hCNetSDK", fake.sdk);
+        sessionManager = new HkSessionManager();
+        ReflectionTestUtils.setField(sessionManager, "property", property);
+        ReflectionTestUtils.setField(sessionManager, "sdkManager", sdkManager);
+    }
+
+    @AfterEach
+    void tearDown() {
+        sessionManager.destroy();
+        sdkManager.destroy();
+    }
+
+    /**
+     * acquire取到会话后、拿锁前被保活空闲注销并移出, 不能在移出的会话上登录
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    void acquireRetriesWhenKeepaliveEvictsSession() throws Exception {
+        assertTrue(sessionManager.acquire(IP, "admin", "password", (short) 8000) >= 0);
+        Map<String, ?> sessions = (Map<String, ?>) ReflectionTestUtils.getField(sessionManager, "sessions");
+        Object session = sessions.get(IP);
+        Thread.sleep(5);
+
+        CompletableFuture<Integer> acquired;
+        synchronized (session) {
+            AtomicReference<Thread> acquirer = new AtomicReference<>();
+            acquired = CompletableFuture.supplyAsync(() -> {
+                acquirer.set(Thread.currentThread());
+                return sessionManager.acquire(IP, "admin", "password", (short) 8000);
+            });
+            // 等acquire阻塞在旧会话的锁上
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((acquirer.get() == null || acquirer.get().getState() != Thread.State.BLOCKED)
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(Thread.State.BLOCKED, acquirer.get().getState());
+            ReflectionTestUtils.invokeMethod(sessionManager, "keepalive");
+            assertTrue(sessions.isEmpty());
+        }
+
+        assertTrue(acquired.get(5, TimeUnit.SECONDS) >= 0);
+        assertEquals(1, sessions.size());
+        assertEquals(2, fake.logins.get());
+        // 第一次登录已注销, 只剩一个会话持有SDK
+        assertEquals(1, sdkManager.getRefCount());
+        assertEquals(1, sessionManager.list().get(0).getLogins());
+        assertTrue(sessionManager.list().get(0).getUserId() >= 0);
+    }
+}
@@ -0,0 +1,128 @@
+package com.ilubov.hikvision.service;
+
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.vo.HkCameraParam;
+import com.ilubov.hikvision.vo.HkCaptureResult;
+import com.ilubov.hikvision.vo.HkSnapshotStats;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class HkSnapshotSchedulerTest {
+
+    private HkCameraProperty property;
+
+    private HkCameraService cameraService;
+
+    private HkEventBus<HkCaptureResult> eventBus;
+
+    private HkSnapshotScheduler scheduler;
+
+    private final List<Long> captureTimes = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        property = new HkCameraProperty();
+        property.getSnapshot().setEnabled(true);
+        cameraService = mock(HkCameraService.class);
+        when(cameraService.capture(any())).thenAnswer(invocation -> {
+            HkCameraParam camera = invocation.getArgument(0);
+            captureTimes.add(System.nanoTime());
+            HkCaptureResult result = new HkCaptureResult();
+            result.setDeviceIp(camera.getDeviceIp());
+            result.setSuccess(true);
+            return CompletableFuture.completedFuture(result);
+        });
+        eventBus = new HkEventBus<>("snapshot", property.getSnapshot().getStream(), Thread.NORM_PRIORITY);
+        eventBus.init();
+        scheduler = new HkSnapshotScheduler();
+        ReflectionTestUtils.setField(scheduler, "property", property);
+        ReflectionTestUtils.setField(scheduler, "cameraService", cameraService);
+        ReflectionTestUtils.setField(scheduler, "snapshotEventBus", eventBus);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        scheduler.destroy();
+        eventBus.destroy();
+    }
+
+    /**
+     * 20台摄像头间隔都是1秒, 限流每秒10次: 拍照被匀速错开, 间隔不小于限流间隔
+     */
+    @Test
+    void capturesAreSpreadAndRateLimited() throws Exception {
+        property.getSnapshot().setMaxPerSecond(10);
+        property.setCamera(this.cameras(20, 1));
+        List<HkCaptureResult> published = new CopyOnWriteArrayList<>();
+        eventBus.subscribe(published::add);
+        scheduler.init();
+
+        Thread.sleep(2500);
+        scheduler.destroy();
+        List<Long> times = new ArrayList<>(captureTimes);
+        Collections.sort(times);
+        // 2.5秒内最多26次
+        assertTrue(times.size() >= 20 && times.size() <= 26, "captures: " + times.size());
+        for (int i = 1; i < times.size(); i++) {
+            long gapMs = (times.get(i) - times.get(i - 1)) / 1_000_000;
+            assertTrue(gapMs >= 80, "gap: " + gapMs + "ms");
+        }
+        HkSnapshotStats stats = scheduler.stats();
+        assertEquals(20, stats.getCameras());
+        assertTrue(stats.getThrottled() > 0);
+        assertEquals(times.size(), stats.getCaptures());
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (published.size() < times.size() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(times.size(), published.size());
+    }
+
+    @Test
+    void perCameraIntervalAndSkipWhileRunning() throws Exception {
+        property.getSnapshot().setMaxPerSecond(100);
+        List<HkCameraParam> cameras = this.cameras(3, 1);
+        // 不定时拍照
+        cameras.get(1).setSnapshotIntervalSeconds(0);
+        // 一直拍不完
+        cameras.get(2).setDeviceIp("192.168.1.250");
+        property.setCamera(cameras);
+        CompletableFuture<HkCaptureResult> stuck = new CompletableFuture<>();
+        when(cameraService.capture(cameras.get(2))).thenReturn(stuck);
+        scheduler.init();
+
+        Thread.sleep(2200);
+        scheduler.destroy();
+        HkSnapshotStats stats = scheduler.stats();
+        assertEquals(2, stats.getCameras());
+        assertTrue(stats.getSkipped() >= 1, "skipped: " + stats.getSkipped());
+        // 第一台每秒一次, 卡住的只拍了一次
+        assertTrue(stats.getCaptures() >= 2 && stats.getCaptures() <= 3, "captures: " + stats.getCaptures());
+    }
+
+    private List<HkCameraParam> cameras(int count, int intervalSeconds) {
+        List<HkCameraParam> cameras = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            HkCameraParam camera = new HkCameraParam();
+            camera.setDeviceIp("192.168.1." + (100 + i));
+            camera.setSnapshotIntervalSeconds(intervalSeconds);
+            cameras.add(camera);
+        }
+        return cameras;
+    }
+}
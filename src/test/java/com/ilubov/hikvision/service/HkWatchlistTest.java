@@ -0,0 +1,186 @@
+package com.ilubov.hikvision.service;
+
+import com.ilubov.hikvision.config.HkCameraProperty;
+import com.ilubov.hikvision.vo.HkEventStreamParam;
+import com.ilubov.hikvision.vo.HkPlateEvent;
+import com.ilubov.hikvision.vo.HkWatchlistAlert;
+import com.ilubov.hikvision.vo.HkWatchlistStats;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HkWatchlistTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void exactPrefixAndWildcardRules() {
+        HkWatchlist watchlist = this.watchlist(new HkCameraProperty());
+        // 重复规则保留第一条
+        assertEquals(4, watchlist.apply(Arrays.asList(
+                "# 布控名单",
+                "粤B12345,被盗",
+                "粤B12345,重复",
+                "粤B1*,重点",
+                "粤B*",
+                "",
+                "京?888*,靓号")));
+
+        assertEquals(HkWatchlist.Type.EXACT, watchlist.match("粤B12345").getType());
+        assertEquals("被盗", watchlist.match("粤B12345").getTag());
+        // 最长前缀优先
+        assertEquals("粤B1", watchlist.match("粤B19999").getPattern());
+        assertEquals("粤B", watchlist.match("粤B99999").getPattern());
+        assertEquals(HkWatchlist.Type.WILDCARD, watchlist.match("京A88812").getType());
+        assertNull(watchlist.match("粤A12345"));
+        assertNull(watchlist.match("京AB8881"));
+        // 和前缀相同的车牌也命中前缀规则
+        assertEquals("粤B", watchlist.match("粤B").getPattern());
+        assertNull(watchlist.match("粤"));
+
+        HkWatchlistStats stats = watchlist.stats();
+        assertEquals(1, stats.getExactRules());
+        assertEquals(2, stats.getPrefixRules());
+        assertEquals(1, stats.getWildcardRules());
+    }
+
+    /**
+     * 规则和车牌都按 Locale.ROOT 转成大写后比较, 小写的车牌也命中
+     */
+    @Test
+    void matchIgnoresCase() {
+        HkWatchlist watchlist = this.watchlist(new HkCameraProperty());
+        assertEquals(3, watchlist.apply(Arrays.asList("粤b12345", "粤B1*", "京?888*")));
+        assertEquals(HkWatchlist.Type.EXACT, watchlist.match("粤b12345").getType());
+        assertEquals(HkWatchlist.Type.EXACT, watchlist.match("粤B12345").getType());
+        assertEquals("粤B1", watchlist.match("粤b19999").getPattern());
+        assertEquals(HkWatchlist.Type.WILDCARD, watchlist.match("京a88812").getType());
+        assertNull(watchlist.match("粤a12345"));
+    }
+
+    @Test
+    void reloadsWhenFileChanges() throws Exception {
+        Path file = tempDir.resolve("watchlist.txt");
+        HkCameraProperty property = new HkCameraProperty();
+        property.getWatchlist().setPath(file.toString());
+        HkWatchlist watchlist = this.watchlist(property);
+        assertEquals(0, watchlist.reload());
+        assertNull(watchlist.match("粤B12345"));
+
+        Files.write(file, "粤B12345,被盗\n".getBytes(StandardCharsets.UTF_8));
+        watchlist.checkReload();
+        assertNotNull(watchlist.match("粤B12345"));
+
+        Files.write(file, "粤A*\n京A*\n".getBytes(StandardCharsets.UTF_8));
+        watchlist.checkReload();
+        assertNull(watchlist.match("粤B12345"));
+        assertNotNull(watchlist.match("京A12345"));
+        // 文件没变化不重新加载
+        long reloads = watchlist.stats().getReloads();
+        watchlist.checkReload();
+        assertEquals(reloads, watchlist.stats().getReloads());
+    }
+
+    @Test
+    void checkPublishesAlert() throws Exception {
+        HkCameraProperty property = new HkCameraProperty();
+        HkEventBus<HkWatchlistAlert> alertBus = new HkEventBus<>("watchlist", new HkEventStreamParam(), Thread.MAX_PRIORITY);
+        alertBus.init();
+        List<HkWatchlistAlert> alerts = new ArrayList<>();
+        alertBus.subscribe(alert -> {
+            synchronized (alerts) {
+                alerts.add(alert);
+                alerts.notifyAll();
+            }
+        });
+        HkWatchlist watchlist = new HkWatchlist();
+        ReflectionTestUtils.setField(watchlist, "property", property);
+        ReflectionTestUtils.setField(watchlist, "watchlistAlertBus", alertBus);
+        watchlist.apply(Arrays.asList("粤B12345,被盗"));
+
+        assertNull(watchlist.check(plateEvent("粤B99999")));
+        HkWatchlistAlert alert = watchlist.check(plateEvent("粤B12345"));
+        assertNotNull(alert);
+        synchronized (alerts) {
+            if (alerts.isEmpty()) {
+                alerts.wait(5000);
+            }
+        }
+        alertBus.destroy();
+        assertEquals(1, alerts.size());
+        assertEquals("被盗", alerts.get(0).getTag());
+        assertEquals("lane-1", alerts.get(0).getDeviceId());
+        assertEquals("EXACT", alerts.get(0).getRuleType());
+    }
+
+    /**
+     * 100万条精确规则加上一些前缀和通配符规则, 单次匹配远小于1微秒
+     */
+    @Test
+    void lookupLatencyWithMillionRules() {
+        List<String> lines = new ArrayList<>(1_000_100);
+        for (int i = 0; i < 1_000_000; i++) {
+            lines.add("粤B" + (1_000_000 + i));
+        }
+        for (int i = 0; i < 100; i++) {
+            lines.add("京" + (char) ('A' + i % 26) + (i / 26) + "*");
+        }
+        for (int i = 0; i < 5; i++) {
+            lines.add("沪?" + i + "*8");
+        }
+        HkWatchlist watchlist = this.watchlist(new HkCameraProperty());
+        watchlist.apply(lines);
+
+        String[] plates = new String[4096];
+        for (int i = 0; i < plates.length; i++) {
+            // 一半命中, 一半不在名单里
+            plates[i] = i % 2 == 0 ? "粤B" + (1_000_000 + i * 211) : "粤A" + (1_000_000 + i * 211);
+        }
+        int hits = 0;
+        for (int round = 0; round < 3; round++) {
+            hits = 0;
+            for (String plate : plates) {
+                if (watchlist.match(plate) != null) {
+                    hits++;
+                }
+            }
+        }
+        assertEquals(plates.length / 2, hits);
+
+        int lookups = 2_000_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            watchlist.match(plates[i & (plates.length - 1)]);
+        }
+        long avgNanos = (System.nanoTime() - start) / lookups;
+        assertTrue(avgNanos < TimeUnit.MICROSECONDS.toNanos(1), "avg: " + avgNanos + "ns");
+    }
+
+    private HkWatchlist watchlist(HkCameraProperty property) {
+        HkWatchlist watchlist = new HkWatchlist();
+        ReflectionTestUtils.setField(watchlist, "property", property);
+        return watchlist;
+    }
+
+    private static HkPlateEvent plateEvent(String plateNumber) {
+        HkPlateEvent event = new HkPlateEvent();
+        event.setPlateNumber(plateNumber);
+        event.setDeviceId("lane-1");
+        event.setTime(System.currentTimeMillis());
+        return event;
+    }
+}
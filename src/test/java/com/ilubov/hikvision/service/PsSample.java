@@ -0,0 +1,167 @@
+package com.ilubov.hikvision.service;
+
+import com.ilubov.hikvision.util.PsDemuxer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 按海康实时取流的格式生成PS样本: 关键帧前有系统头和节目流映射, 一帧拆成多个PES, 每个PES一个PS包,
+ * 只有第一个PES带PTS, 中间夹着音频包
+ * <p>
+ * 合成数据, 不是设备录制的码流, 只能说明解复用和这里的格式一致
+ */
+class PsSample {
+
+    final int codec;
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    /**
+     * 关键帧所在PS包的偏移
+     */
+    final List<Long> keyframeOffsets = new ArrayList<>();
+
+    /**
+     * 关键帧的Annex B数据
+     */
+    final List<byte[]> keyframes = new ArrayList<>();
+
+    int frames;
+
+    private long pts = 90000;
+
+    PsSample(int codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * 生成gops组, 每组一个关键帧加 gopFrames - 1 个P帧
+     */
+    PsSample generate(int gops, int gopFrames, int keyframeBytes) {
+        for (int g = 0; g < gops; g++) {
+            for (int f = 0; f < gopFrames; f++) {
+                this.frame(f == 0, f == 0 ? keyframeBytes : 3000 + f * 100);
+            }
+        }
+        return this;
+    }
+
+    void frame(boolean key, int size) {
+        ByteArrayOutputStream au = new ByteArrayOutputStream();
+        if (key) {
+            if (codec == PsDemuxer.CODEC_H264) {
+                nal(au, 0x67, 20);
+                nal(au, 0x68, 4);
+                nal(au, 0x65, size);
+            } else {
+                nal(au, 0x40, 24);
+                nal(au, 0x42, 40);
+                nal(au, 0x44, 8);
+                nal(au, 0x26, size);
+            }
+        } else {
+            // SEI 在图像条带之前
+            nal(au, codec == PsDemuxer.CODEC_H264 ? 0x06 : 0x4E, 10);
+            nal(au, codec == PsDemuxer.CODEC_H264 ? 0x41 : 0x02, size);
+        }
+        byte[] data = au.toByteArray();
+        if (key) {
+            keyframeOffsets.add((long) out.size());
+            keyframes.add(data);
+        }
+        frames++;
+        int chunk = 8000;
+        for (int p = 0; p < data.length; p += chunk) {
+            this.packHeader();
+            if (key && p == 0) {
+                this.systemHeader();
+                this.streamMap();
+            }
+            this.pes(0xE0, Arrays.copyOfRange(data, p, Math.min(data.length, p + chunk)), p == 0 ? pts : -1);
+        }
+        this.packHeader();
+        this.pes(0xC0, new byte[160], pts);
+        pts += 3600;
+    }
+
+    /**
+     * 写成样本文件
+     */
+    Path save(Path dir, String name) throws IOException {
+        Path file = dir.resolve(name);
+        Files.write(file, out.toByteArray());
+        return file;
+    }
+
+    /**
+     * 按随机长度切开, 模拟回调的分包
+     */
+    static List<byte[]> chunks(byte[] data, long seed) {
+        Random random = new Random(seed);
+        List<byte[]> chunks = new ArrayList<>();
+        for (int p = 0; p < data.length; ) {
+            int n = Math.min(data.length - p, 1 + random.nextInt(5000));
+            chunks.add(Arrays.copyOfRange(data, p, p + n));
+            p += n;
+        }
+        return chunks;
+    }
+
+    private static void nal(ByteArrayOutputStream au, int header, int size) {
+        au.write(0);
+        au.write(0);
+        au.write(0);
+        au.write(1);
+        au.write(header);
+        if (header != 0x67 && header != 0x68 && header != 0x65 && header != 0x41 && header != 0x06) {
+            // H.265 NAL头两个字节
+            au.write(1);
+        }
+        // 内容不含0, 不会出现起始码
+        for (int i = 0; i < size; i++) {
+            au.write(1 + (i + header) % 250);
+        }
+    }
+
+    private void packHeader() {
+        this.write(0, 0, 1, 0xBA, 0x44, 0, 4, 0, 4, 1, 0x01, 0x89, 0xC3, 0xF8);
+    }
+
+    private void systemHeader() {
+        this.write(0, 0, 1, 0xBB, 0, 12, 0x80, 0xC4, 0xE1, 0x04, 0xE1, 0x7F, 0xE0, 0xE0, 0x80, 0xC0, 0xC0, 0x08);
+    }
+
+    private void streamMap() {
+        this.write(0, 0, 1, 0xBC, 0, 18, 0xE0, 0xFF, 0, 0, 0, 8,
+                codec, 0xE0, 0, 0,
+                0x90, 0xC0, 0, 0,
+                0x12, 0x34, 0x56, 0x78);
+    }
+
+    private void pes(int streamId, byte[] payload, long pts) {
+        int header = pts >= 0 ? 5 : 0;
+        int length = 3 + header + payload.length;
+        this.write(0, 0, 1, streamId, length >> 8, length & 0xFF, 0x80, pts >= 0 ? 0x80 : 0, header);
+        if (pts >= 0) {
+            this.write(0x21 | (int) ((pts >> 29) & 0x0E),
+                    (int) (pts >> 22) & 0xFF,
+                    (int) ((pts >> 14) & 0xFE) | 1,
+                    (int) (pts >> 7) & 0xFF,
+                    (int) ((pts << 1) & 0xFE) | 1);
+        }
+        out.write(payload, 0, payload.length);
+    }
+
+    private void write(int... bytes) {
+        for (int b : bytes) {
+            out.write(b);
+        }
+    }
+}